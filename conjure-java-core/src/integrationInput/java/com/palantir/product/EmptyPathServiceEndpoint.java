@@ -1,5 +1,6 @@
 package com.palantir.product;
 
+import com.google.common.reflect.TypeToken;
 import com.palantir.conjure.java.undertow.lib.Endpoint;
 import com.palantir.conjure.java.undertow.lib.HandlerContext;
 import com.palantir.conjure.java.undertow.lib.Routable;
@@ -36,6 +37,9 @@ public final class EmptyPathServiceEndpoint implements Endpoint {
                 HandlerContext context, UndertowEmptyPathService delegate) {
             this.serializers = context.serializerRegistry();
             this.delegate = delegate;
+            if (context.serializerWarmUpEnabled()) {
+                context.warmUpSerializers("EmptyPathService", new TypeToken<Boolean>() {});
+            }
         }
 
         @Override
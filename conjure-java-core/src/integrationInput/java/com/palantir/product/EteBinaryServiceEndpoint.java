@@ -4,11 +4,13 @@ import com.google.common.reflect.TypeToken;
 import com.palantir.conjure.java.undertow.lib.BinaryResponseBody;
 import com.palantir.conjure.java.undertow.lib.Endpoint;
 import com.palantir.conjure.java.undertow.lib.HandlerContext;
+import com.palantir.conjure.java.undertow.lib.RequestValidator;
 import com.palantir.conjure.java.undertow.lib.Routable;
 import com.palantir.conjure.java.undertow.lib.RoutingRegistry;
 import com.palantir.conjure.java.undertow.lib.SerializerRegistry;
 import com.palantir.conjure.java.undertow.lib.internal.Auth;
 import com.palantir.conjure.java.undertow.lib.internal.BinarySerializers;
+import com.palantir.conjure.java.undertow.lib.internal.Parameters;
 import com.palantir.conjure.java.undertow.lib.internal.StringDeserializers;
 import com.palantir.tokens.auth.AuthHeader;
 import io.undertow.server.HttpHandler;
@@ -16,8 +18,6 @@ import io.undertow.server.HttpServerExchange;
 import io.undertow.util.StatusCodes;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Deque;
-import java.util.Map;
 import java.util.Optional;
 import javax.annotation.Generated;
 
@@ -58,7 +58,7 @@ public final class EteBinaryServiceEndpoint implements Endpoint {
                     .get("/binary/failure", new GetBinaryFailureHandler());
         }
 
-        private class PostBinaryHandler implements HttpHandler {
+        private class PostBinaryHandler implements HttpHandler, RequestValidator {
             private final TypeToken<InputStream> bodyType = new TypeToken<InputStream>() {};
 
             @Override
@@ -68,9 +68,14 @@ public final class EteBinaryServiceEndpoint implements Endpoint {
                 BinaryResponseBody result = delegate.postBinary(authHeader, body);
                 BinarySerializers.serialize(result, exchange);
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
 
-        private class GetOptionalBinaryPresentHandler implements HttpHandler {
+        private class GetOptionalBinaryPresentHandler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
@@ -81,9 +86,14 @@ public final class EteBinaryServiceEndpoint implements Endpoint {
                     exchange.setStatusCode(StatusCodes.NO_CONTENT);
                 }
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
 
-        private class GetOptionalBinaryEmptyHandler implements HttpHandler {
+        private class GetOptionalBinaryEmptyHandler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
@@ -94,17 +104,28 @@ public final class EteBinaryServiceEndpoint implements Endpoint {
                     exchange.setStatusCode(StatusCodes.NO_CONTENT);
                 }
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
 
-        private class GetBinaryFailureHandler implements HttpHandler {
+        private class GetBinaryFailureHandler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
-                Map<String, Deque<String>> queryParams = exchange.getQueryParameters();
-                int numBytes = StringDeserializers.deserializeInteger(queryParams.get("numBytes"));
+                int numBytes =
+                        StringDeserializers.deserializeInteger(
+                                Parameters.query(exchange, "numBytes"));
                 BinaryResponseBody result = delegate.getBinaryFailure(authHeader, numBytes);
                 BinarySerializers.serialize(result, exchange);
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
     }
 }
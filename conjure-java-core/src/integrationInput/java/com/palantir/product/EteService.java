@@ -6,6 +6,7 @@ import com.palantir.tokens.auth.AuthHeader;
 import com.palantir.tokens.auth.BearerToken;
 import java.time.OffsetDateTime;
 import java.util.Optional;
+import java.util.UUID;
 import javax.annotation.Generated;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.Consumes;
@@ -75,6 +76,12 @@ public interface EteService {
             @HeaderParam("Authorization") @NotNull AuthHeader authHeader,
             @PathParam("param") String param);
 
+    @GET
+    @Path("base/uuid/{param}")
+    UUID uuidPath(
+            @HeaderParam("Authorization") @NotNull AuthHeader authHeader,
+            @PathParam("param") UUID param);
+
     @POST
     @Path("base/notNullBody")
     StringAliasExample notNullBody(
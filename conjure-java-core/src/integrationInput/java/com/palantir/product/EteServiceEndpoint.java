@@ -5,11 +5,13 @@ import com.palantir.conjure.java.lib.SafeLong;
 import com.palantir.conjure.java.undertow.lib.BinaryResponseBody;
 import com.palantir.conjure.java.undertow.lib.Endpoint;
 import com.palantir.conjure.java.undertow.lib.HandlerContext;
+import com.palantir.conjure.java.undertow.lib.RequestValidator;
 import com.palantir.conjure.java.undertow.lib.Routable;
 import com.palantir.conjure.java.undertow.lib.RoutingRegistry;
 import com.palantir.conjure.java.undertow.lib.SerializerRegistry;
 import com.palantir.conjure.java.undertow.lib.internal.Auth;
 import com.palantir.conjure.java.undertow.lib.internal.BinarySerializers;
+import com.palantir.conjure.java.undertow.lib.internal.Parameters;
 import com.palantir.conjure.java.undertow.lib.internal.StringDeserializers;
 import com.palantir.ri.ResourceIdentifier;
 import com.palantir.tokens.auth.AuthHeader;
@@ -20,9 +22,9 @@ import io.undertow.util.PathTemplateMatch;
 import io.undertow.util.StatusCodes;
 import java.io.IOException;
 import java.time.OffsetDateTime;
-import java.util.Deque;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 import javax.annotation.Generated;
 
 @Generated("com.palantir.conjure.java.services.UndertowServiceHandlerGenerator")
@@ -50,6 +52,23 @@ public final class EteServiceEndpoint implements Endpoint {
         private EteServiceRoutable(HandlerContext context, UndertowEteService delegate) {
             this.serializers = context.serializerRegistry();
             this.delegate = delegate;
+            if (context.serializerWarmUpEnabled()) {
+                context.warmUpSerializers(
+                        "EteService",
+                        new TypeToken<String>() {},
+                        new TypeToken<Integer>() {},
+                        new TypeToken<Double>() {},
+                        new TypeToken<Boolean>() {},
+                        new TypeToken<SafeLong>() {},
+                        new TypeToken<ResourceIdentifier>() {},
+                        new TypeToken<BearerToken>() {},
+                        new TypeToken<Optional<String>>() {},
+                        new TypeToken<OffsetDateTime>() {},
+                        new TypeToken<UUID>() {},
+                        new TypeToken<StringAliasExample>() {},
+                        new TypeToken<NestedStringAliasExample>() {},
+                        new TypeToken<Optional<StringAliasExample>>() {});
+            }
         }
 
         @Override
@@ -67,6 +86,7 @@ public final class EteServiceEndpoint implements Endpoint {
                     .get("/base/datetime", new DatetimeHandler())
                     .get("/base/binary", new BinaryHandler())
                     .get("/base/path/{param}", new PathHandler())
+                    .get("/base/uuid/{param}", new UuidPathHandler())
                     .post("/base/notNullBody", new NotNullBodyHandler())
                     .get("/base/aliasOne", new AliasOneHandler())
                     .get("/base/optionalAliasOne", new OptionalAliasOneHandler())
@@ -77,70 +97,105 @@ public final class EteServiceEndpoint implements Endpoint {
                     .post("/base/no-return", new NoReturnHandler());
         }
 
-        private class StringHandler implements HttpHandler {
+        private class StringHandler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
                 String result = delegate.string(authHeader);
                 serializers.serialize(result, exchange);
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
 
-        private class IntegerHandler implements HttpHandler {
+        private class IntegerHandler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
                 int result = delegate.integer(authHeader);
                 serializers.serialize(result, exchange);
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
 
-        private class Double_Handler implements HttpHandler {
+        private class Double_Handler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
                 double result = delegate.double_(authHeader);
                 serializers.serialize(result, exchange);
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
 
-        private class Boolean_Handler implements HttpHandler {
+        private class Boolean_Handler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
                 boolean result = delegate.boolean_(authHeader);
                 serializers.serialize(result, exchange);
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
 
-        private class SafelongHandler implements HttpHandler {
+        private class SafelongHandler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
                 SafeLong result = delegate.safelong(authHeader);
                 serializers.serialize(result, exchange);
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
 
-        private class RidHandler implements HttpHandler {
+        private class RidHandler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
                 ResourceIdentifier result = delegate.rid(authHeader);
                 serializers.serialize(result, exchange);
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
 
-        private class BearertokenHandler implements HttpHandler {
+        private class BearertokenHandler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
                 BearerToken result = delegate.bearertoken(authHeader);
                 serializers.serialize(result, exchange);
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
 
-        private class OptionalStringHandler implements HttpHandler {
+        private class OptionalStringHandler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
@@ -151,9 +206,14 @@ public final class EteServiceEndpoint implements Endpoint {
                     exchange.setStatusCode(StatusCodes.NO_CONTENT);
                 }
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
 
-        private class OptionalEmptyHandler implements HttpHandler {
+        private class OptionalEmptyHandler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
@@ -164,27 +224,42 @@ public final class EteServiceEndpoint implements Endpoint {
                     exchange.setStatusCode(StatusCodes.NO_CONTENT);
                 }
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
 
-        private class DatetimeHandler implements HttpHandler {
+        private class DatetimeHandler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
                 OffsetDateTime result = delegate.datetime(authHeader);
                 serializers.serialize(result, exchange);
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
 
-        private class BinaryHandler implements HttpHandler {
+        private class BinaryHandler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
                 BinaryResponseBody result = delegate.binary(authHeader);
                 BinarySerializers.serialize(result, exchange);
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
 
-        private class PathHandler implements HttpHandler {
+        private class PathHandler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
@@ -194,9 +269,34 @@ public final class EteServiceEndpoint implements Endpoint {
                 String result = delegate.path(authHeader, param);
                 serializers.serialize(result, exchange);
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
+        }
+
+        private class UuidPathHandler implements HttpHandler, RequestValidator {
+            @Override
+            public void handleRequest(HttpServerExchange exchange) throws IOException {
+                AuthHeader authHeader = Auth.header(exchange);
+                Map<String, String> pathParams =
+                        exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY).getParameters();
+                UUID param = StringDeserializers.deserializeUuid(pathParams.get("param"));
+                UUID result = delegate.uuidPath(authHeader, param);
+                serializers.serialize(result, exchange);
+            }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+                Map<String, String> pathParams =
+                        exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY).getParameters();
+                StringDeserializers.deserializeUuid(pathParams.get("param"));
+            }
         }
 
-        private class NotNullBodyHandler implements HttpHandler {
+        private class NotNullBodyHandler implements HttpHandler, RequestValidator {
             private final TypeToken<StringAliasExample> notNullBodyType =
                     new TypeToken<StringAliasExample>() {};
 
@@ -207,29 +307,39 @@ public final class EteServiceEndpoint implements Endpoint {
                 StringAliasExample result = delegate.notNullBody(authHeader, notNullBody);
                 serializers.serialize(result, exchange);
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+                serializers.validateContentType(exchange);
+            }
         }
 
-        private class AliasOneHandler implements HttpHandler {
+        private class AliasOneHandler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
-                Map<String, Deque<String>> queryParams = exchange.getQueryParameters();
                 String queryParamNameRaw =
-                        StringDeserializers.deserializeString(queryParams.get("queryParamName"));
+                        StringDeserializers.deserializeString(
+                                Parameters.query(exchange, "queryParamName"));
                 StringAliasExample queryParamName = StringAliasExample.of(queryParamNameRaw);
                 StringAliasExample result = delegate.aliasOne(authHeader, queryParamName);
                 serializers.serialize(result, exchange);
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
 
-        private class OptionalAliasOneHandler implements HttpHandler {
+        private class OptionalAliasOneHandler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
-                Map<String, Deque<String>> queryParams = exchange.getQueryParameters();
                 Optional<String> queryParamNameRaw =
                         StringDeserializers.deserializeOptionalString(
-                                queryParams.get("queryParamName"));
+                                Parameters.optionalQuery(exchange, "queryParamName"));
                 Optional<StringAliasExample> queryParamName =
                         Optional.ofNullable(
                                 queryParamNameRaw.isPresent()
@@ -238,23 +348,33 @@ public final class EteServiceEndpoint implements Endpoint {
                 StringAliasExample result = delegate.optionalAliasOne(authHeader, queryParamName);
                 serializers.serialize(result, exchange);
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
 
-        private class AliasTwoHandler implements HttpHandler {
+        private class AliasTwoHandler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
-                Map<String, Deque<String>> queryParams = exchange.getQueryParameters();
                 String queryParamNameRaw =
-                        StringDeserializers.deserializeString(queryParams.get("queryParamName"));
+                        StringDeserializers.deserializeString(
+                                Parameters.query(exchange, "queryParamName"));
                 NestedStringAliasExample queryParamName =
                         NestedStringAliasExample.of(StringAliasExample.of(queryParamNameRaw));
                 NestedStringAliasExample result = delegate.aliasTwo(authHeader, queryParamName);
                 serializers.serialize(result, exchange);
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
 
-        private class NotNullBodyExternalImportHandler implements HttpHandler {
+        private class NotNullBodyExternalImportHandler implements HttpHandler, RequestValidator {
             private final TypeToken<StringAliasExample> notNullBodyType =
                     new TypeToken<StringAliasExample>() {};
 
@@ -266,9 +386,15 @@ public final class EteServiceEndpoint implements Endpoint {
                         delegate.notNullBodyExternalImport(authHeader, notNullBody);
                 serializers.serialize(result, exchange);
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+                serializers.validateContentType(exchange);
+            }
         }
 
-        private class OptionalBodyExternalImportHandler implements HttpHandler {
+        private class OptionalBodyExternalImportHandler implements HttpHandler, RequestValidator {
             private final TypeToken<Optional<StringAliasExample>> bodyType =
                     new TypeToken<Optional<StringAliasExample>>() {};
 
@@ -284,15 +410,21 @@ public final class EteServiceEndpoint implements Endpoint {
                     exchange.setStatusCode(StatusCodes.NO_CONTENT);
                 }
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+                serializers.validateContentType(exchange);
+            }
         }
 
-        private class OptionalQueryExternalImportHandler implements HttpHandler {
+        private class OptionalQueryExternalImportHandler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
-                Map<String, Deque<String>> queryParams = exchange.getQueryParameters();
                 Optional<StringAliasExample> query =
-                        StringDeserializers.deserializeOptionalString(queryParams.get("query"))
+                        StringDeserializers.deserializeOptionalString(
+                                        Parameters.optionalQuery(exchange, "query"))
                                 .map(StringAliasExample::valueOf);
                 Optional<StringAliasExample> result =
                         delegate.optionalQueryExternalImport(authHeader, query);
@@ -302,15 +434,25 @@ public final class EteServiceEndpoint implements Endpoint {
                     exchange.setStatusCode(StatusCodes.NO_CONTENT);
                 }
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
 
-        private class NoReturnHandler implements HttpHandler {
+        private class NoReturnHandler implements HttpHandler, RequestValidator {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws IOException {
                 AuthHeader authHeader = Auth.header(exchange);
                 delegate.noReturn(authHeader);
                 exchange.setStatusCode(StatusCodes.NO_CONTENT);
             }
+
+            @Override
+            public void validate(HttpServerExchange exchange) {
+                Auth.checkHeader(exchange);
+            }
         }
     }
 }
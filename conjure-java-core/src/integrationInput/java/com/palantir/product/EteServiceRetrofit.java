@@ -6,6 +6,7 @@ import com.palantir.tokens.auth.AuthHeader;
 import com.palantir.tokens.auth.BearerToken;
 import java.time.OffsetDateTime;
 import java.util.Optional;
+import java.util.UUID;
 import javax.annotation.Generated;
 import okhttp3.ResponseBody;
 import retrofit2.Call;
@@ -69,6 +70,10 @@ public interface EteServiceRetrofit {
     @Headers({"hr-path-template: /base/path/{param}", "Accept: application/json"})
     Call<String> path(@Header("Authorization") AuthHeader authHeader, @Path("param") String param);
 
+    @GET("./base/uuid/{param}")
+    @Headers({"hr-path-template: /base/uuid/{param}", "Accept: application/json"})
+    Call<UUID> uuidPath(@Header("Authorization") AuthHeader authHeader, @Path("param") UUID param);
+
     @POST("./base/notNullBody")
     @Headers({"hr-path-template: /base/notNullBody", "Accept: application/json"})
     Call<StringAliasExample> notNullBody(
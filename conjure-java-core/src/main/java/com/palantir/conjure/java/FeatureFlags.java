@@ -18,6 +18,7 @@ package com.palantir.conjure.java;
 
 import com.palantir.conjure.java.services.JerseyServiceGenerator;
 import com.palantir.conjure.java.services.Retrofit2ServiceGenerator;
+import com.palantir.conjure.java.services.UndertowServiceGenerator;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.core.Response;
 
@@ -54,4 +55,12 @@ public enum FeatureFlags {
      * Undertow generated service interfaces are generated with an "Undertow" prefix.
      */
     UndertowServicePrefix,
+
+    /**
+     * Instructs the {@link UndertowServiceGenerator} to generate handlers which report the time spent reading auth,
+     * deserializing the request body, decoding parameters, invoking the delegate and serializing the response to
+     * the {@link com.palantir.conjure.java.undertow.lib.PhaseListener} of the
+     * {@link com.palantir.conjure.java.undertow.lib.HandlerContext}.
+     */
+    UndertowPhaseTimings,
 }
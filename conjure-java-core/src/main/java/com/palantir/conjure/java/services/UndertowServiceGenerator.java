@@ -19,9 +19,12 @@ package com.palantir.conjure.java.services;
 import com.google.common.collect.ImmutableList;
 import com.palantir.conjure.java.FeatureFlags;
 import com.palantir.conjure.java.types.TypeMapper;
+import com.palantir.conjure.java.undertow.lib.Snapshot;
+import com.palantir.conjure.java.undertow.lib.Subscription;
 import com.palantir.conjure.spec.ArgumentDefinition;
 import com.palantir.conjure.spec.BodyParameterType;
 import com.palantir.conjure.spec.ConjureDefinition;
+import com.palantir.conjure.spec.EndpointDefinition;
 import com.palantir.conjure.spec.HeaderParameterType;
 import com.palantir.conjure.spec.ListType;
 import com.palantir.conjure.spec.MapType;
@@ -34,6 +37,7 @@ import com.palantir.conjure.spec.SetType;
 import com.palantir.conjure.spec.Type;
 import com.palantir.conjure.spec.TypeDefinition;
 import com.palantir.conjure.visitor.TypeVisitor;
+import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.JavaFile;
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -68,6 +72,18 @@ public final class UndertowServiceGenerator implements ServiceGenerator {
         );
     }
 
+    /** Returns true if the endpoint is marked as a {@link Subscription} which streams its return type. */
+    static boolean isSubscription(EndpointDefinition endpointDefinition, TypeMapper typeMapper) {
+        return endpointDefinition.getMarkers().stream()
+                .anyMatch(marker -> typeMapper.getClassName(marker).equals(ClassName.get(Subscription.class)));
+    }
+
+    /** Returns true if the endpoint is marked as a {@link Snapshot} which serves a pre-serialized value. */
+    static boolean isSnapshot(EndpointDefinition endpointDefinition, TypeMapper typeMapper) {
+        return endpointDefinition.getMarkers().stream()
+                .anyMatch(marker -> typeMapper.getClassName(marker).equals(ClassName.get(Snapshot.class)));
+    }
+
     static List<ArgumentDefinition> sortArgumentDefinitions(List<ArgumentDefinition> in) {
         List<ArgumentDefinition> sortedArgList = new ArrayList<>(in);
         sortedArgList.sort(Comparator.comparing(o ->
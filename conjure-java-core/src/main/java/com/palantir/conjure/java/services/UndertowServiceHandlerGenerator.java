@@ -16,6 +16,8 @@
 
 package com.palantir.conjure.java.services;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.reflect.TypeToken;
 import com.palantir.conjure.java.ConjureAnnotations;
@@ -23,12 +25,21 @@ import com.palantir.conjure.java.FeatureFlags;
 import com.palantir.conjure.java.types.CodeBlocks;
 import com.palantir.conjure.java.types.TypeMapper;
 import com.palantir.conjure.java.undertow.lib.Endpoint;
+import com.palantir.conjure.java.undertow.lib.EventStream;
 import com.palantir.conjure.java.undertow.lib.HandlerContext;
+import com.palantir.conjure.java.undertow.lib.NonBlocking;
+import com.palantir.conjure.java.undertow.lib.PhaseTimer;
+import com.palantir.conjure.java.undertow.lib.RequestPhase;
+import com.palantir.conjure.java.undertow.lib.RequestValidator;
 import com.palantir.conjure.java.undertow.lib.Routable;
 import com.palantir.conjure.java.undertow.lib.RoutingRegistry;
 import com.palantir.conjure.java.undertow.lib.SerializerRegistry;
+import com.palantir.conjure.java.undertow.lib.Snapshot;
+import com.palantir.conjure.java.undertow.lib.SnapshotPublisher;
+import com.palantir.conjure.java.undertow.lib.Subscription;
 import com.palantir.conjure.java.undertow.lib.internal.Auth;
 import com.palantir.conjure.java.undertow.lib.internal.BinarySerializers;
+import com.palantir.conjure.java.undertow.lib.internal.Parameters;
 import com.palantir.conjure.java.undertow.lib.internal.StringDeserializers;
 import com.palantir.conjure.spec.ArgumentDefinition;
 import com.palantir.conjure.spec.AuthType;
@@ -46,6 +57,7 @@ import com.palantir.conjure.visitor.ParameterTypeVisitor;
 import com.palantir.conjure.visitor.TypeVisitor;
 import com.palantir.tokens.auth.AuthHeader;
 import com.palantir.tokens.auth.BearerToken;
+import com.squareup.javapoet.AnnotationSpec;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.FieldSpec;
@@ -60,11 +72,12 @@ import io.undertow.util.StatusCodes;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Deque;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -77,11 +90,17 @@ final class UndertowServiceHandlerGenerator {
     private static final String SERIALIZER_REGISTRY_VAR_NAME = "serializers";
     private static final String DELEGATE_VAR_NAME = "delegate";
     private static final String CONTEXT_VAR_NAME = "context";
+    private static final String PHASE_TIMER_VAR_NAME = "phaseTimer";
+    private static final String PHASE_TIMING_VAR_NAME = "phaseTiming";
 
     private static final String AUTH_HEADER_VAR_NAME = "authHeader";
 
     private static final String COOKIE_TOKEN_VAR_NAME = "cookieToken";
 
+    // Markers which are also applied to handler classes, other markers may not be applicable to classes
+    private static final ImmutableSet<ClassName> RUNTIME_MARKERS = ImmutableSet.of(
+            ClassName.get(NonBlocking.class), ClassName.get(Subscription.class), ClassName.get(Snapshot.class));
+
     private final Set<FeatureFlags> experimentalFeatures;
 
     UndertowServiceHandlerGenerator(Set<FeatureFlags> experimentalFeatures) {
@@ -104,14 +123,31 @@ final class UndertowServiceHandlerGenerator {
         routableBuilder.addField(serviceClass, DELEGATE_VAR_NAME, Modifier.PRIVATE, Modifier.FINAL);
         routableBuilder.addField(ClassName.get(SerializerRegistry.class), SERIALIZER_REGISTRY_VAR_NAME,
                 Modifier.PRIVATE, Modifier.FINAL);
+        if (phaseTimings()) {
+            routableBuilder.addField(HandlerContext.class, CONTEXT_VAR_NAME, Modifier.PRIVATE, Modifier.FINAL);
+        }
         // addConstructor
-        routableBuilder.addMethod(MethodSpec.constructorBuilder()
+        MethodSpec.Builder routableConstructor = MethodSpec.constructorBuilder()
                 .addModifiers(Modifier.PRIVATE)
                 .addParameter(HandlerContext.class, CONTEXT_VAR_NAME)
                 .addParameter(serviceClass, DELEGATE_VAR_NAME)
                 .addStatement("this.$1N = $2N.serializerRegistry()", SERIALIZER_REGISTRY_VAR_NAME, CONTEXT_VAR_NAME)
-                .addStatement("this.$1N = $1N", DELEGATE_VAR_NAME)
-                .build());
+                .addStatement("this.$1N = $1N", DELEGATE_VAR_NAME);
+        if (phaseTimings()) {
+            routableConstructor.addStatement("this.$1N = $1N", CONTEXT_VAR_NAME);
+        }
+        Set<TypeName> serializedTypes = serializedTypes(serviceDefinition, typeMapper, returnTypeMapper);
+        if (!serializedTypes.isEmpty()) {
+            // Type tokens are only built when they are used
+            routableConstructor.beginControlFlow("if ($1N.serializerWarmUpEnabled())", CONTEXT_VAR_NAME)
+                    .addStatement("$1N.warmUpSerializers($2S, $3L)", CONTEXT_VAR_NAME, serviceName,
+                            CodeBlock.join(serializedTypes.stream()
+                                    .map(type -> CodeBlock.of("new $T() {}", ParameterizedTypeName.get(
+                                            ClassName.get(TypeToken.class), type)))
+                                    .collect(Collectors.toList()), ", "))
+                    .endControlFlow();
+        }
+        routableBuilder.addMethod(routableConstructor.build());
 
         // implement Routable#register interface
         // TODO(nmiyake): check for path disjointness per https://palantir.quip.com/5VxNAIyYYvnZ. Eventually, this
@@ -119,12 +155,7 @@ final class UndertowServiceHandlerGenerator {
         // validation as the proper endpoint uniqueness guarantees will be provided by the IR itself.
         CodeBlock routingHandler = CodeBlock.builder()
                 .add(CodeBlocks.of(Iterables.transform(serviceDefinition.getEndpoints(),
-                        e -> CodeBlock.of(".$1L($2S, $3L)",
-                                e.getHttpMethod().toString().toLowerCase(),
-                                e.getHttpPath(),
-                                CodeBlock.of("new $1T()",
-                                        endpointToHandlerType(serviceDefinition.getServiceName(), e.getEndpointName()))
-                        ))))
+                        e -> registration(serviceDefinition, e, typeMapper))))
                 .build();
         routableBuilder.addMethod(MethodSpec.methodBuilder("register")
                 .addAnnotation(Override.class)
@@ -177,6 +208,40 @@ final class UndertowServiceHandlerGenerator {
                 .build();
     }
 
+    // Endpoint markers are registered with the handler since they may not be applicable to its class.
+    private CodeBlock registration(ServiceDefinition serviceDefinition, EndpointDefinition endpointDefinition,
+            TypeMapper typeMapper) {
+        String method = endpointDefinition.getHttpMethod().toString().toLowerCase();
+        CodeBlock handler = CodeBlock.of("new $1T()",
+                endpointToHandlerType(serviceDefinition.getServiceName(), endpointDefinition.getEndpointName()));
+        List<AnnotationSpec> markers = createMarkers(typeMapper, endpointDefinition.getMarkers());
+        if (markers.isEmpty()) {
+            return CodeBlock.of(".$1L($2S, $3L)", method, endpointDefinition.getHttpPath(), handler);
+        }
+        return CodeBlock.of(".$1L($2S, $3L, $4T.of($5L))", method, endpointDefinition.getHttpPath(), handler,
+                ImmutableSet.class, CodeBlock.join(markers.stream()
+                        .map(marker -> CodeBlock.of("$T.class", marker.type))
+                        .collect(Collectors.toList()), ", "));
+    }
+
+    // Request and response body types handled by the SerializerRegistry, which may be warmed up ahead of use.
+    private static Set<TypeName> serializedTypes(ServiceDefinition serviceDefinition, TypeMapper typeMapper,
+            TypeMapper returnTypeMapper) {
+        Set<TypeName> types = new LinkedHashSet<>();
+        for (EndpointDefinition endpointDefinition : serviceDefinition.getEndpoints()) {
+            Optional<ArgumentDefinition> bodyParam = getBodyParamTypeArgument(endpointDefinition.getArgs());
+            if (bodyParam.isPresent() && !bodyParam.get().getType().accept(TypeVisitor.IS_BINARY)) {
+                types.add(typeMapper.getClassName(bodyParam.get().getType()).box());
+            }
+            Optional<Type> returnType = endpointDefinition.getReturns();
+            if (returnType.isPresent() && !returnType.get().accept(TypeVisitor.IS_BINARY)
+                    && !UndertowTypeFunctions.isOptionalBinary(returnType.get())) {
+                types.add(returnTypeMapper.getClassName(returnType.get()).box());
+            }
+        }
+        return types;
+    }
+
     private TypeName endpointToHandlerType(com.palantir.conjure.spec.TypeName serviceName, EndpointName name) {
         return ClassName.get(serviceName.getPackage(),
                 serviceName.getName() + "Endpoint", serviceName.getName() + "Routable",
@@ -191,21 +256,149 @@ final class UndertowServiceHandlerGenerator {
             List<TypeDefinition> typeDefinitions,
             TypeMapper typeMapper,
             TypeMapper returnTypeMapper) {
-        return TypeSpec.classBuilder(endpointToHandlerClassName(endpointDefinition.getEndpointName()))
+        List<AnnotationSpec> markers = createMarkers(typeMapper, endpointDefinition.getMarkers());
+        boolean nonBlocking = markers.stream().anyMatch(marker -> marker.type.equals(ClassName.get(NonBlocking.class)));
+        if (nonBlocking) {
+            validateNonBlockingEndpoint(endpointDefinition, typeDefinitions);
+        }
+        if (UndertowServiceGenerator.isSubscription(endpointDefinition, typeMapper)) {
+            validateSubscriptionEndpoint(endpointDefinition, typeDefinitions);
+        }
+        if (UndertowServiceGenerator.isSnapshot(endpointDefinition, typeMapper)) {
+            validateSnapshotEndpoint(endpointDefinition, typeDefinitions);
+        }
+        CodeBlock invocation = endpointInvocation(endpointDefinition, typeDefinitions, typeMapper, returnTypeMapper);
+        TypeSpec.Builder handler = TypeSpec.classBuilder(
+                endpointToHandlerClassName(endpointDefinition.getEndpointName()))
+                // Runtime markers are exposed to the ConjureHandler on the handler class
+                .addAnnotations(markers.stream()
+                        .filter(marker -> RUNTIME_MARKERS.contains(marker.type))
+                        .collect(Collectors.toList()))
                 .addModifiers(Modifier.PRIVATE)
                 .addSuperinterface(HttpHandler.class)
                 .addFields(endpointDefinition.getArgs().stream()
                         .filter(def -> def.getParamType().accept(ParameterTypeVisitor.IS_BODY))
                         .map(def -> createTypeField(typeMapper, def))
-                        .collect(Collectors.toList()))
-                .addMethod(MethodSpec.methodBuilder("handleRequest")
-                        .addAnnotation(Override.class)
-                        .addModifiers(Modifier.PUBLIC)
-                        .addParameter(HttpServerExchange.class, EXCHANGE_VAR_NAME)
-                        .addException(IOException.class)
-                        .addCode(endpointInvocation(endpointDefinition, typeDefinitions, typeMapper, returnTypeMapper))
-                        .build())
-                .build();
+                        .collect(Collectors.toList()));
+        if (phaseTimings()) {
+            // Endpoints are named like the ConjureHandler names them, by method and path template
+            handler.addField(FieldSpec.builder(PhaseTimer.class, PHASE_TIMER_VAR_NAME, Modifier.PRIVATE, Modifier.FINAL)
+                    .initializer("$1N.phaseTimer($2S)", CONTEXT_VAR_NAME,
+                            endpointDefinition.getHttpMethod() + " " + endpointDefinition.getHttpPath())
+                    .build());
+            invocation = CodeBlock.builder()
+                    .addStatement("$1T.Timing $2N = $3N.start()",
+                            PhaseTimer.class, PHASE_TIMING_VAR_NAME, PHASE_TIMER_VAR_NAME)
+                    .beginControlFlow("try")
+                    .add(invocation)
+                    .nextControlFlow("finally")
+                    .addStatement("$1N.exit()", PHASE_TIMING_VAR_NAME)
+                    .endControlFlow()
+                    .build();
+        }
+        handler.addMethod(MethodSpec.methodBuilder("handleRequest")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(HttpServerExchange.class, EXCHANGE_VAR_NAME)
+                .addException(IOException.class)
+                .addCode(invocation)
+                .build());
+        // NonBlocking endpoints are never dispatched, validation would only duplicate work.
+        CodeBlock validation = requestValidation(endpointDefinition, typeDefinitions, typeMapper);
+        if (!nonBlocking && !validation.isEmpty()) {
+            handler.addSuperinterface(RequestValidator.class)
+                    .addMethod(MethodSpec.methodBuilder("validate")
+                            .addAnnotation(Override.class)
+                            .addModifiers(Modifier.PUBLIC)
+                            .addParameter(HttpServerExchange.class, EXCHANGE_VAR_NAME)
+                            .addCode(validation)
+                            .build());
+        }
+        return handler.build();
+    }
+
+    // Cheap checks which may run on the IO thread: presence of authentication, the request Content-Type and the
+    // syntax of path parameters whose types are quick to parse. Other values are only parsed by the handler.
+    private CodeBlock requestValidation(EndpointDefinition endpointDefinition, List<TypeDefinition> typeDefinitions,
+            TypeMapper typeMapper) {
+        CodeBlock.Builder code = CodeBlock.builder();
+        endpointDefinition.getAuth().ifPresent(authType -> {
+            if (authType.accept(AuthTypeVisitor.IS_HEADER)) {
+                code.addStatement("$1T.checkHeader($2N)", Auth.class, EXCHANGE_VAR_NAME);
+            } else if (authType.accept(AuthTypeVisitor.IS_COOKIE)) {
+                code.addStatement("$1T.checkCookie($2N, $3S)", Auth.class, EXCHANGE_VAR_NAME,
+                        authType.accept(AuthTypeVisitor.COOKIE).getCookieName());
+            }
+        });
+        getBodyParamTypeArgument(endpointDefinition.getArgs())
+                .filter(bodyParam -> !bodyParam.getType().accept(TypeVisitor.IS_BINARY))
+                .ifPresent(bodyParam -> code.addStatement("$1N.validateContentType($2N)",
+                        SERIALIZER_REGISTRY_VAR_NAME, EXCHANGE_VAR_NAME));
+        List<ArgumentDefinition> checkedPathArgs = endpointDefinition.getArgs().stream()
+                .filter(arg -> arg.getParamType().accept(ParameterTypeVisitor.IS_PATH))
+                .filter(arg -> CHECKED_PATH_PARAM_TYPES.contains(
+                        UndertowTypeFunctions.toConjureTypeWithoutAliases(arg.getType(), typeDefinitions)))
+                .collect(Collectors.toList());
+        if (!checkedPathArgs.isEmpty()) {
+            code.addStatement("$1T<$2T, $2T> $3N = $4N.getAttachment($5T.ATTACHMENT_KEY).getParameters()",
+                    Map.class, String.class, PATH_PARAMS_VAR_NAME, EXCHANGE_VAR_NAME,
+                    io.undertow.util.PathTemplateMatch.class);
+            checkedPathArgs.forEach(arg -> code.addStatement(decodePlainParameter(
+                    UndertowTypeFunctions.toConjureTypeWithoutAliases(arg.getType(), typeDefinitions),
+                    typeMapper, CodeBlock.of("$1N.get($2S)", PATH_PARAMS_VAR_NAME, arg.getArgName().get()))));
+        }
+        return code.build();
+    }
+
+    private static List<AnnotationSpec> createMarkers(TypeMapper typeMapper, List<Type> markers) {
+        Preconditions.checkArgument(markers.stream().allMatch(type -> type.accept(TypeVisitor.IS_REFERENCE)),
+                "Markers must refer to reference types.");
+        return markers.stream()
+                .map(typeMapper::getClassName)
+                .map(ClassName.class::cast)
+                .map(AnnotationSpec::builder)
+                .map(AnnotationSpec.Builder::build)
+                .collect(Collectors.toList());
+    }
+
+    // Subscription responses are held open after the handler returns, so the request must be fully consumed.
+    private void validateSubscriptionEndpoint(EndpointDefinition endpointDefinition,
+            List<TypeDefinition> typeDefinitions) {
+        Preconditions.checkArgument(!getBodyParamTypeArgument(endpointDefinition.getArgs()).isPresent(),
+                "Subscription endpoints must not declare a request body: %s", endpointDefinition.getEndpointName());
+        Preconditions.checkArgument(endpointDefinition.getReturns().isPresent(),
+                "Subscription endpoints must declare a return type: %s", endpointDefinition.getEndpointName());
+        Type dealiased = UndertowTypeFunctions.toConjureTypeWithoutAliases(
+                endpointDefinition.getReturns().get(), typeDefinitions);
+        Preconditions.checkArgument(!dealiased.accept(TypeVisitor.IS_BINARY)
+                        && !UndertowTypeFunctions.isOptionalBinary(dealiased),
+                "Subscription endpoints must not return binary: %s", endpointDefinition.getEndpointName());
+    }
+
+    // Snapshot responses are written from bytes serialized when the value is published, there is no value to write
+    // for an absent optional.
+    private void validateSnapshotEndpoint(EndpointDefinition endpointDefinition,
+            List<TypeDefinition> typeDefinitions) {
+        Preconditions.checkArgument(endpointDefinition.getReturns().isPresent(),
+                "Snapshot endpoints must declare a return type: %s", endpointDefinition.getEndpointName());
+        Type dealiased = UndertowTypeFunctions.toConjureTypeWithoutAliases(
+                endpointDefinition.getReturns().get(), typeDefinitions);
+        Preconditions.checkArgument(!dealiased.accept(TypeVisitor.IS_BINARY)
+                        && !dealiased.accept(TypeVisitor.IS_OPTIONAL),
+                "Snapshot endpoints must not return binary or optional: %s", endpointDefinition.getEndpointName());
+    }
+
+    // NonBlocking endpoints are executed on the IO thread where the request and response streams are not available.
+    private void validateNonBlockingEndpoint(EndpointDefinition endpointDefinition,
+            List<TypeDefinition> typeDefinitions) {
+        Preconditions.checkArgument(!getBodyParamTypeArgument(endpointDefinition.getArgs()).isPresent(),
+                "NonBlocking endpoints must not declare a request body: %s", endpointDefinition.getEndpointName());
+        endpointDefinition.getReturns().ifPresent(returnType -> {
+            Type dealiased = UndertowTypeFunctions.toConjureTypeWithoutAliases(returnType, typeDefinitions);
+            Preconditions.checkArgument(!dealiased.accept(TypeVisitor.IS_BINARY)
+                            && !UndertowTypeFunctions.isOptionalBinary(dealiased),
+                    "NonBlocking endpoints must not return binary: %s", endpointDefinition.getEndpointName());
+        });
     }
 
     private static FieldSpec createTypeField(TypeMapper typeMapper, ArgumentDefinition argument) {
@@ -218,18 +411,25 @@ final class UndertowServiceHandlerGenerator {
     }
 
     private static final String PATH_PARAMS_VAR_NAME = "pathParams";
-    private static final String QUERY_PARAMS_VAR_NAME = "queryParams";
-    private static final String HEADER_PARAMS_VAR_NAME = "headerParams";
+    // Path parameter types which are validated before dispatch, parsing them is cheap and does not allocate much.
+    private static final ImmutableSet<Type> CHECKED_PATH_PARAM_TYPES = ImmutableSet.of(
+            Type.primitive(PrimitiveType.UUID),
+            Type.primitive(PrimitiveType.INTEGER),
+            Type.primitive(PrimitiveType.RID));
 
     private CodeBlock endpointInvocation(EndpointDefinition endpointDefinition, List<TypeDefinition> typeDefinitions,
             TypeMapper typeMapper, TypeMapper returnTypeMapper) {
         CodeBlock.Builder code = CodeBlock.builder();
 
         // auth code
+        if (endpointDefinition.getAuth().isPresent()) {
+            enterPhase(code, RequestPhase.AUTH);
+        }
         Optional<String> authVarName = addAuthCode(code, endpointDefinition);
 
         // body parameter
         getBodyParamTypeArgument(endpointDefinition.getArgs()).ifPresent(bodyParam -> {
+            enterPhase(code, RequestPhase.DESERIALIZE);
             if (bodyParam.getType().accept(TypeVisitor.IS_BINARY)) {
                 // TODO(ckozak): Support aliased and optional binary types
                 code.addStatement("$1T $2N = $3T.deserializeInputStream($4N)",
@@ -244,6 +444,11 @@ final class UndertowServiceHandlerGenerator {
             }
         });
 
+        List<ArgumentDefinition> args = endpointDefinition.getArgs();
+        if (hasPathArgument(args) || hasHeaderArgument(args) || hasQueryArgument(args)) {
+            enterPhase(code, RequestPhase.PARAMETERS);
+        }
+
         // path parameters
         addPathParamsCode(code, endpointDefinition, typeDefinitions, typeMapper);
 
@@ -259,7 +464,41 @@ final class UndertowServiceHandlerGenerator {
                 endpointDefinition.getArgs()).stream().map(
                     arg -> arg.getArgName().get()).collect(Collectors.toList()));
 
+        enterPhase(code, RequestPhase.DELEGATE);
+        if (UndertowServiceGenerator.isSubscription(endpointDefinition, typeMapper)) {
+            // The stream is only started once the delegate returns successfully, prior failures produce
+            // a regular error response.
+            String eventSinkVarName = UndertowServiceInterfaceGenerator.EVENT_SINK_PARAM_NAME;
+            code.addStatement("$1T $2N = $3N.eventStream($4N)",
+                    ParameterizedTypeName.get(ClassName.get(EventStream.class),
+                            returnTypeMapper.getClassName(endpointDefinition.getReturns().get()).box()),
+                    eventSinkVarName,
+                    SERIALIZER_REGISTRY_VAR_NAME,
+                    EXCHANGE_VAR_NAME);
+            methodArgs.add(eventSinkVarName);
+            code.addStatement("$1N.$2L($3L)",
+                    DELEGATE_VAR_NAME,
+                    endpointDefinition.getEndpointName(),
+                    String.join(", ", methodArgs));
+            enterPhase(code, RequestPhase.SERIALIZE);
+            code.addStatement("$1N.start()", eventSinkVarName);
+            return code.build();
+        }
+
         final String resultVarName = "result";
+        if (UndertowServiceGenerator.isSnapshot(endpointDefinition, typeMapper)) {
+            code.addStatement("$1T $2N = $3N.$4L($5L)",
+                    ParameterizedTypeName.get(ClassName.get(SnapshotPublisher.class),
+                            returnTypeMapper.getClassName(endpointDefinition.getReturns().get()).box()),
+                    resultVarName,
+                    DELEGATE_VAR_NAME,
+                    endpointDefinition.getEndpointName(),
+                    String.join(", ", methodArgs));
+            enterPhase(code, RequestPhase.SERIALIZE);
+            code.addStatement("$1N.serializeSnapshot($2N, $3N)",
+                    SERIALIZER_REGISTRY_VAR_NAME, resultVarName, EXCHANGE_VAR_NAME);
+            return code.build();
+        }
         if (endpointDefinition.getReturns().isPresent()) {
             Type returnType = endpointDefinition.getReturns().get();
             code.addStatement("$1T $2N = $3N.$4L($5L)",
@@ -269,6 +508,7 @@ final class UndertowServiceHandlerGenerator {
                     endpointDefinition.getEndpointName(),
                     String.join(", ", methodArgs)
             );
+            enterPhase(code, RequestPhase.SERIALIZE);
 
             // optional<> handling
             // TODO(ckozak): Support aliased binary types
@@ -310,6 +550,17 @@ final class UndertowServiceHandlerGenerator {
         return code.build();
     }
 
+    private boolean phaseTimings() {
+        return experimentalFeatures.contains(FeatureFlags.UndertowPhaseTimings);
+    }
+
+    // Completes the previous phase of the request, if any, and starts the given phase.
+    private void enterPhase(CodeBlock.Builder code, RequestPhase phase) {
+        if (phaseTimings()) {
+            code.addStatement("$1N.enter($2T.$3L)", PHASE_TIMING_VAR_NAME, RequestPhase.class, phase.name());
+        }
+    }
+
     // Adds code for authorization. Returns an optional that contains the name of the variable that contains the
     // deserialized optional parameter.
     private Optional<String> addAuthCode(
@@ -370,9 +621,6 @@ final class UndertowServiceHandlerGenerator {
             TypeMapper typeMapper
     ) {
         if (hasHeaderArgument(endpointDefinition.getArgs())) {
-            code.addStatement("$1T $2N = $3N.getRequestHeaders()", io.undertow.util.HeaderMap.class,
-                    HEADER_PARAMS_VAR_NAME,
-                    EXCHANGE_VAR_NAME);
             code.add(generateHeaderParameterCodeBlock(endpointDefinition.getArgs().stream(), typeDefinitions,
                     typeMapper));
         }
@@ -385,10 +633,6 @@ final class UndertowServiceHandlerGenerator {
             TypeMapper typeMapper
     ) {
         if (hasQueryArgument(endpointDefinition.getArgs())) {
-            code.addStatement("$1T $2N = $3N.getQueryParameters()",
-                    ParameterizedTypeName.get(ClassName.get(Map.class), TypeName.get(String.class),
-                            ParameterizedTypeName.get(Deque.class, String.class)), QUERY_PARAMS_VAR_NAME,
-                    EXCHANGE_VAR_NAME);
             code.add(generateQueryParameterCodeBlock(endpointDefinition.getArgs().stream(), typeDefinitions,
                     typeMapper));
         }
@@ -412,7 +656,7 @@ final class UndertowServiceHandlerGenerator {
         return generateParameterCodeBlock(
                 params,
                 ParameterTypeVisitor.IS_PATH,
-                PATH_PARAMS_VAR_NAME,
+                (type, paramId) -> CodeBlock.of("$1N.get($2S)", PATH_PARAMS_VAR_NAME, paramId),
                 arg -> arg.getArgName().get(),
                 typeDefinitions,
                 typeMapper);
@@ -424,7 +668,7 @@ final class UndertowServiceHandlerGenerator {
         return generateParameterCodeBlock(
                 params,
                 ParameterTypeVisitor.IS_QUERY,
-                QUERY_PARAMS_VAR_NAME,
+                (type, paramId) -> parameterAccessor(type, "query", paramId),
                 arg -> arg.getParamType().accept(ParameterTypeVisitor.QUERY).getParamId().get(),
                 typeDefinitions,
                 typeMapper);
@@ -435,14 +679,14 @@ final class UndertowServiceHandlerGenerator {
         return generateParameterCodeBlock(
                 params,
                 ParameterTypeVisitor.IS_HEADER,
-                HEADER_PARAMS_VAR_NAME,
+                (type, paramId) -> parameterAccessor(type, "header", paramId),
                 arg -> arg.getParamType().accept(ParameterTypeVisitor.HEADER).getParamId().get(), typeDefinitions,
                 typeMapper);
     }
 
     private CodeBlock generateParameterCodeBlock(Stream<ArgumentDefinition> params,
             ParameterType.Visitor<Boolean> paramTypeVisitor,
-            String paramsVarName,
+            BiFunction<Type, String, CodeBlock> paramAccessor,
             Function<ArgumentDefinition, String> toParamId,
             List<TypeDefinition> typeDefinitions,
             TypeMapper typeMapper) {
@@ -453,14 +697,14 @@ final class UndertowServiceHandlerGenerator {
                     if (normalizedType.equals(arg.getType())) {
                         // type does not contain any aliases
                         return decodePlainParameterCodeBlock(normalizedType, typeMapper, arg.getArgName().get(),
-                                paramsVarName,
+                                paramAccessor,
                                 toParamId.apply(arg));
                     } else {
                         // type contains aliases: decode raw value and then construct real value from raw one
                         String rawVarName = arg.getArgName().get() + "Raw";
                         return CodeBlocks.of(
                                 decodePlainParameterCodeBlock(normalizedType, typeMapper, rawVarName,
-                                        paramsVarName,
+                                        paramAccessor,
                                         toParamId.apply(arg)),
                                 CodeBlocks.statement(
                                         "$1T $2N = $3L",
@@ -475,41 +719,54 @@ final class UndertowServiceHandlerGenerator {
     }
 
     private CodeBlock decodePlainParameterCodeBlock(Type type, TypeMapper typeMapper, String resultVarName,
-            String paramsVarName, String paramId) {
+            BiFunction<Type, String, CodeBlock> paramAccessor, String paramId) {
+        return CodeBlocks.statement(
+                "$1T $2N = $3L",
+                typeMapper.getClassName(type),
+                resultVarName,
+                decodePlainParameter(type, typeMapper, paramAccessor.apply(type, paramId)));
+    }
+
+    private CodeBlock decodePlainParameter(Type type, TypeMapper typeMapper, CodeBlock value) {
         if (type.accept(TypeVisitor.IS_EXTERNAL)) {
-            return CodeBlocks.statement(
-                    "$1T $2N = $3T.valueOf($4T.deserializeString($5N.get($6S)))",
-                    typeMapper.getClassName(type),
-                    resultVarName,
+            return CodeBlock.of(
+                    "$1T.valueOf($2T.deserializeString($3L))",
                     typeMapper.getClassName(type),
                     StringDeserializers.class,
-                    paramsVarName,
-                    paramId
+                    value
             );
         }
         if (type.accept(TypeVisitor.IS_OPTIONAL)
                 && type.accept(TypeVisitor.OPTIONAL).getItemType().accept(TypeVisitor.IS_EXTERNAL)) {
-            return CodeBlocks.statement(
-                    "$1T $2N = $4T.deserializeOptionalString($5N.get($6S)).map($3T::valueOf)",
-                    typeMapper.getClassName(type),
-                    resultVarName,
+            return CodeBlock.of(
+                    "$2T.deserializeOptionalString($3L).map($1T::valueOf)",
                     typeMapper.getClassName(type.accept(TypeVisitor.OPTIONAL).getItemType()),
                     StringDeserializers.class,
-                    paramsVarName,
-                    paramId
+                    value
             );
         }
-        return CodeBlocks.statement(
-                "$1T $2N = $3T.$4L($5N.get($6S))",
-                typeMapper.getClassName(type),
-                resultVarName,
+        return CodeBlock.of(
+                "$1T.$2L($3L)",
                 ClassName.get(StringDeserializers.class),
                 deserializeFunctionName(type),
-                paramsVarName,
-                paramId
+                value
         );
     }
 
+    // Reads query and header parameters individually rather than through the maps of all values, single values are
+    // passed to the String overloads of StringDeserializers which avoid iterating over the values.
+    private static CodeBlock parameterAccessor(Type type, String parameterKind, String paramId) {
+        String method;
+        if (type.accept(TypeVisitor.IS_LIST) || type.accept(TypeVisitor.IS_SET)) {
+            method = parameterKind + "Values";
+        } else if (type.accept(TypeVisitor.IS_OPTIONAL)) {
+            method = "optional" + StringUtils.capitalize(parameterKind);
+        } else {
+            method = parameterKind;
+        }
+        return CodeBlock.of("$1T.$2L($3N, $4S)", Parameters.class, method, EXCHANGE_VAR_NAME, paramId);
+    }
+
     /**
      * Returns a CodeBlock that, when run, returns a boolean indicating whether or not the optional represented by the
      * provided type is empty. inType must be a type that is either an optional or an alias that resolves to an
@@ -609,7 +866,7 @@ final class UndertowServiceHandlerGenerator {
         }
     }
 
-    private Optional<ArgumentDefinition> getBodyParamTypeArgument(List<ArgumentDefinition> args) {
+    private static Optional<ArgumentDefinition> getBodyParamTypeArgument(List<ArgumentDefinition> args) {
         List<ArgumentDefinition> bodyArgs = args.stream().filter(
                 arg -> arg.getParamType().accept(ParameterTypeVisitor.IS_BODY)).collect(Collectors.toList());
         if (bodyArgs.isEmpty()) {
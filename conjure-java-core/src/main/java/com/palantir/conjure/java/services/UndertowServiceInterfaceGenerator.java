@@ -20,6 +20,8 @@ import com.google.common.collect.ImmutableList;
 import com.palantir.conjure.java.ConjureAnnotations;
 import com.palantir.conjure.java.FeatureFlags;
 import com.palantir.conjure.java.types.TypeMapper;
+import com.palantir.conjure.java.undertow.lib.EventSink;
+import com.palantir.conjure.java.undertow.lib.SnapshotPublisher;
 import com.palantir.conjure.spec.ArgumentDefinition;
 import com.palantir.conjure.spec.AuthType;
 import com.palantir.conjure.spec.CookieAuthType;
@@ -32,6 +34,7 @@ import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeSpec;
 import java.util.ArrayList;
 import java.util.List;
@@ -42,6 +45,8 @@ import org.apache.commons.lang3.StringUtils;
 
 final class UndertowServiceInterfaceGenerator {
 
+    static final String EVENT_SINK_PARAM_NAME = "eventSink";
+
     private final Set<FeatureFlags> experimentalFeatures;
 
     UndertowServiceInterfaceGenerator(Set<FeatureFlags> experimentalFeatures) {
@@ -83,8 +88,21 @@ final class UndertowServiceInterfaceGenerator {
 
         ServiceGenerator.getJavaDoc(endpointDef).ifPresent(content -> methodBuilder.addJavadoc("$L", content));
 
-        endpointDef.getReturns().ifPresent(type -> methodBuilder.returns(
-                UndertowTypeFunctions.unbox(returnTypeMapper.getClassName(type))));
+        if (UndertowServiceGenerator.isSubscription(endpointDef, typeMapper)) {
+            // Subscriptions publish values of the return type to a sink instead of returning a single value
+            endpointDef.getReturns().ifPresent(type -> methodBuilder.addParameter(
+                    ParameterizedTypeName.get(ClassName.get(EventSink.class),
+                            returnTypeMapper.getClassName(type).box()),
+                    EVENT_SINK_PARAM_NAME));
+        } else if (UndertowServiceGenerator.isSnapshot(endpointDef, typeMapper)) {
+            // Snapshots return the publisher of the current value, which is written from its cached serialized form
+            endpointDef.getReturns().ifPresent(type -> methodBuilder.returns(
+                    ParameterizedTypeName.get(ClassName.get(SnapshotPublisher.class),
+                            returnTypeMapper.getClassName(type).box())));
+        } else {
+            endpointDef.getReturns().ifPresent(type -> methodBuilder.returns(
+                    UndertowTypeFunctions.unbox(returnTypeMapper.getClassName(type))));
+        }
 
         return methodBuilder.build();
     }
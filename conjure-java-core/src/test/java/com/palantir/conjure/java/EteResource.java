@@ -30,6 +30,7 @@ import java.time.OffsetDateTime;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.util.Optional;
+import java.util.UUID;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.core.StreamingOutput;
 
@@ -95,6 +96,11 @@ public class EteResource implements EteService {
         return param;
     }
 
+    @Override
+    public UUID uuidPath(AuthHeader authHeader, UUID param) {
+        return param;
+    }
+
     @Override
     public StringAliasExample notNullBody(AuthHeader authHeader, StringAliasExample notNullBody) {
         return notNullBody;
@@ -71,6 +71,7 @@ import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 import okhttp3.MediaType;
 import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
@@ -331,6 +332,20 @@ public final class UndertowServiceEteTest extends TestBase {
                 .hasMessageContaining("INVALID_ARGUMENT");
     }
 
+    @Test
+    public void testUuidPathParam() {
+        UUID expected = UUID.randomUUID();
+        assertThat(client.uuidPath(AuthHeader.valueOf("bearer"), expected)).isEqualTo(expected);
+    }
+
+    @Test
+    public void java_url_client_receives_bad_request_with_malformed_uuid_path_param() throws IOException {
+        URL url = new URL("http://0.0.0.0:8080/test-example/api/base/uuid/not-a-uuid");
+        HttpURLConnection httpUrlConnection = (HttpURLConnection) url.openConnection();
+        httpUrlConnection.setRequestProperty("Authorization", "Bearer authheader");
+        assertThat(httpUrlConnection.getResponseCode()).isEqualTo(400);
+    }
+
     @Test
     public void testSlashesInPathParam() {
         String expected = "foo/bar/baz/%2F";
@@ -17,6 +17,7 @@
 package com.palantir.conjure.java;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -54,6 +55,72 @@ public final class UndertowServiceGeneratorTests extends TestBase {
         testServiceGeneration("cookie-service");
     }
 
+    @Test
+    public void testServiceGeneration_markerService() throws IOException {
+        testServiceGeneration("marker-service");
+    }
+
+    @Test
+    public void testServiceGeneration_nonBlockingService() throws IOException {
+        testServiceGeneration("non-blocking-service");
+    }
+
+    @Test
+    public void testNonBlockingEndpointWithBodyIsRejected() {
+        ConjureDefinition def = Conjure.parse(
+                ImmutableList.of(new File("src/test/resources/non-blocking-body-service.yml")));
+        assertThatThrownBy(() -> new UndertowServiceGenerator(ImmutableSet.of()).emit(def, folder.getRoot()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("NonBlocking endpoints must not declare a request body: setValue");
+    }
+
+    @Test
+    public void testServiceGeneration_subscriptionService() throws IOException {
+        testServiceGeneration("subscription-service");
+    }
+
+    @Test
+    public void testSubscriptionEndpointWithBodyIsRejected() {
+        ConjureDefinition def = Conjure.parse(
+                ImmutableList.of(new File("src/test/resources/subscription-body-service.yml")));
+        assertThatThrownBy(() -> new UndertowServiceGenerator(ImmutableSet.of()).emit(def, folder.getRoot()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Subscription endpoints must not declare a request body: watchValues");
+    }
+
+    @Test
+    public void testServiceGeneration_snapshotService() throws IOException {
+        testServiceGeneration("snapshot-service");
+    }
+
+    @Test
+    public void testSnapshotEndpointReturningOptionalIsRejected() {
+        ConjureDefinition def = Conjure.parse(
+                ImmutableList.of(new File("src/test/resources/snapshot-optional-service.yml")));
+        assertThatThrownBy(() -> new UndertowServiceGenerator(ImmutableSet.of()).emit(def, folder.getRoot()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Snapshot endpoints must not return binary or optional: getConfig");
+    }
+
+    @Test
+    public void testServiceGeneration_phaseTimings() throws IOException {
+        ConjureDefinition def = Conjure.parse(
+                ImmutableList.of(new File("src/test/resources/phase-timing-service.yml")));
+        List<Path> files = new UndertowServiceGenerator(ImmutableSet.of(FeatureFlags.UndertowPhaseTimings))
+                .emit(def, folder.getRoot());
+
+        for (Path file : files) {
+            if (Boolean.valueOf(System.getProperty("recreate", "false"))) {
+                Path output = Paths.get("src/test/resources/test/api/" + file.getFileName() + ".undertow.phases");
+                Files.delete(output);
+                Files.copy(file, output);
+            }
+
+            assertThat(readFromFile(file)).isEqualTo(
+                    readFromFile(Paths.get("src/test/resources/test/api/" + file.getFileName() + ".undertow.phases")));
+        }
+    }
+
     @Test
     public void testConjureImports() throws IOException {
         ConjureDefinition conjure = Conjure.parse(
@@ -0,0 +1,142 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.google.common.collect.ImmutableMap;
+import com.palantir.conjure.java.undertow.HttpServerExchanges;
+import io.undertow.UndertowOptions;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.server.handlers.URLDecodingHandler;
+import io.undertow.util.PathTemplateMatch;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xnio.OptionMap;
+
+/**
+ * Compares the nested handler chain previously registered by {@link ConjureHandler}, URL and path parameter
+ * decoding, blocking dispatch, bearer token MDC, tracing and exception handling, with the decoding handlers
+ * wrapping the {@link EndpointHandler} which it now registers. Requests are spread round-robin across the
+ * registered endpoints, which use several distinct handler classes as generated services do. The stub exchange is
+ * not on an IO thread, so both execute the endpoint inline after the dispatch decision. URL decoding is enabled by
+ * configuring {@link UndertowOptions#DECODE_URL} as false, and the encoded request paths are reset before each
+ * request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@SuppressWarnings("DesignForExtension")
+public class EndpointHandlerBenchmark {
+
+    private static final HttpHandler[] HANDLERS = new HttpHandler[] {
+        exchange -> exchange.setStatusCode(200),
+        exchange -> exchange.setStatusCode(201),
+        exchange -> exchange.setStatusCode(202),
+        exchange -> exchange.setStatusCode(203),
+        exchange -> exchange.setStatusCode(204),
+        exchange -> exchange.setStatusCode(205),
+        exchange -> exchange.setStatusCode(206),
+        exchange -> exchange.setStatusCode(207),
+    };
+
+    private static final String PATH = "/service/endpoint/some%20dataset%2Fname";
+    private static final Map<String, String> PATH_PARAMS = ImmutableMap.of("name", "some%20dataset%2Fname");
+
+    @Param({"1", "300"})
+    public int endpoints;
+
+    private HttpHandler[] chained;
+    private HttpHandler[] fused;
+    private HttpServerExchange exchange;
+    private int index;
+
+    @Setup
+    public void setup() {
+        ErrorLogging errorLogging = ErrorLogging.builder().build();
+        chained = new HttpHandler[endpoints];
+        fused = new HttpHandler[endpoints];
+        for (int i = 0; i < endpoints; i++) {
+            String endpoint = "GET /service/endpoint" + i + "/{name}";
+            HttpHandler handler = HANDLERS[i % HANDLERS.length];
+            chained[i] = new URLDecodingHandler(
+                    new PathParamDecodingHandler(
+                            new BlockingHandler(
+                                    new BearerTokenLoggingHandler(
+                                            new TraceHandler(endpoint,
+                                                    exchange -> handleExceptions(errorLogging, handler, exchange))))),
+                    "UTF-8");
+            fused[i] = new URLDecodingHandler(
+                    new PathParamDecodingHandler(EndpointHandler.builder()
+                            .endpoint(endpoint)
+                            .delegate(handler)
+                            .errorLogging(errorLogging)
+                            .build()),
+                    "UTF-8");
+        }
+        exchange = HttpServerExchanges.createStub(OptionMap.create(UndertowOptions.DECODE_URL, false));
+    }
+
+    @Benchmark
+    public void chained() throws Exception {
+        chained[next()].handleRequest(reset(exchange));
+    }
+
+    @Benchmark
+    public void fused() throws Exception {
+        fused[next()].handleRequest(reset(exchange));
+    }
+
+    private static void handleExceptions(ErrorLogging errorLogging, HttpHandler handler, HttpServerExchange exchange) {
+        try {
+            handler.handleRequest(exchange);
+        } catch (Throwable throwable) {
+            ConjureExceptionHandler.handleException(
+                    ConjureExceptionHandler.DEFAULT_SERIALIZERS, errorLogging, exchange, throwable);
+        }
+    }
+
+    private static HttpServerExchange reset(HttpServerExchange exchange) {
+        exchange.setRequestPath(PATH);
+        exchange.setRelativePath(PATH);
+        exchange.setResolvedPath("");
+        exchange.putAttachment(PathTemplateMatch.ATTACHMENT_KEY,
+                new PathTemplateMatch("/service/endpoint/{name}", new HashMap<>(PATH_PARAMS)));
+        return exchange;
+    }
+
+    private int next() {
+        int current = index;
+        index = current + 1 == endpoints ? 0 : current + 1;
+        return current;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.reflect.TypeToken;
+import com.palantir.conjure.java.serialization.ObjectMappers;
+import com.palantir.conjure.java.undertow.lib.Serializer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the bytes allocated by JSON serialization and deserialization using Jackson's thread-local buffer
+ * recycling compared with the {@link BufferRecyclerPool} used by {@link Serializers}. The {@code threadPerTask}
+ * executor runs each operation on a new thread, as with virtual threads or other executors which do not reuse
+ * threads. Allocation is measured on the executing thread and reported as the {@code allocatedBytesPerOperation}
+ * counter, since allocations by short-lived threads are not reported by the JMH GC profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@SuppressWarnings("DesignForExtension")
+public class SerializersBenchmark {
+
+    private static final TypeToken<Map<String, Object>> TYPE = new TypeToken<Map<String, Object>>() {};
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Param({"threadLocal", "pooled"})
+    public String recycling;
+
+    @Param({"sameThread", "threadPerTask"})
+    public String executor;
+
+    private Serializer serializer;
+    private Map<String, Object> value;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws IOException {
+        serializer = recycling.equals("pooled") ? Serializers.json() : new ThreadLocalSerializer();
+        value = ImmutableMap.of(
+                "name", "benchmark",
+                "description", String.join(" ", Collections.nCopies(100, "serialization")),
+                "count", 12345,
+                "tags", Collections.nCopies(20, "tag"));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        serializer.serialize(value, output);
+        serialized = output.toByteArray();
+    }
+
+    @Benchmark
+    public void serialize(Allocations allocations) throws Exception {
+        execute(allocations, () -> serializer.serialize(value, ByteStreams.nullOutputStream()));
+    }
+
+    @Benchmark
+    public void deserialize(Allocations allocations) throws Exception {
+        execute(allocations, () -> serializer.deserialize(new ByteArrayInputStream(serialized), TYPE));
+    }
+
+    private void execute(Allocations allocations, Operation operation) throws InterruptedException {
+        Runnable task = () -> {
+            long threadId = Thread.currentThread().getId();
+            long before = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+            try {
+                operation.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            allocations.record(THREAD_MX_BEAN.getThreadAllocatedBytes(threadId) - before);
+        };
+        if (executor.equals("sameThread")) {
+            task.run();
+        } else {
+            Thread thread = new Thread(task);
+            thread.start();
+            thread.join();
+        }
+    }
+
+    private interface Operation {
+        void run() throws IOException;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Allocations {
+        // Task threads are joined before the next operation, which orders their updates
+        private long bytes;
+        private long operations;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            operations = 0;
+        }
+
+        void record(long allocated) {
+            bytes += allocated;
+            operations++;
+        }
+
+        public long allocatedBytesPerOperation() {
+            return operations == 0 ? 0 : bytes / operations;
+        }
+    }
+
+    /** The previous {@link Serializers} implementation, which relies on Jackson's thread-local recycling. */
+    private static final class ThreadLocalSerializer implements Serializer {
+        private final ObjectMapper mapper = ObjectMappers.newServerObjectMapper()
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+
+        @Override
+        public void serialize(Object object, OutputStream output) throws IOException {
+            mapper.writeValue(output, object);
+        }
+
+        @Override
+        public <T> T deserialize(InputStream input, TypeToken<T> type) throws IOException {
+            return mapper.readValue(input, mapper.constructType(type.getType()));
+        }
+
+        @Override
+        public String getContentType() {
+            return "application/json";
+        }
+
+        @Override
+        public boolean supportsContentType(String contentType) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.tracing.Tracer;
+import com.palantir.tracing.api.TraceHttpHeaders;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.HttpString;
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+/**
+ * Records completed requests into a preallocated ring buffer which is drained to an {@link AccessLogSink}
+ * in batches by a background thread. Recording never blocks and entries are dropped when the buffer is full.
+ * Requests are recorded once the exchange completes so that the final status code and response size are
+ * known, which takes one completion listener per request: 40 bytes on a 64-bit JVM with compressed oops, and
+ * another 32 bytes on the requests where Undertow grows the exchange's listener array.
+ */
+public final class AccessLog implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(AccessLog.class);
+    private static final AttachmentKey<Recorder> RECORDER = AttachmentKey.create(Recorder.class);
+    private static final HttpString TRACE_ID = HttpString.tryFromString(TraceHttpHeaders.TRACE_ID);
+
+    private final AccessLogSink sink;
+    private final long pollIntervalNanos;
+    private final int mask;
+    private final Slot[] slots;
+    // Each slot's sequence tracks which lap of the ring it may be written or read in, see
+    // http://www.1024cores.net/home/lock-free-algorithms/queues/bounded-mpmc-queue
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread drainThread;
+    private long head;
+    private volatile boolean closed;
+
+    private AccessLog(Builder builder) {
+        this.sink = Preconditions.checkNotNull(builder.sink, "Missing required AccessLogSink");
+        Preconditions.checkArgument(builder.capacity > 0 && Integer.bitCount(builder.capacity) == 1,
+                "Access log capacity must be a positive power of two", SafeArg.of("capacity", builder.capacity));
+        this.pollIntervalNanos = builder.pollInterval.toNanos();
+        this.mask = builder.capacity - 1;
+        this.slots = new Slot[builder.capacity];
+        this.sequences = new AtomicLongArray(builder.capacity);
+        for (int i = 0; i < builder.capacity; i++) {
+            slots[i] = new Slot();
+            sequences.set(i, i);
+        }
+        this.drainThread = new Thread(this::drainLoop, "conjure-access-log");
+        this.drainThread.setDaemon(true);
+        this.drainThread.start();
+    }
+
+    /** Number of entries which were dropped because the buffer was full. */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Records the exchange once it completes, including requests which are rejected before they execute. Must be
+     * called as soon as the request is received so that the duration includes time spent queued.
+     */
+    void recordOnCompletion(HttpServerExchange exchange, String endpoint) {
+        Recorder recorder = new Recorder(endpoint, System.nanoTime());
+        exchange.putAttachment(RECORDER, recorder);
+        exchange.addExchangeCompleteListener(recorder);
+    }
+
+    /**
+     * Captures the trace and user ids of the request executing on the current thread. They are thread state which
+     * is cleared before the exchange completes.
+     */
+    static void captureContext(HttpServerExchange exchange) {
+        Recorder recorder = exchange.getAttachment(RECORDER);
+        if (recorder != null) {
+            recorder.traceId = Tracer.hasTraceId() ? Tracer.getTraceId() : null;
+            recorder.userId = MDC.get(BearerTokenLoggingHandler.USER_ID_KEY);
+        }
+    }
+
+    void record(
+            String endpoint,
+            int statusCode,
+            long requestBytes,
+            long responseBytes,
+            long durationNanos,
+            @Nullable String traceId,
+            @Nullable String userId) {
+        long position;
+        while (true) {
+            position = tail.get();
+            long sequence = sequences.get(index(position));
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (sequence < position) {
+                dropped.incrementAndGet();
+                return;
+            }
+        }
+        Slot slot = slots[index(position)];
+        slot.endpoint = endpoint;
+        slot.statusCode = statusCode;
+        slot.requestBytes = requestBytes;
+        slot.responseBytes = responseBytes;
+        slot.durationNanos = durationNanos;
+        slot.traceId = traceId;
+        slot.userId = userId;
+        sequences.lazySet(index(position), position + 1);
+    }
+
+    /** Stops the drain thread after writing all recorded entries to the sink. */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(drainThread);
+        try {
+            drainThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        while (!closed) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(this, pollIntervalNanos);
+            }
+        }
+        drain();
+    }
+
+    private int drain() {
+        int drained = 0;
+        while (drained <= mask) {
+            int index = index(head);
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            Slot slot = slots[index];
+            try {
+                sink.write(slot);
+            } catch (RuntimeException e) {
+                log.warn("Failed to write access log entry", e);
+            }
+            slot.traceId = null;
+            slot.userId = null;
+            sequences.lazySet(index, head + slots.length);
+            head++;
+            drained++;
+        }
+        if (drained > 0) {
+            try {
+                sink.flush();
+            } catch (RuntimeException e) {
+                log.warn("Failed to flush access log", e);
+            }
+        }
+        return drained;
+    }
+
+    private int index(long position) {
+        return (int) position & mask;
+    }
+
+    private final class Recorder implements ExchangeCompletionListener {
+        private final String endpoint;
+        private final long startNanos;
+        // Written by the executing thread, which may not be the thread completing the exchange
+        @Nullable
+        private volatile String traceId;
+        @Nullable
+        private volatile String userId;
+
+        Recorder(String endpoint, long startNanos) {
+            this.endpoint = endpoint;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+            try {
+                record(
+                        endpoint,
+                        exchange.getStatusCode(),
+                        exchange.getRequestContentLength(),
+                        exchange.getResponseBytesSent(),
+                        System.nanoTime() - startNanos,
+                        // Requests rejected before they execute have no trace state
+                        traceId != null ? traceId : exchange.getRequestHeaders().getFirst(TRACE_ID),
+                        userId);
+            } finally {
+                nextListener.proceed();
+            }
+        }
+    }
+
+    private static final class Slot implements AccessLogEntry {
+        private String endpoint;
+        private int statusCode;
+        private long requestBytes;
+        private long responseBytes;
+        private long durationNanos;
+        @Nullable
+        private String traceId;
+        @Nullable
+        private String userId;
+
+        @Override
+        public String endpoint() {
+            return endpoint;
+        }
+
+        @Override
+        public int statusCode() {
+            return statusCode;
+        }
+
+        @Override
+        public long requestBytes() {
+            return requestBytes;
+        }
+
+        @Override
+        public long responseBytes() {
+            return responseBytes;
+        }
+
+        @Override
+        public long durationNanos() {
+            return durationNanos;
+        }
+
+        @Override
+        public Optional<String> traceId() {
+            return Optional.ofNullable(traceId);
+        }
+
+        @Override
+        public Optional<String> userId() {
+            return Optional.ofNullable(userId);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private AccessLogSink sink;
+        private int capacity = 8192;
+        private Duration pollInterval = Duration.ofMillis(10);
+
+        private Builder() {}
+
+        @CanIgnoreReturnValue
+        public Builder sink(AccessLogSink value) {
+            this.sink = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Number of preallocated entries, must be a power of two. Defaults to 8192. */
+        @CanIgnoreReturnValue
+        public Builder capacity(int value) {
+            this.capacity = value;
+            return this;
+        }
+
+        /** Time the drain thread waits before checking an empty buffer again. Defaults to 10 milliseconds. */
+        @CanIgnoreReturnValue
+        public Builder pollInterval(Duration value) {
+            this.pollInterval = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        public AccessLog build() {
+            return new AccessLog(this);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import java.util.Optional;
+
+/**
+ * A single completed request recorded by the {@link AccessLog}. Entries are reused once they have been
+ * passed to the {@link AccessLogSink}, implementations must copy any values they need to retain.
+ */
+public interface AccessLogEntry {
+
+    /** Method and path template of the endpoint, for example {@code GET /catalog/datasets/{datasetRid}}. */
+    String endpoint();
+
+    int statusCode();
+
+    /** Request body size based on the {@code Content-Length} header, or {@code -1} if unknown. */
+    long requestBytes();
+
+    /** Response bytes written by the time the handler returned. */
+    long responseBytes();
+
+    long durationNanos();
+
+    Optional<String> traceId();
+
+    Optional<String> userId();
+}
@@ -0,0 +1,34 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+/**
+ * Destination for {@link AccessLogEntry access log entries}. Sinks are only invoked from the
+ * {@link AccessLog} drain thread, so implementations may perform blocking IO.
+ */
+public interface AccessLogSink {
+
+    /**
+     * Writes a single entry. The entry is only valid for the duration of this call.
+     */
+    void write(AccessLogEntry entry);
+
+    /**
+     * Invoked after each batch of entries has been written.
+     */
+    default void flush() {}
+}
@@ -0,0 +1,345 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A worker pool which sizes itself between {@link Builder#minThreads(int) minThreads} and
+ * {@link Builder#maxThreads(int) maxThreads} from the time requests wait for a thread, for use as the
+ * {@link ConjureHandler.Builder#executor(Executor) executor} of a {@link ConjureHandler} in place of a fixed
+ * XNIO worker pool.
+ *
+ * Every {@link Builder#evaluationInterval(Duration) evaluationInterval} the average queue wait of the requests
+ * which started executing is compared to the {@link Builder#targetQueueWait(Duration) targetQueueWait}:
+ * <ul>
+ *     <li>Above the target, the pool grows by a quarter, unless process CPU utilization is at least
+ *     {@link Builder#maxCpuUtilization(double) maxCpuUtilization} in which case more threads would only contend
+ *     for the same cores.</li>
+ *     <li>Below half of the target, and with fewer requests executing concurrently than the pool could shrink to,
+ *     for {@link Builder#scaleDownIntervals(int) scaleDownIntervals} consecutive intervals, the pool shrinks by an
+ *     eighth. The band between half the target and the target, and the consecutive intervals, prevent the pool
+ *     from oscillating around the target.</li>
+ * </ul>
+ *
+ * The following metrics are registered on the provided {@link MetricRegistry}:
+ * <ul>
+ *     <li>{@code conjure.autoscaling.<name>.threads}: current size of the pool</li>
+ *     <li>{@code conjure.autoscaling.<name>.queueDepth}: number of requests waiting for a thread</li>
+ *     <li>{@code conjure.autoscaling.<name>.active}: number of requests currently executing</li>
+ *     <li>{@code conjure.autoscaling.<name>.waitTime}: time requests spend queued before executing</li>
+ *     <li>{@code conjure.autoscaling.<name>.scaleUp}: evaluations which grew the pool</li>
+ *     <li>{@code conjure.autoscaling.<name>.scaleDown}: evaluations which shrank the pool</li>
+ *     <li>{@code conjure.autoscaling.<name>.cpuLimited}: evaluations which did not grow the pool because CPU
+ *     utilization was too high</li>
+ *     <li>{@code conjure.autoscaling.<name>.rejected}: requests rejected because the queue was full</li>
+ * </ul>
+ */
+public final class AutoscalingExecutor implements Executor, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(AutoscalingExecutor.class);
+    @Nullable
+    private static final com.sun.management.OperatingSystemMXBean OPERATING_SYSTEM = operatingSystem();
+
+    private final String name;
+    private final int minThreads;
+    private final int maxThreads;
+    private final long targetQueueWaitNanos;
+    private final double maxCpuUtilization;
+    private final int scaleDownIntervals;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService scaler;
+    private final Timer waitTime;
+    private final Meter scaleUp;
+    private final Meter scaleDown;
+    private final Meter cpuLimited;
+    private final Meter rejected;
+    // Measurements since the last evaluation
+    private final LongAdder intervalWaitNanos = new LongAdder();
+    private final LongAdder intervalStarted = new LongAdder();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger peakRunning = new AtomicInteger();
+    // Only accessed by the scaler thread
+    private int threads;
+    private int quietIntervals;
+
+    private AutoscalingExecutor(Builder builder) {
+        this.name = Preconditions.checkNotNull(builder.name, "Missing required name");
+        MetricRegistry registry = Preconditions.checkNotNull(builder.metricRegistry, "Missing required MetricRegistry");
+        Preconditions.checkArgument(builder.minThreads > 0, "Min threads must be positive",
+                SafeArg.of("minThreads", builder.minThreads));
+        Preconditions.checkArgument(builder.maxThreads >= builder.minThreads,
+                "Max threads must not be less than min threads",
+                SafeArg.of("minThreads", builder.minThreads), SafeArg.of("maxThreads", builder.maxThreads));
+        Preconditions.checkArgument(builder.maxQueuedRequests > 0, "Max queued requests must be positive",
+                SafeArg.of("maxQueuedRequests", builder.maxQueuedRequests));
+        Preconditions.checkArgument(builder.scaleDownIntervals > 0, "Scale down intervals must be positive",
+                SafeArg.of("scaleDownIntervals", builder.scaleDownIntervals));
+        Preconditions.checkArgument(builder.evaluationInterval.toNanos() > 0, "Evaluation interval must be positive",
+                SafeArg.of("evaluationInterval", builder.evaluationInterval));
+        this.minThreads = builder.minThreads;
+        this.maxThreads = builder.maxThreads;
+        this.targetQueueWaitNanos = builder.targetQueueWait.toNanos();
+        this.maxCpuUtilization = builder.maxCpuUtilization;
+        this.scaleDownIntervals = builder.scaleDownIntervals;
+        this.threads = minThreads;
+        LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<>(builder.maxQueuedRequests);
+        this.executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES, queue, new ThreadFactoryBuilder()
+                .setNameFormat("conjure-autoscaling-" + name + "-%d")
+                .setDaemon(true)
+                .build());
+        this.waitTime = registry.timer(metricName("waitTime"));
+        this.scaleUp = registry.meter(metricName("scaleUp"));
+        this.scaleDown = registry.meter(metricName("scaleDown"));
+        this.cpuLimited = registry.meter(metricName("cpuLimited"));
+        this.rejected = registry.meter(metricName("rejected"));
+        registry.register(metricName("threads"), (Gauge<Integer>) executor::getCorePoolSize);
+        registry.register(metricName("queueDepth"), (Gauge<Integer>) queue::size);
+        registry.register(metricName("active"), (Gauge<Integer>) running::get);
+        this.scaler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("conjure-autoscaling-" + name + "-scaler")
+                .setDaemon(true)
+                .build());
+        long intervalNanos = builder.evaluationInterval.toNanos();
+        scaler.scheduleWithFixedDelay(this::evaluate, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Name of this executor, used for thread names and metrics. */
+    public String name() {
+        return name;
+    }
+
+    /** Current size of the pool. */
+    public int threads() {
+        return executor.getCorePoolSize();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        long enqueuedNanos = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long waitNanos = System.nanoTime() - enqueuedNanos;
+                waitTime.update(waitNanos, TimeUnit.NANOSECONDS);
+                intervalWaitNanos.add(waitNanos);
+                intervalStarted.increment();
+                int current = running.incrementAndGet();
+                peakRunning.accumulateAndGet(current, Math::max);
+                try {
+                    command.run();
+                } finally {
+                    running.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.mark();
+            throw e;
+        }
+    }
+
+    /** Stops accepting new requests, requests which have already been accepted are allowed to complete. */
+    @Override
+    public void close() {
+        scaler.shutdownNow();
+        executor.shutdown();
+    }
+
+    private void evaluate() {
+        try {
+            long started = intervalStarted.sumThenReset();
+            long totalWaitNanos = intervalWaitNanos.sumThenReset();
+            int peak = peakRunning.getAndSet(running.get());
+            long averageWaitNanos;
+            if (started > 0) {
+                averageWaitNanos = totalWaitNanos / started;
+            } else {
+                // Nothing started for a whole interval while requests are queued: every thread is busy
+                averageWaitNanos = executor.getQueue().isEmpty() ? 0 : Long.MAX_VALUE;
+            }
+            resize(decide(averageWaitNanos, cpuUtilization(), peak));
+        } catch (RuntimeException e) {
+            log.warn("Failed to resize executor", SafeArg.of("name", name), e);
+        }
+    }
+
+    /**
+     * Returns the size of the pool for the next interval given the measurements of the last one. CPU utilization
+     * is between zero and one, or negative if it is unknown.
+     */
+    @VisibleForTesting
+    int decide(long averageWaitNanos, double cpuUtilization, int peakRunning) {
+        if (averageWaitNanos > targetQueueWaitNanos) {
+            quietIntervals = 0;
+            if (threads == maxThreads) {
+                return threads;
+            }
+            if (cpuUtilization >= maxCpuUtilization) {
+                cpuLimited.mark();
+                return threads;
+            }
+            scaleUp.mark();
+            return Math.min(maxThreads, threads + Math.max(1, threads / 4));
+        }
+        int shrunk = Math.max(minThreads, threads - Math.max(1, threads / 8));
+        if (averageWaitNanos <= targetQueueWaitNanos / 2 && peakRunning <= shrunk && shrunk < threads) {
+            if (++quietIntervals >= scaleDownIntervals) {
+                quietIntervals = 0;
+                scaleDown.mark();
+                return shrunk;
+            }
+        } else {
+            quietIntervals = 0;
+        }
+        return threads;
+    }
+
+    @VisibleForTesting
+    void resize(int size) {
+        if (size > threads) {
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        } else if (size < threads) {
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        }
+        threads = size;
+    }
+
+    private String metricName(String metric) {
+        return MetricRegistry.name("conjure", "autoscaling", name, metric);
+    }
+
+    private static double cpuUtilization() {
+        return OPERATING_SYSTEM == null ? -1 : OPERATING_SYSTEM.getProcessCpuLoad();
+    }
+
+    @Nullable
+    private static com.sun.management.OperatingSystemMXBean operatingSystem() {
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        return bean instanceof com.sun.management.OperatingSystemMXBean
+                ? (com.sun.management.OperatingSystemMXBean) bean
+                : null;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private String name;
+        private MetricRegistry metricRegistry;
+        private int minThreads = 8;
+        private int maxThreads = 256;
+        private int maxQueuedRequests = Integer.MAX_VALUE;
+        private Duration targetQueueWait = Duration.ofMillis(5);
+        private double maxCpuUtilization = 0.9;
+        private Duration evaluationInterval = Duration.ofSeconds(1);
+        private int scaleDownIntervals = 10;
+
+        private Builder() {}
+
+        @CanIgnoreReturnValue
+        public Builder name(String value) {
+            this.name = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        @CanIgnoreReturnValue
+        public Builder metricRegistry(MetricRegistry value) {
+            this.metricRegistry = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Initial and minimum size of the pool, defaults to 8. */
+        @CanIgnoreReturnValue
+        public Builder minThreads(int value) {
+            this.minThreads = value;
+            return this;
+        }
+
+        /** Maximum size of the pool, defaults to 256. */
+        @CanIgnoreReturnValue
+        public Builder maxThreads(int value) {
+            this.maxThreads = value;
+            return this;
+        }
+
+        /** Maximum number of requests waiting for a thread before new requests are rejected, unbounded by default. */
+        @CanIgnoreReturnValue
+        public Builder maxQueuedRequests(int value) {
+            this.maxQueuedRequests = value;
+            return this;
+        }
+
+        /** Average time requests may wait for a thread before the pool grows, defaults to 5 milliseconds. */
+        @CanIgnoreReturnValue
+        public Builder targetQueueWait(Duration value) {
+            this.targetQueueWait = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Process CPU utilization, between zero and one, above which the pool does not grow. Defaults to 0.9. */
+        @CanIgnoreReturnValue
+        public Builder maxCpuUtilization(double value) {
+            this.maxCpuUtilization = value;
+            return this;
+        }
+
+        /** Time between evaluations of the pool size, defaults to 1 second. */
+        @CanIgnoreReturnValue
+        public Builder evaluationInterval(Duration value) {
+            this.evaluationInterval = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Consecutive quiet evaluations required before the pool shrinks, defaults to 10. */
+        @CanIgnoreReturnValue
+        public Builder scaleDownIntervals(int value) {
+            this.scaleDownIntervals = value;
+            return this;
+        }
+
+        public AutoscalingExecutor build() {
+            return new AutoscalingExecutor(this);
+        }
+    }
+}
@@ -35,7 +35,7 @@ import org.slf4j.MDC;
 final class BearerTokenLoggingHandler implements HttpHandler {
     private static final Logger log = LoggerFactory.getLogger(BearerTokenLoggingHandler.class);
 
-    private static final String USER_ID_KEY = "userId";
+    static final String USER_ID_KEY = "userId";
     private static final String SESSION_ID_KEY = "sessionId";
     private static final String TOKEN_ID_KEY = "tokenId";
 
@@ -55,7 +55,7 @@ final class BearerTokenLoggingHandler implements HttpHandler {
         }
     }
 
-    private void initializeMdc(HttpServerExchange exchange) {
+    private static void initializeMdc(HttpServerExchange exchange) {
         // The Jersey filter implementation fails to clean up MDC state after each request.
         // In environments using both Jersey and generated Undertow handlers, the MDC may
         // contain stale values.
@@ -74,6 +74,15 @@ final class BearerTokenLoggingHandler implements HttpHandler {
         }
     }
 
+    /** Returns the unverified user id of the request bearer token, if the request has a parseable token. */
+    static Optional<String> unverifiedUserId(HttpServerExchange exchange) {
+        String rawAuthHeader = exchange.getRequestHeaders().getFirst(Headers.AUTHORIZATION);
+        if (rawAuthHeader == null) {
+            return Optional.empty();
+        }
+        return UnverifiedJsonWebToken.tryParse(rawAuthHeader).map(UnverifiedJsonWebToken::getUnverifiedUserId);
+    }
+
     private static void setMdcSessionId(String sessionId) {
         MDC.put(SESSION_ID_KEY, sessionId);
     }
@@ -0,0 +1,123 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.util.BufferRecycler;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free pool of {@link ObjectWriter ObjectWriters} for a mapper, each backed by a copy of the mapper
+ * {@link JsonFactory} which owns a dedicated {@link BufferRecycler}.
+ *
+ * Jackson recycles encoding buffers through a {@link ThreadLocal} {@link java.lang.ref.SoftReference}, which works
+ * well on a fixed worker pool but allocates fresh buffers for every request when requests run on short-lived
+ * threads. Borrowing a writer for the duration of a single read or write makes buffer reuse independent of the
+ * executing thread. Writers are created when the pool is empty, and discarded when it is full.
+ */
+final class BufferRecyclerPool {
+
+    static final int DEFAULT_CAPACITY = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+
+    private final ObjectMapper mapper;
+    private final AtomicReferenceArray<ObjectWriter> writers;
+
+    BufferRecyclerPool(ObjectMapper mapper, int capacity) {
+        this.mapper = Preconditions.checkNotNull(mapper, "ObjectMapper is required");
+        Preconditions.checkArgument(capacity > 0, "Capacity must be positive", SafeArg.of("capacity", capacity));
+        this.writers = new AtomicReferenceArray<>(capacity);
+        // Fail fast on unsupported formats rather than on the first request
+        release(newWriter());
+    }
+
+    /** Returns a writer which must be {@link #release released} once any parser or generator it created closes. */
+    ObjectWriter acquire() {
+        int capacity = writers.length();
+        int start = ThreadLocalRandom.current().nextInt(capacity);
+        for (int i = 0; i < capacity; i++) {
+            int index = (start + i) % capacity;
+            ObjectWriter writer = writers.get(index);
+            if (writer != null && writers.compareAndSet(index, writer, null)) {
+                return writer;
+            }
+        }
+        return newWriter();
+    }
+
+    void release(ObjectWriter writer) {
+        int capacity = writers.length();
+        int start = ThreadLocalRandom.current().nextInt(capacity);
+        for (int i = 0; i < capacity; i++) {
+            int index = (start + i) % capacity;
+            if (writers.get(index) == null && writers.compareAndSet(index, null, writer)) {
+                return;
+            }
+        }
+        // The pool is full, the writer and its buffers are left to the garbage collector.
+    }
+
+    private ObjectWriter newWriter() {
+        return mapper.writer().with(copyWithRecycler(mapper.getFactory(), mapper));
+    }
+
+    private static JsonFactory copyWithRecycler(JsonFactory factory, ObjectCodec codec) {
+        if (factory instanceof CBORFactory) {
+            return new RecyclingCborFactory((CBORFactory) factory, codec);
+        }
+        if (JsonFactory.FORMAT_NAME_JSON.equals(factory.getFormatName())) {
+            return new RecyclingJsonFactory(factory, codec);
+        }
+        throw new SafeIllegalArgumentException("Unsupported serialization format",
+                SafeArg.of("format", factory.getFormatName()));
+    }
+
+    private static final class RecyclingJsonFactory extends JsonFactory {
+        private final BufferRecycler recycler = new BufferRecycler();
+
+        RecyclingJsonFactory(JsonFactory source, ObjectCodec codec) {
+            super(source, codec);
+        }
+
+        @Override
+        @SuppressWarnings("checkstyle:methodname") // Overrides the Jackson method
+        public BufferRecycler _getBufferRecycler() {
+            return recycler;
+        }
+    }
+
+    private static final class RecyclingCborFactory extends CBORFactory {
+        private final BufferRecycler recycler = new BufferRecycler();
+
+        RecyclingCborFactory(CBORFactory source, ObjectCodec codec) {
+            super(source, codec);
+        }
+
+        @Override
+        @SuppressWarnings("checkstyle:methodname") // Overrides the Jackson method
+        public BufferRecycler _getBufferRecycler() {
+            return recycler;
+        }
+    }
+}
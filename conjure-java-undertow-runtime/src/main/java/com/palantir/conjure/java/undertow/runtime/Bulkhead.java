@@ -0,0 +1,145 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.logsafe.Preconditions;
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A named, bounded worker pool which isolates the endpoints routed to it from the rest of the server.
+ * Requests beyond {@link Builder#threads(int) threads} concurrent executions are queued up to
+ * {@link Builder#maxQueuedRequests(int) maxQueuedRequests}, further requests are rejected and
+ * answered with a 503 by Undertow without blocking the IO thread.
+ *
+ * The following metrics are registered on the provided {@link MetricRegistry}:
+ * <ul>
+ *     <li>{@code conjure.bulkhead.<name>.queueDepth}: number of requests waiting for a thread</li>
+ *     <li>{@code conjure.bulkhead.<name>.active}: number of requests currently executing</li>
+ *     <li>{@code conjure.bulkhead.<name>.waitTime}: time requests spend queued before executing</li>
+ *     <li>{@code conjure.bulkhead.<name>.rejected}: requests rejected because the queue was full</li>
+ * </ul>
+ */
+public final class Bulkhead implements Executor, Closeable {
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final Timer waitTime;
+    private final Meter rejected;
+
+    private Bulkhead(Builder builder) {
+        this.name = Preconditions.checkNotNull(builder.name, "Missing required name");
+        MetricRegistry registry = Preconditions.checkNotNull(builder.metricRegistry, "Missing required MetricRegistry");
+        Preconditions.checkArgument(builder.threads > 0, "Bulkhead threads must be positive");
+        Preconditions.checkArgument(builder.maxQueuedRequests >= 0, "Bulkhead queue size must not be negative");
+        BlockingQueue<Runnable> queue = builder.maxQueuedRequests == 0
+                ? new SynchronousQueue<>()
+                : new ArrayBlockingQueue<>(builder.maxQueuedRequests);
+        this.executor = new ThreadPoolExecutor(builder.threads, builder.threads, 1, TimeUnit.MINUTES, queue,
+                new ThreadFactoryBuilder().setNameFormat("conjure-bulkhead-" + name + "-%d").setDaemon(true).build());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.waitTime = registry.timer(metricName("waitTime"));
+        this.rejected = registry.meter(metricName("rejected"));
+        registry.register(metricName("queueDepth"), (Gauge<Integer>) queue::size);
+        registry.register(metricName("active"), (Gauge<Integer>) executor::getActiveCount);
+    }
+
+    /** Name of this bulkhead, used for thread names and metrics. */
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        long enqueuedNanos = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                waitTime.update(System.nanoTime() - enqueuedNanos, TimeUnit.NANOSECONDS);
+                command.run();
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.mark();
+            throw e;
+        }
+    }
+
+    /** Stops accepting new requests, requests which have already been accepted are allowed to complete. */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private String metricName(String metric) {
+        return MetricRegistry.name("conjure", "bulkhead", name, metric);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private String name;
+        private MetricRegistry metricRegistry;
+        private int threads = 16;
+        private int maxQueuedRequests = 0;
+
+        private Builder() {}
+
+        @CanIgnoreReturnValue
+        public Builder name(String value) {
+            this.name = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        @CanIgnoreReturnValue
+        public Builder metricRegistry(MetricRegistry value) {
+            this.metricRegistry = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Maximum number of requests executing concurrently, defaults to 16. */
+        @CanIgnoreReturnValue
+        public Builder threads(int value) {
+            this.threads = value;
+            return this;
+        }
+
+        /** Maximum number of requests waiting for a thread before new requests are rejected, defaults to 0. */
+        @CanIgnoreReturnValue
+        public Builder maxQueuedRequests(int value) {
+            this.maxQueuedRequests = value;
+            return this;
+        }
+
+        public Bulkhead build() {
+            return new Bulkhead(this);
+        }
+    }
+}
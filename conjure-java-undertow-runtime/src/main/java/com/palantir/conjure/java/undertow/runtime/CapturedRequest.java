@@ -0,0 +1,199 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.CountingInputStream;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import io.undertow.util.HttpString;
+import io.undertow.util.Headers;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A request recorded by {@link TrafficCapture} to be replayed by {@link TrafficReplay}.
+ *
+ * Capture files start with a {@link #MAGIC magic number} and {@link #VERSION version}, followed by records which
+ * are only ever appended: the endpoint, method, request target including the query string, the number of headers
+ * followed by each name and value, and the body. Strings are written as their length followed by UTF-8 bytes,
+ * and the body as its length followed by its bytes. A record which was partially written when the process
+ * stopped is ignored when reading, and truncated before further records are appended.
+ */
+final class CapturedRequest {
+
+    static final int MAGIC = 0x434A5443;
+    static final byte VERSION = 1;
+
+    // Credentials are never captured, and connection level headers do not apply to the replayed request
+    static final ImmutableSet<HttpString> EXCLUDED_HEADERS = ImmutableSet.of(
+            Headers.AUTHORIZATION,
+            Headers.PROXY_AUTHORIZATION,
+            Headers.COOKIE,
+            Headers.HOST,
+            Headers.CONNECTION,
+            Headers.CONTENT_LENGTH,
+            Headers.TRANSFER_ENCODING,
+            Headers.EXPECT);
+
+    private static final int MAX_STRING_BYTES = 1024 * 1024;
+
+    private final String endpoint;
+    private final String method;
+    private final String target;
+    private final ImmutableList<Map.Entry<String, String>> headers;
+    private final byte[] body;
+
+    CapturedRequest(
+            String endpoint,
+            String method,
+            String target,
+            List<Map.Entry<String, String>> headers,
+            byte[] body) {
+        this.endpoint = endpoint;
+        this.method = method;
+        this.target = target;
+        this.headers = ImmutableList.copyOf(headers);
+        this.body = body;
+    }
+
+    /** Method and path template of the endpoint, for example {@code GET /catalog/datasets/{datasetRid}}. */
+    String endpoint() {
+        return endpoint;
+    }
+
+    String method() {
+        return method;
+    }
+
+    /** Path and query string of the request. */
+    String target() {
+        return target;
+    }
+
+    List<Map.Entry<String, String>> headers() {
+        return headers;
+    }
+
+    byte[] body() {
+        return body;
+    }
+
+    static void writeHeader(DataOutputStream output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+    }
+
+    void write(DataOutputStream output) throws IOException {
+        writeString(output, endpoint);
+        writeString(output, method);
+        writeString(output, target);
+        output.writeInt(headers.size());
+        for (Map.Entry<String, String> header : headers) {
+            writeString(output, header.getKey());
+            writeString(output, header.getValue());
+        }
+        output.writeInt(body.length);
+        output.write(body);
+    }
+
+    /** Reads every complete record of a capture file. */
+    static List<CapturedRequest> readAll(Path file) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            readHeader(input);
+            ImmutableList.Builder<CapturedRequest> requests = ImmutableList.builder();
+            while (true) {
+                try {
+                    requests.add(read(input));
+                } catch (EOFException e) {
+                    return requests.build();
+                }
+            }
+        }
+    }
+
+    /** Returns the length of the header and complete records of a capture file. */
+    static long completeLength(Path file) throws IOException {
+        try (CountingInputStream counting =
+                new CountingInputStream(new BufferedInputStream(Files.newInputStream(file)));
+                DataInputStream input = new DataInputStream(counting)) {
+            long length = 0;
+            try {
+                readHeader(input);
+                length = counting.getCount();
+                while (true) {
+                    read(input);
+                    length = counting.getCount();
+                }
+            } catch (EOFException e) {
+                return length;
+            }
+        }
+    }
+
+    private static void readHeader(DataInputStream input) throws IOException {
+        int magic = input.readInt();
+        byte version = input.readByte();
+        if (magic != MAGIC || version != VERSION) {
+            throw new SafeIllegalArgumentException("Not a supported traffic capture file",
+                    SafeArg.of("magic", magic), SafeArg.of("version", version));
+        }
+    }
+
+    private static CapturedRequest read(DataInputStream input) throws IOException {
+        String endpoint = readString(input);
+        String method = readString(input);
+        String target = readString(input);
+        int headerCount = input.readInt();
+        ImmutableList.Builder<Map.Entry<String, String>> headers = ImmutableList.builder();
+        for (int i = 0; i < headerCount; i++) {
+            String name = readString(input);
+            headers.add(new AbstractMap.SimpleImmutableEntry<>(name, readString(input)));
+        }
+        return new CapturedRequest(endpoint, method, target, headers.build(), readBytes(input, Integer.MAX_VALUE));
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        return new String(readBytes(input, MAX_STRING_BYTES), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(DataInputStream input, int maxLength) throws IOException {
+        int length = input.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new SafeIllegalArgumentException("Corrupt traffic capture record", SafeArg.of("length", length));
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return bytes;
+    }
+}
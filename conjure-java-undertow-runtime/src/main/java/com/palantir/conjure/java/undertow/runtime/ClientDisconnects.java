@@ -0,0 +1,393 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.conjure.java.undertow.lib.Cancellation;
+import com.palantir.logsafe.Preconditions;
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.ServerConnection;
+import io.undertow.server.protocol.http.HttpServerConnection;
+import io.undertow.util.AttachmentKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.xnio.ChannelListener;
+import org.xnio.Options;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.AbstractStreamSinkConduit;
+import org.xnio.conduits.ConduitStreamSourceChannel;
+import org.xnio.conduits.StreamSinkConduit;
+
+/**
+ * Detects clients which go away before their response completes, and {@link Cancellation cancels} their requests
+ * so that the server stops working on their behalf. During incidents callers often time out while their requests
+ * wait for a worker thread, and executing those requests only delays the ones which can still succeed.
+ *
+ * A request is cancelled when its connection closes, when a response write fails, or, for HTTP/1.1 requests
+ * without a body which are dispatched to a worker thread, when the client closes its side of the connection
+ * while the request executes. The latter is detected by reading from the otherwise idle connection, so a client
+ * which half-closes the connection after sending its request is treated as gone. It is not detected when a
+ * {@link Options#READ_TIMEOUT read timeout} is configured, which reading would trigger for long requests.
+ *
+ * Cancelled requests which have not started executing are skipped, their connection is closed without a
+ * response. Once a request is cancelled its response is not serialized, response writes fail immediately, and
+ * failures are not reported as errors. Service implementations may check {@link Cancellation#current()} to stop
+ * work early.
+ *
+ * The following metrics are registered on the provided {@link MetricRegistry} for each endpoint, named by
+ * method and path template, for example {@code "GET /catalog/datasets/{datasetRid}"}:
+ * <ul>
+ *     <li>{@code conjure.endpoint.<endpoint>.disconnected}: requests whose client went away before the response
+ *     completed</li>
+ *     <li>{@code conjure.endpoint.<endpoint>.skipped}: requests which were not executed because their client went
+ *     away while they waited for a thread</li>
+ *     <li>{@code conjure.endpoint.<endpoint>.wastedTime}: time spent executing requests whose client went away</li>
+ * </ul>
+ */
+public final class ClientDisconnects {
+
+    private static final AttachmentKey<ConnectionWatch> CONNECTION_WATCH = AttachmentKey.create(ConnectionWatch.class);
+
+    private final MetricRegistry registry;
+    private final boolean probeConnections;
+
+    private ClientDisconnects(Builder builder) {
+        this.registry = Preconditions.checkNotNull(builder.metricRegistry, "Missing required MetricRegistry");
+        this.probeConnections = builder.probeConnections;
+    }
+
+    /** Returns the recorder for the given endpoint, resolving its metrics once at registration. */
+    Recorder recorder(String endpoint) {
+        return new Recorder(probeConnections,
+                registry.meter(MetricRegistry.name("conjure", "endpoint", endpoint, "disconnected")),
+                registry.meter(MetricRegistry.name("conjure", "endpoint", endpoint, "skipped")),
+                registry.timer(MetricRegistry.name("conjure", "endpoint", endpoint, "wastedTime")));
+    }
+
+    static final class Recorder {
+        private final boolean probeConnections;
+        private final Meter disconnected;
+        private final Meter skipped;
+        private final Timer wastedTime;
+
+        private Recorder(boolean probeConnections, Meter disconnected, Meter skipped, Timer wastedTime) {
+            this.probeConnections = probeConnections;
+            this.disconnected = disconnected;
+            this.skipped = skipped;
+            this.wastedTime = wastedTime;
+        }
+
+        /**
+         * Attaches a {@link Cancellation} to the exchange which is cancelled when the client goes away. Requests
+         * which will be dispatched to another thread also probe idle HTTP/1.1 connections. Must be called on the
+         * IO thread.
+         */
+        Cancellation watch(HttpServerExchange exchange, boolean dispatched) {
+            Cancellation cancellation = Cancellation.create();
+            cancellation.onCancel(disconnected::mark);
+            exchange.putAttachment(Cancellation.ATTACHMENT_KEY, cancellation);
+            ConnectionWatch watch = ConnectionWatch.of(exchange.getConnection());
+            watch.exchanges.put(exchange, cancellation);
+            exchange.addResponseWrapper(
+                    (factory, ignored) -> new CancellableSinkConduit(factory.create(), cancellation));
+            Probe probe = dispatched && probeConnections ? Probe.arm(exchange, cancellation) : null;
+            exchange.addExchangeCompleteListener((completed, nextListener) -> {
+                try {
+                    // Reading must stop before the connection reads the next request
+                    if (probe != null) {
+                        probe.disarm();
+                    }
+                    watch.exchanges.remove(completed);
+                } finally {
+                    nextListener.proceed();
+                }
+            });
+            return cancellation;
+        }
+
+        /** Records a request which was not executed because it had already been cancelled. */
+        void skipped() {
+            skipped.mark();
+        }
+
+        /** Records the time spent executing a request which was cancelled. */
+        void wasted(long nanos) {
+            wastedTime.update(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Cancels the requests in progress when the connection closes, connections have no way to remove listeners.
+     * Requests are tracked by exchange, a pipelined request may start before the completion listeners of the
+     * previous request have run.
+     */
+    private static final class ConnectionWatch implements ServerConnection.CloseListener {
+        private final Map<HttpServerExchange, Cancellation> exchanges = new ConcurrentHashMap<>();
+
+        static ConnectionWatch of(ServerConnection connection) {
+            ConnectionWatch watch = connection.getAttachment(CONNECTION_WATCH);
+            if (watch == null) {
+                watch = new ConnectionWatch();
+                connection.putAttachment(CONNECTION_WATCH, watch);
+                connection.addCloseListener(watch);
+            }
+            return watch;
+        }
+
+        @Override
+        public void closed(ServerConnection connection) {
+            exchanges.values().forEach(Cancellation::cancel);
+        }
+    }
+
+    /**
+     * Reads from an HTTP/1.1 connection while its request executes. Clients do not send anything else until they
+     * receive the response, so the read only completes when the client closes the connection, or when it pipelines
+     * the next request whose bytes are returned to the connection. Reads happen under the lock which disarming
+     * takes before the connection resumes reading requests, so that no bytes of the next request are lost.
+     */
+    private static final class Probe implements ChannelListener<ConduitStreamSourceChannel> {
+        private final HttpServerConnection connection;
+        private final ConduitStreamSourceChannel channel;
+        private final Cancellation cancellation;
+        @Nullable
+        private final ChannelListener<? super ConduitStreamSourceChannel> previousListener;
+        // Guarded by this
+        private boolean armed = true;
+
+        private Probe(HttpServerConnection connection, Cancellation cancellation) {
+            this.connection = connection;
+            this.channel = connection.getChannel().getSourceChannel();
+            this.cancellation = cancellation;
+            this.previousListener = channel.getReadListener();
+        }
+
+        @Nullable
+        static Probe arm(HttpServerExchange exchange, Cancellation cancellation) {
+            if (!(exchange.getConnection() instanceof HttpServerConnection) || !exchange.isRequestComplete()) {
+                return null;
+            }
+            HttpServerConnection connection = (HttpServerConnection) exchange.getConnection();
+            // Bytes of pipelined requests which have already been read belong to the connection, reading would
+            // only return the bytes which follow them.
+            if (connection.getExtraBytes() != null || hasReadTimeout(connection)) {
+                return null;
+            }
+            Probe probe = new Probe(connection, cancellation);
+            synchronized (probe) {
+                probe.channel.setReadListener(probe);
+                try {
+                    probe.channel.resumeReads();
+                } catch (RuntimeException e) {
+                    probe.disarmLocked();
+                    throw e;
+                }
+            }
+            return probe;
+        }
+
+        @Override
+        public void handleEvent(ConduitStreamSourceChannel ignored) {
+            boolean closed;
+            synchronized (this) {
+                if (!armed) {
+                    return;
+                }
+                PooledByteBuffer pooled = connection.getByteBufferPool().allocate();
+                boolean idle = false;
+                try {
+                    int read;
+                    try {
+                        read = channel.read(pooled.getBuffer());
+                    } catch (IOException e) {
+                        read = -1;
+                    }
+                    if (read == 0) {
+                        idle = true;
+                        return;
+                    }
+                    disarmLocked();
+                    closed = read < 0;
+                    if (!closed) {
+                        pooled.getBuffer().flip();
+                        connection.ungetRequestBytes(pooled);
+                        pooled = null;
+                    }
+                } finally {
+                    if (pooled != null) {
+                        pooled.close();
+                    }
+                    // The connection must get its listener back however reading ends
+                    if (armed && !idle) {
+                        disarmLocked();
+                    }
+                }
+            }
+            if (closed) {
+                cancellation.cancel();
+            }
+        }
+
+        synchronized void disarm() {
+            if (armed) {
+                disarmLocked();
+            }
+        }
+
+        private void disarmLocked() {
+            armed = false;
+            try {
+                channel.suspendReads();
+            } finally {
+                channel.setReadListener(previousListener);
+            }
+        }
+
+        private static boolean hasReadTimeout(HttpServerConnection connection) {
+            try {
+                Integer readTimeout = connection.getChannel().getOption(Options.READ_TIMEOUT);
+                return readTimeout != null && readTimeout > 0;
+            } catch (IOException e) {
+                return true;
+            }
+        }
+    }
+
+    /** Fails response writes once the request is cancelled, and cancels the request when a write fails. */
+    private static final class CancellableSinkConduit extends AbstractStreamSinkConduit<StreamSinkConduit> {
+        private final Cancellation cancellation;
+
+        CancellableSinkConduit(StreamSinkConduit next, Cancellation cancellation) {
+            super(next);
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            checkCancelled();
+            try {
+                return next.write(src);
+            } catch (IOException e) {
+                throw cancel(e);
+            }
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offs, int len) throws IOException {
+            checkCancelled();
+            try {
+                return next.write(srcs, offs, len);
+            } catch (IOException e) {
+                throw cancel(e);
+            }
+        }
+
+        @Override
+        public int writeFinal(ByteBuffer src) throws IOException {
+            checkCancelled();
+            try {
+                return next.writeFinal(src);
+            } catch (IOException e) {
+                throw cancel(e);
+            }
+        }
+
+        @Override
+        public long writeFinal(ByteBuffer[] srcs, int offs, int len) throws IOException {
+            checkCancelled();
+            try {
+                return next.writeFinal(srcs, offs, len);
+            } catch (IOException e) {
+                throw cancel(e);
+            }
+        }
+
+        @Override
+        public long transferFrom(FileChannel src, long position, long count) throws IOException {
+            checkCancelled();
+            try {
+                return next.transferFrom(src, position, count);
+            } catch (IOException e) {
+                throw cancel(e);
+            }
+        }
+
+        @Override
+        public long transferFrom(StreamSourceChannel source, long count, ByteBuffer throughBuffer)
+                throws IOException {
+            checkCancelled();
+            try {
+                return next.transferFrom(source, count, throughBuffer);
+            } catch (IOException e) {
+                throw cancel(e);
+            }
+        }
+
+        private void checkCancelled() throws ClosedChannelException {
+            if (cancellation.isCancelled()) {
+                throw new ClosedChannelException();
+            }
+        }
+
+        private IOException cancel(IOException failure) {
+            cancellation.cancel();
+            return failure;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private MetricRegistry metricRegistry;
+        private boolean probeConnections = true;
+
+        private Builder() {}
+
+        @CanIgnoreReturnValue
+        public Builder metricRegistry(MetricRegistry value) {
+            this.metricRegistry = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /**
+         * Reads from idle HTTP/1.1 connections while their request executes to detect clients which close the
+         * connection. Enabled by default.
+         */
+        @CanIgnoreReturnValue
+        public Builder probeConnections(boolean value) {
+            this.probeConnections = value;
+            return this;
+        }
+
+        public ClientDisconnects build() {
+            return new ClientDisconnects(this);
+        }
+    }
+}
@@ -16,122 +16,240 @@
 
 package com.palantir.conjure.java.undertow.runtime;
 
+import com.google.common.collect.ImmutableList;
 import com.palantir.conjure.java.api.errors.ErrorType;
+import com.palantir.conjure.java.api.errors.QosException;
 import com.palantir.conjure.java.api.errors.RemoteException;
 import com.palantir.conjure.java.api.errors.SerializableError;
 import com.palantir.conjure.java.api.errors.ServiceException;
 import com.palantir.conjure.java.undertow.lib.SerializerRegistry;
+import com.palantir.logsafe.Arg;
 import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.SafeLoggable;
 import io.undertow.io.UndertowOutputStream;
-import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xnio.IoUtils;
 
 /**
- * Delegates to the given {@link HttpHandler}, and catches&forwards all {@link Throwable}s. Any exception thrown in
- * the delegate handler is caught and serialized using the configured {@link SerializerRegistry} into a
- * {@link SerializableError}. The result is written it into the exchange's output stream, and an appropriate HTTP
- * status code is set.
+ * Serializes any {@link Throwable} thrown while handling a request using the configured {@link SerializerRegistry}
+ * into a {@link SerializableError}. The result is written into the exchange's output stream, and an appropriate
+ * HTTP status code is set. Failures are logged subject to the rate limits of the given {@link ErrorLogging}.
  */
-final class ConjureExceptionHandler implements HttpHandler {
+final class ConjureExceptionHandler {
 
     private static final Logger log = LoggerFactory.getLogger(ConjureExceptionHandler.class);
     // Exceptions should always be serialized using JSON
-    private static final SerializerRegistry DEFAULT_SERIALIZERS = new SerializerRegistry(Serializers.json());
+    static final SerializerRegistry DEFAULT_SERIALIZERS = new SerializerRegistry(Serializers.json());
+    private static final ErrorType TOO_MANY_REQUESTS =
+            ErrorType.create(ErrorType.Code.CUSTOM_CLIENT, "Conjure:TooManyRequests");
+    private static final ErrorType UNAVAILABLE = ErrorType.create(ErrorType.Code.CUSTOM_SERVER, "Conjure:Unavailable");
+    private static final ErrorType IDEMPOTENT_REQUEST_INCOMPLETE =
+            ErrorType.create(ErrorType.Code.CONFLICT, "Conjure:IdempotentRequestIncomplete");
 
-    private final SerializerRegistry serializers;
-    private final HttpHandler delegate;
+    private ConjureExceptionHandler() {}
 
-    ConjureExceptionHandler(SerializerRegistry serializers, HttpHandler delegate) {
-        this.serializers = serializers;
-        this.delegate = delegate;
+    static void handleException(
+            SerializerRegistry serializers,
+            ErrorLogging errorLogging,
+            HttpServerExchange exchange,
+            Throwable throwable) {
+        if (throwable instanceof QosException) {
+            // Expected under load, rate limiting by ErrorLogging would only hide other failures
+            log.debug("Responding to a QoS exception", throwable);
+            handleQosException(serializers, exchange, (QosException) throwable);
+            return;
+        }
+        if (throwable instanceof Error) {
+            throw (Error) throwable;
+        }
+        MappedError mapped = map(errorLogging, throwable);
+        writeError(serializers, exchange, mapped.statusCode, mapped.error);
     }
 
-    ConjureExceptionHandler(HttpHandler delegate) {
-        this(DEFAULT_SERIALIZERS, delegate);
-    }
+    /**
+     * Maps and logs a failure which is neither a {@link QosException} nor an {@link Error} the way it is reported to
+     * remote clients.
+     */
+    static MappedError map(ErrorLogging errorLogging, Throwable throwable) {
+        final SerializableError error;
+        final int statusCode;
 
-    @Override
-    public void handleRequest(HttpServerExchange exchange) {
-        try {
-            delegate.handleRequest(exchange);
-        } catch (Throwable throwable) {
-            final SerializableError error;
-            final int statusCode;
-
-            if (throwable instanceof ServiceException) {
-                ServiceException exception = (ServiceException) throwable;
-                statusCode = exception.getErrorType().httpErrorCode();
-                error = SerializableError.forException(exception);
-                log(exception);
-
-            } else if (throwable instanceof RemoteException) {
-                // RemoteExceptions are thrown by Conjure clients to indicate a remote/service-side problem.
-                // We forward these exceptions, but change the ErrorType to INTERNAL, i.e., the problem is now
-                // considered internal to *this* service rather than the originating service. This means in particular
-                // that Conjure errors are defined only local to a given service and these error types don't
-                // propagate through other services.
-                RemoteException exception = (RemoteException) throwable;
-
-                // log at WARN instead of ERROR because although this indicates an issue in a remote server
+        if (throwable instanceof ServiceException) {
+            ServiceException exception = (ServiceException) throwable;
+            statusCode = exception.getErrorType().httpErrorCode();
+            error = SerializableError.forException(exception);
+            log(errorLogging, exception.getErrorType(), exception.getErrorInstanceId(), exception);
+
+        } else if (throwable instanceof RemoteException) {
+            // RemoteExceptions are thrown by Conjure clients to indicate a remote/service-side problem.
+            // We forward these exceptions, but change the ErrorType to INTERNAL, i.e., the problem is now
+            // considered internal to *this* service rather than the originating service. This means in particular
+            // that Conjure errors are defined only local to a given service and these error types don't
+            // propagate through other services.
+            RemoteException exception = (RemoteException) throwable;
+
+            // log at WARN instead of ERROR because although this indicates an issue in a remote server
+            int suppressed = errorLogging.tryAcquire(exception.getError().errorName());
+            if (suppressed != ErrorLogging.SUPPRESSED) {
                 log.warn("Encountered a remote exception. Mapping to an internal error before propagating",
                         SafeArg.of("errorInstanceId", exception.getError().errorInstanceId()),
                         SafeArg.of("errorName", exception.getError().errorName()),
                         SafeArg.of("statusCode", exception.getStatus()),
+                        SafeArg.of("suppressed", suppressed),
                         exception);
+            }
 
-                ErrorType errorType = ErrorType.INTERNAL;
-                statusCode = errorType.httpErrorCode();
-
-                // Override only the name and code of the error
-                error = SerializableError.builder()
-                        .from(exception.getError())
-                        .errorName(errorType.name())
-                        .errorCode(errorType.code().toString())
-                        .build();
-
-            } else if (throwable instanceof IllegalArgumentException) {
-                ServiceException exception = new ServiceException(ErrorType.INVALID_ARGUMENT);
-                error = SerializableError.forException(exception);
-                statusCode = exception.getErrorType().httpErrorCode();
-                log(exception);
-
-            } else if (throwable instanceof Error) {
-                throw (Error) throwable;
-            } else {
-                ServiceException exception = new ServiceException(ErrorType.INTERNAL, throwable);
-                statusCode = exception.getErrorType().httpErrorCode();
-                error = SerializableError.forException(exception);
-                log(exception);
+            ErrorType errorType = ErrorType.INTERNAL;
+            statusCode = errorType.httpErrorCode();
+
+            // Override only the name and code of the error
+            error = SerializableError.builder()
+                    .from(exception.getError())
+                    .errorName(errorType.name())
+                    .errorCode(errorType.code().toString())
+                    .build();
+
+        } else if (throwable instanceof IllegalArgumentException) {
+            // Avoid wrapping in a ServiceException which would capture another stack trace
+            error = newError(ErrorType.INVALID_ARGUMENT);
+            statusCode = ErrorType.INVALID_ARGUMENT.httpErrorCode();
+            log(errorLogging, ErrorType.INVALID_ARGUMENT, error.errorInstanceId(), throwable);
+
+        } else {
+            error = newError(ErrorType.INTERNAL);
+            statusCode = ErrorType.INTERNAL.httpErrorCode();
+            log(errorLogging, ErrorType.INTERNAL, error.errorInstanceId(), throwable);
+        }
+
+        return new MappedError(statusCode, error);
+    }
+
+    /** Status code and body of an error response. */
+    static final class MappedError {
+        private final int statusCode;
+        private final SerializableError error;
+
+        private MappedError(int statusCode, SerializableError error) {
+            this.statusCode = statusCode;
+            this.error = error;
+        }
+
+        int statusCode() {
+            return statusCode;
+        }
+
+        SerializableError error() {
+            return error;
+        }
+    }
+
+    /**
+     * Responds with 429 Too Many Requests, equivalent to handling {@link QosException#throttle(Duration)} without
+     * the cost of creating the exception.
+     */
+    static void throttle(HttpServerExchange exchange, Duration retryAfter) {
+        writeThrottle(DEFAULT_SERIALIZERS, exchange, Optional.of(retryAfter));
+    }
+
+    /**
+     * Responds with 409 Conflict to a duplicate of a request with the same {@code Idempotency-Key} whose response
+     * cannot be replayed.
+     */
+    static void idempotentRequestIncomplete(HttpServerExchange exchange) {
+        writeError(DEFAULT_SERIALIZERS, exchange, IDEMPOTENT_REQUEST_INCOMPLETE.httpErrorCode(),
+                newError(IDEMPOTENT_REQUEST_INCOMPLETE));
+    }
+
+    private static void handleQosException(
+            SerializerRegistry serializers,
+            HttpServerExchange exchange,
+            QosException exception) {
+        exception.accept(new QosException.Visitor<Void>() {
+            @Override
+            public Void visit(QosException.Throttle throttle) {
+                writeThrottle(serializers, exchange, throttle.getRetryAfter());
+                return null;
             }
 
-            // Do not attempt to write the failure if data has already been written
-            if (!isResponseStarted(exchange)) {
-                exchange.setStatusCode(statusCode);
-                try {
-                    serializers.serialize(error, exchange);
-                } catch (IOException | RuntimeException e) {
-                    log.info("Failed to write error response", e);
+            @Override
+            public Void visit(QosException.RetryOther retryOther) {
+                if (!isResponseStarted(exchange)) {
+                    exchange.setStatusCode(StatusCodes.PERMANENT_REDIRECT);
+                    exchange.getResponseHeaders().put(Headers.LOCATION, retryOther.getRedirectTo().toString());
                 }
-            } else {
-                // This prevents the server from sending the final null chunk, alerting
-                // clients that the response was terminated prior to receiving full contents.
-                // Note that in the case of http/2 this does not close a connection, which
-                // would break other active requests, only resets the stream.
-                log.warn("Closing the connection to alert the client of an error");
-                IoUtils.safeClose(exchange.getConnection());
+                return null;
+            }
+
+            @Override
+            public Void visit(QosException.Unavailable unavailable) {
+                writeError(serializers, exchange, StatusCodes.SERVICE_UNAVAILABLE, newError(UNAVAILABLE));
+                return null;
+            }
+        });
+    }
+
+    private static void writeThrottle(
+            SerializerRegistry serializers,
+            HttpServerExchange exchange,
+            Optional<Duration> retryAfter) {
+        if (retryAfter.isPresent() && !isResponseStarted(exchange)) {
+            // Whole seconds, rounded up so that clients do not retry early
+            long seconds = Math.max(1, (retryAfter.get().toMillis() + 999) / 1000);
+            exchange.getResponseHeaders().put(Headers.RETRY_AFTER, seconds);
+        }
+        writeError(serializers, exchange, StatusCodes.TOO_MANY_REQUESTS, newError(TOO_MANY_REQUESTS));
+    }
+
+    private static void writeError(
+            SerializerRegistry serializers,
+            HttpServerExchange exchange,
+            int statusCode,
+            SerializableError error) {
+        // Do not attempt to write the failure if data has already been written
+        if (!isResponseStarted(exchange)) {
+            exchange.setStatusCode(statusCode);
+            try {
+                serializers.serialize(error, exchange);
+            } catch (IOException | RuntimeException e) {
+                log.info("Failed to write error response", e);
             }
+        } else {
+            // This prevents the server from sending the final null chunk, alerting
+            // clients that the response was terminated prior to receiving full contents.
+            // Note that in the case of http/2 this does not close a connection, which
+            // would break other active requests, only resets the stream.
+            log.warn("Closing the connection to alert the client of an error");
+            IoUtils.safeClose(exchange.getConnection());
         }
     }
 
+    private static SerializableError newError(ErrorType errorType) {
+        return SerializableError.builder()
+                .errorCode(errorType.code().toString())
+                .errorName(errorType.name())
+                .errorInstanceId(UUID.randomUUID().toString())
+                .build();
+    }
+
     private static boolean isResponseStarted(HttpServerExchange exchange) {
         if (exchange.isResponseStarted()) {
             return true;
         }
+        // Non-blocking exchanges have no output stream, responses are written using the Sender.
+        if (!exchange.isBlocking()) {
+            return false;
+        }
         // The blocking exchange output stream may have un-committed data buffered.
         // In a future optimization we can clear the buffer and produce a
         // SerializableError response.
@@ -142,13 +260,35 @@ final class ConjureExceptionHandler implements HttpHandler {
         return false;
     }
 
-    private static void log(ServiceException exception) {
-        if (exception.getErrorType().httpErrorCode() / 100 == 4 /* client error */) {
-            log.info("Error handling request",
-                    SafeArg.of("errorInstanceId", exception.getErrorInstanceId()), exception);
+    private static void log(
+            ErrorLogging errorLogging,
+            ErrorType errorType,
+            String errorInstanceId,
+            Throwable throwable) {
+        int suppressed = errorLogging.tryAcquire(errorType.name());
+        if (suppressed == ErrorLogging.SUPPRESSED) {
+            return;
+        }
+        boolean clientError = errorType.httpErrorCode() / 100 == 4;
+        List<Arg<?>> args = throwable instanceof SafeLoggable
+                ? ((SafeLoggable) throwable).getArgs()
+                : ImmutableList.of();
+        List<Object> parameters = new ArrayList<>(args.size() + 5);
+        parameters.add(SafeArg.of("errorInstanceId", errorInstanceId));
+        parameters.add(SafeArg.of("errorName", errorType.name()));
+        parameters.add(SafeArg.of("suppressed", suppressed));
+        if (throwable instanceof SafeLoggable) {
+            parameters.add(SafeArg.of("message", ((SafeLoggable) throwable).getLogMessage()));
+        }
+        // The args of a SafeLoggable failure are safe to index even when the stack trace is logged
+        parameters.addAll(args);
+        if (!clientError || errorLogging.clientErrorStackTraces()) {
+            parameters.add(throwable);
+        }
+        if (clientError) {
+            log.info("Error handling request", parameters.toArray());
         } else {
-            log.error("Error handling request",
-                    SafeArg.of("errorInstanceId", exception.getErrorInstanceId()), exception);
+            log.error("Error handling request", parameters.toArray());
         }
     }
 }
@@ -16,54 +16,88 @@
 
 package com.palantir.conjure.java.undertow.runtime;
 
-import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.conjure.java.undertow.lib.DeserializationLimits;
+import com.palantir.conjure.java.undertow.lib.NonBlocking;
 import com.palantir.conjure.java.undertow.lib.RoutingRegistry;
+import com.palantir.logsafe.Preconditions;
 import io.undertow.Handlers;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.RoutingHandler;
-import io.undertow.server.handlers.BlockingHandler;
 import io.undertow.server.handlers.ResponseCodeHandler;
 import io.undertow.server.handlers.URLDecodingHandler;
 import io.undertow.util.HttpString;
 import io.undertow.util.Methods;
-import java.util.function.BiFunction;
+import java.lang.annotation.Annotation;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * Default Conjure implementation of a {@link RoutingRegistry}
  * which can be registered as an Undertow {@link HttpHandler}.
+ *
+ * Endpoints execute on the shared Undertow worker pool, or the {@link Builder#fairQueue(FairQueue) FairQueue} or
+ * {@link Builder#executor(Executor) executor} if one is configured, unless they are routed to a {@link Bulkhead}
+ * using {@link Builder#bulkhead(String, Bulkhead)} or {@link Builder#bulkhead(Class, Bulkhead)}, or are annotated
+ * with {@link NonBlocking}.
  */
 public final class ConjureHandler implements HttpHandler, RoutingRegistry {
 
-    private static final ImmutableList<BiFunction<String, HttpHandler, HttpHandler>> WRAPPERS =
-            ImmutableList.<BiFunction<String, HttpHandler, HttpHandler>>of(
-            // Allow the server to configure UndertowOptions.DECODE_URL = false to allow slashes in parameters.
-            // Servers which do not configure DECODE_URL will still work properly except for encoded slash values.
-            (endpoint, handler) -> new URLDecodingHandler(handler, "UTF-8"),
-            (endpoint, handler) -> new PathParamDecodingHandler(handler),
-            // It is vitally important to never run blocking operations on the initial IO thread otherwise
-            // the server will not process new requests. all handlers executed after BlockingHandler
-            // use the larger task pool which is allowed to block. Any operation which sets thread
-            // state (e.g. SLF4J MDC or Tracer) must execute on the blocking thread otherwise state
-            // will not propagate to the wrapped service.
-            (endpoint, handler) -> new BlockingHandler(handler),
-            // Bearer token and trace handler must execute prior to the exception
-            // to provide user and trace information on exceptions.
-            (endpoint, handler) -> new BearerTokenLoggingHandler(handler),
-            TraceHandler::new,
-            (endpoint, handler) -> new ConjureExceptionHandler(handler)
-    ).reverse();
-
     private final RoutingHandler routingHandler;
     private final HttpHandler delegate;
+    private final ImmutableMap<String, Bulkhead> endpointBulkheads;
+    private final ImmutableMap<Class<? extends Annotation>, Bulkhead> markerBulkheads;
+    private final Optional<FairQueue> fairQueue;
+    private final Optional<Executor> executor;
+    private final ImmutableMap<String, RateLimiter> endpointRateLimiters;
+    private final Optional<RateLimiter> rateLimiter;
+    private final Optional<LoadReport> loadReport;
+    private final Optional<TrafficCapture> trafficCapture;
+    private final ImmutableMap<String, DeserializationLimits> endpointDeserializationLimits;
+    private final Optional<IdempotencyCache> idempotencyCache;
+    private final Optional<AccessLog> accessLog;
+    private final Optional<InFlightRequests> inFlightRequests;
+    private final Optional<ResourceUsage> resourceUsage;
+    private final Optional<ClientDisconnects> clientDisconnects;
+    private final ErrorLogging errorLogging;
 
-    public ConjureHandler(HttpHandler fallback) {
-        this.routingHandler = Handlers.routing().setFallbackHandler(fallback);
+    private ConjureHandler(Builder builder) {
+        this.routingHandler = Handlers.routing().setFallbackHandler(builder.fallback);
         this.delegate = new Undertow1460Handler(routingHandler);
+        this.endpointBulkheads = ImmutableMap.copyOf(builder.endpointBulkheads);
+        this.markerBulkheads = ImmutableMap.copyOf(builder.markerBulkheads);
+        this.fairQueue = builder.fairQueue;
+        this.executor = builder.executor;
+        this.endpointRateLimiters = ImmutableMap.copyOf(builder.endpointRateLimiters);
+        this.rateLimiter = builder.rateLimiter;
+        this.loadReport = builder.loadReport;
+        this.trafficCapture = builder.trafficCapture;
+        this.endpointDeserializationLimits = ImmutableMap.copyOf(builder.endpointDeserializationLimits);
+        this.idempotencyCache = builder.idempotencyCache;
+        this.accessLog = builder.accessLog;
+        this.inFlightRequests = builder.inFlightRequests;
+        this.resourceUsage = builder.resourceUsage;
+        this.clientDisconnects = builder.clientDisconnects;
+        this.errorLogging = builder.errorLogging;
+        loadReport.ifPresent(report -> routingHandler.add(Methods.GET, report.path(), report::report));
+    }
+
+    public ConjureHandler(HttpHandler fallback) {
+        this(builder().fallback(fallback));
     }
 
     public ConjureHandler() {
-        this(ResponseCodeHandler.HANDLE_404);
+        this(builder());
+    }
+
+    public static Builder builder() {
+        return new Builder();
     }
 
     @Override
@@ -73,31 +107,274 @@ public final class ConjureHandler implements HttpHandler, RoutingRegistry {
 
     @Override
     public ConjureHandler get(String template, HttpHandler handler) {
-        return register(Methods.GET, template, handler);
+        return register(Methods.GET, template, handler, ImmutableSet.of());
     }
 
     @Override
     public ConjureHandler post(String template, HttpHandler handler) {
-        return register(Methods.POST, template, handler);
+        return register(Methods.POST, template, handler, ImmutableSet.of());
     }
 
     @Override
     public ConjureHandler put(String template, HttpHandler handler) {
-        return register(Methods.PUT, template, handler);
+        return register(Methods.PUT, template, handler, ImmutableSet.of());
     }
 
     @Override
     public ConjureHandler delete(String template, HttpHandler handler) {
-        return register(Methods.DELETE, template, handler);
+        return register(Methods.DELETE, template, handler, ImmutableSet.of());
+    }
+
+    @Override
+    public ConjureHandler get(String template, HttpHandler handler, Set<Class<? extends Annotation>> markers) {
+        return register(Methods.GET, template, handler, markers);
+    }
+
+    @Override
+    public ConjureHandler post(String template, HttpHandler handler, Set<Class<? extends Annotation>> markers) {
+        return register(Methods.POST, template, handler, markers);
+    }
+
+    @Override
+    public ConjureHandler put(String template, HttpHandler handler, Set<Class<? extends Annotation>> markers) {
+        return register(Methods.PUT, template, handler, markers);
+    }
+
+    @Override
+    public ConjureHandler delete(String template, HttpHandler handler, Set<Class<? extends Annotation>> markers) {
+        return register(Methods.DELETE, template, handler, markers);
     }
 
-    private ConjureHandler register(HttpString method, String template, HttpHandler handler) {
-        HttpHandler current = handler;
+    private ConjureHandler register(
+            HttpString method, String template, HttpHandler handler, Set<Class<? extends Annotation>> markers) {
         String endpoint = method + " " + template;
-        for (BiFunction<String, HttpHandler, HttpHandler> wrapper : WRAPPERS) {
-            current = wrapper.apply(endpoint, current);
+        EndpointHandler.Builder endpointHandler = EndpointHandler.builder()
+                .endpoint(endpoint)
+                .delegate(handler)
+                .errorLogging(errorLogging)
+                .rateLimiter(endpointRateLimiters.getOrDefault(endpoint, rateLimiter.orElse(null)))
+                .loadReport(loadReport.orElse(null))
+                .trafficCapture(trafficCapture.orElse(null))
+                .deserializationLimits(endpointDeserializationLimits.get(endpoint))
+                .idempotencyCache(method.equals(Methods.POST) || method.equals(Methods.PUT)
+                        ? idempotencyCache.orElse(null)
+                        : null)
+                .accessLog(accessLog.orElse(null))
+                .inFlightRequests(inFlightRequests.orElse(null))
+                .resourceUsage(resourceUsage.orElse(null))
+                .clientDisconnects(clientDisconnects.orElse(null));
+        Optional<Bulkhead> bulkhead = bulkhead(endpoint, handler, markers);
+        if (bulkhead.isPresent()) {
+            endpointHandler.executor(bulkhead.get());
+        } else if (isMarked(handler, markers, NonBlocking.class)) {
+            endpointHandler.nonBlocking();
+        } else if (fairQueue.isPresent()) {
+            endpointHandler.fairQueue(fairQueue.get());
+        } else {
+            executor.ifPresent(endpointHandler::executor);
         }
-        routingHandler.add(method, template, current);
+        // Allow the server to configure UndertowOptions.DECODE_URL = false to allow slashes in parameters.
+        // Servers which do not configure DECODE_URL will still work properly except for encoded slash values.
+        routingHandler.add(method, template,
+                new URLDecodingHandler(new PathParamDecodingHandler(endpointHandler.build()), "UTF-8"));
         return this;
     }
+
+    private Optional<Bulkhead> bulkhead(
+            String endpoint, HttpHandler handler, Set<Class<? extends Annotation>> markers) {
+        Bulkhead bulkhead = endpointBulkheads.get(endpoint);
+        if (bulkhead != null) {
+            return Optional.of(bulkhead);
+        }
+        return markerBulkheads.entrySet().stream()
+                .filter(entry -> isMarked(handler, markers, entry.getKey()))
+                .map(Map.Entry::getValue)
+                .findFirst();
+    }
+
+    // Markers are either registered with the endpoint or annotate the handler class
+    private static boolean isMarked(
+            HttpHandler handler, Set<Class<? extends Annotation>> markers, Class<? extends Annotation> marker) {
+        return markers.contains(marker) || handler.getClass().isAnnotationPresent(marker);
+    }
+
+    public static final class Builder {
+
+        private HttpHandler fallback = ResponseCodeHandler.HANDLE_404;
+        private final Map<String, Bulkhead> endpointBulkheads = new LinkedHashMap<>();
+        private final Map<Class<? extends Annotation>, Bulkhead> markerBulkheads = new LinkedHashMap<>();
+        private Optional<FairQueue> fairQueue = Optional.empty();
+        private Optional<Executor> executor = Optional.empty();
+        private final Map<String, RateLimiter> endpointRateLimiters = new LinkedHashMap<>();
+        private Optional<RateLimiter> rateLimiter = Optional.empty();
+        private Optional<LoadReport> loadReport = Optional.empty();
+        private Optional<TrafficCapture> trafficCapture = Optional.empty();
+        private final Map<String, DeserializationLimits> endpointDeserializationLimits = new LinkedHashMap<>();
+        private Optional<IdempotencyCache> idempotencyCache = Optional.empty();
+        private Optional<AccessLog> accessLog = Optional.empty();
+        private Optional<InFlightRequests> inFlightRequests = Optional.empty();
+        private Optional<ResourceUsage> resourceUsage = Optional.empty();
+        private Optional<ClientDisconnects> clientDisconnects = Optional.empty();
+        private ErrorLogging errorLogging = ErrorLogging.builder().build();
+
+        private Builder() {}
+
+        /** Handler for requests which do not match a registered endpoint, defaults to a 404 response. */
+        @CanIgnoreReturnValue
+        public Builder fallback(HttpHandler value) {
+            this.fallback = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /**
+         * Routes the endpoint registered with the given method and path template, for example
+         * {@code "GET /catalog/datasets/{datasetRid}"}, to the provided {@link Bulkhead}.
+         * Takes precedence over bulkheads configured by marker.
+         */
+        @CanIgnoreReturnValue
+        public Builder bulkhead(String endpoint, Bulkhead bulkhead) {
+            endpointBulkheads.put(
+                    Preconditions.checkNotNull(endpoint, "Endpoint is required"),
+                    Preconditions.checkNotNull(bulkhead, "Bulkhead is required"));
+            return this;
+        }
+
+        /**
+         * Routes all endpoints marked with the given annotation to the provided {@link Bulkhead}.
+         * Markers are checked in the order they were configured. Generated handlers register the markers of their
+         * endpoint definition, other handlers may be annotated with a marker which is retained at runtime.
+         */
+        @CanIgnoreReturnValue
+        public Builder bulkhead(Class<? extends Annotation> marker, Bulkhead bulkhead) {
+            markerBulkheads.put(
+                    Preconditions.checkNotNull(marker, "Marker is required"),
+                    Preconditions.checkNotNull(bulkhead, "Bulkhead is required"));
+            return this;
+        }
+
+        /**
+         * Queues requests to endpoints which are not routed to a {@link Bulkhead} per tenant on the provided
+         * {@link FairQueue} rather than the server worker pool.
+         */
+        @CanIgnoreReturnValue
+        public Builder fairQueue(FairQueue value) {
+            this.fairQueue = Optional.of(Preconditions.checkNotNull(value, "Value is required"));
+            return this;
+        }
+
+        /**
+         * Executes requests to endpoints which are not routed to a {@link Bulkhead} or {@link FairQueue} on the
+         * provided executor, for example an {@link AutoscalingExecutor}, rather than the server worker pool.
+         */
+        @CanIgnoreReturnValue
+        public Builder executor(Executor value) {
+            this.executor = Optional.of(Preconditions.checkNotNull(value, "Value is required"));
+            return this;
+        }
+
+        /** Limits the rate of requests to every registered endpoint with the provided {@link RateLimiter}. */
+        @CanIgnoreReturnValue
+        public Builder rateLimiter(RateLimiter value) {
+            this.rateLimiter = Optional.of(Preconditions.checkNotNull(value, "Value is required"));
+            return this;
+        }
+
+        /**
+         * Limits the rate of requests to the endpoint registered with the given method and path template, for example
+         * {@code "GET /catalog/datasets/{datasetRid}"}, with the provided {@link RateLimiter}. Takes precedence over
+         * the {@link #rateLimiter(RateLimiter) default rate limiter}.
+         */
+        @CanIgnoreReturnValue
+        public Builder rateLimiter(String endpoint, RateLimiter limiter) {
+            endpointRateLimiters.put(
+                    Preconditions.checkNotNull(endpoint, "Endpoint is required"),
+                    Preconditions.checkNotNull(limiter, "RateLimiter is required"));
+            return this;
+        }
+
+        /**
+         * Tracks the load of registered endpoints with the provided {@link LoadReport}, and serves the report from
+         * its path.
+         */
+        @CanIgnoreReturnValue
+        public Builder loadReport(LoadReport value) {
+            this.loadReport = Optional.of(Preconditions.checkNotNull(value, "Value is required"));
+            return this;
+        }
+
+        /**
+         * Records a sample of the requests to registered endpoints with the provided {@link TrafficCapture}, to be
+         * replayed by {@link TrafficReplay}.
+         */
+        @CanIgnoreReturnValue
+        public Builder trafficCapture(TrafficCapture value) {
+            this.trafficCapture = Optional.of(Preconditions.checkNotNull(value, "Value is required"));
+            return this;
+        }
+
+        /**
+         * Limits the complexity of request bodies to the endpoint registered with the given method and path
+         * template, for example {@code "POST /catalog/datasets"}. Takes precedence over the limits of the
+         * {@link com.palantir.conjure.java.undertow.lib.SerializerRegistry} used by the endpoint.
+         */
+        @CanIgnoreReturnValue
+        public Builder deserializationLimits(String endpoint, DeserializationLimits limits) {
+            endpointDeserializationLimits.put(
+                    Preconditions.checkNotNull(endpoint, "Endpoint is required"),
+                    Preconditions.checkNotNull(limits, "DeserializationLimits are required"));
+            return this;
+        }
+
+        /**
+         * Replays the response to duplicate {@code POST} and {@code PUT} requests with the same
+         * {@code Idempotency-Key} header from the provided {@link IdempotencyCache}.
+         */
+        @CanIgnoreReturnValue
+        public Builder idempotencyCache(IdempotencyCache value) {
+            this.idempotencyCache = Optional.of(Preconditions.checkNotNull(value, "Value is required"));
+            return this;
+        }
+
+        /** Records every request handled by registered endpoints to the provided {@link AccessLog}. */
+        @CanIgnoreReturnValue
+        public Builder accessLog(AccessLog value) {
+            this.accessLog = Optional.of(Preconditions.checkNotNull(value, "Value is required"));
+            return this;
+        }
+
+        /** Tracks requests executing on registered endpoints with the provided {@link InFlightRequests}. */
+        @CanIgnoreReturnValue
+        public Builder inFlightRequests(InFlightRequests value) {
+            this.inFlightRequests = Optional.of(Preconditions.checkNotNull(value, "Value is required"));
+            return this;
+        }
+
+        /** Samples the CPU time and allocation of requests to registered endpoints with {@link ResourceUsage}. */
+        @CanIgnoreReturnValue
+        public Builder resourceUsage(ResourceUsage value) {
+            this.resourceUsage = Optional.of(Preconditions.checkNotNull(value, "Value is required"));
+            return this;
+        }
+
+        /**
+         * Cancels requests to registered endpoints whose client has gone away with {@link ClientDisconnects},
+         * skipping those which have not started executing.
+         */
+        @CanIgnoreReturnValue
+        public Builder clientDisconnects(ClientDisconnects value) {
+            this.clientDisconnects = Optional.of(Preconditions.checkNotNull(value, "Value is required"));
+            return this;
+        }
+
+        /** Rate limits and stack trace behavior for logged request failures. */
+        @CanIgnoreReturnValue
+        public Builder errorLogging(ErrorLogging value) {
+            this.errorLogging = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        public ConjureHandler build() {
+            return new ConjureHandler(this);
+        }
+    }
 }
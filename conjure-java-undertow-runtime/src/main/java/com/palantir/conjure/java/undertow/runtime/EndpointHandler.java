@@ -0,0 +1,351 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.palantir.conjure.java.undertow.lib.Cancellation;
+import com.palantir.conjure.java.undertow.lib.DeserializationLimits;
+import com.palantir.conjure.java.undertow.lib.RequestValidator;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.tracing.Tracer;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.IoUtils;
+
+/**
+ * Applies the per-request concerns of a {@link ConjureHandler} endpoint, after URL and path parameter decoding.
+ *
+ * In order, on the IO thread: {@link RateLimiter rate limiting}, {@link ClientDisconnects disconnect detection},
+ * {@link LoadReport load tracking}, {@link TrafficCapture traffic capture}, {@link RequestValidator request
+ * validation}, {@link IdempotencyCache idempotent replay}, then dispatch to the worker pool, a {@link Bulkhead} or
+ * a {@link FairQueue}. On the executing thread: skipping cancelled requests, then the {@link
+ * BearerTokenLoggingHandler} and {@link TraceHandler}, then access logging, in-flight tracking, resource usage
+ * sampling and exception handling. Endpoints annotated with {@link com.palantir.conjure.java.undertow.lib.NonBlocking}
+ * skip the dispatch.
+ */
+final class EndpointHandler implements HttpHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(EndpointHandler.class);
+
+    private final String endpoint;
+    private final HttpHandler delegate;
+    @Nullable
+    private final RequestValidator validator;
+    private final boolean blocking;
+    @Nullable
+    private final Executor executor;
+    @Nullable
+    private final FairQueue fairQueue;
+    private final ErrorLogging errorLogging;
+    @Nullable
+    private final RateLimiter rateLimiter;
+    @Nullable
+    private final LoadReport loadReport;
+    @Nullable
+    private final TrafficCapture trafficCapture;
+    @Nullable
+    private final DeserializationLimits deserializationLimits;
+    @Nullable
+    private final IdempotencyCache idempotencyCache;
+    @Nullable
+    private final AccessLog accessLog;
+    @Nullable
+    private final InFlightRequests inFlightRequests;
+    private final long slowRequestThresholdNanos;
+    @Nullable
+    private final ResourceUsage.Recorder resourceUsage;
+    @Nullable
+    private final ClientDisconnects.Recorder clientDisconnects;
+    // Bearer token and trace state must be initialized prior to handling exceptions
+    // to provide user and trace information on exceptions.
+    private final HttpHandler traced;
+    private final HttpHandler dispatched = this::invoke;
+
+    private EndpointHandler(Builder builder) {
+        this.endpoint = Preconditions.checkNotNull(builder.endpoint, "Endpoint is required");
+        this.delegate = Preconditions.checkNotNull(builder.delegate, "Delegate handler is required");
+        this.validator = delegate instanceof RequestValidator ? (RequestValidator) delegate : null;
+        this.blocking = builder.blocking;
+        this.executor = builder.executor;
+        this.fairQueue = builder.fairQueue;
+        this.errorLogging = Preconditions.checkNotNull(builder.errorLogging, "ErrorLogging is required");
+        this.rateLimiter = builder.rateLimiter;
+        this.loadReport = builder.loadReport;
+        this.trafficCapture = builder.trafficCapture;
+        this.deserializationLimits = builder.deserializationLimits;
+        this.idempotencyCache = builder.idempotencyCache;
+        this.accessLog = builder.accessLog;
+        this.inFlightRequests = builder.inFlightRequests;
+        this.slowRequestThresholdNanos = inFlightRequests == null ? 0 : inFlightRequests.thresholdNanos(endpoint);
+        this.resourceUsage = builder.resourceUsage == null ? null : builder.resourceUsage.recorder(endpoint);
+        this.clientDisconnects =
+                builder.clientDisconnects == null ? null : builder.clientDisconnects.recorder(endpoint);
+        this.traced = new BearerTokenLoggingHandler(new TraceHandler(endpoint, this::execute));
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        // Registered first so that requests rejected below are logged, and their time queued is included.
+        if (accessLog != null) {
+            accessLog.recordOnCompletion(exchange, endpoint);
+        }
+        // Reject over-limit requests before doing any work on their behalf.
+        if (rateLimiter != null) {
+            long retryAfterNanos = rateLimiter.tryAcquire(endpoint, exchange);
+            if (retryAfterNanos > 0) {
+                ConjureExceptionHandler.throttle(exchange, Duration.ofNanos(retryAfterNanos));
+                return;
+            }
+        }
+        if (clientDisconnects != null) {
+            clientDisconnects.watch(exchange, blocking && exchange.isInIoThread());
+        }
+        if (loadReport != null) {
+            loadReport.start(exchange);
+        }
+        if (trafficCapture != null) {
+            trafficCapture.sample(endpoint, exchange);
+        }
+        if (deserializationLimits != null) {
+            exchange.putAttachment(DeserializationLimits.ATTACHMENT_KEY, deserializationLimits);
+        }
+        if (!blocking) {
+            if (!replayed(exchange)) {
+                invoke(exchange);
+            }
+            return;
+        }
+        // Reject malformed requests before they consume a worker thread.
+        if (validator != null) {
+            try {
+                validator.validate(exchange);
+            } catch (Throwable throwable) {
+                ConjureExceptionHandler.handleException(
+                        ConjureExceptionHandler.DEFAULT_SERIALIZERS, errorLogging, exchange, throwable);
+                return;
+            }
+        }
+        if (replayed(exchange)) {
+            return;
+        }
+        // It is vitally important to never run blocking operations on the initial IO thread otherwise
+        // the server will not process new requests. Any operation which sets thread state (e.g. SLF4J MDC
+        // or Tracer) must execute on the blocking thread otherwise state will not propagate to the
+        // wrapped service.
+        exchange.startBlocking();
+        if (loadReport != null && (executor != null || fairQueue != null || exchange.isInIoThread())) {
+            loadReport.enqueue(exchange);
+        }
+        if (executor != null) {
+            // Undertow responds with a 503 when the bulkhead rejects the request.
+            exchange.dispatch(executor, dispatched);
+        } else if (fairQueue != null) {
+            String tenant = fairQueue.tenant(exchange);
+            exchange.dispatch(command -> fairQueue.execute(tenant, command), dispatched);
+        } else if (exchange.isInIoThread()) {
+            exchange.dispatch(dispatched);
+        } else {
+            invoke(exchange);
+        }
+    }
+
+    /** Returns true if the request duplicates a previous request, which has been or will be replayed. */
+    private boolean replayed(HttpServerExchange exchange) {
+        return idempotencyCache != null && idempotencyCache.intercept(endpoint, exchange);
+    }
+
+    /** Executes the endpoint on the current thread. */
+    void invoke(HttpServerExchange exchange) throws Exception {
+        if (loadReport != null) {
+            loadReport.dequeue(exchange);
+        }
+        Cancellation cancellation = Cancellation.of(exchange);
+        if (cancellation.isCancelled()) {
+            // The client went away while the request waited for a thread
+            clientDisconnects.skipped();
+            IoUtils.safeClose(exchange.getConnection());
+            return;
+        }
+        traced.handleRequest(exchange);
+    }
+
+    /** Executes the endpoint within the request's MDC and trace span. */
+    private void execute(HttpServerExchange exchange) {
+        if (accessLog != null) {
+            AccessLog.captureContext(exchange);
+        }
+        if (inFlightRequests != null) {
+            inFlightRequests.start(exchange, endpoint, slowRequestThresholdNanos, Tracer.getTraceId());
+        }
+        Cancellation cancellation = Cancellation.of(exchange);
+        ResourceUsage.Sample sample = resourceUsage == null ? null : resourceUsage.start();
+        long startNanos = clientDisconnects == null ? 0 : System.nanoTime();
+        Cancellation.setCurrent(clientDisconnects == null ? null : cancellation);
+        try {
+            delegate.handleRequest(exchange);
+        } catch (Throwable throwable) {
+            if (cancellation.isCancelled() && !(throwable instanceof Error)) {
+                // Nobody is waiting for the error response, the failure is most likely a result of the
+                // cancellation itself.
+                log.debug("Abandoned request whose client has gone away", throwable);
+                IoUtils.safeClose(exchange.getConnection());
+            } else {
+                ConjureExceptionHandler.handleException(
+                        ConjureExceptionHandler.DEFAULT_SERIALIZERS, errorLogging, exchange, throwable);
+            }
+        } finally {
+            Cancellation.setCurrent(null);
+            if (cancellation.isCancelled()) {
+                clientDisconnects.wasted(System.nanoTime() - startNanos);
+            }
+            if (sample != null) {
+                sample.finish();
+            }
+            if (inFlightRequests != null) {
+                inFlightRequests.finish(exchange);
+            }
+        }
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    static final class Builder {
+
+        private String endpoint;
+        private HttpHandler delegate;
+        private boolean blocking = true;
+        @Nullable
+        private Executor executor;
+        @Nullable
+        private FairQueue fairQueue;
+        private ErrorLogging errorLogging;
+        @Nullable
+        private RateLimiter rateLimiter;
+        @Nullable
+        private LoadReport loadReport;
+        @Nullable
+        private TrafficCapture trafficCapture;
+        @Nullable
+        private DeserializationLimits deserializationLimits;
+        @Nullable
+        private IdempotencyCache idempotencyCache;
+        @Nullable
+        private AccessLog accessLog;
+        @Nullable
+        private InFlightRequests inFlightRequests;
+        @Nullable
+        private ResourceUsage resourceUsage;
+        @Nullable
+        private ClientDisconnects clientDisconnects;
+
+        private Builder() {}
+
+        Builder endpoint(String value) {
+            this.endpoint = value;
+            return this;
+        }
+
+        Builder delegate(HttpHandler value) {
+            this.delegate = value;
+            return this;
+        }
+
+        /** Executes the endpoint on the IO thread rather than dispatching. */
+        Builder nonBlocking() {
+            this.blocking = false;
+            this.executor = null;
+            this.fairQueue = null;
+            return this;
+        }
+
+        /** Dispatches to the given executor rather than the server's worker pool. */
+        Builder executor(Executor value) {
+            this.blocking = true;
+            this.executor = value;
+            this.fairQueue = null;
+            return this;
+        }
+
+        /** Dispatches to the given queue as the tenant of each request rather than the server's worker pool. */
+        Builder fairQueue(FairQueue value) {
+            this.blocking = true;
+            this.executor = null;
+            this.fairQueue = value;
+            return this;
+        }
+
+        Builder errorLogging(ErrorLogging value) {
+            this.errorLogging = value;
+            return this;
+        }
+
+        Builder rateLimiter(@Nullable RateLimiter value) {
+            this.rateLimiter = value;
+            return this;
+        }
+
+        Builder loadReport(@Nullable LoadReport value) {
+            this.loadReport = value;
+            return this;
+        }
+
+        Builder trafficCapture(@Nullable TrafficCapture value) {
+            this.trafficCapture = value;
+            return this;
+        }
+
+        Builder deserializationLimits(@Nullable DeserializationLimits value) {
+            this.deserializationLimits = value;
+            return this;
+        }
+
+        Builder idempotencyCache(@Nullable IdempotencyCache value) {
+            this.idempotencyCache = value;
+            return this;
+        }
+
+        Builder accessLog(@Nullable AccessLog value) {
+            this.accessLog = value;
+            return this;
+        }
+
+        Builder inFlightRequests(@Nullable InFlightRequests value) {
+            this.inFlightRequests = value;
+            return this;
+        }
+
+        Builder resourceUsage(@Nullable ResourceUsage value) {
+            this.resourceUsage = value;
+            return this;
+        }
+
+        Builder clientDisconnects(@Nullable ClientDisconnects value) {
+            this.clientDisconnects = value;
+            return this;
+        }
+
+        EndpointHandler build() {
+            return new EndpointHandler(this);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.logsafe.Preconditions;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Controls how request failures are logged. Each error name is limited to
+ * {@link Builder#maxLogsPerInterval(int) maxLogsPerInterval} log lines per {@link Builder#interval(Duration)
+ * interval}, the number of suppressed failures is included in the next line logged for the same error.
+ * Stack traces are not logged for client errors unless {@link Builder#clientErrorStackTraces(boolean)} is set.
+ */
+public final class ErrorLogging {
+
+    static final int SUPPRESSED = -1;
+
+    private final int maxLogsPerInterval;
+    private final long intervalNanos;
+    private final boolean clientErrorStackTraces;
+    private final ConcurrentMap<String, Limiter> limiters = new ConcurrentHashMap<>();
+
+    private ErrorLogging(Builder builder) {
+        Preconditions.checkArgument(builder.maxLogsPerInterval > 0, "maxLogsPerInterval must be positive");
+        this.maxLogsPerInterval = builder.maxLogsPerInterval;
+        this.intervalNanos = builder.interval.toNanos();
+        this.clientErrorStackTraces = builder.clientErrorStackTraces;
+    }
+
+    boolean clientErrorStackTraces() {
+        return clientErrorStackTraces;
+    }
+
+    /**
+     * Returns {@link #SUPPRESSED} if a failure with the given error name should not be logged, otherwise
+     * the number of failures which have been suppressed since the last line was logged.
+     */
+    int tryAcquire(String errorName) {
+        return limiters.computeIfAbsent(errorName, name -> new Limiter()).tryAcquire(System.nanoTime());
+    }
+
+    private final class Limiter {
+        private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+        private final AtomicInteger logged = new AtomicInteger();
+        private final AtomicInteger suppressed = new AtomicInteger();
+
+        int tryAcquire(long now) {
+            long start = windowStart.get();
+            if (now - start >= intervalNanos && windowStart.compareAndSet(start, now)) {
+                logged.set(0);
+            }
+            if (logged.incrementAndGet() <= maxLogsPerInterval) {
+                return suppressed.getAndSet(0);
+            }
+            suppressed.incrementAndGet();
+            return SUPPRESSED;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private int maxLogsPerInterval = 10;
+        private Duration interval = Duration.ofSeconds(1);
+        private boolean clientErrorStackTraces = false;
+
+        private Builder() {}
+
+        /** Maximum number of lines logged for each error name per interval, defaults to 10. */
+        @CanIgnoreReturnValue
+        public Builder maxLogsPerInterval(int value) {
+            this.maxLogsPerInterval = value;
+            return this;
+        }
+
+        /** Rate limiting interval, defaults to one second. */
+        @CanIgnoreReturnValue
+        public Builder interval(Duration value) {
+            this.interval = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Whether stack traces are logged for 4xx client errors, defaults to false. */
+        @CanIgnoreReturnValue
+        public Builder clientErrorStackTraces(boolean value) {
+            this.clientErrorStackTraces = value;
+            return this;
+        }
+
+        public ErrorLogging build() {
+            return new ErrorLogging(this);
+        }
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import io.undertow.server.HttpServerExchange;
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * A named worker pool which queues requests per tenant and serves the tenants with pending requests using
+ * deficit round robin, so that a tenant submitting a burst of requests delays its own requests rather than those of
+ * every other tenant. Each turn a tenant executes up to its {@link Builder#weight(String, int) weight} requests,
+ * one by default. Requests are counted rather than timed, so tenants issuing expensive requests receive
+ * proportionally more of the pool.
+ *
+ * Tenants are identified by the remote address of the request unless a {@link Builder#tenant(Function) tenant
+ * function} is provided. Requests beyond
+ * {@link Builder#maxQueuedRequestsPerTenant(int) maxQueuedRequestsPerTenant} for a tenant, or
+ * {@link Builder#maxQueuedRequests(int) maxQueuedRequests} in total, are rejected and answered with a 503 by
+ * Undertow without blocking the IO thread.
+ *
+ * The following metrics are registered on the provided {@link MetricRegistry}:
+ * <ul>
+ *     <li>{@code conjure.fairqueue.<name>.queueDepth}: number of requests waiting for a thread</li>
+ *     <li>{@code conjure.fairqueue.<name>.rejected}: requests rejected because a queue was full</li>
+ *     <li>{@code conjure.fairqueue.<name>.tenant.<tenant>.queueDepth}: requests of the tenant waiting for a
+ *     thread</li>
+ *     <li>{@code conjure.fairqueue.<name>.tenant.<tenant>.waitTime}: time requests of the tenant spend queued
+ *     before executing</li>
+ * </ul>
+ * Tenant metrics are registered for at most {@link Builder#maxTenantMetrics(int) maxTenantMetrics} tenants at a
+ * time. Once the limit is reached, the metrics of tenants without queued requests are removed to make room for new
+ * tenants, and tenants beyond the limit are queued without metrics.
+ */
+public final class FairQueue implements Executor, Closeable {
+
+    static final String ANONYMOUS_TENANT = "anonymous";
+
+    private final String name;
+    private final MetricRegistry registry;
+    private final Function<HttpServerExchange, String> tenantFunction;
+    private final ImmutableMap<String, Integer> weights;
+    private final int maxQueuedRequests;
+    private final int maxQueuedRequestsPerTenant;
+    private final int maxTenantMetrics;
+    private final ThreadPoolExecutor executor;
+    private final int threads;
+    private final Meter rejected;
+
+    // Guarded by this. Tenants are only tracked while they have queued requests.
+    private final Map<String, TenantQueue> tenants = new HashMap<>();
+    // Guarded by this. Wait time metrics of the tenants with registered metrics.
+    private final Map<String, Timer> tenantMetrics = new HashMap<>();
+    private final ArrayDeque<TenantQueue> active = new ArrayDeque<>();
+    private int queued;
+    private int running;
+    private boolean closed;
+
+    private FairQueue(Builder builder) {
+        this.name = Preconditions.checkNotNull(builder.name, "Missing required name");
+        this.registry = Preconditions.checkNotNull(builder.metricRegistry, "Missing required MetricRegistry");
+        Preconditions.checkArgument(builder.threads > 0, "FairQueue threads must be positive");
+        Preconditions.checkArgument(builder.maxQueuedRequests >= 0, "FairQueue queue size must not be negative");
+        Preconditions.checkArgument(builder.maxQueuedRequestsPerTenant >= 0,
+                "FairQueue tenant queue size must not be negative");
+        Preconditions.checkArgument(builder.maxTenantMetrics >= 0, "FairQueue tenant metrics must not be negative");
+        this.tenantFunction = builder.tenantFunction;
+        this.weights = ImmutableMap.copyOf(builder.weights);
+        this.maxQueuedRequests = builder.maxQueuedRequests;
+        this.maxQueuedRequestsPerTenant = builder.maxQueuedRequestsPerTenant;
+        this.maxTenantMetrics = builder.maxTenantMetrics;
+        this.threads = builder.threads;
+        // Each submitted task is matched by one drain task which executes whichever request is next in turn,
+        // the executor queue is bounded by the admission checks in execute.
+        this.executor = new ThreadPoolExecutor(builder.threads, builder.threads, 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("conjure-fairqueue-" + name + "-%d").setDaemon(true).build());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.rejected = registry.meter(metricName("rejected"));
+        registry.register(metricName("queueDepth"), (Gauge<Integer>) this::queueDepth);
+    }
+
+    /** Name of this queue, used for thread names and metrics. */
+    public String name() {
+        return name;
+    }
+
+    /** Executes the command as the {@link #ANONYMOUS_TENANT anonymous} tenant. */
+    @Override
+    public void execute(Runnable command) {
+        execute(ANONYMOUS_TENANT, command);
+    }
+
+    /** Queues the command behind the pending requests of the given tenant. */
+    public void execute(String tenant, Runnable command) {
+        Preconditions.checkNotNull(tenant, "Tenant is required");
+        Preconditions.checkNotNull(command, "Command is required");
+        synchronized (this) {
+            if (closed) {
+                throw new RejectedExecutionException("FairQueue " + name + " is closed");
+            }
+            TenantQueue queue = tenants.get(tenant);
+            int tenantQueued = queue == null ? 0 : queue.tasks.size();
+            // Requests are queued until a drain task picks them up, even when threads are idle.
+            boolean full = queued + running >= threads + maxQueuedRequests;
+            if (full || tenantQueued >= maxQueuedRequestsPerTenant) {
+                rejected.mark();
+                throw new RejectedExecutionException("FairQueue " + name + " is full");
+            }
+            if (queue == null) {
+                queue = new TenantQueue(weights.getOrDefault(tenant, 1), tenantWaitTime(tenant));
+                tenants.put(tenant, queue);
+                active.addLast(queue);
+            }
+            queue.tasks.add(new Task(tenant, command, queue.waitTime, System.nanoTime()));
+            queued++;
+            // Never rejects while open, the executor queue is unbounded.
+            executor.execute(this::drain);
+        }
+    }
+
+    /** Returns the tenant which requests on the given exchange are queued as. */
+    String tenant(HttpServerExchange exchange) {
+        return tenantFunction.apply(exchange);
+    }
+
+    /** Stops accepting new requests, requests which have already been accepted are allowed to complete. */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            executor.shutdown();
+        }
+    }
+
+    private void drain() {
+        Task task = next();
+        if (task.waitTime != null) {
+            task.waitTime.update(System.nanoTime() - task.enqueuedNanos, TimeUnit.NANOSECONDS);
+        }
+        try {
+            task.command.run();
+        } finally {
+            synchronized (this) {
+                running--;
+            }
+        }
+    }
+
+    private synchronized Task next() {
+        TenantQueue queue = active.getFirst();
+        if (queue.deficit <= 0) {
+            // Start of the tenant's turn
+            queue.deficit += queue.weight;
+        }
+        Task task = queue.tasks.remove();
+        queue.deficit--;
+        queued--;
+        running++;
+        if (queue.tasks.isEmpty()) {
+            active.removeFirst();
+            tenants.remove(task.tenant);
+        } else if (queue.deficit <= 0) {
+            active.addLast(active.removeFirst());
+        }
+        return task;
+    }
+
+    private synchronized int queueDepth() {
+        return Math.max(0, queued + running - threads);
+    }
+
+    private synchronized int queueDepth(String tenant) {
+        TenantQueue queue = tenants.get(tenant);
+        return queue == null ? 0 : queue.tasks.size();
+    }
+
+    /** Returns the wait time metric of the tenant, or null if the metrics of too many tenants are registered. */
+    @Nullable
+    private Timer tenantWaitTime(String tenant) {
+        Timer waitTime = tenantMetrics.get(tenant);
+        if (waitTime != null) {
+            return waitTime;
+        }
+        if (tenantMetrics.size() >= maxTenantMetrics) {
+            // Tenants without queued requests are idle, their metrics are only registered again if they return
+            Iterator<String> registered = tenantMetrics.keySet().iterator();
+            while (registered.hasNext()) {
+                String idle = registered.next();
+                if (!tenants.containsKey(idle)) {
+                    registry.remove(tenantMetricName(idle, "queueDepth"));
+                    registry.remove(tenantMetricName(idle, "waitTime"));
+                    registered.remove();
+                }
+            }
+            if (tenantMetrics.size() >= maxTenantMetrics) {
+                return null;
+            }
+        }
+        registry.register(tenantMetricName(tenant, "queueDepth"), (Gauge<Integer>) () -> queueDepth(tenant));
+        waitTime = registry.timer(tenantMetricName(tenant, "waitTime"));
+        tenantMetrics.put(tenant, waitTime);
+        return waitTime;
+    }
+
+    private String metricName(String metric) {
+        return MetricRegistry.name("conjure", "fairqueue", name, metric);
+    }
+
+    private String tenantMetricName(String tenant, String metric) {
+        return MetricRegistry.name("conjure", "fairqueue", name, "tenant", tenant, metric);
+    }
+
+    private static String remoteAddress(HttpServerExchange exchange) {
+        InetSocketAddress address = exchange.getSourceAddress();
+        if (address == null || address.getAddress() == null) {
+            return ANONYMOUS_TENANT;
+        }
+        return address.getAddress().getHostAddress();
+    }
+
+    private static final class TenantQueue {
+        private final Queue<Task> tasks = new ArrayDeque<>();
+        private final int weight;
+        @Nullable
+        private final Timer waitTime;
+        private int deficit;
+
+        TenantQueue(int weight, @Nullable Timer waitTime) {
+            this.weight = weight;
+            this.waitTime = waitTime;
+        }
+    }
+
+    private static final class Task {
+        private final String tenant;
+        private final Runnable command;
+        @Nullable
+        private final Timer waitTime;
+        private final long enqueuedNanos;
+
+        Task(String tenant, Runnable command, @Nullable Timer waitTime, long enqueuedNanos) {
+            this.tenant = tenant;
+            this.command = command;
+            this.waitTime = waitTime;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private String name;
+        private MetricRegistry metricRegistry;
+        private Function<HttpServerExchange, String> tenantFunction = FairQueue::remoteAddress;
+        private final Map<String, Integer> weights = new HashMap<>();
+        private int threads = 16;
+        private int maxQueuedRequests = 1024;
+        private int maxQueuedRequestsPerTenant = 128;
+        private int maxTenantMetrics = 64;
+
+        private Builder() {}
+
+        @CanIgnoreReturnValue
+        public Builder name(String value) {
+            this.name = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        @CanIgnoreReturnValue
+        public Builder metricRegistry(MetricRegistry value) {
+            this.metricRegistry = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /**
+         * Identifies the tenant of a request, defaults to the remote address of the request. Invoked on the IO
+         * thread and must not block. Tenants derived from unverified request content, such as the subject of the
+         * bearer token, can be chosen freely by clients.
+         */
+        @CanIgnoreReturnValue
+        public Builder tenant(Function<HttpServerExchange, String> value) {
+            this.tenantFunction = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Number of requests the tenant executes each turn, tenants have a weight of one by default. */
+        @CanIgnoreReturnValue
+        public Builder weight(String tenant, int weight) {
+            Preconditions.checkArgument(weight > 0, "Weight must be positive", SafeArg.of("weight", weight));
+            weights.put(Preconditions.checkNotNull(tenant, "Tenant is required"), weight);
+            return this;
+        }
+
+        /** Maximum number of requests executing concurrently, defaults to 16. */
+        @CanIgnoreReturnValue
+        public Builder threads(int value) {
+            this.threads = value;
+            return this;
+        }
+
+        /** Maximum number of requests waiting for a thread before new requests are rejected, defaults to 1024. */
+        @CanIgnoreReturnValue
+        public Builder maxQueuedRequests(int value) {
+            this.maxQueuedRequests = value;
+            return this;
+        }
+
+        /** Maximum number of requests queued for one tenant before its requests are rejected, defaults to 128. */
+        @CanIgnoreReturnValue
+        public Builder maxQueuedRequestsPerTenant(int value) {
+            this.maxQueuedRequestsPerTenant = value;
+            return this;
+        }
+
+        /** Maximum number of tenants whose metrics are registered at the same time, defaults to 64. */
+        @CanIgnoreReturnValue
+        public Builder maxTenantMetrics(int value) {
+            this.maxTenantMetrics = value;
+            return this;
+        }
+
+        public FairQueue build() {
+            return new FairQueue(this);
+        }
+    }
+}
@@ -0,0 +1,420 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.SameThreadExecutor;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.AbstractStreamSinkConduit;
+import org.xnio.conduits.StreamSinkConduit;
+
+/**
+ * Replays the response to {@code POST} and {@code PUT} requests which carry an {@code Idempotency-Key} header, so
+ * that clients retrying after a timeout do not execute the endpoint again. The first request with a key executes
+ * as usual while its status, {@code Content-Type} and body are captured. Duplicates which arrive while it is in
+ * flight wait for it to complete without holding a thread, and later duplicates are answered from the cache on
+ * the IO thread. Replayed responses carry an {@code Idempotent-Replayed: true} header.
+ *
+ * Keys are scoped to the endpoint and the request credentials, the {@code Authorization} and {@code Cookie}
+ * headers, so one client cannot observe the response to another. Request bodies are not compared, clients must
+ * not reuse a key for a different request.
+ *
+ * Only successful responses are cached, for {@link Builder#ttl(Duration) ttl} after they complete, up to
+ * {@link Builder#maxCachedBytes(long) maxCachedBytes} in total after which the least recently used are evicted.
+ * Duplicates which attached to a request that failed receive its response, but are not cached so that later
+ * retries execute the endpoint again. Responses larger than {@link Builder#maxResponseBytes(int)
+ * maxResponseBytes}, or which were not written completely, cannot be replayed: attached duplicates are rejected
+ * with a 409 Conflict.
+ *
+ * The following meters are registered on the provided {@link MetricRegistry}:
+ * <ul>
+ *     <li>{@code conjure.idempotency.replayed}: duplicates answered from a completed response</li>
+ *     <li>{@code conjure.idempotency.attached}: duplicates which waited for a request in flight</li>
+ * </ul>
+ */
+public final class IdempotencyCache {
+
+    static final HttpString IDEMPOTENCY_KEY = HttpString.tryFromString("Idempotency-Key");
+    static final HttpString IDEMPOTENT_REPLAYED = HttpString.tryFromString("Idempotent-Replayed");
+
+    // Approximates the memory used by an entry in addition to its body
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    private final Cache<HashCode, Entry> entries;
+    private final int maxResponseBytes;
+    private final Meter replayed;
+    private final Meter attached;
+
+    private IdempotencyCache(Builder builder) {
+        MetricRegistry registry = Preconditions.checkNotNull(builder.metricRegistry,
+                "Missing required MetricRegistry");
+        Preconditions.checkArgument(!builder.ttl.isNegative() && !builder.ttl.isZero(), "TTL must be positive",
+                SafeArg.of("ttl", builder.ttl));
+        Preconditions.checkArgument(builder.maxCachedBytes > 0, "Max cached bytes must be positive",
+                SafeArg.of("maxCachedBytes", builder.maxCachedBytes));
+        Preconditions.checkArgument(builder.maxResponseBytes >= 0, "Max response bytes must not be negative",
+                SafeArg.of("maxResponseBytes", builder.maxResponseBytes));
+        this.entries = CacheBuilder.newBuilder()
+                .maximumWeight(builder.maxCachedBytes)
+                .weigher((HashCode key, Entry entry) -> entry.weight())
+                .expireAfterWrite(builder.ttl.toNanos(), TimeUnit.NANOSECONDS)
+                .build();
+        this.maxResponseBytes = builder.maxResponseBytes;
+        this.replayed = registry.meter(MetricRegistry.name("conjure", "idempotency", "replayed"));
+        this.attached = registry.meter(MetricRegistry.name("conjure", "idempotency", "attached"));
+    }
+
+    /**
+     * Handles a request to the given endpoint if it duplicates a previous request, otherwise captures its response
+     * if it has an idempotency key. Returns true if the request was handled, in which case the endpoint must not
+     * be executed. Must be called before the response channel is created.
+     */
+    boolean intercept(String endpoint, HttpServerExchange exchange) {
+        String idempotencyKey = exchange.getRequestHeaders().getFirst(IDEMPOTENCY_KEY);
+        if (idempotencyKey == null) {
+            return false;
+        }
+        HashCode key = key(endpoint, idempotencyKey, exchange);
+        Entry created = new Entry();
+        Entry existing = entries.asMap().putIfAbsent(key, created);
+        if (existing == null) {
+            capture(exchange, key, created);
+            return false;
+        }
+        Optional<Response> completed = existing.completed();
+        if (completed.isPresent()) {
+            replayed.mark();
+            respond(exchange, completed.get());
+        } else {
+            attached.mark();
+            // Holds the exchange open once the handler returns, responding on its own IO thread.
+            exchange.dispatch(SameThreadExecutor.INSTANCE, () -> existing.onComplete(response ->
+                    exchange.getIoThread().execute(() -> respond(exchange, response))));
+        }
+        return true;
+    }
+
+    private void capture(HttpServerExchange exchange, HashCode key, Entry entry) {
+        // The response channel may be created and completed on different threads
+        AtomicReference<CapturingConduit> conduit = new AtomicReference<>();
+        exchange.addResponseWrapper((factory, ignored) -> {
+            CapturingConduit capturing = new CapturingConduit(factory.create(), maxResponseBytes);
+            conduit.set(capturing);
+            return capturing;
+        });
+        exchange.addExchangeCompleteListener((completedExchange, nextListener) -> {
+            try {
+                CapturingConduit capturing = conduit.get();
+                Optional<Response> response = capturing == null
+                        ? Optional.of(Response.of(completedExchange, new byte[0]))
+                        : capturing.body().map(body -> Response.of(completedExchange, body));
+                entry.complete(response);
+                // Re-weighs the entry and starts its time to live, unless it has since been evicted.
+                if (response.isPresent() && response.get().isSuccessful()) {
+                    entries.asMap().replace(key, entry, entry);
+                } else {
+                    entries.asMap().remove(key, entry);
+                }
+            } finally {
+                nextListener.proceed();
+            }
+        });
+    }
+
+    private static void respond(HttpServerExchange exchange, Optional<Response> response) {
+        if (response.isPresent()) {
+            respond(exchange, response.get());
+        } else {
+            ConjureExceptionHandler.idempotentRequestIncomplete(exchange);
+        }
+    }
+
+    private static void respond(HttpServerExchange exchange, Response response) {
+        exchange.setStatusCode(response.status);
+        if (response.contentType != null) {
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, response.contentType);
+        }
+        exchange.getResponseHeaders().put(IDEMPOTENT_REPLAYED, "true");
+        if (response.body.length == 0) {
+            exchange.endExchange();
+        } else {
+            exchange.getResponseSender().send(ByteBuffer.wrap(response.body));
+        }
+    }
+
+    private static HashCode key(String endpoint, String idempotencyKey, HttpServerExchange exchange) {
+        Hasher hasher = Hashing.sha256().newHasher()
+                .putString(endpoint, StandardCharsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(idempotencyKey, StandardCharsets.UTF_8);
+        putHeader(hasher, exchange, Headers.AUTHORIZATION);
+        putHeader(hasher, exchange, Headers.COOKIE);
+        return hasher.hash();
+    }
+
+    private static void putHeader(Hasher hasher, HttpServerExchange exchange, HttpString header) {
+        HeaderValues values = exchange.getRequestHeaders().get(header);
+        hasher.putByte((byte) 0).putInt(values == null ? 0 : values.size());
+        if (values != null) {
+            for (String value : values) {
+                hasher.putByte((byte) 0).putString(value, StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private MetricRegistry metricRegistry;
+        private Duration ttl = Duration.ofMinutes(10);
+        private long maxCachedBytes = 64L * 1024 * 1024;
+        private int maxResponseBytes = 1024 * 1024;
+
+        private Builder() {}
+
+        @CanIgnoreReturnValue
+        public Builder metricRegistry(MetricRegistry value) {
+            this.metricRegistry = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Time for which successful responses are replayed once they complete, ten minutes by default. */
+        @CanIgnoreReturnValue
+        public Builder ttl(Duration value) {
+            this.ttl = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Approximate total size of cached responses, 64 megabytes by default. */
+        @CanIgnoreReturnValue
+        public Builder maxCachedBytes(long value) {
+            this.maxCachedBytes = value;
+            return this;
+        }
+
+        /** Size of the largest response body which can be replayed, one megabyte by default. */
+        @CanIgnoreReturnValue
+        public Builder maxResponseBytes(int value) {
+            this.maxResponseBytes = value;
+            return this;
+        }
+
+        public IdempotencyCache build() {
+            return new IdempotencyCache(this);
+        }
+    }
+
+    private static final class Entry {
+        // Guarded by this
+        private final List<Consumer<Optional<Response>>> waiters = new ArrayList<>();
+        private boolean done;
+        private Optional<Response> response = Optional.empty();
+
+        /** Returns the response once the request has completed and if it can be replayed. */
+        synchronized Optional<Response> completed() {
+            return response;
+        }
+
+        /** Runs the callback with the response, which is empty if it cannot be replayed, once it completes. */
+        void onComplete(Consumer<Optional<Response>> callback) {
+            Optional<Response> completed;
+            synchronized (this) {
+                if (!done) {
+                    waiters.add(callback);
+                    return;
+                }
+                completed = response;
+            }
+            callback.accept(completed);
+        }
+
+        void complete(Optional<Response> value) {
+            List<Consumer<Optional<Response>>> callbacks;
+            synchronized (this) {
+                done = true;
+                response = value;
+                callbacks = new ArrayList<>(waiters);
+                waiters.clear();
+            }
+            callbacks.forEach(callback -> callback.accept(value));
+        }
+
+        synchronized int weight() {
+            return ENTRY_OVERHEAD_BYTES + response.map(value -> value.body.length).orElse(0);
+        }
+    }
+
+    private static final class Response {
+        private final int status;
+        @Nullable
+        private final String contentType;
+        private final byte[] body;
+
+        private Response(int status, @Nullable String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        static Response of(HttpServerExchange exchange, byte[] body) {
+            return new Response(exchange.getStatusCode(),
+                    exchange.getResponseHeaders().getFirst(Headers.CONTENT_TYPE), body);
+        }
+
+        boolean isSuccessful() {
+            return status >= 200 && status < 300;
+        }
+    }
+
+    /** Copies the bytes written to the response, up to a limit. */
+    private static final class CapturingConduit extends AbstractStreamSinkConduit<StreamSinkConduit> {
+        private final int maxBytes;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        // Set once the body cannot be captured completely
+        private boolean incomplete;
+
+        CapturingConduit(StreamSinkConduit next, int maxBytes) {
+            super(next);
+            this.maxBytes = maxBytes;
+        }
+
+        Optional<byte[]> body() {
+            return incomplete ? Optional.empty() : Optional.of(buffer.toByteArray());
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int position = src.position();
+            try {
+                return copy(src, position, next.write(src));
+            } catch (IOException | RuntimeException e) {
+                incomplete = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offs, int len) throws IOException {
+            int[] positions = positions(srcs, offs, len);
+            try {
+                return copy(srcs, offs, positions, next.write(srcs, offs, len));
+            } catch (IOException | RuntimeException e) {
+                incomplete = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public int writeFinal(ByteBuffer src) throws IOException {
+            int position = src.position();
+            try {
+                return copy(src, position, next.writeFinal(src));
+            } catch (IOException | RuntimeException e) {
+                incomplete = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public long writeFinal(ByteBuffer[] srcs, int offs, int len) throws IOException {
+            int[] positions = positions(srcs, offs, len);
+            try {
+                return copy(srcs, offs, positions, next.writeFinal(srcs, offs, len));
+            } catch (IOException | RuntimeException e) {
+                incomplete = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public long transferFrom(FileChannel src, long position, long count) throws IOException {
+            // Transferred content bypasses the conduit buffers
+            incomplete = true;
+            return next.transferFrom(src, position, count);
+        }
+
+        @Override
+        public long transferFrom(StreamSourceChannel source, long count, ByteBuffer throughBuffer)
+                throws IOException {
+            incomplete = true;
+            return next.transferFrom(source, count, throughBuffer);
+        }
+
+        private int copy(ByteBuffer src, int position, int written) {
+            if (written > 0 && !incomplete) {
+                if (buffer.size() + written > maxBytes) {
+                    incomplete = true;
+                    buffer.reset();
+                } else {
+                    ByteBuffer copied = src.duplicate();
+                    copied.position(position).limit(position + written);
+                    byte[] bytes = new byte[written];
+                    copied.get(bytes);
+                    buffer.write(bytes, 0, written);
+                }
+            }
+            return written;
+        }
+
+        private long copy(ByteBuffer[] srcs, int offs, int[] positions, long written) {
+            long remaining = written;
+            for (int i = 0; i < positions.length && remaining > 0; i++) {
+                int length = (int) Math.min(remaining, srcs[offs + i].position() - positions[i]);
+                copy(srcs[offs + i], positions[i], length);
+                remaining -= length;
+            }
+            return written;
+        }
+
+        private static int[] positions(ByteBuffer[] srcs, int offs, int len) {
+            int[] positions = new int[len];
+            for (int i = 0; i < len; i++) {
+                positions[i] = srcs[offs + i].position();
+            }
+            return positions;
+        }
+    }
+}
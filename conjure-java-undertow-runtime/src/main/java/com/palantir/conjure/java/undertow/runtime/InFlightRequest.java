@@ -0,0 +1,43 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import java.time.Duration;
+import java.util.Optional;
+import org.immutables.value.Value;
+
+/**
+ * A request which was executing when an {@link InFlightRequests#snapshot() in-flight snapshot} was taken.
+ */
+@Value.Immutable
+public abstract class InFlightRequest {
+
+    /** Method and path template of the endpoint, for example {@code GET /catalog/datasets/{datasetRid}}. */
+    public abstract String endpoint();
+
+    /** Name of the thread executing the request. */
+    public abstract String threadName();
+
+    /** Time since the request began executing. */
+    public abstract Duration elapsed();
+
+    public abstract Optional<String> traceId();
+
+    public static ImmutableInFlightRequest.Builder builder() {
+        return ImmutableInFlightRequest.builder();
+    }
+}
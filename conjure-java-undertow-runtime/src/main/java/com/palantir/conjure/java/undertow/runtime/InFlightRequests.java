@@ -0,0 +1,229 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import io.undertow.server.HttpServerExchange;
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks requests which are currently executing. A watchdog thread periodically logs the stack trace of
+ * threads executing requests which have exceeded their endpoint's slow request threshold. Each slow request
+ * is reported at most once, and stack traces are logged at most once per
+ * {@link Builder#minLogInterval(Duration) minLogInterval}. Slow requests which are not logged are counted
+ * and included in the next log line.
+ */
+public final class InFlightRequests implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(InFlightRequests.class);
+
+    private final ConcurrentMap<HttpServerExchange, Entry> requests = new ConcurrentHashMap<>();
+    private final Duration defaultThreshold;
+    private final ImmutableMap<String, Duration> thresholds;
+    private final long minLogIntervalNanos;
+    private final ScheduledExecutorService watchdog;
+    // Only accessed by the watchdog thread
+    private long lastLoggedNanos;
+    private boolean logged;
+    private int suppressed;
+
+    private InFlightRequests(Builder builder) {
+        this.defaultThreshold = builder.defaultThreshold;
+        this.thresholds = ImmutableMap.copyOf(builder.thresholds);
+        this.minLogIntervalNanos = builder.minLogInterval.toNanos();
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("conjure-slow-request-watchdog")
+                .setDaemon(true)
+                .build());
+        long checkIntervalNanos = builder.checkInterval.toNanos();
+        this.watchdog.scheduleWithFixedDelay(this::check, checkIntervalNanos, checkIntervalNanos,
+                TimeUnit.NANOSECONDS);
+    }
+
+    /** Returns the requests which are currently executing. */
+    public List<InFlightRequest> snapshot() {
+        long now = System.nanoTime();
+        ImmutableList.Builder<InFlightRequest> snapshot = ImmutableList.builder();
+        for (Entry entry : requests.values()) {
+            snapshot.add(InFlightRequest.builder()
+                    .endpoint(entry.endpoint)
+                    .threadName(entry.thread.getName())
+                    .elapsed(Duration.ofNanos(now - entry.startNanos))
+                    .traceId(Optional.ofNullable(entry.traceId))
+                    .build());
+        }
+        return snapshot.build();
+    }
+
+    /** Stops the watchdog thread. */
+    @Override
+    public void close() {
+        watchdog.shutdownNow();
+    }
+
+    long thresholdNanos(String endpoint) {
+        return thresholds.getOrDefault(endpoint, defaultThreshold).toNanos();
+    }
+
+    void start(HttpServerExchange exchange, String endpoint, long thresholdNanos, @Nullable String traceId) {
+        requests.put(exchange, new Entry(endpoint, Thread.currentThread(), System.nanoTime(), thresholdNanos,
+                traceId));
+    }
+
+    void finish(HttpServerExchange exchange) {
+        requests.remove(exchange);
+    }
+
+    @VisibleForTesting
+    void check() {
+        // Exceptions would cancel the scheduled check, disabling the watchdog
+        try {
+            checkRequests();
+        } catch (RuntimeException e) {
+            log.warn("Failed to check for slow requests", e);
+        }
+    }
+
+    private void checkRequests() {
+        long now = System.nanoTime();
+        for (Map.Entry<HttpServerExchange, Entry> request : requests.entrySet()) {
+            Entry entry = request.getValue();
+            long elapsedNanos = now - entry.startNanos;
+            if (entry.reported || elapsedNanos < entry.thresholdNanos) {
+                continue;
+            }
+            entry.reported = true;
+            if (logged && now - lastLoggedNanos < minLogIntervalNanos) {
+                suppressed++;
+                continue;
+            }
+            StackTrace stackTrace = new StackTrace();
+            stackTrace.setStackTrace(entry.thread.getStackTrace());
+            // The thread may have moved on to another request while its stack was captured
+            if (requests.get(request.getKey()) != entry) {
+                continue;
+            }
+            log.warn("Request exceeded the slow request threshold",
+                    SafeArg.of("endpoint", entry.endpoint),
+                    SafeArg.of("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(elapsedNanos)),
+                    SafeArg.of("thresholdMillis", TimeUnit.NANOSECONDS.toMillis(entry.thresholdNanos)),
+                    SafeArg.of("thread", entry.thread.getName()),
+                    SafeArg.of("traceId", entry.traceId),
+                    SafeArg.of("suppressed", suppressed),
+                    stackTrace);
+            logged = true;
+            lastLoggedNanos = now;
+            suppressed = 0;
+        }
+    }
+
+    private static final class Entry {
+        private final String endpoint;
+        private final Thread thread;
+        private final long startNanos;
+        private final long thresholdNanos;
+        @Nullable
+        private final String traceId;
+        // Only accessed by the watchdog thread
+        private boolean reported;
+
+        Entry(String endpoint, Thread thread, long startNanos, long thresholdNanos, @Nullable String traceId) {
+            this.endpoint = endpoint;
+            this.thread = thread;
+            this.startNanos = startNanos;
+            this.thresholdNanos = thresholdNanos;
+            this.traceId = traceId;
+        }
+    }
+
+    /** Carries the stack trace of the thread executing a slow request. */
+    private static final class StackTrace extends RuntimeException {
+        StackTrace() {
+            super("Stack trace of the thread executing the slow request");
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private Duration defaultThreshold = Duration.ofSeconds(30);
+        private final Map<String, Duration> thresholds = new HashMap<>();
+        private Duration checkInterval = Duration.ofSeconds(1);
+        private Duration minLogInterval = Duration.ofSeconds(10);
+
+        private Builder() {}
+
+        /** Slow request threshold for endpoints without a specific threshold, defaults to 30 seconds. */
+        @CanIgnoreReturnValue
+        public Builder defaultThreshold(Duration value) {
+            this.defaultThreshold = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /**
+         * Slow request threshold for the endpoint registered with the given method and path template,
+         * for example {@code "GET /catalog/datasets/{datasetRid}"}.
+         */
+        @CanIgnoreReturnValue
+        public Builder threshold(String endpoint, Duration value) {
+            thresholds.put(
+                    Preconditions.checkNotNull(endpoint, "Endpoint is required"),
+                    Preconditions.checkNotNull(value, "Value is required"));
+            return this;
+        }
+
+        /** How often the watchdog checks for slow requests, defaults to one second. */
+        @CanIgnoreReturnValue
+        public Builder checkInterval(Duration value) {
+            this.checkInterval = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Minimum time between logged stack traces, defaults to 10 seconds. */
+        @CanIgnoreReturnValue
+        public Builder minLogInterval(Duration value) {
+            this.minLogInterval = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        public InFlightRequests build() {
+            return new InFlightRequests(this);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserDelegate;
+import com.palantir.conjure.java.undertow.lib.DeserializationLimits;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Enforces {@link DeserializationLimits} on the tokens read by a deserializer. Depth, token and collection size
+ * limits are checked as each token is read. String length is checked once the string has been parsed, and the
+ * {@link #limitInput limited input} bounds the bytes which may be read for a single token so that an oversized
+ * string is rejected before it is buffered in full.
+ */
+final class LimitingParser extends JsonParserDelegate {
+
+    // Parsers read ahead by up to a buffer, 8000 bytes for both JSON and CBOR.
+    private static final long READ_AHEAD_BYTES = 16 * 1024;
+    // Longest encoding of a single character, as a JSON unicode escape.
+    private static final int MAX_BYTES_PER_CHAR = 6;
+
+    private final DeserializationLimits limits;
+    @Nullable
+    private final TokenLimitedInputStream input;
+    private long tokens;
+    private int depth;
+    // Elements read so far, and whether the container is an array, by depth.
+    private int[] sizes = new int[16];
+    private boolean[] arrays = new boolean[16];
+
+    LimitingParser(JsonParser delegate, DeserializationLimits limits, InputStream input) {
+        super(delegate);
+        this.limits = limits;
+        this.input = input instanceof TokenLimitedInputStream ? (TokenLimitedInputStream) input : null;
+    }
+
+    /** Returns the input to create the limited parser from. */
+    static InputStream limitInput(InputStream input, DeserializationLimits limits) {
+        if (limits.maxStringLength() == Integer.MAX_VALUE) {
+            return input;
+        }
+        return new TokenLimitedInputStream(input,
+                (long) limits.maxStringLength() * MAX_BYTES_PER_CHAR + READ_AHEAD_BYTES);
+    }
+
+    /** Returns the limit exceeded by a failed deserialization, if any. */
+    static Optional<LimitExceededException> limitExceeded(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof LimitExceededException) {
+                return Optional.of((LimitExceededException) cause);
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException {
+        if (input != null) {
+            input.startToken();
+        }
+        JsonToken token = delegate.nextToken();
+        if (token != null) {
+            check(token);
+        }
+        return token;
+    }
+
+    @Override
+    public JsonToken nextValue() throws IOException {
+        JsonToken token = nextToken();
+        return token == JsonToken.FIELD_NAME ? nextToken() : token;
+    }
+
+    @Override
+    public JsonParser skipChildren() throws IOException {
+        // Skipped values count towards the limits
+        JsonToken current = getCurrentToken();
+        if (current != JsonToken.START_OBJECT && current != JsonToken.START_ARRAY) {
+            return this;
+        }
+        int open = 1;
+        while (open > 0) {
+            JsonToken token = nextToken();
+            if (token == null) {
+                return this;
+            }
+            if (token.isStructStart()) {
+                open++;
+            } else if (token.isStructEnd()) {
+                open--;
+            }
+        }
+        return this;
+    }
+
+    private void check(JsonToken token) throws IOException {
+        if (++tokens > limits.maxTokens()) {
+            throw new LimitExceededException("maxTokens", limits.maxTokens());
+        }
+        switch (token) {
+            case END_OBJECT:
+            case END_ARRAY:
+                depth--;
+                return;
+            case START_OBJECT:
+            case START_ARRAY:
+                countElement();
+                if (++depth > limits.maxDepth()) {
+                    throw new LimitExceededException("maxDepth", limits.maxDepth());
+                }
+                if (depth == sizes.length) {
+                    sizes = Arrays.copyOf(sizes, depth * 2);
+                    arrays = Arrays.copyOf(arrays, depth * 2);
+                }
+                sizes[depth] = 0;
+                arrays[depth] = token == JsonToken.START_ARRAY;
+                return;
+            case FIELD_NAME:
+                if (++sizes[depth] > limits.maxCollectionSize()) {
+                    throw new LimitExceededException("maxCollectionSize", limits.maxCollectionSize());
+                }
+                checkStringLength();
+                return;
+            case VALUE_STRING:
+                countElement();
+                checkStringLength();
+                return;
+            default:
+                countElement();
+        }
+    }
+
+    private void countElement() throws LimitExceededException {
+        if (depth > 0 && arrays[depth] && ++sizes[depth] > limits.maxCollectionSize()) {
+            throw new LimitExceededException("maxCollectionSize", limits.maxCollectionSize());
+        }
+    }
+
+    private void checkStringLength() throws IOException {
+        if (limits.maxStringLength() != Integer.MAX_VALUE && delegate.getTextLength() > limits.maxStringLength()) {
+            throw new LimitExceededException("maxStringLength", limits.maxStringLength());
+        }
+    }
+
+    static final class LimitExceededException extends IOException {
+        private final String limit;
+        private final long value;
+
+        LimitExceededException(String limit, long value) {
+            super("Deserialization limit exceeded: " + limit + " = " + value);
+            this.limit = limit;
+            this.value = value;
+        }
+
+        String limit() {
+            return limit;
+        }
+
+        long value() {
+            return value;
+        }
+    }
+
+    /** Fails once more than a limited number of bytes are read between calls to {@link #startToken()}. */
+    private static final class TokenLimitedInputStream extends FilterInputStream {
+        private final long maxBytesPerToken;
+        private long remaining;
+
+        TokenLimitedInputStream(InputStream in, long maxBytesPerToken) {
+            super(in);
+            this.maxBytesPerToken = maxBytesPerToken;
+            this.remaining = maxBytesPerToken;
+        }
+
+        void startToken() {
+            remaining = maxBytesPerToken;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                consume(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                consume(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            consume(skipped);
+            return skipped;
+        }
+
+        private void consume(long bytes) throws LimitExceededException {
+            remaining -= bytes;
+            if (remaining < 0) {
+                throw new LimitExceededException("maxStringLength", (maxBytesPerToken - READ_AHEAD_BYTES)
+                        / MAX_BYTES_PER_CHAR);
+            }
+        }
+    }
+}
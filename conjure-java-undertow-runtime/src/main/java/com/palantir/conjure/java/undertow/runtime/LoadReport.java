@@ -0,0 +1,195 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.HttpString;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reports the load of this server to clients so that they can route requests to the least loaded node. The report
+ * is served as JSON from a {@code GET} route registered at {@link Builder#path(String) path}, and optionally
+ * added to every response as a {@code Load-Report} header, for example
+ * {@code Load-Report: inFlight=12, queued=3, latencyMicros=1850}, with the following values:
+ * <ul>
+ *     <li>{@code inFlight}: requests to registered endpoints which have been received and not yet completed</li>
+ *     <li>{@code queued}: requests waiting for a worker, {@link Bulkhead} or {@link FairQueue} thread</li>
+ *     <li>{@code latencyMicros}: exponentially weighted moving average of the latency of completed requests</li>
+ * </ul>
+ * Counters are lock-free, tracking a request costs a completion listener and a few atomic updates.
+ */
+public final class LoadReport {
+
+    static final HttpString LOAD_REPORT = HttpString.tryFromString("Load-Report");
+
+    private static final AttachmentKey<Request> REQUEST = AttachmentKey.create(Request.class);
+    // Weight of each completed request in the moving average
+    private static final double LATENCY_ALPHA = 0.05;
+
+    private final String path;
+    private final boolean responseHeader;
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    // Double bits of the average latency in nanoseconds
+    private final AtomicLong latencyNanos = new AtomicLong(Double.doubleToRawLongBits(0));
+
+    private LoadReport(Builder builder) {
+        this.path = Preconditions.checkNotNull(builder.path, "Path is required");
+        Preconditions.checkArgument(path.startsWith("/"), "Path must start with '/'", SafeArg.of("path", path));
+        this.responseHeader = builder.responseHeader;
+    }
+
+    /** Requests currently in flight. */
+    public long inFlight() {
+        return Math.max(0, inFlight.sum());
+    }
+
+    /** Requests currently waiting for a thread. */
+    public long queued() {
+        return Math.max(0, queued.sum());
+    }
+
+    /** Moving average of the latency of recently completed requests. */
+    public long latency(TimeUnit unit) {
+        return unit.convert((long) Double.longBitsToDouble(latencyNanos.get()), TimeUnit.NANOSECONDS);
+    }
+
+    String path() {
+        return path;
+    }
+
+    /** Tracks a request from its arrival until the exchange completes. */
+    void start(HttpServerExchange exchange) {
+        Request request = new Request(System.nanoTime());
+        inFlight.increment();
+        exchange.putAttachment(REQUEST, request);
+        exchange.addExchangeCompleteListener(request);
+        if (responseHeader) {
+            exchange.addResponseCommitListener(committed ->
+                    committed.getResponseHeaders().put(LOAD_REPORT, headerValue()));
+        }
+    }
+
+    /** Marks a tracked request as waiting for a thread until it is {@link #dequeue dequeued}. */
+    void enqueue(HttpServerExchange exchange) {
+        Request request = exchange.getAttachment(REQUEST);
+        if (request != null && request.queued.compareAndSet(false, true)) {
+            queued.increment();
+        }
+    }
+
+    /** Marks a tracked request as no longer waiting for a thread. */
+    void dequeue(HttpServerExchange exchange) {
+        Request request = exchange.getAttachment(REQUEST);
+        if (request != null) {
+            request.dequeue();
+        }
+    }
+
+    /** Serves the report, on the IO thread. */
+    void report(HttpServerExchange exchange) throws IOException {
+        ConjureExceptionHandler.DEFAULT_SERIALIZERS.serialize(ImmutableMap.of(
+                "inFlight", inFlight(),
+                "queued", queued(),
+                "latencyMicros", latency(TimeUnit.MICROSECONDS)), exchange);
+    }
+
+    private String headerValue() {
+        return "inFlight=" + inFlight()
+                + ", queued=" + queued()
+                + ", latencyMicros=" + latency(TimeUnit.MICROSECONDS);
+    }
+
+    private void recordLatency(long nanos) {
+        while (true) {
+            long current = latencyNanos.get();
+            double average = Double.longBitsToDouble(current);
+            // The first request initializes the average
+            double updated = average == 0 ? nanos : average + LATENCY_ALPHA * (nanos - average);
+            if (latencyNanos.compareAndSet(current, Double.doubleToRawLongBits(updated))) {
+                return;
+            }
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private String path = "/load";
+        private boolean responseHeader;
+
+        private Builder() {}
+
+        /** Path of the {@code GET} route serving the report, {@code /load} by default. */
+        @CanIgnoreReturnValue
+        public Builder path(String value) {
+            this.path = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Whether to add the {@code Load-Report} header to every response, disabled by default. */
+        @CanIgnoreReturnValue
+        public Builder responseHeader(boolean value) {
+            this.responseHeader = value;
+            return this;
+        }
+
+        public LoadReport build() {
+            return new LoadReport(this);
+        }
+    }
+
+    private final class Request implements ExchangeCompletionListener {
+        private final long startNanos;
+        private final AtomicBoolean queued = new AtomicBoolean();
+
+        Request(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        void dequeue() {
+            if (queued.compareAndSet(true, false)) {
+                LoadReport.this.queued.decrement();
+            }
+        }
+
+        @Override
+        public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+            try {
+                // Requests rejected by an executor complete without being dequeued
+                dequeue();
+                inFlight.decrement();
+                recordLatency(System.nanoTime() - startNanos);
+            } finally {
+                nextListener.proceed();
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Primitives;
+import com.google.common.reflect.AbstractInvocationHandler;
+import com.google.common.reflect.Reflection;
+import com.google.common.reflect.TypeToken;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.conjure.java.api.errors.QosException;
+import com.palantir.conjure.java.api.errors.RemoteException;
+import com.palantir.conjure.java.undertow.lib.BinaryResponseBody;
+import com.palantir.conjure.java.undertow.lib.EventSink;
+import com.palantir.conjure.java.undertow.lib.Serializer;
+import com.palantir.conjure.java.undertow.lib.SnapshotPublisher;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.tokens.auth.AuthHeader;
+import com.palantir.tokens.auth.BearerToken;
+import com.palantir.tracing.Tracer;
+import com.palantir.tracing.api.SpanType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Creates clients which invoke a service implementation in the same JVM directly rather than over HTTP, avoiding
+ * the serialization, socket and parsing costs of a loopback request. Clients implement the generated Undertow
+ * service interface, for example {@code UndertowCatalogService}, and behave like a remote client of the service:
+ * <ul>
+ *     <li>Each call is recorded as a {@link SpanType#LOCAL local} span named by interface and method, for example
+ *     {@code "UndertowCatalogService.getDataset"}.</li>
+ *     <li>Failures are logged subject to the {@link Builder#errorLogging rate limits} of the server and thrown
+ *     as the {@link RemoteException} a remote client would receive, so that service errors are not mistaken
+ *     for errors of the caller. {@link QosException QosExceptions} and {@link Error Errors} are rethrown.</li>
+ *     <li>With {@link CopyMode#SERIALIZE} arguments and return values are copied by serializing them, so that
+ *     neither side observes mutations by the other.</li>
+ * </ul>
+ * Request filtering such as rate limiting, bulkheads and access logging are not applied, calls execute on the
+ * calling thread.
+ */
+public final class LocalClient {
+
+    // Immutable, streamed or server-side types which cannot or need not be copied
+    private static final ImmutableSet<Class<?>> PASS_THROUGH = ImmutableSet.of(
+            String.class, AuthHeader.class, BearerToken.class, InputStream.class, BinaryResponseBody.class,
+            EventSink.class, SnapshotPublisher.class);
+
+    private final CopyMode copyMode;
+    private final Serializer serializer;
+    private final ErrorLogging errorLogging;
+
+    private LocalClient(Builder builder) {
+        this.copyMode = builder.copyMode;
+        this.serializer = builder.serializer;
+        this.errorLogging = builder.errorLogging;
+    }
+
+    /** How arguments and return values are passed between the caller and the service implementation. */
+    public enum CopyMode {
+        /** Values are passed by reference, callers and implementations must not mutate them. */
+        NONE,
+        /** Values are copied by serializing and deserializing them with the {@link Builder#serializer}. */
+        SERIALIZE
+    }
+
+    /** Returns a client of the given service interface which invokes the provided implementation. */
+    public <T> T create(Class<T> serviceInterface, T delegate) {
+        Preconditions.checkNotNull(serviceInterface, "Service interface is required");
+        Preconditions.checkNotNull(delegate, "Delegate is required");
+        Preconditions.checkArgument(serviceInterface.isInterface(), "Service must be an interface",
+                SafeArg.of("serviceInterface", serviceInterface.getName()));
+        ImmutableMap.Builder<Method, LocalMethod> methods = ImmutableMap.builder();
+        for (Method method : serviceInterface.getMethods()) {
+            methods.put(method, new LocalMethod(serviceInterface, method));
+        }
+        return Reflection.newProxy(serviceInterface, new Handler(delegate, methods.build()));
+    }
+
+    private final class Handler extends AbstractInvocationHandler {
+        private final Object delegate;
+        private final ImmutableMap<Method, LocalMethod> methods;
+
+        Handler(Object delegate, ImmutableMap<Method, LocalMethod> methods) {
+            this.delegate = delegate;
+            this.methods = methods;
+        }
+
+        @Override
+        @Nullable
+        protected Object handleInvocation(Object proxy, Method method, Object[] args) {
+            LocalMethod localMethod = methods.get(method);
+            Tracer.startSpan(localMethod.operation, SpanType.LOCAL);
+            try {
+                Object[] delegateArgs = args.clone();
+                for (int i = 0; i < delegateArgs.length; i++) {
+                    delegateArgs[i] = copy(delegateArgs[i], localMethod.parameterTypes[i]);
+                }
+                return copy(invoke(method, delegateArgs), localMethod.returnType);
+            } finally {
+                Tracer.fastCompleteSpan();
+            }
+        }
+
+        @Nullable
+        private Object invoke(Method method, Object[] args) {
+            try {
+                return method.invoke(delegate, args);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Service method is not accessible", e);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof QosException) {
+                    throw (QosException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                ConjureExceptionHandler.MappedError mapped = ConjureExceptionHandler.map(errorLogging, cause);
+                RemoteException remoteException = new RemoteException(mapped.error(), mapped.statusCode());
+                remoteException.addSuppressed(cause);
+                throw remoteException;
+            }
+        }
+
+        @Nullable
+        private Object copy(@Nullable Object value, @Nullable TypeToken<?> type) {
+            if (value == null || type == null || copyMode == CopyMode.NONE) {
+                return value;
+            }
+            try {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                serializer.serialize(value, output);
+                return serializer.deserialize(new ByteArrayInputStream(output.toByteArray()), type);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /** Span name and the types of the values of a method which are copied, null when passed through. */
+    private static final class LocalMethod {
+        private final String operation;
+        private final TypeToken<?>[] parameterTypes;
+        @Nullable
+        private final TypeToken<?> returnType;
+
+        LocalMethod(Class<?> serviceInterface, Method method) {
+            this.operation = serviceInterface.getSimpleName() + "." + method.getName();
+            Type[] parameters = method.getGenericParameterTypes();
+            this.parameterTypes = new TypeToken<?>[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                parameterTypes[i] = copiedType(parameters[i]);
+            }
+            this.returnType = copiedType(method.getGenericReturnType());
+        }
+
+        @Nullable
+        private static TypeToken<?> copiedType(Type type) {
+            TypeToken<?> token = TypeToken.of(type);
+            Class<?> raw = token.getRawType();
+            if (raw.isPrimitive() || Primitives.isWrapperType(raw) || isPassThrough(raw)) {
+                return null;
+            }
+            if (raw == Optional.class && isPassThrough(
+                    token.resolveType(Optional.class.getTypeParameters()[0]).getRawType())) {
+                return null;
+            }
+            return token;
+        }
+
+        private static boolean isPassThrough(Class<?> raw) {
+            return PASS_THROUGH.stream().anyMatch(type -> type.isAssignableFrom(raw));
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private CopyMode copyMode = CopyMode.NONE;
+        private Serializer serializer = Serializers.json();
+        private ErrorLogging errorLogging = ErrorLogging.builder().build();
+
+        private Builder() {}
+
+        /** How arguments and return values are passed, defaults to {@link CopyMode#NONE}. */
+        @CanIgnoreReturnValue
+        public Builder copyMode(CopyMode value) {
+            this.copyMode = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Serializer used to copy values with {@link CopyMode#SERIALIZE}, defaults to JSON. */
+        @CanIgnoreReturnValue
+        public Builder serializer(Serializer value) {
+            this.serializer = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Rate limits and stack trace behavior for logged failures, typically those of the server. */
+        @CanIgnoreReturnValue
+        public Builder errorLogging(ErrorLogging value) {
+            this.errorLogging = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        public LocalClient build() {
+            return new LocalClient(this);
+        }
+    }
+}
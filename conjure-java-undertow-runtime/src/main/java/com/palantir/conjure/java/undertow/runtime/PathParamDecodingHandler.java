@@ -21,10 +21,14 @@ import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.PathTemplateMatch;
 import io.undertow.util.URLUtils;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
- * Undertow does not decode slashes in path parameters by default.
+ * Undertow does not decode slashes in path parameters by default, and its {@link
+ * io.undertow.server.handlers.URLDecodingHandler} does not decode matrix parameters.
  * This should be removed once Undertow 2.0.17.Final is released.
  *
  * @see <a href="https://issues.jboss.org/browse/UNDERTOW-1476">UNDERTOW-1476</a>
@@ -40,21 +44,38 @@ class PathParamDecodingHandler implements HttpHandler {
     @Override
     public void handleRequest(HttpServerExchange exchange) throws Exception {
         if (!isDecodingComplete(exchange)) {
+            StringBuilder buffer = new StringBuilder();
             PathTemplateMatch pathTemplateMatch = exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY);
             if (pathTemplateMatch != null) {
                 Map<String, String> parameters = pathTemplateMatch.getParameters();
                 if (parameters != null && !parameters.isEmpty()) {
-                    StringBuilder buffer = new StringBuilder();
                     for (Map.Entry<String, String> entry : parameters.entrySet()) {
                         entry.setValue(URLUtils.decode(
                                 entry.getValue(), "UTF-8", true, true, buffer));
                     }
                 }
             }
+            decodeMatrixParameters(exchange, buffer);
         }
         next.handleRequest(exchange);
     }
 
+    private static void decodeMatrixParameters(HttpServerExchange exchange, StringBuilder buffer) {
+        Map<String, Deque<String>> parameters = exchange.getPathParameters();
+        if (!parameters.isEmpty()) {
+            Map<String, Deque<String>> decoded = new TreeMap<>();
+            for (Map.Entry<String, Deque<String>> parameter : parameters.entrySet()) {
+                Deque<String> values = new ArrayDeque<>(parameter.getValue().size());
+                for (String value : parameter.getValue()) {
+                    values.add(URLUtils.decode(value, "UTF-8", true, true, buffer));
+                }
+                decoded.put(URLUtils.decode(parameter.getKey(), "UTF-8", true, true, buffer), values);
+            }
+            parameters.clear();
+            parameters.putAll(decoded);
+        }
+    }
+
     private static boolean isDecodingComplete(HttpServerExchange exchange) {
         return exchange.getConnection()
                 .getUndertowOptions().get(UndertowOptions.DECODE_URL, true);
@@ -0,0 +1,118 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.conjure.java.undertow.lib.HandlerContext;
+import com.palantir.conjure.java.undertow.lib.PhaseListener;
+import com.palantir.conjure.java.undertow.lib.RequestPhase;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.tracing.Tracer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link PhaseListener} which breaks down the time spent handling requests to generated endpoints into their
+ * {@link RequestPhase phases}, registered with {@link HandlerContext.Builder#phaseListener}. Endpoints must be
+ * generated with phase timings.
+ *
+ * When {@link Builder#tracing tracing} is enabled each phase is recorded as a child span of the request span,
+ * named by the lower case phase, for example {@code "deserialize"}. When a {@link Builder#metricRegistry
+ * MetricRegistry} is provided the following histograms are registered for each endpoint, named by method and path
+ * template, for example {@code "GET /catalog/datasets/{datasetRid}"}:
+ * <ul>
+ *     <li>{@code conjure.endpoint.<endpoint>.phase.<phase>}: time spent in the phase in nanoseconds</li>
+ * </ul>
+ */
+public final class PhaseTimings implements PhaseListener {
+
+    private static final String[] NAMES = Arrays.stream(RequestPhase.values())
+            .map(phase -> phase.name().toLowerCase(Locale.ROOT))
+            .toArray(String[]::new);
+
+    private final Optional<MetricRegistry> registry;
+    private final boolean tracing;
+    private final Map<String, Histogram[]> histograms = new ConcurrentHashMap<>();
+
+    private PhaseTimings(Builder builder) {
+        Preconditions.checkArgument(builder.metricRegistry.isPresent() || builder.tracing,
+                "PhaseTimings requires a MetricRegistry or tracing");
+        this.registry = builder.metricRegistry;
+        this.tracing = builder.tracing;
+    }
+
+    @Override
+    public void started(String endpoint, RequestPhase phase) {
+        if (tracing) {
+            Tracer.startSpan(NAMES[phase.ordinal()]);
+        }
+    }
+
+    @Override
+    public void completed(String endpoint, RequestPhase phase, long durationNanos) {
+        if (tracing) {
+            Tracer.fastCompleteSpan();
+        }
+        if (registry.isPresent()) {
+            histograms.computeIfAbsent(endpoint, this::histograms)[phase.ordinal()].update(durationNanos);
+        }
+    }
+
+    private Histogram[] histograms(String endpoint) {
+        Histogram[] result = new Histogram[NAMES.length];
+        for (int i = 0; i < NAMES.length; i++) {
+            result[i] = registry.get().histogram(
+                    MetricRegistry.name("conjure", "endpoint", endpoint, "phase", NAMES[i]));
+        }
+        return result;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private Optional<MetricRegistry> metricRegistry = Optional.empty();
+        private boolean tracing;
+
+        private Builder() {}
+
+        /** Records the duration of each phase to a histogram per endpoint and phase. */
+        @CanIgnoreReturnValue
+        public Builder metricRegistry(MetricRegistry value) {
+            this.metricRegistry = Optional.of(Preconditions.checkNotNull(value, "Value is required"));
+            return this;
+        }
+
+        /** Records each phase as a child span of the request span. Disabled by default. */
+        @CanIgnoreReturnValue
+        public Builder tracing(boolean value) {
+            this.tracing = value;
+            return this;
+        }
+
+        public PhaseTimings build() {
+            return new PhaseTimings(this);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import io.undertow.server.HttpServerExchange;
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of requests per {@link Key principal} using token buckets, so that abusive clients are rejected
+ * on the IO thread before their requests are deserialized or reach the service. Rejected requests receive a 429
+ * response with a {@code Retry-After} header.
+ *
+ * Each principal may issue {@link Builder#burst(int) burst} requests at once, replenished at
+ * {@link Builder#permitsPerSecond(double) permitsPerSecond}. A limiter shared by several endpoints limits their
+ * combined rate.
+ *
+ * Buckets use the generic cell rate algorithm: each is a single timestamp at which it is full again, updated with
+ * a compare-and-set. Buckets are held in independently swept stripes and removed once full, which does not change
+ * the outcome of later requests, so memory is proportional to recently active principals rather than all of them.
+ */
+public final class RateLimiter implements Closeable {
+
+    /** Identifies the principal a request is accounted to. */
+    public enum Key {
+        /**
+         * User id of the bearer token, or the remote address for requests without a token. The token is not
+         * verified, so any client may claim to be a different user on each request. Only use this key behind a proxy
+         * which authenticates requests.
+         */
+        USER,
+        /** Address of the client connection, which may be a proxy. */
+        REMOTE_ADDRESS,
+        /** All requests to the endpoint share a single bucket. */
+        ENDPOINT
+    }
+
+    // Shared by all limiters, sweeping is cheap and infrequent
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("conjure-rate-limiter-sweeper")
+                    .setDaemon(true)
+                    .build());
+
+    private final Key key;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final ConcurrentMap<Object, AtomicLong>[] stripes;
+    private final ScheduledFuture<?> sweep;
+    // Only accessed by the sweeper thread
+    private int nextStripe;
+
+    @SuppressWarnings({"rawtypes", "unchecked"}) // Generic array creation
+    private RateLimiter(Builder builder) {
+        this.key = builder.key;
+        Preconditions.checkArgument(builder.permitsPerSecond > 0, "Permits per second must be positive",
+                SafeArg.of("permitsPerSecond", builder.permitsPerSecond));
+        int burst = builder.burst.orElseGet(() -> (int) Math.max(1, Math.ceil(builder.permitsPerSecond)));
+        Preconditions.checkArgument(burst > 0, "Burst must be positive", SafeArg.of("burst", burst));
+        Preconditions.checkArgument(builder.stripes > 0 && Integer.bitCount(builder.stripes) == 1,
+                "Stripes must be a positive power of two", SafeArg.of("stripes", builder.stripes));
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / builder.permitsPerSecond));
+        this.toleranceNanos = intervalNanos * (burst - 1);
+        this.stripes = new ConcurrentMap[builder.stripes];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ConcurrentHashMap<>();
+        }
+        // Every stripe is swept once per sweep interval
+        long stripeIntervalNanos = Math.max(1, builder.sweepInterval.toNanos() / stripes.length);
+        this.sweep = SWEEPER.scheduleWithFixedDelay(this::sweepNextStripe, stripeIntervalNanos, stripeIntervalNanos,
+                TimeUnit.NANOSECONDS);
+    }
+
+    /** Stops sweeping, buckets are no longer removed once refilled. */
+    @Override
+    public void close() {
+        sweep.cancel(false);
+    }
+
+    /**
+     * Takes a permit for the principal of the request to the given endpoint, returning zero if one was available,
+     * otherwise the nanoseconds until a permit is available.
+     */
+    long tryAcquire(String endpoint, HttpServerExchange exchange) {
+        return tryAcquire(principal(endpoint, exchange), System.nanoTime());
+    }
+
+    @VisibleForTesting
+    long tryAcquire(Object principal, long nowNanos) {
+        ConcurrentMap<Object, AtomicLong> stripe = stripe(principal);
+        AtomicLong bucket = stripe.get(principal);
+        if (bucket == null) {
+            // Holds the time at which the bucket is full again, a new bucket is full
+            AtomicLong created = new AtomicLong(nowNanos);
+            bucket = stripe.putIfAbsent(principal, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        while (true) {
+            long full = bucket.get();
+            long start = full - nowNanos > 0 ? full : nowNanos;
+            long waitNanos = start - nowNanos - toleranceNanos;
+            if (waitNanos > 0) {
+                return waitNanos;
+            }
+            if (bucket.compareAndSet(full, start + intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    int size() {
+        int size = 0;
+        for (ConcurrentMap<Object, AtomicLong> stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    @VisibleForTesting
+    void sweep(long nowNanos) {
+        for (int i = 0; i < stripes.length; i++) {
+            sweep(stripes[i], nowNanos);
+        }
+    }
+
+    private void sweepNextStripe() {
+        sweep(stripes[nextStripe], System.nanoTime());
+        nextStripe = (nextStripe + 1) & (stripes.length - 1);
+    }
+
+    private static void sweep(ConcurrentMap<Object, AtomicLong> stripe, long nowNanos) {
+        // A request racing with removal may find a full bucket rather than the one it just drew from,
+        // granting at most one additional permit.
+        stripe.values().removeIf(bucket -> bucket.get() - nowNanos <= 0);
+    }
+
+    private ConcurrentMap<Object, AtomicLong> stripe(Object principal) {
+        int hash = principal.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    private Object principal(String endpoint, HttpServerExchange exchange) {
+        switch (key) {
+            case USER:
+                String userId = BearerTokenLoggingHandler.unverifiedUserId(exchange).orElse(null);
+                return userId != null ? userId : remoteAddress(exchange);
+            case REMOTE_ADDRESS:
+                return remoteAddress(exchange);
+            case ENDPOINT:
+                return endpoint;
+        }
+        throw new IllegalStateException("Unknown key: " + key);
+    }
+
+    private static Object remoteAddress(HttpServerExchange exchange) {
+        InetSocketAddress address = exchange.getSourceAddress();
+        // Unresolved addresses are compared by host name
+        return address.getAddress() != null ? address.getAddress() : address.getHostString();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private Key key = Key.REMOTE_ADDRESS;
+        private double permitsPerSecond;
+        private Optional<Integer> burst = Optional.empty();
+        private int stripes = 64;
+        private Duration sweepInterval = Duration.ofMinutes(1);
+
+        private Builder() {}
+
+        /** Principal requests are accounted to, defaults to {@link Key#REMOTE_ADDRESS}. */
+        @CanIgnoreReturnValue
+        public Builder key(Key value) {
+            this.key = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Sustained rate of requests allowed per principal. */
+        @CanIgnoreReturnValue
+        public Builder permitsPerSecond(double value) {
+            this.permitsPerSecond = value;
+            return this;
+        }
+
+        /** Requests a principal may issue at once after being idle, defaults to one second of permits. */
+        @CanIgnoreReturnValue
+        public Builder burst(int value) {
+            this.burst = Optional.of(value);
+            return this;
+        }
+
+        /** Number of independently swept bucket maps, a power of two which defaults to 64. */
+        @CanIgnoreReturnValue
+        public Builder stripes(int value) {
+            this.stripes = value;
+            return this;
+        }
+
+        /** Interval within which every stripe is swept for refilled buckets, defaults to one minute. */
+        @CanIgnoreReturnValue
+        public Builder sweepInterval(Duration value) {
+            this.sweepInterval = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        public RateLimiter build() {
+            return new RateLimiter(this);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.Nullable;
+
+/**
+ * Attributes the CPU time and heap allocation of a sample of requests to the endpoint which handled them. Both
+ * are measured on the thread executing the endpoint, which is the worker or {@link Bulkhead} thread the request
+ * was dispatched to, and exclude work the endpoint hands off to other threads.
+ *
+ * The following histograms are registered on the provided {@link MetricRegistry} for each endpoint, named by
+ * method and path template, for example {@code "GET /catalog/datasets/{datasetRid}"}:
+ * <ul>
+ *     <li>{@code conjure.endpoint.<endpoint>.cpuTime}: CPU time in nanoseconds</li>
+ *     <li>{@code conjure.endpoint.<endpoint>.allocatedBytes}: bytes allocated on the heap</li>
+ * </ul>
+ * Measurements the JVM does not support are not recorded.
+ */
+public final class ResourceUsage {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    @Nullable
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS =
+            THREADS instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+                    ? (com.sun.management.ThreadMXBean) THREADS
+                    : null;
+    private static final boolean CPU_TIME_SUPPORTED = THREADS.isCurrentThreadCpuTimeSupported();
+
+    private final MetricRegistry registry;
+    private final double samplingRate;
+
+    private ResourceUsage(Builder builder) {
+        this.registry = Preconditions.checkNotNull(builder.metricRegistry, "Missing required MetricRegistry");
+        Preconditions.checkArgument(builder.samplingRate >= 0 && builder.samplingRate <= 1,
+                "Sampling rate must be between zero and one", SafeArg.of("samplingRate", builder.samplingRate));
+        this.samplingRate = builder.samplingRate;
+    }
+
+    /** Returns the recorder for the given endpoint, resolving its histograms once at registration. */
+    Recorder recorder(String endpoint) {
+        return new Recorder(samplingRate,
+                registry.histogram(MetricRegistry.name("conjure", "endpoint", endpoint, "cpuTime")),
+                registry.histogram(MetricRegistry.name("conjure", "endpoint", endpoint, "allocatedBytes")));
+    }
+
+    static final class Recorder {
+        private final double samplingRate;
+        private final Histogram cpuTime;
+        private final Histogram allocatedBytes;
+
+        private Recorder(double samplingRate, Histogram cpuTime, Histogram allocatedBytes) {
+            this.samplingRate = samplingRate;
+            this.cpuTime = cpuTime;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        /** Begins measuring the current thread, returning null if this request is not sampled. */
+        @Nullable
+        Sample start() {
+            if (samplingRate < 1 && ThreadLocalRandom.current().nextDouble() >= samplingRate) {
+                return null;
+            }
+            long threadId = Thread.currentThread().getId();
+            return new Sample(this, threadId, currentCpuTime(), allocatedBytes(threadId));
+        }
+    }
+
+    /** Measurement of a single request, must be finished by the thread which started it. */
+    static final class Sample {
+        private final Recorder recorder;
+        private final long threadId;
+        private final long startCpuTime;
+        private final long startAllocatedBytes;
+
+        private Sample(Recorder recorder, long threadId, long startCpuTime, long startAllocatedBytes) {
+            this.recorder = recorder;
+            this.threadId = threadId;
+            this.startCpuTime = startCpuTime;
+            this.startAllocatedBytes = startAllocatedBytes;
+        }
+
+        void finish() {
+            // Negative values indicate the measurement is unsupported or disabled
+            if (startCpuTime >= 0) {
+                recorder.cpuTime.update(currentCpuTime() - startCpuTime);
+            }
+            if (startAllocatedBytes >= 0) {
+                recorder.allocatedBytes.update(allocatedBytes(threadId) - startAllocatedBytes);
+            }
+        }
+    }
+
+    private static long currentCpuTime() {
+        return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+
+    private static long allocatedBytes(long threadId) {
+        return ALLOCATIONS == null ? -1 : ALLOCATIONS.getThreadAllocatedBytes(threadId);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private MetricRegistry metricRegistry;
+        private double samplingRate = 0.01;
+
+        private Builder() {}
+
+        @CanIgnoreReturnValue
+        public Builder metricRegistry(MetricRegistry value) {
+            this.metricRegistry = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Fraction of requests which are measured, defaults to one percent. */
+        @CanIgnoreReturnValue
+        public Builder samplingRate(double value) {
+            this.samplingRate = value;
+            return this;
+        }
+
+        public ResourceUsage build() {
+            return new ResourceUsage(this);
+        }
+    }
+}
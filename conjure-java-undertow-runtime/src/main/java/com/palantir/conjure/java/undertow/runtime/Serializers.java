@@ -17,11 +17,15 @@
 package com.palantir.conjure.java.undertow.runtime;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.exc.InvalidFormatException;
 import com.google.common.base.Suppliers;
 import com.google.common.reflect.TypeToken;
 import com.palantir.conjure.java.serialization.ObjectMappers;
+import com.palantir.conjure.java.undertow.lib.DeserializationLimits;
 import com.palantir.conjure.java.undertow.lib.Serializer;
 import com.palantir.logsafe.Preconditions;
 import com.palantir.logsafe.SafeArg;
@@ -31,6 +35,7 @@ import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Optional;
 import java.util.function.Supplier;
 
 // TODO(rfink): Consider async Jackson, see
@@ -43,31 +48,79 @@ public final class Serializers {
     private abstract static class AbstractJacksonSerializer implements Serializer {
 
         private final ObjectMapper mapper;
+        private final BufferRecyclerPool writers;
 
         AbstractJacksonSerializer(ObjectMapper mapper) {
             this.mapper = Preconditions.checkNotNull(mapper, "ObjectMapper is required");
+            this.writers = new BufferRecyclerPool(mapper, BufferRecyclerPool.DEFAULT_CAPACITY);
         }
 
         @Override
         public void serialize(Object value, OutputStream output) throws IOException {
             Preconditions.checkNotNull(value, "cannot serialize null value");
-            mapper.writeValue(output, value);
+            ObjectWriter writer = writers.acquire();
+            try {
+                writer.writeValue(output, value);
+            } finally {
+                writers.release(writer);
+            }
         }
 
         @Override
         public final <T> T deserialize(InputStream input, TypeToken<T> type) throws IOException {
-            try {
-                T value = mapper.readValue(input, mapper.constructType(type.getType()));
+            return deserialize(input, type, Optional.empty());
+        }
+
+        @Override
+        public final <T> T deserialize(InputStream input, TypeToken<T> type, DeserializationLimits limits)
+                throws IOException {
+            return deserialize(input, type, limits.isUnlimited() ? Optional.empty() : Optional.of(limits));
+        }
+
+        private <T> T deserialize(InputStream input, TypeToken<T> type, Optional<DeserializationLimits> limits)
+                throws IOException {
+            ObjectWriter writer = writers.acquire();
+            InputStream limitedInput = limits.isPresent() ? LimitingParser.limitInput(input, limits.get()) : input;
+            try (JsonParser parser = createParser(writer, limitedInput, limits)) {
+                T value = mapper.readValue(parser, mapper.constructType(type.getType()));
                 Preconditions.checkNotNull(value, "cannot deserialize a JSON null value");
                 return value;
             } catch (InvalidFormatException e) {
                 throw new SafeIllegalArgumentException(
                         "Failed to deserialize response stream. Syntax error?", e, SafeArg.of("type", type.getType()));
             } catch (IOException e) {
+                Optional<LimitingParser.LimitExceededException> exceeded = LimitingParser.limitExceeded(e);
+                if (exceeded.isPresent()) {
+                    throw new SafeIllegalArgumentException("Request body exceeds deserialization limits", e,
+                            SafeArg.of("limit", exceeded.get().limit()),
+                            SafeArg.of("value", exceeded.get().value()),
+                            SafeArg.of("type", type.getType()));
+                }
                 throw new SafeIoException(
                         "Failed to deserialize response stream", e, SafeArg.of("type", type.getType()));
+            } finally {
+                writers.release(writer);
             }
         }
+
+        private static JsonParser createParser(
+                ObjectWriter writer,
+                InputStream input,
+                Optional<DeserializationLimits> limits) throws IOException {
+            JsonParser parser = writer.getFactory().createParser(input);
+            return limits.isPresent() ? new LimitingParser(parser, limits.get(), input) : parser;
+        }
+
+        @Override
+        public final void warmUp(TypeToken<?> type) {
+            JavaType javaType = mapper.constructType(type.getType());
+            // Readers and writers eagerly resolve the root (de)serializer, which in turn resolves those of
+            // statically typed properties. Both are cached by the mapper and shared with the pooled writers.
+            mapper.readerFor(javaType);
+            mapper.writerFor(javaType);
+            // Values are serialized based on their runtime class, which is cached separately from the declared type.
+            mapper.canSerialize(javaType.getRawClass());
+        }
     }
 
     private static final Supplier<Serializer> jsonInstance = Suppliers.memoize(() ->
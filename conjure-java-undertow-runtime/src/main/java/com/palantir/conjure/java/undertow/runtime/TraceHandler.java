@@ -16,7 +16,6 @@
 
 package com.palantir.conjure.java.undertow.runtime;
 
-import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.palantir.tracing.Tracer;
 import com.palantir.tracing.Tracers;
@@ -31,7 +30,9 @@ import java.util.Optional;
 /**
  * Extracts Zipkin-style trace information from the given HTTP request and sets up a corresponding
  * {@link com.palantir.tracing.Trace} and {@link com.palantir.tracing.api.Span} for delegating to the configured
- * {@link #delegate} handler. This handler must never run on an IO thread. See
+ * {@link #delegate} handler. This handler may only run on an IO thread if the delegate completes the request
+ * without dispatching, as is the case for {@link com.palantir.conjure.java.undertow.lib.NonBlocking} endpoints,
+ * in which case all trace state is cleared before the IO thread is released. See
  * https://github.com/openzipkin/b3-propagation.
  */
 @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
@@ -54,7 +55,15 @@ final class TraceHandler implements HttpHandler {
 
     @Override
     public void handleRequest(HttpServerExchange exchange) throws Exception {
-        Preconditions.checkArgument(!exchange.isInIoThread(), "TraceHandler must not be used in IO thread");
+        startSpan(operation, exchange);
+        try {
+            delegate.handleRequest(exchange);
+        } finally {
+            completeSpan(exchange);
+        }
+    }
+
+    private static void startSpan(String operation, HttpServerExchange exchange) {
         HeaderMap headers = exchange.getRequestHeaders();
         // TODO(rfink): Log/warn if we find multiple headers?
         String traceId = headers.getFirst(TRACE_ID); // nullable
@@ -77,10 +86,13 @@ final class TraceHandler implements HttpHandler {
 
         // Populate response before calling delegate since delegate might commit the response.
         exchange.getResponseHeaders().put(TRACE_ID, Tracer.getTraceId());
-        try {
-            delegate.handleRequest(exchange);
-        } finally {
-            Tracer.fastCompleteSpan();
+    }
+
+    private static void completeSpan(HttpServerExchange exchange) {
+        Tracer.fastCompleteSpan();
+        if (exchange.isInIoThread()) {
+            // IO threads are shared by all connections on the thread, trace state must not leak to other requests.
+            Tracer.getAndClearTrace();
         }
     }
 
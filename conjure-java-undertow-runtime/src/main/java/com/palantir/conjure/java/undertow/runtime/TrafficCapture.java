@@ -0,0 +1,358 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import io.undertow.server.ConduitWrapper;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.ConduitFactory;
+import io.undertow.util.HeaderValues;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.conduits.AbstractStreamSourceConduit;
+import org.xnio.conduits.StreamSourceConduit;
+
+/**
+ * Records a sample of the requests to registered endpoints into an append-only file which {@link TrafficReplay}
+ * can replay against a local server, so that performance investigations can use a realistic request mix. Each
+ * record holds the endpoint, method, path and query string, headers other than credentials, and body.
+ *
+ * Sampled request bodies are copied as they are read, requests whose body is larger than
+ * {@link Builder#maxBodyBytes(int) maxBodyBytes} or could not be copied completely are not recorded. Records are
+ * written by a background thread once the exchange completes, they are dropped rather than blocking the server
+ * when {@link Builder#capacity(int) capacity} records are waiting to be written.
+ */
+public final class TrafficCapture implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(TrafficCapture.class);
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private final double sampleRate;
+    private final int maxBodyBytes;
+    private final BlockingQueue<CapturedRequest> queue;
+    private final AtomicLong captured = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final DataOutputStream output;
+    private final Thread writerThread;
+    private volatile boolean closed;
+
+    private TrafficCapture(Builder builder) {
+        Path file = Preconditions.checkNotNull(builder.file, "File is required");
+        Preconditions.checkArgument(builder.sampleRate > 0 && builder.sampleRate <= 1,
+                "Sample rate must be greater than zero and at most one",
+                SafeArg.of("sampleRate", builder.sampleRate));
+        Preconditions.checkArgument(builder.maxBodyBytes >= 0, "Max body bytes must not be negative",
+                SafeArg.of("maxBodyBytes", builder.maxBodyBytes));
+        Preconditions.checkArgument(builder.capacity > 0, "Capacity must be positive",
+                SafeArg.of("capacity", builder.capacity));
+        this.sampleRate = builder.sampleRate;
+        this.maxBodyBytes = builder.maxBodyBytes;
+        this.queue = new ArrayBlockingQueue<>(builder.capacity);
+        this.output = open(file);
+        this.writerThread = new Thread(this::writeLoop, "conjure-traffic-capture");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /** Number of requests written to the file. */
+    public long captured() {
+        return captured.get();
+    }
+
+    /** Number of sampled requests which were dropped because too many were waiting to be written. */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /** Samples the request, which is recorded once the exchange completes. Must be called on the IO thread. */
+    void sample(String endpoint, HttpServerExchange exchange) {
+        if (closed || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        List<Map.Entry<String, String>> headers = new ArrayList<>();
+        for (HeaderValues values : exchange.getRequestHeaders()) {
+            if (!CapturedRequest.EXCLUDED_HEADERS.contains(values.getHeaderName())) {
+                String name = values.getHeaderName().toString();
+                for (String value : values) {
+                    headers.add(new AbstractMap.SimpleImmutableEntry<>(name, value));
+                }
+            }
+        }
+        Sample sample = new Sample(endpoint, exchange.getRequestMethod().toString(), target(exchange), headers);
+        exchange.addRequestWrapper(sample);
+        exchange.addExchangeCompleteListener(sample);
+    }
+
+    /** Stops the writer thread after writing all recorded requests to the file. */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueue(CapturedRequest request) {
+        if (!queue.offer(request)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (!closed) {
+                CapturedRequest request = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (request != null) {
+                    write(request);
+                    drain();
+                    output.flush();
+                }
+            }
+            drain();
+        } catch (IOException e) {
+            log.warn("Failed to write traffic capture, no further requests will be captured", e);
+            closed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                output.close();
+            } catch (IOException e) {
+                log.warn("Failed to close traffic capture", e);
+            }
+        }
+    }
+
+    private void drain() throws IOException {
+        CapturedRequest request;
+        while ((request = queue.poll()) != null) {
+            write(request);
+        }
+    }
+
+    private void write(CapturedRequest request) throws IOException {
+        request.write(output);
+        captured.incrementAndGet();
+    }
+
+    private static DataOutputStream open(Path file) {
+        try {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            // Discard a record which was partially written when the process stopped
+            long length = channel.size() == 0 ? 0 : CapturedRequest.completeLength(file);
+            channel.truncate(length);
+            channel.position(length);
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            if (length == 0) {
+                CapturedRequest.writeHeader(output);
+            }
+            return output;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String target(HttpServerExchange exchange) {
+        String uri = exchange.getRequestURI();
+        // Requests may use the absolute form, http://host/path
+        String path = uri.startsWith("/") ? uri : URI.create(uri).getRawPath();
+        String query = exchange.getQueryString();
+        return query.isEmpty() ? path : path + '?' + query;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private Path file;
+        private double sampleRate = 0.01;
+        private int maxBodyBytes = 64 * 1024;
+        private int capacity = 1024;
+
+        private Builder() {}
+
+        /** File which requests are appended to, created if it does not exist. */
+        @CanIgnoreReturnValue
+        public Builder file(Path value) {
+            this.file = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Fraction of requests to capture, defaults to 0.01. */
+        @CanIgnoreReturnValue
+        public Builder sampleRate(double value) {
+            this.sampleRate = value;
+            return this;
+        }
+
+        /** Requests with larger bodies are not captured. Defaults to 64 KiB. */
+        @CanIgnoreReturnValue
+        public Builder maxBodyBytes(int value) {
+            this.maxBodyBytes = value;
+            return this;
+        }
+
+        /** Number of captured requests which may wait to be written. Defaults to 1024. */
+        @CanIgnoreReturnValue
+        public Builder capacity(int value) {
+            this.capacity = value;
+            return this;
+        }
+
+        public TrafficCapture build() {
+            return new TrafficCapture(this);
+        }
+    }
+
+    private final class Sample implements ConduitWrapper<StreamSourceConduit>, ExchangeCompletionListener {
+        private final String endpoint;
+        private final String method;
+        private final String target;
+        private final List<Map.Entry<String, String>> headers;
+        @Nullable
+        private BodyConduit body;
+
+        Sample(String endpoint, String method, String target, List<Map.Entry<String, String>> headers) {
+            this.endpoint = endpoint;
+            this.method = method;
+            this.target = target;
+            this.headers = headers;
+        }
+
+        @Override
+        public StreamSourceConduit wrap(ConduitFactory<StreamSourceConduit> factory, HttpServerExchange exchange) {
+            body = new BodyConduit(factory.create(), maxBodyBytes);
+            return body;
+        }
+
+        @Override
+        public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+            try {
+                // The body is not wrapped if it was never read
+                byte[] bytes = body == null ? new byte[0] : body.body();
+                long contentLength = exchange.getRequestContentLength();
+                if (bytes != null && (contentLength < 0 || contentLength == bytes.length)) {
+                    enqueue(new CapturedRequest(endpoint, method, target, headers, bytes));
+                }
+            } finally {
+                nextListener.proceed();
+            }
+        }
+    }
+
+    /** Copies the request body as it is read. */
+    private static final class BodyConduit extends AbstractStreamSourceConduit<StreamSourceConduit> {
+        private final int maxBytes;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        // Set once the body cannot be captured completely
+        private boolean incomplete;
+
+        BodyConduit(StreamSourceConduit next, int maxBytes) {
+            super(next);
+            this.maxBytes = maxBytes;
+        }
+
+        /** Returns the body, or null if it could not be captured. */
+        @Nullable
+        byte[] body() {
+            return incomplete ? null : buffer.toByteArray();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int position = dst.position();
+            int read = next.read(dst);
+            copy(dst, position, read);
+            return read;
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offs, int len) throws IOException {
+            int[] positions = new int[len];
+            for (int i = 0; i < len; i++) {
+                positions[i] = dsts[offs + i].position();
+            }
+            long read = next.read(dsts, offs, len);
+            for (int i = 0; i < len; i++) {
+                ByteBuffer dst = dsts[offs + i];
+                copy(dst, positions[i], dst.position() - positions[i]);
+            }
+            return read;
+        }
+
+        @Override
+        public long transferTo(long position, long count, FileChannel target) throws IOException {
+            // Transferred content bypasses the conduit buffers
+            incomplete = true;
+            return next.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferTo(long count, ByteBuffer throughBuffer, StreamSinkChannel target) throws IOException {
+            incomplete = true;
+            return next.transferTo(count, throughBuffer, target);
+        }
+
+        private void copy(ByteBuffer dst, int position, long read) {
+            if (read > 0 && !incomplete) {
+                if (buffer.size() + read > maxBytes) {
+                    incomplete = true;
+                    buffer.reset();
+                } else if (dst.hasArray()) {
+                    buffer.write(dst.array(), dst.arrayOffset() + position, (int) read);
+                } else {
+                    ByteBuffer copied = dst.duplicate();
+                    copied.position(position);
+                    copied.limit(position + (int) read);
+                    while (copied.hasRemaining()) {
+                        buffer.write(copied.get());
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformSnapshot;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays requests recorded by {@link TrafficCapture} against a handler, typically a {@link ConjureHandler} with
+ * the service under investigation registered, served by an Undertow listener on the loopback interface of this
+ * process. Requests are sent in the order they were captured at a fixed {@link Builder#requestsPerSecond(double)
+ * rate} regardless of how quickly the server responds, and the latency of each request is measured from the time
+ * it was scheduled to be sent, so that time spent queued behind slow requests is included.
+ *
+ * Captured requests carry no credentials, {@link Builder#header(String, String) headers} such as
+ * {@code Authorization} may be added to every replayed request. {@link HttpURLConnection} keeps at most
+ * {@code http.maxConnections} idle connections, five by default, which should be raised to the
+ * {@link Builder#concurrency(int) concurrency} to avoid measuring connection establishment.
+ */
+public final class TrafficReplay {
+
+    private final Path capture;
+    private final HttpHandler handler;
+    private final double requestsPerSecond;
+    private final int passes;
+    private final int concurrency;
+    private final int timeoutMillis;
+    private final ImmutableMap<String, String> headers;
+
+    private TrafficReplay(Builder builder) {
+        this.capture = Preconditions.checkNotNull(builder.capture, "Capture file is required");
+        this.handler = Preconditions.checkNotNull(builder.handler, "Handler is required");
+        Preconditions.checkArgument(builder.requestsPerSecond > 0, "Requests per second must be positive",
+                SafeArg.of("requestsPerSecond", builder.requestsPerSecond));
+        Preconditions.checkArgument(builder.passes > 0, "Passes must be positive",
+                SafeArg.of("passes", builder.passes));
+        Preconditions.checkArgument(builder.concurrency > 0, "Concurrency must be positive",
+                SafeArg.of("concurrency", builder.concurrency));
+        this.requestsPerSecond = builder.requestsPerSecond;
+        this.passes = builder.passes;
+        this.concurrency = builder.concurrency;
+        this.timeoutMillis = Math.toIntExact(builder.timeout.toMillis());
+        this.headers = ImmutableMap.copyOf(builder.headers);
+    }
+
+    /** Replays the captured requests, returning once every request has completed. */
+    public Report run() throws IOException, InterruptedException {
+        List<CapturedRequest> requests = CapturedRequest.readAll(capture);
+        Preconditions.checkArgument(!requests.isEmpty(), "Capture file contains no requests");
+        Undertow server = Undertow.builder()
+                .addHttpListener(0, "127.0.0.1")
+                .setHandler(handler)
+                .build();
+        server.start();
+        ExecutorService senders = Executors.newFixedThreadPool(concurrency, new ThreadFactoryBuilder()
+                .setNameFormat("conjure-traffic-replay-%d")
+                .setDaemon(true)
+                .build());
+        try {
+            InetSocketAddress address = (InetSocketAddress) server.getListenerInfo().get(0).getAddress();
+            String baseUrl = "http://127.0.0.1:" + address.getPort();
+            int total = requests.size() * passes;
+            Recorder recorder = new Recorder();
+            CountDownLatch completed = new CountDownLatch(total);
+            long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+            long startNanos = System.nanoTime();
+            for (int i = 0; i < total; i++) {
+                CapturedRequest request = requests.get(i % requests.size());
+                long scheduledNanos = startNanos + i * intervalNanos;
+                long delayNanos;
+                while ((delayNanos = scheduledNanos - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(delayNanos);
+                }
+                senders.execute(() -> {
+                    try {
+                        boolean success = send(baseUrl, request);
+                        recorder.record(request.endpoint(), System.nanoTime() - scheduledNanos, success);
+                    } finally {
+                        completed.countDown();
+                    }
+                });
+            }
+            completed.await();
+            return recorder.report(System.nanoTime() - startNanos);
+        } finally {
+            senders.shutdownNow();
+            server.stop();
+        }
+    }
+
+    /** Sends the request, returning false if it failed with a server error or could not be sent. */
+    private boolean send(String baseUrl, CapturedRequest request) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + request.target()).openConnection();
+            connection.setRequestMethod(request.method());
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setInstanceFollowRedirects(false);
+            for (Map.Entry<String, String> header : request.headers()) {
+                connection.addRequestProperty(header.getKey(), header.getValue());
+            }
+            headers.forEach(connection::setRequestProperty);
+            byte[] body = request.body();
+            if (body.length > 0) {
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(body.length);
+                try (OutputStream output = connection.getOutputStream()) {
+                    output.write(body);
+                }
+            }
+            int status = connection.getResponseCode();
+            // Read the response completely so that the connection is reused
+            try (InputStream input = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+                if (input != null) {
+                    ByteStreams.exhaust(input);
+                }
+            }
+            return status < 500;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private Path capture;
+        private HttpHandler handler;
+        private double requestsPerSecond = 100;
+        private int passes = 1;
+        private int concurrency = 16;
+        private Duration timeout = Duration.ofSeconds(30);
+        private final Map<String, String> headers = new LinkedHashMap<>();
+
+        private Builder() {}
+
+        /** File written by {@link TrafficCapture}. */
+        @CanIgnoreReturnValue
+        public Builder capture(Path value) {
+            this.capture = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Handler which serves the replayed requests. */
+        @CanIgnoreReturnValue
+        public Builder handler(HttpHandler value) {
+            this.handler = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Rate at which requests are sent, defaults to 100 per second. */
+        @CanIgnoreReturnValue
+        public Builder requestsPerSecond(double value) {
+            this.requestsPerSecond = value;
+            return this;
+        }
+
+        /** Number of times the captured requests are replayed, defaults to once. */
+        @CanIgnoreReturnValue
+        public Builder passes(int value) {
+            this.passes = value;
+            return this;
+        }
+
+        /** Maximum number of requests in flight, defaults to 16. */
+        @CanIgnoreReturnValue
+        public Builder concurrency(int value) {
+            this.concurrency = value;
+            return this;
+        }
+
+        /** Connect and read timeout of each request, defaults to 30 seconds. */
+        @CanIgnoreReturnValue
+        public Builder timeout(Duration value) {
+            this.timeout = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Adds a header to every replayed request, replacing any captured value. */
+        @CanIgnoreReturnValue
+        public Builder header(String name, String value) {
+            headers.put(
+                    Preconditions.checkNotNull(name, "Name is required"),
+                    Preconditions.checkNotNull(value, "Value is required"));
+            return this;
+        }
+
+        public TrafficReplay build() {
+            return new TrafficReplay(this);
+        }
+    }
+
+    /** Latency and throughput of a replay. Latencies are in nanoseconds. */
+    public static final class Report {
+        private final long requests;
+        private final long failures;
+        private final long elapsedNanos;
+        private final Snapshot latency;
+        private final ImmutableMap<String, Snapshot> endpointLatency;
+
+        private Report(
+                long requests,
+                long failures,
+                long elapsedNanos,
+                Snapshot latency,
+                Map<String, Snapshot> endpointLatency) {
+            this.requests = requests;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+            this.latency = latency;
+            this.endpointLatency = ImmutableMap.copyOf(endpointLatency);
+        }
+
+        public long requests() {
+            return requests;
+        }
+
+        /** Requests which failed with a server error or could not be sent. */
+        public long failures() {
+            return failures;
+        }
+
+        /** Completed requests per second. */
+        public double throughput() {
+            return requests * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        }
+
+        public Snapshot latency() {
+            return latency;
+        }
+
+        /** Latency by endpoint, for example {@code GET /catalog/datasets/{datasetRid}}. */
+        public Map<String, Snapshot> endpointLatency() {
+            return endpointLatency;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(String.format(Locale.ROOT,
+                    "%d requests, %d failures, %.1f requests/s%n", requests, failures, throughput()));
+            builder.append(String.format(Locale.ROOT, "%-60s %8s %10s %10s %10s %10s%n",
+                    "latency (ms)", "count", "p50", "p95", "p99", "max"));
+            endpointLatency.forEach((endpoint, snapshot) -> appendRow(builder, endpoint, snapshot));
+            appendRow(builder, "all", latency);
+            return builder.toString();
+        }
+
+        private static void appendRow(StringBuilder builder, String name, Snapshot snapshot) {
+            builder.append(String.format(Locale.ROOT, "%-60s %8d %10.2f %10.2f %10.2f %10.2f%n",
+                    name,
+                    snapshot.size(),
+                    millis(snapshot.getMedian()),
+                    millis(snapshot.get95thPercentile()),
+                    millis(snapshot.get99thPercentile()),
+                    millis(snapshot.getMax())));
+        }
+
+        private static double millis(double nanos) {
+            return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+
+    /** Collects every latency so that percentiles are exact. */
+    private static final class Recorder {
+        private final Map<String, Latencies> endpoints = new TreeMap<>();
+        private final AtomicLong failures = new AtomicLong();
+
+        void record(String endpoint, long latencyNanos, boolean success) {
+            if (!success) {
+                failures.incrementAndGet();
+            }
+            synchronized (endpoints) {
+                endpoints.computeIfAbsent(endpoint, ignored -> new Latencies()).add(latencyNanos);
+            }
+        }
+
+        Report report(long elapsedNanos) {
+            synchronized (endpoints) {
+                Latencies all = new Latencies();
+                Map<String, Snapshot> snapshots = new LinkedHashMap<>();
+                endpoints.forEach((endpoint, latencies) -> {
+                    snapshots.put(endpoint, latencies.snapshot());
+                    all.addAll(latencies);
+                });
+                return new Report(all.size, failures.get(), elapsedNanos, all.snapshot(), snapshots);
+            }
+        }
+    }
+
+    private static final class Latencies {
+        private long[] values = new long[64];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(Latencies other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+
+        Snapshot snapshot() {
+            return new UniformSnapshot(Arrays.copyOf(values, size));
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.palantir.conjure.java.undertow;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.ServerConnection;
@@ -37,21 +38,31 @@ public final class HttpServerExchanges {
     private HttpServerExchanges() {}
 
     public static HttpServerExchange createStub() {
-        return createExchange(new HttpServerConnection(createStreamConnection(), null, null, OptionMap.EMPTY, 0, null));
+        return createStub(OptionMap.EMPTY);
+    }
+
+    public static HttpServerExchange createStub(OptionMap undertowOptions) {
+        return createExchange(
+                new HttpServerConnection(createStreamConnection(), null, null, undertowOptions, 0, null));
     }
 
     private static StreamConnection createStreamConnection() {
-        StreamConnection streamConnection = mock(StreamConnection.class);
-        ConduitStreamSinkChannel sinkChannel = new ConduitStreamSinkChannel(null, mock(StreamSinkConduit.class));
+        StreamConnection streamConnection = stub(StreamConnection.class);
+        ConduitStreamSinkChannel sinkChannel = new ConduitStreamSinkChannel(null, stub(StreamSinkConduit.class));
         when(streamConnection.getSinkChannel()).thenReturn(sinkChannel);
         ConduitStreamSourceChannel sourceChannel =
-                new ConduitStreamSourceChannel(null, mock(StreamSourceConduit.class));
+                new ConduitStreamSourceChannel(null, stub(StreamSourceConduit.class));
         when(streamConnection.getSourceChannel()).thenReturn(sourceChannel);
-        XnioIoThread ioThread = mock(XnioIoThread.class);
+        XnioIoThread ioThread = stub(XnioIoThread.class);
         when(streamConnection.getIoThread()).thenReturn(ioThread);
         return streamConnection;
     }
 
+    // Stub-only mocks do not record invocations, allowing exchanges to be reused by benchmarks.
+    private static <T> T stub(Class<T> type) {
+        return mock(type, withSettings().stubOnly());
+    }
+
     private static HttpServerExchange createExchange(ServerConnection connection) {
         HttpServerExchange httpServerExchange =
                 new HttpServerExchange(connection, new HeaderMap(), new HeaderMap(), 200);
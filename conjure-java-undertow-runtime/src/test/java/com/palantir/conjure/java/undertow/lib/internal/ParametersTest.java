@@ -0,0 +1,77 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.lib.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.palantir.conjure.java.undertow.HttpServerExchanges;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import java.util.OptionalInt;
+import org.junit.Test;
+
+public final class ParametersTest {
+
+    @Test
+    public void testQueryParameters() {
+        HttpServerExchange exchange = HttpServerExchanges.createStub();
+        exchange.addQueryParam("single", "1");
+        exchange.addQueryParam("multiple", "a");
+        exchange.addQueryParam("multiple", "b");
+        assertThat(StringDeserializers.deserializeInteger(Parameters.query(exchange, "single"))).isEqualTo(1);
+        assertThat(StringDeserializers.deserializeOptionalInteger(Parameters.optionalQuery(exchange, "single")))
+                .isEqualTo(OptionalInt.of(1));
+        assertThat(StringDeserializers.deserializeOptionalInteger(Parameters.optionalQuery(exchange, "missing")))
+                .isEqualTo(OptionalInt.empty());
+        assertThat(StringDeserializers.deserializeStringList(Parameters.queryValues(exchange, "multiple")))
+                .containsExactly("a", "b");
+        assertThat(StringDeserializers.deserializeStringList(Parameters.queryValues(exchange, "missing")))
+                .isEmpty();
+    }
+
+    @Test
+    public void testMissingRequiredQueryParameter() {
+        HttpServerExchange exchange = HttpServerExchanges.createStub();
+        assertThatThrownBy(() -> Parameters.query(exchange, "missing"))
+                .isInstanceOf(SafeIllegalArgumentException.class)
+                .hasMessage("Missing required parameter: {parameter=missing}");
+    }
+
+    @Test
+    public void testMultipleValuesForSingleHeader() {
+        HttpServerExchange exchange = HttpServerExchanges.createStub();
+        exchange.getRequestHeaders().add(Headers.ACCEPT, "secret-a");
+        exchange.getRequestHeaders().add(Headers.ACCEPT, "secret-b");
+        assertThatThrownBy(() -> Parameters.optionalHeader(exchange, "accept"))
+                .isInstanceOf(SafeIllegalArgumentException.class)
+                .hasMessage("Expected a single value: {parameter=accept, count=2}");
+        assertThat(Parameters.headerValues(exchange, "Accept")).containsExactly("secret-a", "secret-b");
+    }
+
+    @Test
+    public void testCookies() {
+        HttpServerExchange exchange = HttpServerExchanges.createStub();
+        assertThat(Parameters.cookie(exchange, "token")).isNull();
+        exchange.getRequestHeaders().add(Headers.COOKIE, "other=1; tokenSuffix=2");
+        exchange.getRequestHeaders().add(Headers.COOKIE, "a=b;token = \"value\" ;token=second");
+        assertThat(Parameters.cookie(exchange, "token")).isEqualTo("value");
+        assertThat(Parameters.cookie(exchange, "other")).isEqualTo("1");
+        assertThat(Parameters.cookie(exchange, "missing")).isNull();
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codahale.metrics.MetricRegistry;
+import com.palantir.conjure.java.undertow.lib.SerializerRegistry;
+import io.undertow.Undertow;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.Test;
+
+public final class AccessLogTest {
+
+    private static final OkHttpClient client = new OkHttpClient.Builder().build();
+
+    private final List<String> written = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void drainsEntriesInOrder() {
+        AccessLog accessLog = AccessLog.builder().sink(this::write).capacity(128).build();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            expected.add("GET /" + i);
+            accessLog.record("GET /" + i, 200, -1, 0, 1, null, null);
+        }
+        accessLog.close();
+        assertThat(accessLog.dropped()).isZero();
+        assertThat(written).isEqualTo(expected);
+    }
+
+    @Test
+    public void dropsEntriesWhenFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        AccessLog accessLog = AccessLog.builder()
+                .sink(entry -> {
+                    blocked.countDown();
+                    awaitUninterruptibly(release);
+                    write(entry);
+                })
+                .capacity(4)
+                .build();
+        accessLog.record("GET /first", 200, -1, 0, 1, null, null);
+        assertThat(blocked.await(5, TimeUnit.SECONDS)).isTrue();
+        // The entry being written holds its slot until the sink returns
+        for (int i = 0; i < 4; i++) {
+            accessLog.record("GET /next", 200, -1, 0, 1, null, null);
+        }
+        assertThat(accessLog.dropped()).isEqualTo(1);
+        release.countDown();
+        accessLog.close();
+        assertThat(written).hasSize(4);
+    }
+
+    @Test
+    public void recordsRequests() throws IOException {
+        List<AccessLogEntry> entries = new CopyOnWriteArrayList<>();
+        AccessLog accessLog = AccessLog.builder()
+                .sink(entry -> entries.add(copy(entry)))
+                .build();
+        ConjureHandler handler = ConjureHandler.builder().accessLog(accessLog).build();
+        SerializerRegistry serializers = new SerializerRegistry(Serializers.json());
+        handler.get("/values/{value}", exchange -> serializers.serialize("value", exchange));
+        Undertow server = Undertow.builder()
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+        try {
+            Response response = client.newCall(new Request.Builder()
+                    .get()
+                    .url("http://localhost:12345/values/foo")
+                    .header("X-B3-TraceId", "0123456789abcdef")
+                    .build()).execute();
+            assertThat(response.body().string()).isEqualTo("\"value\"");
+        } finally {
+            server.stop();
+            accessLog.close();
+        }
+        assertThat(entries).hasSize(1);
+        AccessLogEntry entry = entries.get(0);
+        assertThat(entry.endpoint()).isEqualTo("GET /values/{value}");
+        assertThat(entry.statusCode()).isEqualTo(200);
+        assertThat(entry.responseBytes()).isEqualTo(7);
+        assertThat(entry.durationNanos()).isPositive();
+        assertThat(entry.traceId()).hasValue("0123456789abcdef");
+        assertThat(entry.userId()).isEmpty();
+    }
+
+    @Test
+    public void recordsRequestsRejectedBeforeExecution() throws Exception {
+        List<AccessLogEntry> entries = new CopyOnWriteArrayList<>();
+        AccessLog accessLog = AccessLog.builder()
+                .sink(entry -> entries.add(copy(entry)))
+                .build();
+        RateLimiter rateLimiter = RateLimiter.builder().permitsPerSecond(0.1).burst(1).build();
+        Bulkhead bulkhead = Bulkhead.builder().name("slow").threads(1).metricRegistry(new MetricRegistry()).build();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ConjureHandler handler = ConjureHandler.builder()
+                .accessLog(accessLog)
+                .rateLimiter("GET /limited", rateLimiter)
+                .bulkhead("GET /slow", bulkhead)
+                .build();
+        handler.get("/limited", exchange -> exchange.setStatusCode(204));
+        handler.get("/slow", exchange -> {
+            started.countDown();
+            release.await();
+            exchange.setStatusCode(204);
+        });
+        Undertow server = Undertow.builder()
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertThat(execute("/limited")).isEqualTo(204);
+            assertThat(execute("/limited")).isEqualTo(429);
+            Future<Integer> slow = executor.submit(() -> execute("/slow"));
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(execute("/slow")).isEqualTo(503);
+            release.countDown();
+            assertThat(slow.get(5, TimeUnit.SECONDS)).isEqualTo(204);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            server.stop();
+            accessLog.close();
+            rateLimiter.close();
+            bulkhead.close();
+        }
+        assertThat(entries)
+                .extracting(entry -> entry.endpoint() + " " + entry.statusCode())
+                .containsExactlyInAnyOrder("GET /limited 204", "GET /limited 429", "GET /slow 503", "GET /slow 204");
+    }
+
+    private static int execute(String path) throws IOException {
+        try (Response response = client.newCall(new Request.Builder()
+                .get()
+                .url("http://localhost:12345" + path)
+                .build()).execute()) {
+            return response.code();
+        }
+    }
+
+    private void write(AccessLogEntry entry) {
+        written.add(entry.endpoint());
+    }
+
+    private static AccessLogEntry copy(AccessLogEntry entry) {
+        String endpoint = entry.endpoint();
+        int statusCode = entry.statusCode();
+        long requestBytes = entry.requestBytes();
+        long responseBytes = entry.responseBytes();
+        long durationNanos = entry.durationNanos();
+        Optional<String> traceId = entry.traceId();
+        Optional<String> userId = entry.userId();
+        return new AccessLogEntry() {
+            @Override
+            public String endpoint() {
+                return endpoint;
+            }
+
+            @Override
+            public int statusCode() {
+                return statusCode;
+            }
+
+            @Override
+            public long requestBytes() {
+                return requestBytes;
+            }
+
+            @Override
+            public long responseBytes() {
+                return responseBytes;
+            }
+
+            @Override
+            public long durationNanos() {
+                return durationNanos;
+            }
+
+            @Override
+            public Optional<String> traceId() {
+                return traceId;
+            }
+
+            @Override
+            public Optional<String> userId() {
+                return userId;
+            }
+        };
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codahale.metrics.MetricRegistry;
+import io.undertow.Undertow;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Test;
+
+public final class AutoscalingExecutorTest {
+
+    private static final long TARGET_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final MetricRegistry registry = new MetricRegistry();
+    private final AutoscalingExecutor executor = AutoscalingExecutor.builder()
+            .name("test")
+            .metricRegistry(registry)
+            .minThreads(8)
+            .maxThreads(12)
+            .targetQueueWait(Duration.ofNanos(TARGET_NANOS))
+            .maxCpuUtilization(0.8)
+            .scaleDownIntervals(3)
+            // Evaluated explicitly by tests
+            .evaluationInterval(Duration.ofHours(1))
+            .build();
+
+    @After
+    public void after() {
+        executor.close();
+    }
+
+    @Test
+    public void growsWhenRequestsWait() {
+        assertThat(executor.decide(TARGET_NANOS + 1, 0.5, 8)).isEqualTo(10);
+        executor.resize(10);
+        assertThat(executor.threads()).isEqualTo(10);
+        // Bounded by the maximum
+        assertThat(executor.decide(TARGET_NANOS + 1, 0.5, 10)).isEqualTo(12);
+        executor.resize(12);
+        assertThat(executor.decide(TARGET_NANOS + 1, 0.5, 12)).isEqualTo(12);
+        assertThat(registry.meter("conjure.autoscaling.test.scaleUp").getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void doesNotGrowWhenCpuIsSaturated() {
+        assertThat(executor.decide(TARGET_NANOS + 1, 0.8, 8)).isEqualTo(8);
+        assertThat(registry.meter("conjure.autoscaling.test.cpuLimited").getCount()).isEqualTo(1);
+        // Unknown utilization does not prevent growth
+        assertThat(executor.decide(TARGET_NANOS + 1, -1, 8)).isEqualTo(10);
+    }
+
+    @Test
+    public void shrinksAfterConsecutiveQuietIntervals() {
+        executor.resize(12);
+        assertThat(executor.decide(0, 0.1, 2)).isEqualTo(12);
+        assertThat(executor.decide(0, 0.1, 2)).isEqualTo(12);
+        // Waits between half the target and the target are neither quiet nor busy
+        assertThat(executor.decide(TARGET_NANOS, 0.1, 2)).isEqualTo(12);
+        assertThat(executor.decide(0, 0.1, 2)).isEqualTo(12);
+        assertThat(executor.decide(0, 0.1, 2)).isEqualTo(12);
+        assertThat(executor.decide(0, 0.1, 2)).isEqualTo(11);
+        assertThat(registry.meter("conjure.autoscaling.test.scaleDown").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void doesNotShrinkBelowConcurrencyOrMinimum() {
+        executor.resize(9);
+        for (int i = 0; i < 5; i++) {
+            // Every thread was in use
+            assertThat(executor.decide(0, 0.1, 9)).isEqualTo(9);
+        }
+        for (int i = 0; i < 2; i++) {
+            assertThat(executor.decide(0, 0.1, 0)).isEqualTo(9);
+        }
+        assertThat(executor.decide(0, 0.1, 0)).isEqualTo(8);
+        executor.resize(8);
+        for (int i = 0; i < 5; i++) {
+            assertThat(executor.decide(0, 0.1, 0)).isEqualTo(8);
+        }
+    }
+
+    @Test
+    public void runsMoreRequestsConcurrentlyOnceGrown() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(10);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 10; i++) {
+            executor.execute(() -> {
+                started.countDown();
+                await(release);
+            });
+        }
+        assertThat(started.await(100, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(started.getCount()).isEqualTo(2);
+        executor.resize(10);
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        release.countDown();
+    }
+
+    @Test
+    public void executesConjureHandlerRequests() throws IOException {
+        ConjureHandler handler = ConjureHandler.builder()
+                .executor(executor)
+                .build();
+        handler.get("/thread", exchange -> exchange.getResponseSender().send(Thread.currentThread().getName()));
+        Undertow server = Undertow.builder()
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+        try (Response response = new OkHttpClient().newCall(new Request.Builder()
+                .get()
+                .url("http://localhost:12345/thread")
+                .build()).execute()) {
+            assertThat(response.body().string()).startsWith("conjure-autoscaling-test-");
+        } finally {
+            server.stop();
+        }
+        assertThat(registry.timer("conjure.autoscaling.test.waitTime").getCount()).isEqualTo(1);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.palantir.conjure.java.undertow.lib.AsyncBinaryResponseBody;
+import com.palantir.conjure.java.undertow.lib.SeekableBinaryResponseBody;
+import com.palantir.conjure.java.undertow.lib.internal.BinarySerializers;
+import com.palantir.logsafe.exceptions.SafeIllegalStateException;
+import io.undertow.Undertow;
+import io.undertow.util.Headers;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class BinarySerializersTest {
+
+    private static final OkHttpClient client = new OkHttpClient.Builder().build();
+    private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.UTF_8);
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final ChunkedBody chunkedBody = new ChunkedBody();
+    private Undertow server;
+
+    @Before
+    public void before() {
+        ConjureHandler handler = new ConjureHandler();
+        handler.get("/binary", exchange -> BinarySerializers.serialize(new ByteArrayBody(), exchange));
+        handler.post("/binary", exchange -> BinarySerializers.serialize(new ByteArrayBody(), exchange));
+        handler.get("/chunked", exchange -> BinarySerializers.serialize(chunkedBody, exchange));
+        server = Undertow.builder()
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+    }
+
+    @After
+    public void after() {
+        server.stop();
+    }
+
+    @Test
+    public void servesFullContentWithoutRange() throws IOException {
+        try (Response response = execute(new Request.Builder().get())) {
+            assertThat(response.code()).isEqualTo(200);
+            assertThat(response.header(Headers.ACCEPT_RANGES_STRING)).isEqualTo("bytes");
+            assertThat(response.header(Headers.ETAG_STRING)).isEqualTo("\"v1\"");
+            assertThat(response.header(Headers.CONTENT_LENGTH_STRING)).isEqualTo("10");
+            assertThat(response.body().string()).isEqualTo("0123456789");
+        }
+    }
+
+    @Test
+    public void servesRequestedRanges() throws IOException {
+        assertPartialContent("bytes=2-5", "bytes 2-5/10", "2345");
+        assertPartialContent("bytes=7-", "bytes 7-9/10", "789");
+        assertPartialContent("bytes=-3", "bytes 7-9/10", "789");
+        assertPartialContent("bytes=8-100", "bytes 8-9/10", "89");
+    }
+
+    @Test
+    public void rejectsUnsatisfiableRanges() throws IOException {
+        for (String range : new String[] {"bytes=10-", "bytes=-0"}) {
+            try (Response response = execute(new Request.Builder().get().header(Headers.RANGE_STRING, range))) {
+                assertThat(response.code()).isEqualTo(416);
+                assertThat(response.header(Headers.CONTENT_RANGE_STRING)).isEqualTo("bytes */10");
+                assertThat(response.body().string()).isEmpty();
+            }
+        }
+    }
+
+    @Test
+    public void servesRangeWhenIfRangeMatches() throws IOException {
+        try (Response response = execute(new Request.Builder().get()
+                .header(Headers.RANGE_STRING, "bytes=2-5")
+                .header(Headers.IF_RANGE_STRING, "\"v1\""))) {
+            assertThat(response.code()).isEqualTo(206);
+            assertThat(response.body().string()).isEqualTo("2345");
+        }
+    }
+
+    @Test
+    public void servesFullContentWhenIfRangeDoesNotMatch() throws IOException {
+        for (String ifRange : new String[] {"\"v0\"", "W/\"v1\"", "Wed, 21 Oct 2015 07:28:00 GMT"}) {
+            assertFullContent(new Request.Builder().get()
+                    .header(Headers.RANGE_STRING, "bytes=2-5")
+                    .header(Headers.IF_RANGE_STRING, ifRange));
+        }
+    }
+
+    @Test
+    public void servesFullContentForMultipleOrInvalidRanges() throws IOException {
+        assertFullContent(new Request.Builder().get().header(Headers.RANGE_STRING, "bytes=0-1,4-5"));
+        assertFullContent(new Request.Builder().get().header(Headers.RANGE_STRING, "items=0-1"));
+    }
+
+    @Test
+    public void ignoresRangeForOtherMethods() throws IOException {
+        assertFullContent(new Request.Builder()
+                .post(RequestBody.create(MediaType.parse("application/octet-stream"), new byte[0]))
+                .header(Headers.RANGE_STRING, "bytes=2-5"));
+    }
+
+    @Test
+    public void writesAsyncBodyOnIoThread() throws Exception {
+        chunkedBody.chunks = 64;
+        try (Response response = client.newCall(new Request.Builder()
+                .get()
+                .url("http://localhost:12345/chunked")
+                .build()).execute()) {
+            assertThat(response.code()).isEqualTo(200);
+            assertThat(response.header(Headers.CONTENT_TYPE_STRING)).isEqualTo("application/octet-stream");
+            assertThat(response.header(Headers.CONTENT_LENGTH_STRING)).isEqualTo(String.valueOf(64 * CHUNK_SIZE));
+            byte[] body = response.body().bytes();
+            assertThat(body).hasSize(64 * CHUNK_SIZE);
+            assertThat(body[63 * CHUNK_SIZE]).isEqualTo((byte) 63);
+        }
+        assertThat(chunkedBody.closed.await(5, TimeUnit.SECONDS)).isTrue();
+        // Only the first chunk is produced by the worker thread
+        assertThat(chunkedBody.threads).hasSize(65);
+        assertThat(chunkedBody.threads.subList(1, 65)).allMatch(thread -> thread.contains("I/O"));
+    }
+
+    @Test
+    public void reportsAsyncBodyFailuresBeforeTheFirstChunk() throws Exception {
+        chunkedBody.chunks = -1;
+        try (Response response = client.newCall(new Request.Builder()
+                .get()
+                .url("http://localhost:12345/chunked")
+                .build()).execute()) {
+            assertThat(response.code()).isEqualTo(500);
+        }
+        assertThat(chunkedBody.closed.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void closesAsyncBodyWhenClientDisconnects() throws Exception {
+        chunkedBody.chunks = Integer.MAX_VALUE;
+        try (Response response = client.newCall(new Request.Builder()
+                .get()
+                .url("http://localhost:12345/chunked")
+                .build()).execute()) {
+            assertThat(response.body().source().readByte()).isEqualTo((byte) 0);
+        }
+        assertThat(chunkedBody.closed.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static void assertPartialContent(String range, String contentRange, String content) throws IOException {
+        try (Response response = execute(new Request.Builder().get().header(Headers.RANGE_STRING, range))) {
+            assertThat(response.code()).isEqualTo(206);
+            assertThat(response.header(Headers.CONTENT_RANGE_STRING)).isEqualTo(contentRange);
+            assertThat(response.header(Headers.CONTENT_TYPE_STRING)).isEqualTo("application/octet-stream");
+            assertThat(response.body().string()).isEqualTo(content);
+        }
+    }
+
+    private static void assertFullContent(Request.Builder request) throws IOException {
+        try (Response response = execute(request)) {
+            assertThat(response.code()).isEqualTo(200);
+            assertThat(response.header(Headers.CONTENT_RANGE_STRING)).isNull();
+            assertThat(response.body().string()).isEqualTo("0123456789");
+        }
+    }
+
+    private static Response execute(Request.Builder request) throws IOException {
+        return client.newCall(request.url("http://localhost:12345/binary").build()).execute();
+    }
+
+    private static final class ChunkedBody implements AsyncBinaryResponseBody {
+        private final List<String> threads = new CopyOnWriteArrayList<>();
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private volatile int chunks;
+        private int produced;
+
+        @Override
+        public OptionalLong contentLength() {
+            return chunks > 0 ? OptionalLong.of((long) chunks * CHUNK_SIZE) : OptionalLong.empty();
+        }
+
+        @Override
+        public Optional<ByteBuffer> nextChunk() {
+            if (chunks < 0) {
+                throw new SafeIllegalStateException("Failed to produce content");
+            }
+            threads.add(Thread.currentThread().getName());
+            if (produced == chunks) {
+                return Optional.empty();
+            }
+            byte[] chunk = new byte[CHUNK_SIZE];
+            Arrays.fill(chunk, (byte) produced++);
+            return Optional.of(ByteBuffer.wrap(chunk));
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    private static final class ByteArrayBody implements SeekableBinaryResponseBody {
+        @Override
+        public long contentLength() {
+            return CONTENT.length;
+        }
+
+        @Override
+        public Optional<String> entityTag() {
+            return Optional.of("v1");
+        }
+
+        @Override
+        public void write(OutputStream responseBody, long offset, long length) throws IOException {
+            responseBody.write(CONTENT, Math.toIntExact(offset), Math.toIntExact(length));
+        }
+    }
+}
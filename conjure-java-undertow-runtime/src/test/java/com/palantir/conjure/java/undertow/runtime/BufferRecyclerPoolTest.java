@@ -0,0 +1,83 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.reflect.TypeToken;
+import com.palantir.conjure.java.serialization.ObjectMappers;
+import com.palantir.conjure.java.undertow.lib.Serializer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Optional;
+import org.junit.Test;
+
+public final class BufferRecyclerPoolTest {
+
+    private final ObjectMapper mapper = ObjectMappers.newServerObjectMapper();
+
+    @Test
+    public void reusesReleasedWriters() {
+        BufferRecyclerPool pool = new BufferRecyclerPool(mapper, 1);
+        ObjectWriter writer = pool.acquire();
+        pool.release(writer);
+        assertThat(pool.acquire()).isSameAs(writer);
+    }
+
+    @Test
+    public void createsWritersWhenEmpty() {
+        BufferRecyclerPool pool = new BufferRecyclerPool(mapper, 1);
+        ObjectWriter first = pool.acquire();
+        ObjectWriter second = pool.acquire();
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getFactory()).isNotSameAs(first.getFactory());
+    }
+
+    @Test
+    public void discardsWritersWhenFull() {
+        BufferRecyclerPool pool = new BufferRecyclerPool(mapper, 1);
+        ObjectWriter first = pool.acquire();
+        ObjectWriter second = pool.acquire();
+        pool.release(first);
+        pool.release(second);
+        assertThat(pool.acquire()).isSameAs(first);
+        assertThat(pool.acquire()).isNotSameAs(second);
+    }
+
+    @Test
+    public void writersUseMapperConfiguration() throws IOException {
+        ObjectWriter writer = new BufferRecyclerPool(mapper, 1).acquire();
+        assertThat(writer.writeValueAsString(Optional.of("value"))).isEqualTo("\"value\"");
+        assertThat(writer.getFactory().getCodec()).isSameAs(mapper);
+    }
+
+    @Test
+    public void serializersRoundTripWithPooledBuffers() throws IOException {
+        for (Serializer serializer : new Serializer[] {Serializers.json(), Serializers.cbor()}) {
+            for (int i = 0; i < 3; i++) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                serializer.serialize(Optional.of("value" + i), output);
+                assertThat(serializer.deserialize(new ByteArrayInputStream(output.toByteArray()),
+                        new TypeToken<Optional<String>>() {}))
+                        .contains("value" + i);
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableSet;
+import com.palantir.conjure.java.undertow.lib.SerializerRegistry;
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class BulkheadTest {
+
+    private static final OkHttpClient client = new OkHttpClient.Builder().build();
+
+    private final MetricRegistry registry = new MetricRegistry();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private Bulkhead slowBulkhead;
+    private Bulkhead markedBulkhead;
+    private Undertow server;
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Marker {}
+
+    // Like conjure markers which only apply to service interface methods
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @interface MethodMarker {}
+
+    @Before
+    public void before() {
+        slowBulkhead = Bulkhead.builder().name("slow").threads(1).metricRegistry(registry).build();
+        markedBulkhead = Bulkhead.builder().name("marked").threads(2).maxQueuedRequests(4)
+                .metricRegistry(registry).build();
+        ConjureHandler handler = ConjureHandler.builder()
+                .bulkhead("GET /slow", slowBulkhead)
+                .bulkhead(Marker.class, markedBulkhead)
+                .bulkhead(MethodMarker.class, markedBulkhead)
+                .build();
+        handler.get("/slow", exchange -> {
+            started.countDown();
+            release.await();
+        });
+        handler.get("/marked", new MarkedHandler());
+        handler.get("/default", new ThreadNameHandler());
+        // Generated endpoints register their markers
+        handler.get("/registered", new ThreadNameHandler(), ImmutableSet.of(MethodMarker.class));
+        server = Undertow.builder()
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+    }
+
+    @After
+    public void after() {
+        release.countDown();
+        server.stop();
+        slowBulkhead.close();
+        markedBulkhead.close();
+    }
+
+    @Test
+    public void markedEndpointRunsOnBulkhead() throws IOException {
+        Response response = execute("/marked");
+        assertThat(response.code()).isEqualTo(200);
+        assertThat(response.body().string()).startsWith("\"conjure-bulkhead-marked-");
+        assertThat(registry.timer("conjure.bulkhead.marked.waitTime").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void endpointRegisteredWithMarkerRunsOnBulkhead() throws IOException {
+        Response response = execute("/registered");
+        assertThat(response.code()).isEqualTo(200);
+        assertThat(response.body().string()).startsWith("\"conjure-bulkhead-marked-");
+    }
+
+    @Test
+    public void unmarkedEndpointRunsOnWorkerPool() throws IOException {
+        Response response = execute("/default");
+        assertThat(response.code()).isEqualTo(200);
+        assertThat(response.body().string()).doesNotContain("conjure-bulkhead");
+    }
+
+    @Test
+    public void rejectsWhenBulkheadIsFull() throws Exception {
+        CountDownLatch completed = new CountDownLatch(1);
+        client.newCall(request("/slow")).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException exception) {
+                completed.countDown();
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+                completed.countDown();
+            }
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(execute("/slow").code()).isEqualTo(503);
+        assertThat(registry.meter("conjure.bulkhead.slow.rejected").getCount()).isEqualTo(1);
+        assertThat(registry.getGauges().get("conjure.bulkhead.slow.active").getValue()).isEqualTo(1);
+
+        release.countDown();
+        assertThat(completed.await(5, TimeUnit.SECONDS)).isTrue();
+        Gauge<?> queueDepth = registry.getGauges().get("conjure.bulkhead.slow.queueDepth");
+        assertThat(queueDepth.getValue()).isEqualTo(0);
+    }
+
+    private static class ThreadNameHandler implements HttpHandler {
+        private final SerializerRegistry serializers = new SerializerRegistry(Serializers.json());
+
+        @Override
+        public void handleRequest(HttpServerExchange exchange) throws IOException {
+            serializers.serialize(Thread.currentThread().getName(), exchange);
+        }
+    }
+
+    @Marker
+    private static final class MarkedHandler extends ThreadNameHandler {}
+
+    private static Request request(String path) {
+        return new Request.Builder()
+                .get()
+                .url("http://localhost:12345" + path)
+                .build();
+    }
+
+    private static Response execute(String path) {
+        try {
+            return client.newCall(request(path)).execute();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.io.ByteStreams;
+import com.palantir.conjure.java.undertow.lib.Cancellation;
+import io.undertow.Undertow;
+import io.undertow.util.Headers;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Test;
+
+public final class ClientDisconnectsTest {
+
+    private static final OkHttpClient client = new OkHttpClient.Builder().build();
+    private static final String REQUEST = "GET /work HTTP/1.1\r\nHost: localhost\r\n\r\n";
+    private static final String LAST_REQUEST = "GET /work HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+
+    private final MetricRegistry registry = new MetricRegistry();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicInteger invocations = new AtomicInteger();
+    private Undertow server;
+
+    @After
+    public void after() {
+        server.stop();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void cancelsRequestWhenClientCloses() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        start(ConjureHandler.builder(), () -> {
+            started.countDown();
+            Cancellation.current().onCancel(cancelled::countDown);
+            assertThat(cancelled.await(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(Cancellation.current().isCancelled()).isTrue();
+        });
+        try (Socket socket = send(REQUEST)) {
+            assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        }
+        assertThat(cancelled.await(10, TimeUnit.SECONDS)).isTrue();
+        awaitCount(() -> registry.timer("conjure.endpoint.GET /work.wastedTime").getCount(), 1);
+        assertThat(registry.meter("conjure.endpoint.GET /work.disconnected").getCount()).isEqualTo(1);
+        assertThat(registry.meter("conjure.endpoint.GET /work.skipped").getCount()).isZero();
+    }
+
+    @Test
+    public void skipsQueuedRequestWhenClientCloses() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        start(ConjureHandler.builder().executor(executor), () -> {
+            assertThat(release.await(10, TimeUnit.SECONDS)).isTrue();
+        });
+        try (Socket blocking = send(LAST_REQUEST)) {
+            awaitCount(invocations::get, 1);
+            send(REQUEST).close();
+            awaitCount(() -> registry.meter("conjure.endpoint.GET /work.disconnected").getCount(), 1);
+            release.countDown();
+            assertThat(readFully(blocking)).startsWith("HTTP/1.1 204");
+        }
+        awaitCount(() -> registry.meter("conjure.endpoint.GET /work.skipped").getCount(), 1);
+        assertThat(invocations.get()).isEqualTo(1);
+        assertThat(registry.timer("conjure.endpoint.GET /work.wastedTime").getCount()).isZero();
+    }
+
+    @Test
+    public void completesRequestsOnPersistentConnections() throws Exception {
+        start(ConjureHandler.builder(), () -> { });
+        for (int i = 0; i < 3; i++) {
+            try (Response response = client.newCall(new Request.Builder()
+                    .get()
+                    .url("http://localhost:12345/work")
+                    .build()).execute()) {
+                assertThat(response.code()).isEqualTo(204);
+            }
+        }
+        assertThat(invocations.get()).isEqualTo(3);
+        assertThat(registry.meter("conjure.endpoint.GET /work.disconnected").getCount()).isZero();
+    }
+
+    @Test
+    public void completesPipelinedRequests() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        start(ConjureHandler.builder(), () -> {
+            if (invocations.get() == 1) {
+                assertThat(release.await(10, TimeUnit.SECONDS)).isTrue();
+            }
+        });
+        try (Socket socket = send(REQUEST)) {
+            awaitCount(invocations::get, 1);
+            // The second request arrives while the first executes
+            socket.getOutputStream().write(LAST_REQUEST.getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            Thread.sleep(100);
+            release.countDown();
+            String responses = readFully(socket);
+            assertThat(responses.split("HTTP/1.1 204", -1)).hasSize(3);
+        }
+        assertThat(invocations.get()).isEqualTo(2);
+        assertThat(registry.meter("conjure.endpoint.GET /work.disconnected").getCount()).isZero();
+    }
+
+    @Test
+    public void completesRequestsPipelinedBehindSlowRequest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        start(ConjureHandler.builder(), () -> {
+            if (invocations.get() == 1) {
+                assertThat(release.await(10, TimeUnit.SECONDS)).isTrue();
+            }
+        });
+        // Both requests arrive before the first executes
+        try (Socket socket = send(REQUEST + LAST_REQUEST)) {
+            awaitCount(invocations::get, 1);
+            Thread.sleep(100);
+            release.countDown();
+            String responses = readFully(socket);
+            assertThat(responses.split("HTTP/1.1 204", -1)).hasSize(3);
+        }
+        assertThat(invocations.get()).isEqualTo(2);
+        assertThat(registry.meter("conjure.endpoint.GET /work.disconnected").getCount()).isZero();
+        assertThat(registry.timer("conjure.endpoint.GET /work.wastedTime").getCount()).isZero();
+    }
+
+    private void start(ConjureHandler.Builder builder, Work work) {
+        ConjureHandler handler = builder
+                .clientDisconnects(ClientDisconnects.builder().metricRegistry(registry).build())
+                .build();
+        handler.get("/work", exchange -> {
+            invocations.incrementAndGet();
+            work.run();
+            exchange.setStatusCode(204);
+            exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, 0);
+        });
+        server = Undertow.builder()
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+    }
+
+    private static Socket send(String request) throws IOException {
+        Socket socket = new Socket("localhost", 12345);
+        OutputStream output = socket.getOutputStream();
+        output.write(request.getBytes(StandardCharsets.UTF_8));
+        output.flush();
+        return socket;
+    }
+
+    private static String readFully(Socket socket) throws IOException {
+        // Half-closing the connection would cancel requests in progress, the server closes it after the last one
+        socket.setSoTimeout(10_000);
+        return new String(ByteStreams.toByteArray(socket.getInputStream()), StandardCharsets.UTF_8);
+    }
+
+    private static void awaitCount(Count count, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (count.get() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(count.get()).isEqualTo(expected);
+    }
+
+    private interface Work {
+        void run() throws Exception;
+    }
+
+    private interface Count {
+        long get();
+    }
+}
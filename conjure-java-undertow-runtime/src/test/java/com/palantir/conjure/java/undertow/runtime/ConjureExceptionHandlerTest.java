@@ -18,38 +18,45 @@ package com.palantir.conjure.java.undertow.runtime;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
 import com.palantir.conjure.java.api.errors.ErrorType;
+import com.palantir.conjure.java.api.errors.QosException;
 import com.palantir.conjure.java.api.errors.RemoteException;
 import com.palantir.conjure.java.api.errors.SerializableError;
 import com.palantir.conjure.java.api.errors.ServiceException;
 import com.palantir.conjure.java.undertow.lib.SerializerRegistry;
 import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import com.palantir.logsafe.exceptions.SafeRuntimeException;
 import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
 import io.undertow.server.handlers.BlockingHandler;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.time.Duration;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.slf4j.LoggerFactory;
 
 public final class ConjureExceptionHandlerTest {
 
     private static final OkHttpClient client = new OkHttpClient.Builder().build();
 
-    private RuntimeException exception;
+    private Throwable exception;
     private Undertow server;
 
     @Before
     public void before() {
         server = Undertow.builder()
                 .addHttpListener(12345, "localhost")
-                .setHandler(new BlockingHandler(new ConjureExceptionHandler(
-                        new SerializerRegistry(Serializers.json()), exchange -> {
-                    throw exception;
-                })))
+                .setHandler(new BlockingHandler(handler(ErrorLogging.builder().build())))
                 .build();
         server.start();
     }
@@ -109,21 +116,116 @@ public final class ConjureExceptionHandlerTest {
         assertThat(response.code()).isEqualTo(ErrorType.INTERNAL.httpErrorCode());
     }
 
+    @Test
+    public void handlesThrottle() throws IOException {
+        exception = QosException.throttle(Duration.ofMillis(1500));
+        Response response = execute();
+        assertThat(response.code()).isEqualTo(429);
+        assertThat(response.header("Retry-After")).isEqualTo("2");
+        assertThat(response.body().string())
+                .contains("\"errorCode\":\"CUSTOM_CLIENT\"")
+                .contains("\"errorName\":\"Conjure:TooManyRequests\"");
+    }
+
+    @Test
+    public void handlesUnavailable() throws IOException {
+        exception = QosException.unavailable();
+        Response response = execute();
+        assertThat(response.code()).isEqualTo(503);
+        assertThat(response.body().string()).contains("\"errorName\":\"Conjure:Unavailable\"");
+    }
+
     @Test
     public void doesNotHandleErrors() throws IOException {
+        exception = new Error();
+        Response response = execute();
+        assertThat(response.body().string()).isEmpty();
+        assertThat(response.code()).isEqualTo(500);
+    }
+
+    @Test
+    public void rateLimitsLoggingPerErrorType() throws IOException {
+        ListAppender<ILoggingEvent> appender = captureLogs(ErrorLogging.builder()
+                .maxLogsPerInterval(1)
+                .interval(Duration.ofHours(1))
+                .build());
+        try {
+            exception = new IllegalArgumentException("Foo");
+            for (int i = 0; i < 3; i++) {
+                assertThat(execute().code()).isEqualTo(ErrorType.INVALID_ARGUMENT.httpErrorCode());
+            }
+            exception = new RuntimeException("Foo");
+            assertThat(execute().code()).isEqualTo(ErrorType.INTERNAL.httpErrorCode());
+
+            assertThat(appender.list).hasSize(2);
+            // Client errors are logged without a stack trace by default
+            assertThat(appender.list.get(0).getLevel()).isEqualTo(Level.INFO);
+            assertThat(appender.list.get(0).getThrowableProxy()).isNull();
+            assertThat(appender.list.get(1).getLevel()).isEqualTo(Level.ERROR);
+            assertThat(appender.list.get(1).getThrowableProxy().getClassName())
+                    .isEqualTo(RuntimeException.class.getName());
+        } finally {
+            stopCapturingLogs(appender);
+        }
+    }
+
+    @Test
+    public void logsClientErrorStackTracesWhenConfigured() throws IOException {
+        ListAppender<ILoggingEvent> appender = captureLogs(ErrorLogging.builder()
+                .clientErrorStackTraces(true)
+                .build());
+        try {
+            exception = new ServiceException(ErrorType.CONFLICT, SafeArg.of("foo", "bar"));
+            assertThat(execute().code()).isEqualTo(ErrorType.CONFLICT.httpErrorCode());
+            assertThat(appender.list).hasSize(1);
+            assertThat(appender.list.get(0).getThrowableProxy().getClassName())
+                    .isEqualTo(ServiceException.class.getName());
+        } finally {
+            stopCapturingLogs(appender);
+        }
+    }
+
+    @Test
+    public void logsArgsOfSafeLoggableFailures() throws IOException {
+        ListAppender<ILoggingEvent> appender = captureLogs(ErrorLogging.builder().build());
+        try {
+            exception = new SafeIllegalArgumentException("Invalid value", SafeArg.of("value", "foo"));
+            assertThat(execute().code()).isEqualTo(ErrorType.INVALID_ARGUMENT.httpErrorCode());
+            exception = new SafeRuntimeException("Failed", SafeArg.of("attempts", 3));
+            assertThat(execute().code()).isEqualTo(ErrorType.INTERNAL.httpErrorCode());
+
+            assertThat(appender.list).hasSize(2);
+            assertThat(appender.list.get(0).getArgumentArray()).contains(
+                    SafeArg.of("message", "Invalid value"), SafeArg.of("value", "foo"));
+            assertThat(appender.list.get(1).getArgumentArray()).contains(
+                    SafeArg.of("message", "Failed"), SafeArg.of("attempts", 3));
+            assertThat(appender.list.get(1).getThrowableProxy().getClassName())
+                    .isEqualTo(SafeRuntimeException.class.getName());
+        } finally {
+            stopCapturingLogs(appender);
+        }
+    }
+
+    private ListAppender<ILoggingEvent> captureLogs(ErrorLogging errorLogging) {
         server.stop();
         server = Undertow.builder()
                 .addHttpListener(12345, "localhost")
-                .setHandler(new BlockingHandler(new ConjureExceptionHandler(
-                        new SerializerRegistry(Serializers.json()), exchange -> {
-                    throw new Error();
-                })))
+                .setHandler(new BlockingHandler(handler(errorLogging)))
                 .build();
         server.start();
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        ((Logger) LoggerFactory.getLogger(ConjureExceptionHandler.class)).addAppender(appender);
+        return appender;
+    }
 
-        Response response = execute();
-        assertThat(response.body().string()).isEmpty();
-        assertThat(response.code()).isEqualTo(500);
+    private HttpHandler handler(ErrorLogging errorLogging) {
+        return exchange -> ConjureExceptionHandler.handleException(
+                new SerializerRegistry(Serializers.json()), errorLogging, exchange, exception);
+    }
+
+    private static void stopCapturingLogs(ListAppender<ILoggingEvent> appender) {
+        ((Logger) LoggerFactory.getLogger(ConjureExceptionHandler.class)).detachAppender(appender);
     }
 
     private static Response execute() {
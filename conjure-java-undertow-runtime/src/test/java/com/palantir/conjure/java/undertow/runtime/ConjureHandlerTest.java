@@ -16,12 +16,20 @@
 
 package com.palantir.conjure.java.undertow.runtime;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.palantir.conjure.java.undertow.lib.NonBlocking;
+import com.palantir.conjure.java.undertow.lib.RequestValidator;
+import com.palantir.conjure.java.undertow.lib.SerializerRegistry;
 import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
 import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.PathTemplateMatch;
 import java.io.IOException;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -59,6 +67,7 @@ public final class ConjureHandlerTest {
         };
         ConjureHandler handler = new ConjureHandler();
         handler.get("/test", httpHandler);
+        handler.get("/nonBlocking", new NonBlockingHandler());
         server = Undertow.builder()
                 .addHttpListener(12345, "localhost")
                 .setHandler(handler)
@@ -87,10 +96,85 @@ public final class ConjureHandlerTest {
         verify(innerObserver, never()).control();
     }
 
+    @Test
+    public void nonBlockingHandlerRunsOnIoThread() throws IOException {
+        Response response = execute("/nonBlocking");
+        assertThat(response.code()).isEqualTo(200);
+        assertThat(response.header(Headers.CONTENT_TYPE_STRING)).isEqualTo("application/json");
+        assertThat(response.body().string()).isEqualTo("true");
+    }
+
+    @Test
+    public void decodesParametersWhenServerDoesNotDecodeUrls() throws IOException {
+        server.stop();
+        SerializerRegistry serializers = new SerializerRegistry(Serializers.json());
+        ConjureHandler handler = new ConjureHandler();
+        handler.get("/params/{value}", exchange -> serializers.serialize(
+                exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY).getParameters().get("value")
+                        + "," + exchange.getQueryParameters().get("query").getFirst()
+                        + "," + exchange.getPathParameters().get("matrix").getFirst(),
+                exchange));
+        server = Undertow.builder()
+                .setServerOption(UndertowOptions.DECODE_URL, false)
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+
+        Response response = execute("/params/a%2Fb;matrix=e%20f?query=c%20d");
+        assertThat(response.code()).isEqualTo(200);
+        assertThat(response.body().string()).isEqualTo("\"a/b,c d,e f\"");
+    }
+
+    @Test
+    public void rejectsInvalidRequestsBeforeDispatch() throws IOException {
+        server.stop();
+        ConjureHandler handler = new ConjureHandler();
+        handler.get("/validated", new ValidatedHandler());
+        server = Undertow.builder()
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+
+        Response response = execute("/validated");
+        assertThat(response.code()).isEqualTo(400);
+        assertThat(response.body().string()).contains("\"errorCode\":\"INVALID_ARGUMENT\"");
+        verify(innerObserver, never()).control();
+    }
+
+    private final class ValidatedHandler implements HttpHandler, RequestValidator {
+        @Override
+        public void validate(HttpServerExchange exchange) {
+            // Fails with a 500 rather than the expected 400 if validation is dispatched
+            assertThat(exchange.isInIoThread()).isTrue();
+            throw new IllegalArgumentException("Invalid request");
+        }
+
+        @Override
+        public void handleRequest(HttpServerExchange exchange) {
+            innerObserver.control();
+        }
+    }
+
+    @NonBlocking
+    private static final class NonBlockingHandler implements HttpHandler {
+        private final SerializerRegistry serializers = new SerializerRegistry(Serializers.json());
+
+        @Override
+        public void handleRequest(HttpServerExchange exchange) throws IOException {
+            serializers.serialize(exchange.isInIoThread(), exchange);
+        }
+    }
+
     private static Response execute() {
+        return execute("/test");
+    }
+
+    private static Response execute(String path) {
         Request request = new Request.Builder()
                 .get()
-                .url("http://localhost:12345/test")
+                .url("http://localhost:12345" + path)
                 .build();
         try {
             return client.newCall(request).execute();
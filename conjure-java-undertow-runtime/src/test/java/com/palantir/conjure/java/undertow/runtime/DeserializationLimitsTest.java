@@ -0,0 +1,157 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.reflect.TypeToken;
+import com.palantir.conjure.java.undertow.lib.DeserializationLimits;
+import com.palantir.conjure.java.undertow.lib.Serializer;
+import com.palantir.conjure.java.undertow.lib.SerializerRegistry;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import io.undertow.Undertow;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.junit.Test;
+
+public final class DeserializationLimitsTest {
+
+    private static final TypeToken<Object> ANY = new TypeToken<Object>() {};
+
+    @Test
+    public void rejectsDeeplyNestedValues() throws IOException {
+        DeserializationLimits limits = DeserializationLimits.builder().maxDepth(3).build();
+        assertThat(deserialize(Serializers.json(), "[[[1]]]", limits)).isEqualTo(
+                ImmutableList.of(ImmutableList.of(ImmutableList.of(1))));
+        assertExceeded(Serializers.json(), "[[[[1]]]]", limits, "maxDepth");
+        assertExceeded(Serializers.json(), "{\"a\":{\"b\":{\"c\":{}}}}", limits, "maxDepth");
+    }
+
+    @Test
+    public void rejectsExcessiveTokens() throws IOException {
+        DeserializationLimits limits = DeserializationLimits.builder().maxTokens(5).build();
+        assertThat(deserialize(Serializers.json(), "[1,2,3]", limits)).isEqualTo(ImmutableList.of(1, 2, 3));
+        assertExceeded(Serializers.json(), "[1,2,3,4]", limits, "maxTokens");
+    }
+
+    @Test
+    public void rejectsLongStrings() throws IOException {
+        DeserializationLimits limits = DeserializationLimits.builder().maxStringLength(4).build();
+        assertThat(deserialize(Serializers.json(), "[\"abcd\"]", limits)).isEqualTo(ImmutableList.of("abcd"));
+        assertExceeded(Serializers.json(), "[\"abcde\"]", limits, "maxStringLength");
+        assertExceeded(Serializers.json(), "{\"abcde\":1}", limits, "maxStringLength");
+    }
+
+    @Test
+    public void rejectsOversizedStringsBeforeBufferingThem() {
+        DeserializationLimits limits = DeserializationLimits.builder().maxStringLength(10).build();
+        // Fails while reading rather than once the string has been parsed
+        InputStream input = new InputStream() {
+            private int position;
+
+            @Override
+            public int read() {
+                return position++ == 0 ? '"' : 'a';
+            }
+        };
+        assertThatThrownBy(() -> Serializers.json().deserialize(input, ANY, limits))
+                .isInstanceOf(SafeIllegalArgumentException.class)
+                .hasMessageContaining("limit=maxStringLength");
+    }
+
+    @Test
+    public void rejectsLargeCollections() throws IOException {
+        DeserializationLimits limits = DeserializationLimits.builder().maxCollectionSize(2).build();
+        assertThat(deserialize(Serializers.json(), "{\"a\":[1,2],\"b\":[3]}", limits))
+                .isEqualTo(ImmutableMap.of("a", ImmutableList.of(1, 2), "b", ImmutableList.of(3)));
+        assertExceeded(Serializers.json(), "[1,2,3]", limits, "maxCollectionSize");
+        assertExceeded(Serializers.json(), "{\"a\":1,\"b\":2,\"c\":3}", limits, "maxCollectionSize");
+        assertExceeded(Serializers.json(), "[[1],[2],[3]]", limits, "maxCollectionSize");
+    }
+
+    @Test
+    public void enforcesLimitsOnCbor() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Serializers.cbor().serialize(Collections.nCopies(3, "value"), output);
+        DeserializationLimits limits = DeserializationLimits.builder().maxCollectionSize(2).build();
+        assertThatThrownBy(() -> Serializers.cbor().deserialize(
+                new ByteArrayInputStream(output.toByteArray()), new TypeToken<List<String>>() {}, limits))
+                .isInstanceOf(SafeIllegalArgumentException.class)
+                .hasMessageContaining("limit=maxCollectionSize");
+    }
+
+    @Test
+    public void appliesRegistryAndEndpointLimits() throws IOException {
+        SerializerRegistry serializers = new SerializerRegistry(Serializers.json())
+                .withDeserializationLimits(DeserializationLimits.builder().maxCollectionSize(2).build());
+        ConjureHandler handler = ConjureHandler.builder()
+                .deserializationLimits("POST /large", DeserializationLimits.builder().maxCollectionSize(4).build())
+                .build();
+        handler.post("/small", exchange -> serializers.serialize(serializers.deserialize(ANY, exchange), exchange));
+        handler.post("/large", exchange -> serializers.serialize(serializers.deserialize(ANY, exchange), exchange));
+        Undertow server = Undertow.builder()
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+        try {
+            try (Response response = post("/small", "[1,2,3]")) {
+                assertThat(response.code()).isEqualTo(400);
+                assertThat(response.body().string()).contains("INVALID_ARGUMENT");
+            }
+            try (Response response = post("/large", "[1,2,3]")) {
+                assertThat(response.code()).isEqualTo(200);
+                assertThat(response.body().string()).isEqualTo("[1,2,3]");
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static Response post(String path, String body) throws IOException {
+        return new OkHttpClient().newCall(new Request.Builder()
+                .post(RequestBody.create(MediaType.parse("application/json"), body))
+                .url("http://localhost:12345" + path)
+                .build()).execute();
+    }
+
+    private static Object deserialize(Serializer serializer, String json, DeserializationLimits limits)
+            throws IOException {
+        return serializer.deserialize(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), ANY, limits);
+    }
+
+    private static void assertExceeded(Serializer serializer, String json, DeserializationLimits limits,
+            String limit) {
+        assertThatThrownBy(() -> deserialize(serializer, json, limits))
+                .isInstanceOf(SafeIllegalArgumentException.class)
+                .hasMessageContaining("limit=" + limit);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.palantir.conjure.java.undertow.lib.EventStream;
+import com.palantir.conjure.java.undertow.lib.SerializerRegistry;
+import io.undertow.Undertow;
+import io.undertow.util.Headers;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class EventStreamTest {
+
+    private static final OkHttpClient client = new OkHttpClient.Builder().build();
+
+    private final BlockingQueue<EventStream<String>> streams = new LinkedBlockingQueue<>();
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private Undertow server;
+
+    @Before
+    public void before() {
+        SerializerRegistry serializers = new SerializerRegistry(Serializers.json(), Serializers.cbor());
+        ConjureHandler handler = new ConjureHandler();
+        handler.get("/events", exchange -> {
+            EventStream<String> stream = EventStream.<String>builder()
+                    .exchange(exchange)
+                    .serializers(serializers)
+                    .heartbeatInterval(Duration.ofMillis(50))
+                    .maxBufferedBytes(1024)
+                    .build();
+            stream.onClose(closed::countDown);
+            stream.send("first");
+            stream.start();
+            streams.add(stream);
+        });
+        handler.get("/failing", exchange -> {
+            EventStream<String> stream = serializers.eventStream(exchange);
+            stream.onClose(closed::countDown);
+            streams.add(stream);
+            throw new IllegalStateException("Failed to subscribe");
+        });
+        server = Undertow.builder()
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+    }
+
+    @After
+    public void after() {
+        server.stop();
+    }
+
+    @Test
+    public void streamsNewlineDelimitedJson() throws Exception {
+        try (Response response = execute("application/x-ndjson")) {
+            assertThat(response.code()).isEqualTo(200);
+            assertThat(response.header(Headers.CONTENT_TYPE_STRING)).isEqualTo("application/x-ndjson");
+            BufferedSource source = response.body().source();
+            assertThat(readValue(source)).isEqualTo("\"first\"");
+
+            EventStream<String> stream = streams.take();
+            assertThat(stream.send("second")).isTrue();
+            assertThat(readValue(source)).isEqualTo("\"second\"");
+
+            stream.complete();
+            assertThat(closed.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(stream.send("third")).isFalse();
+            // Remaining content is at most heartbeats
+            assertThat(source.readUtf8().trim()).isEmpty();
+        }
+    }
+
+    @Test
+    public void streamsServerSentEventsWithHeartbeats() throws Exception {
+        try (Response response = execute("text/event-stream")) {
+            assertThat(response.header(Headers.CONTENT_TYPE_STRING)).isEqualTo("text/event-stream");
+            BufferedSource source = response.body().source();
+            assertThat(source.readUtf8LineStrict()).isEqualTo("data: \"first\"");
+            assertThat(source.readUtf8LineStrict()).isEmpty();
+            // Heartbeat comment while idle
+            assertThat(source.readUtf8LineStrict()).isEqualTo(":");
+            streams.take().complete();
+        }
+    }
+
+    @Test
+    public void closesStreamWhenClientDisconnects() throws Exception {
+        EventStream<String> stream;
+        try (Response response = execute("application/x-ndjson")) {
+            assertThat(readValue(response.body().source())).isEqualTo("\"first\"");
+            stream = streams.take();
+        }
+        // Detected by the next heartbeat write
+        assertThat(closed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(stream.isClosed()).isTrue();
+    }
+
+    @Test
+    public void closesStreamWhenClientFallsBehind() throws Exception {
+        try (Response response = execute("application/x-ndjson")) {
+            EventStream<String> stream = streams.take();
+            // Exceeds the buffer limit without the client reading
+            StringBuilder value = new StringBuilder();
+            for (int i = 0; i < 2048; i++) {
+                value.append('a');
+            }
+            assertThat(stream.send(value.toString())).isFalse();
+            assertThat(closed.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(response.code()).isEqualTo(200);
+        }
+    }
+
+    @Test
+    public void closesStreamWhenSubscribeFails() throws Exception {
+        try (Response response = client.newCall(new Request.Builder()
+                .get()
+                .url("http://localhost:12345/failing")
+                .build()).execute()) {
+            assertThat(response.code()).isEqualTo(500);
+        }
+        assertThat(closed.await(5, TimeUnit.SECONDS)).isTrue();
+        EventStream<String> stream = streams.take();
+        assertThat(stream.isClosed()).isTrue();
+        assertThat(stream.send("ignored")).isFalse();
+    }
+
+    // Skips empty heartbeat lines
+    private static String readValue(BufferedSource source) throws IOException {
+        String line;
+        do {
+            line = source.readUtf8LineStrict();
+        } while (line.isEmpty());
+        return line;
+    }
+
+    private static Response execute(String accept) throws IOException {
+        Request request = new Request.Builder()
+                .get()
+                .url("http://localhost:12345/events")
+                .header(Headers.ACCEPT_STRING, accept)
+                .build();
+        return client.newCall(request).execute();
+    }
+}
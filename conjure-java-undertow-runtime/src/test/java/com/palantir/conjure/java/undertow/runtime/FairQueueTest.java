@@ -0,0 +1,214 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.undertow.Undertow;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Test;
+
+public final class FairQueueTest {
+
+    private static final String API_TOKEN = "eyJhbGciOiJFUzI1NiJ9."
+            + "eyJzdWIiOiJ3NVAyV1FNQlEwNnB5WEl3U2xCLy9BPT0iLCJqdGkiOiJwRm0wb1ZDSlQrQ0dWZFhmMmJLMy9RPT0ifQ."
+            + "hBUerwGsc4FFPIujHJ-7ncGe3-zZQcdPOuRZ8B84nzPNYjlyPmB8VLizsvR23CK3KQUEAlQ2AN_9a5p5_WgPAQ";
+
+    private final MetricRegistry registry = new MetricRegistry();
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> executed = new CopyOnWriteArrayList<>();
+    private FairQueue queue;
+
+    @After
+    public void after() {
+        release.countDown();
+        queue.close();
+    }
+
+    @Test
+    public void alternatesBetweenTenants() throws InterruptedException {
+        queue = FairQueue.builder().name("test").threads(1).metricRegistry(registry).build();
+        block();
+        submit("a", 4);
+        submit("b", 2);
+        assertThat(awaitExecuted(6)).containsExactly("a0", "b0", "a1", "b1", "a2", "a3");
+    }
+
+    @Test
+    public void servesTenantsByWeight() throws InterruptedException {
+        queue = FairQueue.builder().name("test").threads(1).weight("a", 2).metricRegistry(registry).build();
+        block();
+        submit("a", 4);
+        submit("b", 2);
+        assertThat(awaitExecuted(6)).containsExactly("a0", "a1", "b0", "a2", "a3", "b1");
+    }
+
+    @Test
+    public void rejectsRequestsBeyondTenantLimit() throws InterruptedException {
+        queue = FairQueue.builder()
+                .name("test")
+                .threads(1)
+                .maxQueuedRequestsPerTenant(2)
+                .metricRegistry(registry)
+                .build();
+        block();
+        submit("a", 2);
+        assertThatThrownBy(() -> queue.execute("a", () -> { }))
+                .isInstanceOf(RejectedExecutionException.class);
+        // Other tenants are unaffected
+        submit("b", 1);
+        assertThat(gauge("conjure.fairqueue.test.queueDepth").getValue()).isEqualTo(3);
+        assertThat(gauge("conjure.fairqueue.test.tenant.a.queueDepth").getValue()).isEqualTo(2);
+        assertThat(registry.meter("conjure.fairqueue.test.rejected").getCount()).isEqualTo(1);
+        assertThat(awaitExecuted(3)).containsExactly("a0", "b0", "a1");
+        assertThat(registry.timer("conjure.fairqueue.test.tenant.a.waitTime").getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void rejectsRequestsBeyondTotalLimit() throws InterruptedException {
+        queue = FairQueue.builder().name("test").threads(1).maxQueuedRequests(1).metricRegistry(registry).build();
+        block();
+        submit("a", 1);
+        assertThatThrownBy(() -> queue.execute("b", () -> { }))
+                .isInstanceOf(RejectedExecutionException.class);
+    }
+
+    @Test
+    public void dispatchesRequestsByRemoteAddress() throws IOException {
+        queue = FairQueue.builder().name("test").metricRegistry(registry).build();
+        ConjureHandler handler = ConjureHandler.builder().fairQueue(queue).build();
+        handler.get("/test", exchange -> exchange.getResponseSender().send(Thread.currentThread().getName()));
+        Undertow server = Undertow.builder()
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+        try {
+            Request request = new Request.Builder()
+                    .get()
+                    .url("http://localhost:12345/test")
+                    .header("Authorization", "Bearer " + API_TOKEN)
+                    .build();
+            try (Response response = new OkHttpClient().newCall(request).execute()) {
+                assertThat(response.body().string()).startsWith("conjure-fairqueue-test-");
+            }
+        } finally {
+            server.stop();
+        }
+        // The bearer token is chosen by the client and does not identify the tenant
+        assertThat(registry.getTimers()).containsOnlyKeys("conjure.fairqueue.test.tenant.127.0.0.1.waitTime");
+        assertThat(registry.timer("conjure.fairqueue.test.tenant.127.0.0.1.waitTime").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void boundsTenantMetrics() throws IOException {
+        queue = FairQueue.builder()
+                .name("test")
+                .tenant(exchange -> BearerTokenLoggingHandler.unverifiedUserId(exchange).orElse("anonymous"))
+                .maxTenantMetrics(4)
+                .metricRegistry(registry)
+                .build();
+        ConjureHandler handler = ConjureHandler.builder().fairQueue(queue).build();
+        handler.get("/test", exchange -> exchange.getResponseSender().send("ok"));
+        Undertow server = Undertow.builder()
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+        try {
+            OkHttpClient client = new OkHttpClient();
+            for (int i = 0; i < 50; i++) {
+                Request request = new Request.Builder()
+                        .get()
+                        .url("http://localhost:12345/test")
+                        .header("Authorization", "Bearer " + token(UUID.randomUUID()))
+                        .build();
+                try (Response response = client.newCall(request).execute()) {
+                    assertThat(response.code()).isEqualTo(200);
+                }
+            }
+        } finally {
+            server.stop();
+        }
+        // Metrics of idle tenants are removed once the limit is reached
+        assertThat(registry.getTimers().size()).isBetween(1, 4);
+        // The tenant gauges and the total queue depth
+        assertThat(registry.getGauges().size()).isEqualTo(registry.getTimers().size() + 1);
+    }
+
+    // Occupies the only thread until the test releases it
+    private void block() throws InterruptedException {
+        queue.execute("blocker", () -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertThat(blocked.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private void submit(String tenant, int count) {
+        for (int i = 0; i < count; i++) {
+            String task = tenant + i;
+            queue.execute(tenant, () -> executed.add(task));
+        }
+    }
+
+    private List<String> awaitExecuted(int count) throws InterruptedException {
+        release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (executed.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return executed;
+    }
+
+    // Unsigned token whose subject is the given user id
+    private static String token(UUID userId) {
+        ByteBuffer subject = ByteBuffer.allocate(16)
+                .putLong(userId.getMostSignificantBits())
+                .putLong(userId.getLeastSignificantBits());
+        String payload = "{\"sub\":\"" + Base64.getEncoder().encodeToString(subject.array()) + "\"}";
+        return "eyJhbGciOiJFUzI1NiJ9."
+                + Base64.getUrlEncoder().withoutPadding().encodeToString(payload.getBytes(StandardCharsets.UTF_8))
+                + ".c2lnbmF0dXJl";
+    }
+
+    @SuppressWarnings("unchecked")
+    private Gauge<Integer> gauge(String name) {
+        return registry.getGauges().get(name);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.reflect.TypeToken;
+import com.palantir.conjure.java.undertow.lib.HandlerContext;
+import com.palantir.conjure.java.undertow.lib.Serializer;
+import com.palantir.conjure.java.undertow.lib.SerializerRegistry;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Test;
+
+public final class HandlerContextTest {
+
+    private static final TypeToken<String> STRING = new TypeToken<String>() {};
+    private static final TypeToken<Map<String, Optional<Integer>>> MAP =
+            new TypeToken<Map<String, Optional<Integer>>>() {};
+
+    private final RecordingSerializer serializer = new RecordingSerializer();
+
+    @Test
+    public void warmsUpEveryRegisteredSerializer() {
+        SerializerRegistry serializers = new SerializerRegistry(serializer, Serializers.json(), Serializers.cbor());
+        HandlerContext context = HandlerContext.builder()
+                .serializerRegistry(serializers)
+                .warmUpSerializers(true)
+                .build();
+        context.warmUpSerializers("TestService", STRING, MAP);
+        assertThat(serializer.warmedUp).containsExactly(STRING, MAP);
+        assertThat(context.serializerWarmUpDuration()).isGreaterThan(Duration.ZERO);
+    }
+
+    @Test
+    public void warmUpIsDisabledByDefault() {
+        HandlerContext context = HandlerContext.builder()
+                .serializerRegistry(new SerializerRegistry(serializer))
+                .build();
+        context.warmUpSerializers("TestService", STRING, MAP);
+        assertThat(serializer.warmedUp).isEmpty();
+        assertThat(context.serializerWarmUpDuration()).isEqualTo(Duration.ZERO);
+    }
+
+    private static final class RecordingSerializer implements Serializer {
+        private final List<TypeToken<?>> warmedUp = new ArrayList<>();
+
+        @Override
+        public void warmUp(TypeToken<?> type) {
+            warmedUp.add(type);
+        }
+
+        @Override
+        public void serialize(Object value, OutputStream output) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T> T deserialize(InputStream input, TypeToken<T> type) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getContentType() {
+            return "text/plain";
+        }
+
+        @Override
+        public boolean supportsContentType(String contentType) {
+            return false;
+        }
+    }
+}
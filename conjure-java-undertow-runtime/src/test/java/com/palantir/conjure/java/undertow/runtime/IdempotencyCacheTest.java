@@ -0,0 +1,200 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codahale.metrics.MetricRegistry;
+import com.palantir.logsafe.exceptions.SafeIllegalStateException;
+import io.undertow.Undertow;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Test;
+
+public final class IdempotencyCacheTest {
+
+    private static final OkHttpClient client = new OkHttpClient.Builder().build();
+
+    private final MetricRegistry registry = new MetricRegistry();
+    private final AtomicInteger executions = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private volatile boolean block;
+    private volatile boolean fail;
+    private Undertow server;
+
+    @After
+    public void after() {
+        release.countDown();
+        executor.shutdownNow();
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void replaysCompletedResponses() throws IOException {
+        start(IdempotencyCache.builder().metricRegistry(registry).build());
+        try (Response response = post("/create", "key", "first")) {
+            assertThat(response.code()).isEqualTo(200);
+            assertThat(response.header("Idempotent-Replayed")).isNull();
+            assertThat(response.body().string()).isEqualTo("created 1");
+        }
+        try (Response response = post("/create", "key", "first")) {
+            assertThat(response.code()).isEqualTo(200);
+            assertThat(response.header("Idempotent-Replayed")).isEqualTo("true");
+            assertThat(response.header(Headers.CONTENT_TYPE_STRING)).isEqualTo("text/plain");
+            assertThat(response.body().string()).isEqualTo("created 1");
+        }
+        assertThat(executions).hasValue(1);
+        assertThat(registry.meter("conjure.idempotency.replayed").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void scopesKeysToEndpointAndCredentials() throws IOException {
+        start(IdempotencyCache.builder().metricRegistry(registry).build());
+        assertThat(body(post("/create", "key", "first"))).isEqualTo("created 1");
+        assertThat(body(post("/create", "other", "first"))).isEqualTo("created 2");
+        assertThat(body(post("/create", "key", "second"))).isEqualTo("created 3");
+        assertThat(body(post("/update", "key", "first"))).isEqualTo("created 4");
+        assertThat(body(post("/create", null, "first"))).isEqualTo("created 5");
+        assertThat(body(post("/create", null, "first"))).isEqualTo("created 6");
+    }
+
+    @Test
+    public void attachesDuplicatesToRequestsInFlight() throws Exception {
+        start(IdempotencyCache.builder().metricRegistry(registry).build());
+        block = true;
+        Future<String> first = executor.submit(() -> body(post("/create", "key", "first")));
+        awaitCount(executions::get, 1);
+        Future<String> second = executor.submit(() -> body(post("/create", "key", "first")));
+        awaitCount(() -> registry.meter("conjure.idempotency.attached").getCount(), 1);
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("created 1");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("created 1");
+        assertThat(executions).hasValue(1);
+    }
+
+    @Test
+    public void executesRetriesOfFailedRequests() throws IOException {
+        start(IdempotencyCache.builder().metricRegistry(registry).build());
+        fail = true;
+        try (Response response = post("/create", "key", "first")) {
+            assertThat(response.code()).isEqualTo(500);
+        }
+        fail = false;
+        assertThat(body(post("/create", "key", "first"))).isEqualTo("created 2");
+    }
+
+    @Test
+    public void rejectsDuplicatesOfResponsesTooLargeToReplay() throws Exception {
+        start(IdempotencyCache.builder().metricRegistry(registry).maxResponseBytes(4).build());
+        block = true;
+        Future<String> first = executor.submit(() -> body(post("/create", "key", "first")));
+        awaitCount(executions::get, 1);
+        Future<Integer> second = executor.submit(() -> {
+            try (Response response = post("/create", "key", "first")) {
+                return response.code();
+            }
+        });
+        awaitCount(() -> registry.meter("conjure.idempotency.attached").getCount(), 1);
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("created 1");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(409);
+        assertThat(body(post("/create", "key", "first"))).isEqualTo("created 2");
+    }
+
+    @Test
+    public void ignoresOtherMethods() throws IOException {
+        start(IdempotencyCache.builder().metricRegistry(registry).build());
+        for (int i = 1; i <= 2; i++) {
+            Request request = new Request.Builder()
+                    .get()
+                    .url("http://localhost:12345/create")
+                    .header("Idempotency-Key", "key")
+                    .build();
+            assertThat(body(client.newCall(request).execute())).isEqualTo("created " + i);
+        }
+    }
+
+    private static void awaitCount(Count count, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (count.get() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(count.get()).isEqualTo(expected);
+    }
+
+    private void start(IdempotencyCache cache) {
+        ConjureHandler handler = ConjureHandler.builder().idempotencyCache(cache).build();
+        handler.post("/create", this::create);
+        handler.post("/update", this::create);
+        handler.get("/create", this::create);
+        server = Undertow.builder()
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+    }
+
+    private void create(HttpServerExchange exchange) throws Exception {
+        int execution = executions.incrementAndGet();
+        if (block) {
+            release.await();
+        }
+        if (fail) {
+            throw new SafeIllegalStateException("Failed");
+        }
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
+        exchange.getOutputStream().write(("created " + execution).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Response post(String path, String idempotencyKey, String token) throws IOException {
+        Request.Builder request = new Request.Builder()
+                .post(RequestBody.create(MediaType.parse("application/json"), "{}"))
+                .url("http://localhost:12345" + path)
+                .header("Authorization", "Bearer " + token);
+        if (idempotencyKey != null) {
+            request.header("Idempotency-Key", idempotencyKey);
+        }
+        return client.newCall(request.build()).execute();
+    }
+
+    private static String body(Response response) throws IOException {
+        try (Response closed = response) {
+            return closed.body().string();
+        }
+    }
+
+    private interface Count {
+        long get();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.palantir.logsafe.SafeArg;
+import io.undertow.Undertow;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public final class InFlightRequestsTest {
+
+    private static final OkHttpClient client = new OkHttpClient.Builder().build();
+
+    private final CountDownLatch started = new CountDownLatch(2);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch completed = new CountDownLatch(2);
+    private final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+    private InFlightRequests inFlightRequests;
+    private Undertow server;
+
+    @Before
+    public void before() {
+        appender.start();
+        ((Logger) LoggerFactory.getLogger(InFlightRequests.class)).addAppender(appender);
+        inFlightRequests = InFlightRequests.builder()
+                .defaultThreshold(Duration.ofMinutes(1))
+                .threshold("GET /slow", Duration.ZERO)
+                .checkInterval(Duration.ofHours(1))
+                .minLogInterval(Duration.ofHours(1))
+                .build();
+        ConjureHandler handler = ConjureHandler.builder().inFlightRequests(inFlightRequests).build();
+        handler.get("/slow", exchange -> {
+            started.countDown();
+            release.await();
+        });
+        handler.get("/fast", exchange -> {
+            started.countDown();
+            release.await();
+        });
+        server = Undertow.builder()
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+    }
+
+    @After
+    public void after() {
+        release.countDown();
+        server.stop();
+        inFlightRequests.close();
+        ((Logger) LoggerFactory.getLogger(InFlightRequests.class)).detachAppender(appender);
+    }
+
+    @Test
+    public void snapshotContainsExecutingRequests() throws InterruptedException {
+        enqueue("/slow");
+        enqueue("/fast");
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        List<InFlightRequest> snapshot = inFlightRequests.snapshot();
+        assertThat(snapshot).extracting(InFlightRequest::endpoint)
+                .containsExactlyInAnyOrder("GET /slow", "GET /fast");
+        assertThat(snapshot).allSatisfy(request -> {
+            assertThat(request.threadName()).startsWith("XNIO-");
+            assertThat(request.elapsed()).isGreaterThan(Duration.ZERO);
+            assertThat(request.traceId()).isPresent();
+        });
+
+        release.countDown();
+        assertThat(completed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(inFlightRequests.snapshot()).isEmpty();
+    }
+
+    @Test
+    public void logsSlowRequestsOnce() throws InterruptedException {
+        enqueue("/slow");
+        enqueue("/fast");
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        inFlightRequests.check();
+        inFlightRequests.check();
+        assertThat(appender.list).hasSize(1);
+        ILoggingEvent event = appender.list.get(0);
+        assertThat(event.getFormattedMessage()).startsWith("Request exceeded the slow request threshold");
+        assertThat(event.getArgumentArray()).contains(SafeArg.of("endpoint", "GET /slow"));
+        assertThat(event.getThrowableProxy().getStackTraceElementProxyArray()).isNotEmpty();
+    }
+
+    private void enqueue(String path) {
+        client.newCall(new Request.Builder().get().url("http://localhost:12345" + path).build())
+                .enqueue(new Callback() {
+                    @Override
+                    public void onFailure(Call call, IOException exception) {
+                        completed.countDown();
+                    }
+
+                    @Override
+                    public void onResponse(Call call, Response response) {
+                        response.close();
+                        completed.countDown();
+                    }
+                });
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codahale.metrics.MetricRegistry;
+import io.undertow.Undertow;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class LoadReportTest {
+
+    private static final OkHttpClient client = new OkHttpClient.Builder().build();
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final LoadReport loadReport = LoadReport.builder().responseHeader(true).build();
+    private Bulkhead bulkhead;
+    private Undertow server;
+
+    @Before
+    public void before() {
+        bulkhead = Bulkhead.builder()
+                .name("slow")
+                .threads(1)
+                .maxQueuedRequests(1)
+                .metricRegistry(new MetricRegistry())
+                .build();
+        ConjureHandler handler = ConjureHandler.builder()
+                .bulkhead("GET /slow", bulkhead)
+                .loadReport(loadReport)
+                .build();
+        handler.get("/fast", exchange -> exchange.getResponseSender().send("fast"));
+        handler.get("/slow", exchange -> {
+            release.await();
+            exchange.getResponseSender().send("slow");
+        });
+        server = Undertow.builder()
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+    }
+
+    @After
+    public void after() {
+        release.countDown();
+        executor.shutdownNow();
+        server.stop();
+        bulkhead.close();
+    }
+
+    @Test
+    public void reportsInFlightAndQueuedRequests() throws Exception {
+        Future<String> first = executor.submit(() -> get("/slow"));
+        Future<String> second = executor.submit(() -> get("/slow"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((loadReport.inFlight() < 2 || loadReport.queued() < 1) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(get("/load")).isEqualTo("{\"inFlight\":2,\"queued\":1,\"latencyMicros\":0}");
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("slow");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("slow");
+        assertThat(loadReport.queued()).isZero();
+        assertThat(loadReport.latency(TimeUnit.NANOSECONDS)).isPositive();
+    }
+
+    @Test
+    public void addsReportToResponses() throws IOException {
+        try (Response response = execute("/fast")) {
+            assertThat(response.header("Load-Report")).matches("inFlight=1, queued=0, latencyMicros=\\d+");
+            assertThat(response.body().string()).isEqualTo("fast");
+        }
+        // Completion is recorded after the response has been sent
+        while (loadReport.inFlight() > 0) {
+            Thread.yield();
+        }
+        assertThat(loadReport.latency(TimeUnit.NANOSECONDS)).isPositive();
+    }
+
+    private static String get(String path) throws IOException {
+        try (Response response = execute(path)) {
+            return response.body().string();
+        }
+    }
+
+    private static Response execute(String path) throws IOException {
+        return client.newCall(new Request.Builder().get().url("http://localhost:12345" + path).build()).execute();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.collect.ImmutableMap;
+import com.palantir.conjure.java.api.errors.ErrorType;
+import com.palantir.conjure.java.api.errors.QosException;
+import com.palantir.conjure.java.api.errors.RemoteException;
+import com.palantir.conjure.java.api.errors.ServiceException;
+import com.palantir.tokens.auth.AuthHeader;
+import com.palantir.tracing.Tracer;
+import com.palantir.tracing.Tracers;
+import com.palantir.tracing.api.Span;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class LocalClientTest {
+
+    private static final AuthHeader AUTH_HEADER = AuthHeader.valueOf("token");
+
+    private final CatalogService service = new CatalogService();
+    private final List<Span> spans = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void before() {
+        Tracer.subscribe("LOCAL_CLIENT", spans::add);
+        Tracer.initTrace(Optional.of(true), Tracers.randomId());
+    }
+
+    @After
+    public void after() {
+        Tracer.unsubscribe("LOCAL_CLIENT");
+        Tracer.getAndClearTrace();
+    }
+
+    @Test
+    public void passesValuesByReference() {
+        UndertowCatalogService client = LocalClient.builder().build()
+                .create(UndertowCatalogService.class, service);
+        List<String> names = new ArrayList<>();
+        names.add("a");
+        Map<String, List<String>> result = client.getItems(AUTH_HEADER, names, Optional.of(2));
+        assertThat(service.received).isSameAs(names);
+        assertThat(result).isSameAs(service.returned);
+        assertThat(service.authHeader).isSameAs(AUTH_HEADER);
+    }
+
+    @Test
+    public void copiesValuesBySerializing() {
+        UndertowCatalogService client = LocalClient.builder()
+                .copyMode(LocalClient.CopyMode.SERIALIZE)
+                .build()
+                .create(UndertowCatalogService.class, service);
+        List<String> names = new ArrayList<>();
+        names.add("a");
+        Map<String, List<String>> result = client.getItems(AUTH_HEADER, names, Optional.of(2));
+        assertThat(service.received).isNotSameAs(names).containsExactly("a");
+        assertThat(service.limit).contains(2);
+        assertThat(result).isNotSameAs(service.returned).isEqualTo(ImmutableMap.of("a", names));
+        // Immutable values are passed through
+        assertThat(service.authHeader).isSameAs(AUTH_HEADER);
+    }
+
+    @Test
+    public void recordsSpanPerCall() {
+        UndertowCatalogService client = LocalClient.builder().build()
+                .create(UndertowCatalogService.class, service);
+        client.getItems(AUTH_HEADER, new ArrayList<>(), Optional.empty());
+        assertThat(spans).extracting(Span::getOperation).containsExactly("UndertowCatalogService.getItems");
+    }
+
+    @Test
+    public void mapsFailuresLikeTheServer() {
+        UndertowCatalogService client = LocalClient.builder().build()
+                .create(UndertowCatalogService.class, service);
+
+        service.failure = new ServiceException(ErrorType.NOT_FOUND);
+        assertThatThrownBy(client::delete)
+                .isInstanceOfSatisfying(RemoteException.class, exception -> {
+                    assertThat(exception.getStatus()).isEqualTo(404);
+                    assertThat(exception.getError().errorName()).isEqualTo(ErrorType.NOT_FOUND.name());
+                    assertThat(exception.getError().errorInstanceId())
+                            .isEqualTo(((ServiceException) service.failure).getErrorInstanceId());
+                });
+
+        service.failure = new IllegalArgumentException("invalid");
+        assertThatThrownBy(client::delete)
+                .isInstanceOfSatisfying(RemoteException.class, exception ->
+                        assertThat(exception.getStatus()).isEqualTo(400));
+
+        service.failure = new NullPointerException();
+        assertThatThrownBy(client::delete)
+                .isInstanceOfSatisfying(RemoteException.class, exception ->
+                        assertThat(exception.getError().errorName()).isEqualTo(ErrorType.INTERNAL.name()));
+
+        service.failure = QosException.unavailable();
+        assertThatThrownBy(client::delete).isSameAs(service.failure);
+    }
+
+    @Test
+    public void handlesObjectMethodsLocally() {
+        UndertowCatalogService client = LocalClient.builder().build()
+                .create(UndertowCatalogService.class, service);
+        assertThat(client).isEqualTo(client);
+        assertThat(client.hashCode()).isEqualTo(client.hashCode());
+        assertThat(spans).isEmpty();
+    }
+
+    public interface UndertowCatalogService {
+        Map<String, List<String>> getItems(AuthHeader authHeader, List<String> names, Optional<Integer> limit);
+
+        void delete();
+    }
+
+    private static final class CatalogService implements UndertowCatalogService {
+        private AuthHeader authHeader;
+        private List<String> received;
+        private Optional<Integer> limit;
+        private Map<String, List<String>> returned;
+        private RuntimeException failure;
+
+        @Override
+        public Map<String, List<String>> getItems(
+                AuthHeader authHeaderValue, List<String> names, Optional<Integer> limitValue) {
+            authHeader = authHeaderValue;
+            received = names;
+            limit = limitValue;
+            returned = names.isEmpty() ? ImmutableMap.of() : ImmutableMap.of(names.get(0), names);
+            return returned;
+        }
+
+        @Override
+        public void delete() {
+            throw failure;
+        }
+    }
+}
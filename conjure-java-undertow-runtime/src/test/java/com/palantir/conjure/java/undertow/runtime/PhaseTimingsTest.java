@@ -0,0 +1,116 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.codahale.metrics.MetricRegistry;
+import com.palantir.conjure.java.undertow.lib.HandlerContext;
+import com.palantir.conjure.java.undertow.lib.PhaseTimer;
+import com.palantir.conjure.java.undertow.lib.RequestPhase;
+import com.palantir.conjure.java.undertow.lib.SerializerRegistry;
+import com.palantir.tracing.Tracer;
+import com.palantir.tracing.Tracers;
+import com.palantir.tracing.api.Span;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class PhaseTimingsTest {
+
+    private static final String ENDPOINT = "PUT /datasets/{datasetName}";
+
+    private final MetricRegistry registry = new MetricRegistry();
+    private final List<Span> spans = new CopyOnWriteArrayList<>();
+    private final PhaseTimer phaseTimer = HandlerContext.builder()
+            .serializerRegistry(new SerializerRegistry(Serializers.json()))
+            .phaseListener(PhaseTimings.builder()
+                    .metricRegistry(registry)
+                    .tracing(true)
+                    .build())
+            .build()
+            .phaseTimer(ENDPOINT);
+
+    @Before
+    public void before() {
+        Tracer.subscribe("PHASE_TIMINGS", spans::add);
+        Tracer.initTrace(Optional.of(true), Tracers.randomId());
+    }
+
+    @After
+    public void after() {
+        Tracer.unsubscribe("PHASE_TIMINGS");
+        Tracer.getAndClearTrace();
+    }
+
+    @Test
+    public void recordsEachPhase() {
+        Tracer.startSpan(ENDPOINT);
+        PhaseTimer.Timing timing = phaseTimer.start();
+        timing.enter(RequestPhase.AUTH);
+        timing.enter(RequestPhase.DESERIALIZE);
+        timing.enter(RequestPhase.DELEGATE);
+        timing.exit();
+        Tracer.fastCompleteSpan();
+
+        assertThat(spans.stream().map(Span::getOperation).collect(Collectors.toList()))
+                .containsExactly("auth", "deserialize", "delegate", ENDPOINT);
+        String requestSpanId = spans.get(3).getSpanId();
+        assertThat(spans.subList(0, 3)).allSatisfy(span ->
+                assertThat(span.getParentSpanId()).contains(requestSpanId));
+        assertThat(registry.histogram("conjure.endpoint." + ENDPOINT + ".phase.auth").getCount()).isEqualTo(1);
+        assertThat(registry.histogram("conjure.endpoint." + ENDPOINT + ".phase.deserialize").getCount()).isEqualTo(1);
+        assertThat(registry.histogram("conjure.endpoint." + ENDPOINT + ".phase.delegate").getCount()).isEqualTo(1);
+        assertThat(registry.histogram("conjure.endpoint." + ENDPOINT + ".phase.parameters").getCount()).isZero();
+    }
+
+    @Test
+    public void exitCompletesCurrentPhaseOnce() {
+        PhaseTimer.Timing timing = phaseTimer.start();
+        timing.enter(RequestPhase.DELEGATE);
+        timing.exit();
+        timing.exit();
+
+        assertThat(spans).extracting(Span::getOperation).containsExactly("delegate");
+        assertThat(registry.histogram("conjure.endpoint." + ENDPOINT + ".phase.delegate").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void timingIsDisabledWithoutListener() {
+        PhaseTimer disabled = HandlerContext.builder()
+                .serializerRegistry(new SerializerRegistry(Serializers.json()))
+                .build()
+                .phaseTimer(ENDPOINT);
+        PhaseTimer.Timing timing = disabled.start();
+        assertThat(disabled.start()).isSameAs(timing);
+        timing.enter(RequestPhase.DELEGATE);
+        timing.exit();
+        assertThat(spans).isEmpty();
+    }
+
+    @Test
+    public void requiresMetricsOrTracing() {
+        assertThatThrownBy(() -> PhaseTimings.builder().build())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("PhaseTimings requires a MetricRegistry or tracing");
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.undertow.Undertow;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Test;
+
+public final class RateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private RateLimiter limiter;
+
+    @After
+    public void after() {
+        limiter.close();
+    }
+
+    @Test
+    public void allowsBurstThenRefillsAtRate() {
+        limiter = RateLimiter.builder().permitsPerSecond(2).burst(3).build();
+        long now = 1000;
+        for (int i = 0; i < 3; i++) {
+            assertThat(limiter.tryAcquire("user", now)).isZero();
+        }
+        // The next permit is available after half a second
+        assertThat(limiter.tryAcquire("user", now)).isEqualTo(SECOND / 2);
+        assertThat(limiter.tryAcquire("user", now + SECOND / 2)).isZero();
+        assertThat(limiter.tryAcquire("user", now + SECOND / 2)).isEqualTo(SECOND / 2);
+        // Other principals are unaffected
+        assertThat(limiter.tryAcquire("other", now)).isZero();
+    }
+
+    @Test
+    public void handlesNegativeNanoTime() {
+        limiter = RateLimiter.builder().permitsPerSecond(1).burst(1).build();
+        long now = Long.MIN_VALUE + 10;
+        assertThat(limiter.tryAcquire("user", now)).isZero();
+        assertThat(limiter.tryAcquire("user", now)).isEqualTo(SECOND);
+        assertThat(limiter.tryAcquire("user", now + SECOND)).isZero();
+    }
+
+    @Test
+    public void sweepsRefilledBuckets() {
+        limiter = RateLimiter.builder().permitsPerSecond(1).burst(2).stripes(4).build();
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire(i, 0);
+        }
+        limiter.tryAcquire(0, 0);
+        assertThat(limiter.size()).isEqualTo(100);
+        // Only principal 0 has drawn more than one permit, and is not yet full
+        limiter.sweep(SECOND);
+        assertThat(limiter.size()).isEqualTo(1);
+        limiter.sweep(2 * SECOND);
+        assertThat(limiter.size()).isZero();
+    }
+
+    @Test
+    public void rejectsRequestsOnTheIoThread() throws IOException {
+        limiter = RateLimiter.builder().key(RateLimiter.Key.REMOTE_ADDRESS).permitsPerSecond(0.5).burst(1).build();
+        ConjureHandler handler = ConjureHandler.builder()
+                .rateLimiter("GET /limited", limiter)
+                .build();
+        handler.get("/limited", exchange -> exchange.getResponseSender().send("ok"));
+        handler.get("/unlimited", exchange -> exchange.getResponseSender().send("ok"));
+        Undertow server = Undertow.builder()
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+        try {
+            OkHttpClient client = new OkHttpClient.Builder().build();
+            try (Response response = client.newCall(get("/limited")).execute()) {
+                assertThat(response.code()).isEqualTo(200);
+            }
+            try (Response response = client.newCall(get("/limited")).execute()) {
+                assertThat(response.code()).isEqualTo(429);
+                assertThat(response.header("Retry-After")).isEqualTo("2");
+                assertThat(response.body().string()).contains("\"errorName\":\"Conjure:TooManyRequests\"");
+            }
+            try (Response response = client.newCall(get("/unlimited")).execute()) {
+                assertThat(response.code()).isEqualTo(200);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void defaultsBurstToOneSecondOfPermits() {
+        limiter = RateLimiter.builder().permitsPerSecond(5).sweepInterval(Duration.ofHours(1)).build();
+        for (int i = 0; i < 5; i++) {
+            assertThat(limiter.tryAcquire("user", 0)).isZero();
+        }
+        assertThat(limiter.tryAcquire("user", 0)).isPositive();
+    }
+
+    @Test
+    public void sweepsOnSharedThreadUntilClosed() throws InterruptedException {
+        RateLimiter closed = RateLimiter.builder().permitsPerSecond(1).sweepInterval(Duration.ofMillis(10)).build();
+        closed.close();
+        limiter = RateLimiter.builder().permitsPerSecond(1).stripes(1).sweepInterval(Duration.ofMillis(10)).build();
+        // Refilled by the time it is swept
+        assertThat(limiter.tryAcquire("user", System.nanoTime() - 10 * SECOND)).isZero();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (limiter.size() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(limiter.size()).isZero();
+    }
+
+    private static Request get(String path) {
+        return new Request.Builder().get().url("http://localhost:12345" + path).build();
+    }
+}
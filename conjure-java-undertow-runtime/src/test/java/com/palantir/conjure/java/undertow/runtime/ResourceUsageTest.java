@@ -0,0 +1,107 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import io.undertow.Undertow;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Test;
+
+public final class ResourceUsageTest {
+
+    private static final OkHttpClient client = new OkHttpClient.Builder().build();
+    private static final int ALLOCATED_BYTES = 16 * 1024 * 1024;
+
+    private final MetricRegistry registry = new MetricRegistry();
+    private Undertow server;
+    // Retains allocations so they cannot be eliminated
+    private volatile byte[][] retained;
+
+    @After
+    public void after() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void recordsCpuTimeAndAllocationPerEndpoint() throws IOException {
+        start(1);
+        execute();
+        Histogram cpuTime = registry.histogram("conjure.endpoint.GET /work.cpuTime");
+        Histogram allocatedBytes = registry.histogram("conjure.endpoint.GET /work.allocatedBytes");
+        assertThat(cpuTime.getCount()).isEqualTo(1);
+        assertThat(cpuTime.getSnapshot().getMax()).isGreaterThan(TimeUnit.MILLISECONDS.toNanos(1));
+        assertThat(allocatedBytes.getCount()).isEqualTo(1);
+        assertThat(allocatedBytes.getSnapshot().getMax()).isGreaterThanOrEqualTo(ALLOCATED_BYTES);
+    }
+
+    @Test
+    public void recordsOnlySampledRequests() throws IOException {
+        start(0);
+        execute();
+        assertThat(registry.histogram("conjure.endpoint.GET /work.cpuTime").getCount()).isZero();
+        assertThat(registry.histogram("conjure.endpoint.GET /work.allocatedBytes").getCount()).isZero();
+    }
+
+    @Test
+    public void rejectsInvalidSamplingRate() {
+        assertThatThrownBy(() -> ResourceUsage.builder().metricRegistry(registry).samplingRate(1.5).build())
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private void start(double samplingRate) {
+        ConjureHandler handler = ConjureHandler.builder()
+                .resourceUsage(ResourceUsage.builder()
+                        .metricRegistry(registry)
+                        .samplingRate(samplingRate)
+                        .build())
+                .build();
+        handler.get("/work", exchange -> {
+            byte[][] chunks = new byte[16][];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = new byte[ALLOCATED_BYTES / chunks.length];
+            }
+            retained = chunks;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20);
+            while (System.nanoTime() < deadline) {
+                // Busy wait to consume CPU time
+            }
+        });
+        server = Undertow.builder()
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+    }
+
+    private static void execute() throws IOException {
+        Request request = new Request.Builder().get().url("http://localhost:12345/work").build();
+        try (Response response = client.newCall(request).execute()) {
+            assertThat(response.code()).isEqualTo(200);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.reflect.TypeToken;
+import com.palantir.conjure.java.undertow.lib.Serializer;
+import com.palantir.conjure.java.undertow.lib.SerializerRegistry;
+import com.palantir.conjure.java.undertow.lib.SnapshotPublisher;
+import io.undertow.Undertow;
+import io.undertow.util.Headers;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class SnapshotPublisherTest {
+
+    private static final OkHttpClient client = new OkHttpClient.Builder().build();
+
+    private final CountingSerializer json = new CountingSerializer(Serializers.json());
+    private final SnapshotPublisher<List<String>> snapshot = SnapshotPublisher.<List<String>>builder()
+            .gzip(true)
+            .build();
+    private Undertow server;
+
+    @Before
+    public void before() {
+        SerializerRegistry serializers = new SerializerRegistry(json, Serializers.cbor());
+        ConjureHandler handler = new ConjureHandler();
+        handler.get("/snapshot", exchange -> serializers.serializeSnapshot(snapshot, exchange));
+        server = Undertow.builder()
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+    }
+
+    @After
+    public void after() {
+        server.stop();
+    }
+
+    @Test
+    public void unavailableUntilPublished() throws IOException {
+        try (Response response = execute(new Request.Builder())) {
+            assertThat(response.code()).isEqualTo(503);
+        }
+        assertThat(snapshot.current()).isEmpty();
+    }
+
+    @Test
+    public void servesPublishedValueSerializedOnce() throws IOException {
+        snapshot.publish(ImmutableList.of("a", "b"));
+        assertThat(json.count.get()).isZero();
+        String entityTag;
+        try (Response response = execute(new Request.Builder())) {
+            assertThat(response.code()).isEqualTo(200);
+            assertThat(response.header(Headers.CONTENT_TYPE_STRING)).isEqualTo("application/json");
+            assertThat(response.body().string()).isEqualTo("[\"a\",\"b\"]");
+            entityTag = response.header(Headers.ETAG_STRING);
+        }
+        try (Response response = execute(new Request.Builder())) {
+            assertThat(response.header(Headers.ETAG_STRING)).isEqualTo(entityTag);
+            assertThat(response.body().string()).isEqualTo("[\"a\",\"b\"]");
+        }
+        assertThat(json.count.get()).isEqualTo(1);
+
+        // Serializers which have served a request are used when publishing
+        snapshot.publish(ImmutableList.of("c"));
+        assertThat(json.count.get()).isEqualTo(2);
+        try (Response response = execute(new Request.Builder())) {
+            assertThat(response.header(Headers.ETAG_STRING)).isNotEqualTo(entityTag);
+            assertThat(response.body().string()).isEqualTo("[\"c\"]");
+        }
+        assertThat(json.count.get()).isEqualTo(2);
+        assertThat(snapshot.current()).contains(ImmutableList.of("c"));
+    }
+
+    @Test
+    public void notModifiedWhenEntityTagMatches() throws IOException {
+        snapshot.publish(ImmutableList.of("a"));
+        String entityTag;
+        try (Response response = execute(new Request.Builder())) {
+            entityTag = response.header(Headers.ETAG_STRING);
+        }
+        try (Response response = execute(new Request.Builder().header(Headers.IF_NONE_MATCH_STRING, entityTag))) {
+            assertThat(response.code()).isEqualTo(304);
+            assertThat(response.header(Headers.ETAG_STRING)).isEqualTo(entityTag);
+            assertThat(response.body().bytes()).isEmpty();
+        }
+        snapshot.publish(ImmutableList.of("b"));
+        try (Response response = execute(new Request.Builder().header(Headers.IF_NONE_MATCH_STRING, entityTag))) {
+            assertThat(response.code()).isEqualTo(200);
+            assertThat(response.body().string()).isEqualTo("[\"b\"]");
+        }
+    }
+
+    @Test
+    public void servesGzippedValueWhenAccepted() throws IOException {
+        String value = Strings.repeat("value", 100);
+        snapshot.publish(ImmutableList.of(value));
+        String entityTag;
+        try (Response response = execute(new Request.Builder())) {
+            assertThat(response.header(Headers.CONTENT_ENCODING_STRING)).isNull();
+            entityTag = response.header(Headers.ETAG_STRING);
+        }
+        try (Response response = execute(new Request.Builder().header(Headers.ACCEPT_ENCODING_STRING, "gzip"))) {
+            assertThat(response.header(Headers.CONTENT_ENCODING_STRING)).isEqualTo("gzip");
+            assertThat(response.header(Headers.VARY_STRING)).isEqualTo(Headers.ACCEPT_ENCODING_STRING);
+            assertThat(response.header(Headers.ETAG_STRING)).isNotEqualTo(entityTag);
+            try (InputStream body = new GZIPInputStream(response.body().byteStream())) {
+                assertThat(new String(ByteStreams.toByteArray(body), StandardCharsets.UTF_8))
+                        .isEqualTo("[\"" + value + "\"]");
+            }
+        }
+        try (Response response = execute(new Request.Builder().header(Headers.ACCEPT_ENCODING_STRING, "gzip;q=0"))) {
+            assertThat(response.header(Headers.CONTENT_ENCODING_STRING)).isNull();
+        }
+    }
+
+    @Test
+    public void servesEachContentType() throws IOException {
+        snapshot.publish(ImmutableList.of("a"));
+        String jsonTag;
+        try (Response response = execute(new Request.Builder())) {
+            jsonTag = response.header(Headers.ETAG_STRING);
+        }
+        try (Response response = execute(new Request.Builder().header(Headers.ACCEPT_STRING, "application/cbor"))) {
+            assertThat(response.header(Headers.CONTENT_TYPE_STRING)).isEqualTo("application/cbor");
+            assertThat(response.header(Headers.ETAG_STRING)).isNotEqualTo(jsonTag);
+            assertThat(Serializers.cbor().deserialize(response.body().byteStream(), new TypeToken<List<String>>() {}))
+                    .containsExactly("a");
+        }
+    }
+
+    private static Response execute(Request.Builder builder) throws IOException {
+        Request request = builder
+                .get()
+                .url("http://localhost:12345/snapshot")
+                .build();
+        if (request.header(Headers.ACCEPT_ENCODING_STRING) == null) {
+            // OkHttp otherwise requests and transparently decompresses gzip
+            request = request.newBuilder().header(Headers.ACCEPT_ENCODING_STRING, "identity").build();
+        }
+        return client.newCall(request).execute();
+    }
+
+    private static final class CountingSerializer implements Serializer {
+        private final Serializer delegate;
+        private final AtomicInteger count = new AtomicInteger();
+
+        CountingSerializer(Serializer delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void serialize(Object value, OutputStream output) throws IOException {
+            count.incrementAndGet();
+            delegate.serialize(value, output);
+        }
+
+        @Override
+        public <T> T deserialize(InputStream input, TypeToken<T> type) throws IOException {
+            return delegate.deserialize(input, type);
+        }
+
+        @Override
+        public String getContentType() {
+            return delegate.getContentType();
+        }
+
+        @Override
+        public boolean supportsContentType(String contentType) {
+            return delegate.supportsContentType(contentType);
+        }
+    }
+}
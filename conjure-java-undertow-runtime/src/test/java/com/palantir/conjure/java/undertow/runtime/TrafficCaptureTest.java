@@ -0,0 +1,167 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.io.ByteStreams;
+import io.undertow.Undertow;
+import io.undertow.util.Headers;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class TrafficCaptureTest {
+
+    private static final OkHttpClient client = new OkHttpClient.Builder().build();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void capturesRequestsWithoutCredentials() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("capture.bin");
+        capture(file, 1);
+        List<CapturedRequest> requests = CapturedRequest.readAll(file);
+        assertThat(requests).hasSize(2);
+
+        CapturedRequest post = requests.get(0);
+        assertThat(post.endpoint()).isEqualTo("POST /echo/{id}");
+        assertThat(post.method()).isEqualTo("POST");
+        assertThat(post.target()).isEqualTo("/echo/1?limit=10&q=a%20b");
+        assertThat(new String(post.body(), StandardCharsets.UTF_8)).isEqualTo("\"body\"");
+        Map<String, String> headers = post.headers().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        assertThat(headers).containsEntry("Content-Type", "application/json; charset=utf-8");
+        assertThat(headers).containsEntry("Custom", "value");
+        assertThat(headers.keySet().stream().map(String::toLowerCase))
+                .doesNotContain("authorization", "cookie", "content-length", "host");
+
+        CapturedRequest get = requests.get(1);
+        assertThat(get.endpoint()).isEqualTo("GET /items");
+        assertThat(get.target()).isEqualTo("/items");
+        assertThat(get.body()).isEmpty();
+    }
+
+    @Test
+    public void discardsPartiallyWrittenRecords() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("capture.bin");
+        capture(file, 1);
+        // A record interrupted by the process stopping
+        Files.write(file, new byte[] {0, 0, 0, 20, 'P', 'O'}, StandardOpenOption.APPEND);
+        assertThat(CapturedRequest.readAll(file)).hasSize(2);
+        capture(file, 1);
+        assertThat(CapturedRequest.readAll(file)).hasSize(4);
+    }
+
+    @Test
+    public void replaysCapturedRequests() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("capture.bin");
+        capture(file, 1);
+        Queue<String> received = new ConcurrentLinkedQueue<>();
+        ConjureHandler handler = new ConjureHandler();
+        handler.post("/echo/{id}", exchange -> {
+            exchange.startBlocking();
+            received.add(exchange.getRequestHeaders().getFirst(Headers.AUTHORIZATION) + " "
+                    + exchange.getQueryParameters().get("q").getFirst() + " "
+                    + new String(ByteStreams.toByteArray(exchange.getInputStream()), StandardCharsets.UTF_8));
+            exchange.setStatusCode(204);
+        });
+        handler.get("/items", exchange -> exchange.setStatusCode(500));
+
+        TrafficReplay.Report report = TrafficReplay.builder()
+                .capture(file)
+                .handler(handler)
+                .requestsPerSecond(1000)
+                .passes(3)
+                .header("Authorization", "Bearer replay")
+                .build()
+                .run();
+
+        assertThat(received).hasSize(3).containsOnly("Bearer replay a b \"body\"");
+        assertThat(report.requests()).isEqualTo(6);
+        assertThat(report.failures()).isEqualTo(3);
+        assertThat(report.throughput()).isPositive();
+        assertThat(report.latency().size()).isEqualTo(6);
+        assertThat(report.endpointLatency()).containsOnlyKeys("GET /items", "POST /echo/{id}");
+        assertThat(report.endpointLatency().get("GET /items").size()).isEqualTo(3);
+        assertThat(report.toString()).contains("6 requests, 3 failures", "POST /echo/{id}");
+    }
+
+    @Test
+    public void samplesRequests() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("capture.bin");
+        capture(file, 0.000001);
+        assertThat(CapturedRequest.readAll(file)).isEmpty();
+    }
+
+    private static void capture(Path file, double sampleRate) throws IOException {
+        TrafficCapture capture = TrafficCapture.builder()
+                .file(file)
+                .sampleRate(sampleRate)
+                .build();
+        ConjureHandler handler = ConjureHandler.builder()
+                .trafficCapture(capture)
+                .build();
+        handler.post("/echo/{id}", exchange -> {
+            exchange.startBlocking();
+            exchange.getResponseSender().send(
+                    new String(ByteStreams.toByteArray(exchange.getInputStream()), StandardCharsets.UTF_8));
+        });
+        handler.get("/items", exchange -> exchange.getResponseSender().send("[]"));
+        Undertow server = Undertow.builder()
+                .addHttpListener(12345, "localhost")
+                .setHandler(handler)
+                .build();
+        server.start();
+        try {
+            try (Response response = client.newCall(new Request.Builder()
+                    .post(RequestBody.create(MediaType.parse("application/json"), "\"body\""))
+                    .url("http://localhost:12345/echo/1?limit=10&q=a%20b")
+                    .header("Authorization", "Bearer secret")
+                    .header("Cookie", "session=secret")
+                    .header("Custom", "value")
+                    .build()).execute()) {
+                assertThat(response.body().string()).isEqualTo("\"body\"");
+            }
+            try (Response response = client.newCall(new Request.Builder()
+                    .get()
+                    .url("http://localhost:12345/items")
+                    .build()).execute()) {
+                assertThat(response.body().string()).isEqualTo("[]");
+            }
+        } finally {
+            server.stop();
+            capture.close();
+        }
+    }
+}
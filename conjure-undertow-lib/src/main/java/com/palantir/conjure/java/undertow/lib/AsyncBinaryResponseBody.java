@@ -0,0 +1,70 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.lib;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * {@link BinaryResponseBody} which produces its content in chunks on demand. Rather than holding a worker thread
+ * for the duration of the download, the response is written by the connection IO thread as the client reads it,
+ * so slow clients cost a connection rather than a thread.
+ *
+ * Chunks are requested on the IO thread whenever the connection can accept more data, so {@link #nextChunk()}
+ * must not block: the content should already be in memory or be cheap to read, for example from a memory-mapped
+ * file.
+ */
+public interface AsyncBinaryResponseBody extends BinaryResponseBody, Closeable {
+
+    /** Length of the content in bytes if known in advance, otherwise the response is chunked. */
+    default OptionalLong contentLength() {
+        return OptionalLong.empty();
+    }
+
+    /**
+     * Returns the next chunk of content, or empty once all content has been produced. The returned buffer is not
+     * accessed once the next chunk has been requested, allowing it to be reused.
+     */
+    Optional<ByteBuffer> nextChunk() throws IOException;
+
+    /** Invoked exactly once when the response completes or fails, including when the client disconnects. */
+    @Override
+    default void close() throws IOException {}
+
+    @Override
+    default void write(OutputStream responseBody) throws IOException {
+        try {
+            Optional<ByteBuffer> chunk;
+            while ((chunk = nextChunk()).isPresent()) {
+                ByteBuffer buffer = chunk.get();
+                if (buffer.hasArray()) {
+                    responseBody.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                } else {
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.duplicate().get(bytes);
+                    responseBody.write(bytes);
+                }
+            }
+        } finally {
+            close();
+        }
+    }
+}
@@ -20,7 +20,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 /**
- * Streamed binary response data with Content-Type <code>application/octet-stream</code>.
+ * Streamed binary response data with Content-Type <code>application/octet-stream</code>. Implement
+ * {@link SeekableBinaryResponseBody} to support HTTP {@code Range} requests.
  */
 public interface BinaryResponseBody {
 
@@ -0,0 +1,132 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.lib;
+
+import com.palantir.logsafe.Preconditions;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Signals that the client of a request has gone away, so that work on its behalf can be abandoned. The server
+ * runtime attaches a cancellation to each exchange when disconnect detection is enabled and makes it
+ * {@link #current() current} while the endpoint executes, allowing service implementations to check for
+ * cancellation between expensive steps without access to the exchange. Responses of cancelled requests are not
+ * serialized by the {@link SerializerRegistry}.
+ */
+public final class Cancellation {
+
+    private static final Logger log = LoggerFactory.getLogger(Cancellation.class);
+
+    /** Cancellation of the request of an exchange, present when disconnect detection is enabled. */
+    public static final AttachmentKey<Cancellation> ATTACHMENT_KEY = AttachmentKey.create(Cancellation.class);
+
+    private static final Cancellation NEVER = new Cancellation();
+    private static final ThreadLocal<Cancellation> CURRENT = new ThreadLocal<>();
+
+    private final List<Runnable> callbacks = new ArrayList<>();
+    private volatile boolean cancelled;
+
+    private Cancellation() {}
+
+    /** Creates a cancellation which has not been cancelled. */
+    public static Cancellation create() {
+        return new Cancellation();
+    }
+
+    /**
+     * Cancellation of the request executing on the calling thread, or a cancellation which is never cancelled
+     * when there is none.
+     */
+    public static Cancellation current() {
+        Cancellation current = CURRENT.get();
+        return current == null ? NEVER : current;
+    }
+
+    /** Makes the cancellation current for the calling thread, or clears it when null. Used by the server runtime. */
+    public static void setCurrent(@Nullable Cancellation value) {
+        if (value == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(value);
+        }
+    }
+
+    /** Cancellation attached to the exchange, or a cancellation which is never cancelled when there is none. */
+    public static Cancellation of(HttpServerExchange exchange) {
+        Cancellation cancellation = exchange.getAttachment(ATTACHMENT_KEY);
+        return cancellation == null ? NEVER : cancellation;
+    }
+
+    /** Returns true once the client has gone away. */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Throws a {@link RequestCancelledException} if the client has gone away. */
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new RequestCancelledException();
+        }
+    }
+
+    /**
+     * Registers a callback to run once when the request is cancelled, on the thread which detects the
+     * cancellation, usually a server IO thread. Callbacks must not block. Callbacks registered after cancellation
+     * are run immediately.
+     */
+    public void onCancel(Runnable callback) {
+        Preconditions.checkNotNull(callback, "Callback is required");
+        if (this == NEVER) {
+            return;
+        }
+        synchronized (callbacks) {
+            if (!cancelled) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        runCallback(callback);
+    }
+
+    /** Marks the request cancelled and runs the registered callbacks. Used by the server runtime. */
+    public void cancel() {
+        Preconditions.checkState(this != NEVER, "Cannot cancel a request without disconnect detection");
+        List<Runnable> toRun;
+        synchronized (callbacks) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toRun = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        toRun.forEach(Cancellation::runCallback);
+    }
+
+    private static void runCallback(Runnable callback) {
+        try {
+            callback.run();
+        } catch (RuntimeException e) {
+            log.warn("Cancellation callback failed", e);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.lib;
+
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import io.undertow.util.AttachmentKey;
+
+/**
+ * Bounds the complexity of request bodies, so that a single pathological request cannot pin a worker thread or
+ * exhaust the heap during deserialization. Limits are enforced by {@link Serializer#deserialize(
+ * java.io.InputStream, com.google.common.reflect.TypeToken, DeserializationLimits) serializers} as the body is
+ * parsed, and requests which exceed them are rejected with an {@code INVALID_ARGUMENT} error. Nothing is limited
+ * by default.
+ */
+public final class DeserializationLimits {
+
+    /**
+     * Limits for the request body of an exchange, which take precedence over those of the
+     * {@link SerializerRegistry#withDeserializationLimits(DeserializationLimits) SerializerRegistry}.
+     */
+    public static final AttachmentKey<DeserializationLimits> ATTACHMENT_KEY =
+            AttachmentKey.create(DeserializationLimits.class);
+
+    private static final DeserializationLimits UNLIMITED = builder().build();
+
+    private final int maxDepth;
+    private final long maxTokens;
+    private final int maxStringLength;
+    private final int maxCollectionSize;
+
+    private DeserializationLimits(Builder builder) {
+        Preconditions.checkArgument(builder.maxDepth > 0, "Max depth must be positive",
+                SafeArg.of("maxDepth", builder.maxDepth));
+        Preconditions.checkArgument(builder.maxTokens > 0, "Max tokens must be positive",
+                SafeArg.of("maxTokens", builder.maxTokens));
+        Preconditions.checkArgument(builder.maxStringLength >= 0, "Max string length must not be negative",
+                SafeArg.of("maxStringLength", builder.maxStringLength));
+        Preconditions.checkArgument(builder.maxCollectionSize >= 0, "Max collection size must not be negative",
+                SafeArg.of("maxCollectionSize", builder.maxCollectionSize));
+        this.maxDepth = builder.maxDepth;
+        this.maxTokens = builder.maxTokens;
+        this.maxStringLength = builder.maxStringLength;
+        this.maxCollectionSize = builder.maxCollectionSize;
+    }
+
+    /** Limits which allow any request. */
+    public static DeserializationLimits unlimited() {
+        return UNLIMITED;
+    }
+
+    /** Maximum nesting of arrays and objects. */
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    /** Maximum number of tokens, for example field names, values and the start and end of each object. */
+    public long maxTokens() {
+        return maxTokens;
+    }
+
+    /** Maximum length of string values and field names in characters, and of binary values in bytes. */
+    public int maxStringLength() {
+        return maxStringLength;
+    }
+
+    /** Maximum number of elements of an array, or fields of an object. */
+    public int maxCollectionSize() {
+        return maxCollectionSize;
+    }
+
+    public boolean isUnlimited() {
+        return maxDepth == Integer.MAX_VALUE
+                && maxTokens == Long.MAX_VALUE
+                && maxStringLength == Integer.MAX_VALUE
+                && maxCollectionSize == Integer.MAX_VALUE;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private int maxDepth = Integer.MAX_VALUE;
+        private long maxTokens = Long.MAX_VALUE;
+        private int maxStringLength = Integer.MAX_VALUE;
+        private int maxCollectionSize = Integer.MAX_VALUE;
+
+        private Builder() {}
+
+        @CanIgnoreReturnValue
+        public Builder maxDepth(int value) {
+            this.maxDepth = value;
+            return this;
+        }
+
+        @CanIgnoreReturnValue
+        public Builder maxTokens(long value) {
+            this.maxTokens = value;
+            return this;
+        }
+
+        @CanIgnoreReturnValue
+        public Builder maxStringLength(int value) {
+            this.maxStringLength = value;
+            return this;
+        }
+
+        @CanIgnoreReturnValue
+        public Builder maxCollectionSize(int value) {
+            this.maxCollectionSize = value;
+            return this;
+        }
+
+        public DeserializationLimits build() {
+            return new DeserializationLimits(this);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.lib;
+
+/**
+ * Receives the values published by a {@link Subscription} endpoint. Implementations are thread safe.
+ */
+public interface EventSink<T> {
+
+    /**
+     * Publishes a value to the subscriber. Values are serialized on the calling thread and written asynchronously.
+     * Returns false if the stream has already been closed, in which case the value is discarded.
+     */
+    boolean send(T value);
+
+    /** Ends the stream once all previously published values have been written. */
+    void complete();
+
+    /** Returns true once the stream has been completed or the subscriber has gone away. */
+    boolean isClosed();
+
+    /**
+     * Registers a callback to run exactly once when the stream closes, whether it was completed, the client
+     * disconnected, or the client fell too far behind. Callbacks registered after the stream has closed are run
+     * immediately. Implementations should use this to unregister from the source of updates.
+     */
+    void onClose(Runnable callback);
+}
@@ -0,0 +1,360 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.lib;
+
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.IoUtils;
+import org.xnio.XnioExecutor;
+import org.xnio.channels.StreamSinkChannel;
+
+/**
+ * {@link EventSink} which streams the values published by a {@link Subscription} endpoint to the exchange
+ * response. Once {@link #start started} the exchange is held open without a worker thread: values are serialized
+ * on the publishing thread and written by the connection IO thread using non-blocking writes.
+ *
+ * The framing is selected from the request {@link Headers#ACCEPT Accept} header:
+ * {@code text/event-stream} produces server-sent events with JSON data, {@code application/cbor-seq} produces a
+ * sequence of CBOR values, and newline-delimited JSON ({@code application/x-ndjson}) is used otherwise.
+ * Server-sent event and newline-delimited JSON streams write a heartbeat while idle to keep intermediaries from
+ * timing out the connection and to detect clients which have gone away. CBOR sequences have no empty frame, so
+ * no heartbeats are written and disconnects are only detected on the next write.
+ *
+ * Frames published faster than the client reads them are buffered up to a limit, beyond which the connection is
+ * closed so that the client reconnects and resynchronizes rather than the server buffering without bound.
+ */
+public final class EventStream<T> implements EventSink<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(EventStream.class);
+
+    private static final Duration DEFAULT_HEARTBEAT_INTERVAL = Duration.ofSeconds(15);
+    private static final int DEFAULT_MAX_BUFFERED_BYTES = 1024 * 1024;
+
+    private final HttpServerExchange exchange;
+    private final Format format;
+    private final Serializer serializer;
+    private final long heartbeatMillis;
+    private final long maxBufferedBytes;
+
+    private final Queue<ByteBuffer> frames = new ConcurrentLinkedQueue<>();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final List<Runnable> closeCallbacks = new ArrayList<>();
+    private volatile boolean started;
+    private volatile boolean completed;
+    private volatile boolean aborted;
+
+    // Only accessed by the IO thread once the stream has started.
+    private StreamSinkChannel channel;
+    private ByteBuffer current;
+    private XnioExecutor.Key heartbeat;
+
+    private EventStream(Builder<T> builder) {
+        this.exchange = Preconditions.checkNotNull(builder.exchange, "Missing required HttpServerExchange");
+        SerializerRegistry serializers = Preconditions.checkNotNull(builder.serializers,
+                "Missing required SerializerRegistry");
+        Preconditions.checkArgument(!builder.heartbeatInterval.isNegative() && !builder.heartbeatInterval.isZero(),
+                "Heartbeat interval must be positive", SafeArg.of("heartbeatInterval", builder.heartbeatInterval));
+        Preconditions.checkArgument(builder.maxBufferedBytes > 0, "Max buffered bytes must be positive",
+                SafeArg.of("maxBufferedBytes", builder.maxBufferedBytes));
+        this.format = Format.of(exchange);
+        this.serializer = serializers.getSerializer(format.serializerContentType);
+        this.heartbeatMillis = builder.heartbeatInterval.toMillis();
+        this.maxBufferedBytes = builder.maxBufferedBytes;
+        // Registered before the stream starts, so the stream is closed even when the delegate fails to return.
+        exchange.addExchangeCompleteListener((completedExchange, nextListener) -> {
+            try {
+                close();
+            } finally {
+                nextListener.proceed();
+            }
+        });
+    }
+
+    @Override
+    public boolean send(T value) {
+        Preconditions.checkNotNull(value, "cannot send null value");
+        if (completed || closed.get()) {
+            return false;
+        }
+        enqueue(frame(value));
+        return !closed.get();
+    }
+
+    @Override
+    public void complete() {
+        completed = true;
+        scheduleWrite();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public void onClose(Runnable callback) {
+        Preconditions.checkNotNull(callback, "Callback is required");
+        synchronized (closeCallbacks) {
+            if (!closed.get()) {
+                closeCallbacks.add(callback);
+                return;
+            }
+        }
+        runCallback(callback);
+    }
+
+    /**
+     * Commits the response headers and holds the exchange open for the values published to this stream. Must be
+     * called by the endpoint handler once the delegate has returned, so that failures before this point are
+     * reported as a regular error response. Streams which are never started are closed when that response
+     * completes.
+     */
+    public void start() throws IOException {
+        exchange.setStatusCode(StatusCodes.OK);
+        exchange.getResponseHeaders()
+                .put(Headers.CONTENT_TYPE, format.contentType)
+                .put(Headers.CACHE_CONTROL, "no-cache");
+        if (exchange.isBlocking()) {
+            // Drain the request while on a worker thread, the exchange is later completed by the IO thread.
+            exchange.getInputStream().close();
+        }
+        channel = exchange.getResponseChannel();
+        // Returns the worker thread once the handler completes, continuing on the IO thread.
+        exchange.dispatch(exchange.getIoThread(), this::begin);
+    }
+
+    private void begin() {
+        channel.getWriteSetter().set(ignored -> write());
+        channel.getCloseSetter().set(ignored -> close());
+        if (format.heartbeat.length > 0) {
+            heartbeat = exchange.getIoThread()
+                    .executeAtInterval(this::heartbeat, heartbeatMillis, TimeUnit.MILLISECONDS);
+        }
+        started = true;
+        if (aborted) {
+            IoUtils.safeClose(exchange.getConnection());
+            return;
+        }
+        // Commits the response headers even if nothing has been published yet.
+        write();
+    }
+
+    private ByteBuffer frame(T value) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        buffer.write(format.prefix, 0, format.prefix.length);
+        try {
+            serializer.serialize(value, buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.write(format.suffix, 0, format.suffix.length);
+        return ByteBuffer.wrap(buffer.toByteArray());
+    }
+
+    private void enqueue(ByteBuffer frame) {
+        long buffered = bufferedBytes.addAndGet(frame.remaining());
+        if (buffered > maxBufferedBytes) {
+            log.info("Closing event stream, the client is not keeping up with published values",
+                    SafeArg.of("bufferedBytes", buffered),
+                    SafeArg.of("maxBufferedBytes", maxBufferedBytes));
+            abort();
+            return;
+        }
+        frames.add(frame);
+        scheduleWrite();
+    }
+
+    private void scheduleWrite() {
+        if (started && writeScheduled.compareAndSet(false, true)) {
+            exchange.getIoThread().execute(this::write);
+        }
+    }
+
+    private void write() {
+        writeScheduled.set(false);
+        if (closed.get()) {
+            return;
+        }
+        try {
+            while (true) {
+                if (current == null) {
+                    current = frames.poll();
+                    if (current == null) {
+                        break;
+                    }
+                }
+                channel.write(current);
+                if (current.hasRemaining()) {
+                    // Resumed by the write listener once the socket is writable.
+                    channel.resumeWrites();
+                    return;
+                }
+                bufferedBytes.addAndGet(-current.limit());
+                current = null;
+            }
+            if (!channel.flush()) {
+                channel.resumeWrites();
+                return;
+            }
+            channel.suspendWrites();
+            if (completed && frames.isEmpty()) {
+                exchange.endExchange();
+            }
+        } catch (IOException e) {
+            log.debug("Failed to write to event stream", e);
+            abort();
+        }
+    }
+
+    private void heartbeat() {
+        if (closed.get()) {
+            heartbeat.remove();
+        } else if (current == null && frames.isEmpty()) {
+            enqueue(ByteBuffer.wrap(format.heartbeat));
+        }
+    }
+
+    private void abort() {
+        aborted = true;
+        if (close() && started) {
+            exchange.getIoThread().execute(() -> IoUtils.safeClose(exchange.getConnection()));
+        }
+    }
+
+    private boolean close() {
+        if (!closed.compareAndSet(false, true)) {
+            return false;
+        }
+        frames.clear();
+        List<Runnable> callbacks;
+        synchronized (closeCallbacks) {
+            callbacks = new ArrayList<>(closeCallbacks);
+            closeCallbacks.clear();
+        }
+        callbacks.forEach(EventStream::runCallback);
+        return true;
+    }
+
+    private static void runCallback(Runnable callback) {
+        try {
+            callback.run();
+        } catch (RuntimeException e) {
+            log.warn("Event stream close callback failed", e);
+        }
+    }
+
+    public static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    public static final class Builder<T> {
+
+        private HttpServerExchange exchange;
+        private SerializerRegistry serializers;
+        private Duration heartbeatInterval = DEFAULT_HEARTBEAT_INTERVAL;
+        private int maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
+
+        private Builder() {}
+
+        @CanIgnoreReturnValue
+        public Builder<T> exchange(HttpServerExchange value) {
+            this.exchange = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        @CanIgnoreReturnValue
+        public Builder<T> serializers(SerializerRegistry value) {
+            this.serializers = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Interval at which heartbeats are written while the stream is idle, 15 seconds by default. */
+        @CanIgnoreReturnValue
+        public Builder<T> heartbeatInterval(Duration value) {
+            this.heartbeatInterval = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
+        /** Bytes buffered for a client before its connection is closed, one megabyte by default. */
+        @CanIgnoreReturnValue
+        public Builder<T> maxBufferedBytes(int value) {
+            this.maxBufferedBytes = value;
+            return this;
+        }
+
+        public EventStream<T> build() {
+            return new EventStream<>(this);
+        }
+    }
+
+    private enum Format {
+        SERVER_SENT_EVENTS("text/event-stream", "application/json", "data: ", "\n\n", ":\n\n"),
+        CBOR_SEQUENCE("application/cbor-seq", "application/cbor", "", "", ""),
+        NEWLINE_DELIMITED_JSON("application/x-ndjson", "application/json", "", "\n", "\n");
+
+        private final String contentType;
+        private final String serializerContentType;
+        private final byte[] prefix;
+        private final byte[] suffix;
+        private final byte[] heartbeat;
+
+        Format(String contentType, String serializerContentType, String prefix, String suffix, String heartbeat) {
+            this.contentType = contentType;
+            this.serializerContentType = serializerContentType;
+            this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+            this.suffix = suffix.getBytes(StandardCharsets.UTF_8);
+            this.heartbeat = heartbeat.getBytes(StandardCharsets.UTF_8);
+        }
+
+        static Format of(HttpServerExchange exchange) {
+            HeaderValues acceptValues = exchange.getRequestHeaders().get(Headers.ACCEPT);
+            if (acceptValues != null) {
+                // Prefers the client "Accept" order, matching SerializerRegistry
+                for (String acceptValue : acceptValues) {
+                    for (Format format : values()) {
+                        if (acceptValue.startsWith(format.contentType)) {
+                            return format;
+                        }
+                    }
+                }
+            }
+            return NEWLINE_DELIMITED_JSON;
+        }
+    }
+}
@@ -16,19 +16,34 @@
 
 package com.palantir.conjure.java.undertow.lib;
 
+import com.google.common.reflect.TypeToken;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * {@link HandlerContext} provides state required by generated handlers.
  */
 public final class HandlerContext {
 
+    private static final Logger log = LoggerFactory.getLogger(HandlerContext.class);
+
     private final SerializerRegistry serializerRegistry;
+    private final boolean warmUpSerializers;
+    @Nullable
+    private final PhaseListener phaseListener;
+    private final AtomicLong warmUpNanos = new AtomicLong();
 
     private HandlerContext(Builder builder) {
         this.serializerRegistry = Preconditions.checkNotNull(builder.serializerRegistry,
                 "Missing required SerializerRegistry");
+        this.warmUpSerializers = builder.warmUpSerializers;
+        this.phaseListener = builder.phaseListener;
     }
 
     /**
@@ -38,6 +53,52 @@ public final class HandlerContext {
         return serializerRegistry;
     }
 
+    /**
+     * Returns true if serializers are {@link Builder#warmUpSerializers warmed up}, allowing generated
+     * {@link Endpoint#create} implementations to skip building the types otherwise.
+     */
+    public boolean serializerWarmUpEnabled() {
+        return warmUpSerializers;
+    }
+
+    /**
+     * {@link SerializerRegistry#warmUp Warms up} the {@link SerializerRegistry} for the request and response body
+     * types of a service when {@link Builder#warmUpSerializers enabled}, otherwise does nothing. Invoked by generated
+     * {@link Endpoint#create} implementations.
+     */
+    public void warmUpSerializers(String serviceName, TypeToken<?>... types) {
+        if (!warmUpSerializers) {
+            return;
+        }
+        long start = System.nanoTime();
+        for (TypeToken<?> type : types) {
+            serializerRegistry.warmUp(type);
+        }
+        long elapsed = System.nanoTime() - start;
+        warmUpNanos.addAndGet(elapsed);
+        log.info("Warmed up serializers",
+                SafeArg.of("service", serviceName),
+                SafeArg.of("types", types.length),
+                SafeArg.of("durationMillis", elapsed / 1_000_000));
+    }
+
+    /**
+     * Total time spent {@link #warmUpSerializers warming up serializers} for the endpoints created with this
+     * context, allowing the cost to be reported before the server is marked ready.
+     */
+    public Duration serializerWarmUpDuration() {
+        return Duration.ofNanos(warmUpNanos.get());
+    }
+
+    /**
+     * {@link PhaseTimer} reporting the phases of requests to the endpoint registered with the given method and path
+     * template to the {@link Builder#phaseListener phase listener}, if any. Invoked by handlers generated with phase
+     * timings.
+     */
+    public PhaseTimer phaseTimer(String endpoint) {
+        return new PhaseTimer(Preconditions.checkNotNull(endpoint, "Endpoint is required"), phaseListener);
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -45,6 +106,9 @@ public final class HandlerContext {
     public static final class Builder {
 
         private SerializerRegistry serializerRegistry;
+        private boolean warmUpSerializers;
+        @Nullable
+        private PhaseListener phaseListener;
 
         private Builder() {}
 
@@ -54,6 +118,26 @@ public final class HandlerContext {
             return this;
         }
 
+        /**
+         * Resolves the serializers for every request and response body type when an {@link Endpoint} is
+         * {@link Endpoint#create created} rather than on first use. Disabled by default.
+         */
+        @CanIgnoreReturnValue
+        public Builder warmUpSerializers(boolean value) {
+            this.warmUpSerializers = value;
+            return this;
+        }
+
+        /**
+         * Reports the {@link RequestPhase phases} of requests handled by endpoints which were generated with phase
+         * timings to the provided listener. Without a listener timing a request does nothing.
+         */
+        @CanIgnoreReturnValue
+        public Builder phaseListener(PhaseListener value) {
+            this.phaseListener = Preconditions.checkNotNull(value, "Value is required");
+            return this;
+        }
+
         public HandlerContext build() {
             return new HandlerContext(this);
         }
@@ -0,0 +1,35 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.lib;
+
+/**
+ * Receives the {@link RequestPhase phases} of requests handled by generated endpoint handlers, registered with
+ * {@link HandlerContext.Builder#phaseListener}. Both methods are invoked on the thread handling the request, a
+ * completed phase is always reported before the next phase starts. Implementations must be cheap and must not
+ * throw.
+ */
+public interface PhaseListener {
+
+    /**
+     * Invoked when the endpoint registered with the given method and path template, for example
+     * {@code "GET /catalog/datasets/{datasetRid}"}, starts the phase.
+     */
+    void started(String endpoint, RequestPhase phase);
+
+    /** Invoked when the phase completes, successfully or not, after the given duration. */
+    void completed(String endpoint, RequestPhase phase, long durationNanos);
+}
@@ -0,0 +1,84 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.lib;
+
+import javax.annotation.Nullable;
+
+/**
+ * Times the {@link RequestPhase phases} of requests to an endpoint for its {@link PhaseListener}, created by
+ * {@link HandlerContext#phaseTimer}. Generated handlers {@link #start start} a {@link Timing} for each request,
+ * {@link Timing#enter enter} each phase in turn and {@link Timing#exit exit} once the request completes. When the
+ * context has no listener every timing is a shared instance which does nothing.
+ */
+public final class PhaseTimer {
+
+    private static final Timing DISABLED = new Timing(null);
+
+    private final String endpoint;
+    @Nullable
+    private final PhaseListener listener;
+
+    PhaseTimer(String endpoint, @Nullable PhaseListener listener) {
+        this.endpoint = endpoint;
+        this.listener = listener;
+    }
+
+    /** Starts timing a request, which must be used on the calling thread only. */
+    public Timing start() {
+        return listener == null ? DISABLED : new Timing(this);
+    }
+
+    public static final class Timing {
+        @Nullable
+        private final PhaseTimer timer;
+        @Nullable
+        private RequestPhase current;
+        private long startNanos;
+
+        private Timing(@Nullable PhaseTimer timer) {
+            this.timer = timer;
+        }
+
+        /** Completes the current phase, if any, and starts the given phase. */
+        public void enter(RequestPhase phase) {
+            if (timer == null) {
+                return;
+            }
+            long now = complete();
+            current = phase;
+            startNanos = now;
+            timer.listener.started(timer.endpoint, phase);
+        }
+
+        /** Completes the current phase, if any. */
+        public void exit() {
+            if (timer == null) {
+                return;
+            }
+            complete();
+            current = null;
+        }
+
+        private long complete() {
+            long now = System.nanoTime();
+            if (current != null) {
+                timer.listener.completed(timer.endpoint, current, now - startNanos);
+            }
+            return now;
+        }
+    }
+}
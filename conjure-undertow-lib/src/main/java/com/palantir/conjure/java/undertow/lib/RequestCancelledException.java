@@ -0,0 +1,45 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.lib;
+
+import com.palantir.logsafe.Arg;
+import com.palantir.logsafe.SafeLoggable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by {@link Cancellation#throwIfCancelled()} to abandon a request whose client has gone away. The server
+ * closes the connection rather than responding with an error.
+ */
+public final class RequestCancelledException extends RuntimeException implements SafeLoggable {
+
+    private static final String MESSAGE = "Request cancelled, the client has gone away";
+
+    public RequestCancelledException() {
+        super(MESSAGE);
+    }
+
+    @Override
+    public String getLogMessage() {
+        return MESSAGE;
+    }
+
+    @Override
+    public List<Arg<?>> getArgs() {
+        return Collections.emptyList();
+    }
+}
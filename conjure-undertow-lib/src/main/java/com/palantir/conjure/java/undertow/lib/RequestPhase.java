@@ -0,0 +1,35 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.lib;
+
+/**
+ * Phases of a request handled by a generated endpoint handler, reported to the {@link PhaseListener} of the
+ * {@link HandlerContext} when handlers are generated with phase timings. Phases which an endpoint does not
+ * have, for example {@link #DESERIALIZE} for an endpoint without a request body, are not reported.
+ */
+public enum RequestPhase {
+    /** Reading the auth header or cookie. */
+    AUTH,
+    /** Deserializing the request body. */
+    DESERIALIZE,
+    /** Decoding path, header and query parameters. */
+    PARAMETERS,
+    /** Invoking the service implementation. */
+    DELEGATE,
+    /** Serializing and writing the response body. */
+    SERIALIZE
+}
@@ -0,0 +1,30 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.lib;
+
+import io.undertow.server.HttpServerExchange;
+
+/**
+ * Implemented by generated handlers to reject malformed requests before they are dispatched to a worker thread.
+ * {@link #validate} is invoked on the IO thread and must not block or read the request body. Checks should be
+ * cheap, since the handler parses the request again once dispatched. Failures are reported by throwing the same
+ * exceptions the handler would throw, for example an {@link IllegalArgumentException} for a missing
+ * {@code Authorization} header.
+ */
+public interface RequestValidator {
+    void validate(HttpServerExchange exchange);
+}
@@ -17,6 +17,8 @@
 package com.palantir.conjure.java.undertow.lib;
 
 import io.undertow.server.HttpHandler;
+import java.lang.annotation.Annotation;
+import java.util.Set;
 
 /**
  * Add handlers to this registry by calling the method corresponding to the http method
@@ -34,4 +36,27 @@ public interface RoutingRegistry {
     RoutingRegistry put(String template, HttpHandler handler);
 
     RoutingRegistry delete(String template, HttpHandler handler);
+
+    /**
+     * Registers the handler along with the markers of its endpoint definition, which the handler class is not
+     * annotated with. Registries which do not use markers may ignore them.
+     */
+    default RoutingRegistry get(String template, HttpHandler handler, Set<Class<? extends Annotation>> markers) {
+        return get(template, handler);
+    }
+
+    /** See {@link #get(String, HttpHandler, Set)}. */
+    default RoutingRegistry post(String template, HttpHandler handler, Set<Class<? extends Annotation>> markers) {
+        return post(template, handler);
+    }
+
+    /** See {@link #get(String, HttpHandler, Set)}. */
+    default RoutingRegistry put(String template, HttpHandler handler, Set<Class<? extends Annotation>> markers) {
+        return put(template, handler);
+    }
+
+    /** See {@link #get(String, HttpHandler, Set)}. */
+    default RoutingRegistry delete(String template, HttpHandler handler, Set<Class<? extends Annotation>> markers) {
+        return delete(template, handler);
+    }
 }
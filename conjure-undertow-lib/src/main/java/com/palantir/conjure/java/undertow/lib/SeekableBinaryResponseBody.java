@@ -0,0 +1,50 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.lib;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Optional;
+
+/**
+ * {@link BinaryResponseBody} of known length which can write any part of its content, allowing clients to resume
+ * interrupted downloads or fetch the content in parallel chunks using HTTP {@code Range} requests.
+ */
+public interface SeekableBinaryResponseBody extends BinaryResponseBody {
+
+    /** Length of the content in bytes. */
+    long contentLength();
+
+    /**
+     * Strong entity tag of the content, without quotes. Range requests conditional on an {@code If-Range} validator
+     * are only served partially when the validator matches, otherwise the full content is returned.
+     */
+    default Optional<String> entityTag() {
+        return Optional.empty();
+    }
+
+    /**
+     * Invoked to write exactly {@code length} bytes of content starting at {@code offset} to the response stream.
+     * Called at most once per response.
+     */
+    void write(OutputStream responseBody, long offset, long length) throws IOException;
+
+    @Override
+    default void write(OutputStream responseBody) throws IOException {
+        write(responseBody, 0, contentLength());
+    }
+}
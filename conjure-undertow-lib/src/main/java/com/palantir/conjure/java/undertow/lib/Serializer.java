@@ -37,6 +37,20 @@ public interface Serializer {
      */
     <T> T deserialize(InputStream input, TypeToken<T> type) throws IOException;
 
+    /**
+     * Equivalent to {@link #deserialize(InputStream, TypeToken)}, rejecting input which exceeds the given limits
+     * with an {@link IllegalArgumentException}. The default implementation does not enforce any limits.
+     */
+    default <T> T deserialize(InputStream input, TypeToken<T> type, DeserializationLimits limits) throws IOException {
+        return deserialize(input, type);
+    }
+
+    /**
+     * Resolves and caches whatever is required to serialize and deserialize values of the given type, so that the
+     * cost is not paid by the first request which uses it. The default implementation does nothing.
+     */
+    default void warmUp(TypeToken<?> type) {}
+
     String getContentType();
 
     boolean supportsContentType(String contentType);
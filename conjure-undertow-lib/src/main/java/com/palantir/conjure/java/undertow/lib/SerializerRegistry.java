@@ -25,13 +25,16 @@ import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /** Orchestrates serialization and deserialization of response and request bodies. */
 public final class SerializerRegistry {
 
     private final Serializer defaultSerializer;
     private final Serializer[] serializers;
+    private final DeserializationLimits limits;
 
     /**
      * Creates a registry that {@link #getResponseSerializer selects} the first (based on input order) of the
@@ -39,8 +42,25 @@ public final class SerializerRegistry {
      * {@link Headers#ACCEPT accepted} by a given request, or the first serializer if no such serializer can be found.
      */
     public SerializerRegistry(Serializer defaultSerializer, Serializer... serializers) {
+        this(defaultSerializer, ObjectArrays.concat(defaultSerializer, serializers), DeserializationLimits.unlimited());
+    }
+
+    private SerializerRegistry(
+            Serializer defaultSerializer,
+            Serializer[] serializers,
+            DeserializationLimits limits) {
         this.defaultSerializer = defaultSerializer;
-        this.serializers = ObjectArrays.concat(defaultSerializer, serializers);
+        this.serializers = serializers;
+        this.limits = limits;
+    }
+
+    /**
+     * Returns a registry with the same serializers which enforces the given limits when deserializing request
+     * bodies, unless the exchange carries its own {@link DeserializationLimits#ATTACHMENT_KEY limits}.
+     */
+    public SerializerRegistry withDeserializationLimits(DeserializationLimits value) {
+        return new SerializerRegistry(defaultSerializer, serializers,
+                Preconditions.checkNotNull(value, "DeserializationLimits are required"));
     }
 
     /** Returns the {@link Serializer} to use to deserialize the request body. */
@@ -59,6 +79,16 @@ public final class SerializerRegistry {
                 SafeArg.of("Content-Type", contentType));
     }
 
+    /** Returns the first {@link Serializer} which supports the given content type. */
+    Serializer getSerializer(String contentType) {
+        for (Serializer serializer : serializers) {
+            if (serializer.supportsContentType(contentType)) {
+                return serializer;
+            }
+        }
+        throw new SafeIllegalArgumentException("Unsupported Accept", SafeArg.of("Accept", contentType));
+    }
+
     /** Returns the {@link Serializer} to use for the exchange response. */
     @VisibleForTesting
     Serializer getResponseSerializer(HttpServerExchange exchange) {
@@ -77,16 +107,69 @@ public final class SerializerRegistry {
         return defaultSerializer;
     }
 
-    /** Serialize a value to a provided exchange. */
+    /**
+     * Serialize a value to a provided exchange. Exchanges which have not been put into blocking mode, for example
+     * {@link NonBlocking} endpoints handled on the IO thread, are written using the non-blocking response
+     * {@link io.undertow.io.Sender}. Throws a {@link RequestCancelledException} rather than serializing the value
+     * once the client has gone away, see {@link Cancellation}.
+     */
     public void serialize(Object value, HttpServerExchange exchange) throws IOException {
         Preconditions.checkNotNull(value, "cannot serialize null value");
+        Cancellation.of(exchange).throwIfCancelled();
         Serializer serializer = getResponseSerializer(exchange);
         exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, serializer.getContentType());
-        serializer.serialize(value, exchange.getOutputStream());
+        if (exchange.isBlocking()) {
+            serializer.serialize(value, exchange.getOutputStream());
+        } else {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            serializer.serialize(value, buffer);
+            exchange.getResponseSender().send(ByteBuffer.wrap(buffer.toByteArray()));
+        }
+    }
+
+    /**
+     * Writes the current value of a {@link Snapshot} endpoint to a provided exchange from the bytes cached by the
+     * {@link SnapshotPublisher} for the {@link Serializer} selected by the request {@link Headers#ACCEPT Accept}
+     * header.
+     */
+    public void serializeSnapshot(SnapshotPublisher<?> snapshot, HttpServerExchange exchange) {
+        Preconditions.checkNotNull(snapshot, "cannot serialize null snapshot");
+        snapshot.write(getResponseSerializer(exchange), exchange);
+    }
+
+    /**
+     * Throws a {@link SafeIllegalArgumentException} if the request {@link Headers#CONTENT_TYPE Content-Type} is
+     * missing or not supported by any registered {@link Serializer}, without reading the request body.
+     */
+    public void validateContentType(HttpServerExchange exchange) {
+        getRequestDeserializer(exchange);
+    }
+
+    /**
+     * Creates an {@link EventStream} to deliver the values of a {@link Subscription} endpoint to the exchange,
+     * framed based on the request {@link Headers#ACCEPT Accept} header.
+     */
+    public <T> EventStream<T> eventStream(HttpServerExchange exchange) {
+        return EventStream.<T>builder()
+                .exchange(exchange)
+                .serializers(this)
+                .build();
+    }
+
+    /** {@link Serializer#warmUp Warms up} each registered {@link Serializer} for the given type. */
+    public void warmUp(TypeToken<?> type) {
+        for (Serializer serializer : serializers) {
+            serializer.warmUp(type);
+        }
     }
 
     public <T> T deserialize(TypeToken<T> type, HttpServerExchange exchange) throws IOException {
         Serializer serializer = getRequestDeserializer(exchange);
-        return serializer.deserialize(exchange.getInputStream(), type);
+        DeserializationLimits requestLimits = exchange.getAttachment(DeserializationLimits.ATTACHMENT_KEY);
+        DeserializationLimits effectiveLimits = requestLimits == null ? limits : requestLimits;
+        if (effectiveLimits.isUnlimited()) {
+            return serializer.deserialize(exchange.getInputStream(), type);
+        }
+        return serializer.deserialize(exchange.getInputStream(), type, effectiveLimits);
     }
 }
@@ -0,0 +1,37 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.lib;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Endpoint marker for endpoints which return a large, slowly changing value that is serialized once when it changes
+ * rather than on every request. Reference it from a conjure definition as an endpoint marker using an external
+ * import of {@code com.palantir.conjure.java.undertow.lib.Snapshot}.
+ *
+ * The generated service method returns a {@link SnapshotPublisher} of the declared return type in place of a value,
+ * and the response is written from the cached serialized bytes of its most recently published value. Snapshot
+ * endpoints must declare a return type which is neither binary nor optional.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Snapshot {}
@@ -0,0 +1,218 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.lib;
+
+import com.google.common.hash.Hashing;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.palantir.conjure.java.api.errors.QosException;
+import com.palantir.logsafe.Preconditions;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.ETag;
+import io.undertow.util.ETagUtils;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Holds the current value returned by a {@link Snapshot} endpoint. Each {@link #publish published} value is
+ * serialized once per {@link Serializer}, and optionally gzipped, so that serving a request costs a single buffer
+ * write rather than serializing the value again.
+ *
+ * Values are serialized eagerly on the publishing thread for every serializer which has already served a request,
+ * and otherwise by the first request which needs them. Responses carry a strong {@link Headers#ETAG ETag} derived
+ * from the serialized content, and requests whose {@link Headers#IF_NONE_MATCH If-None-Match} header matches it
+ * receive {@code 304 Not Modified} without a body. Requests made before a value is published fail with
+ * {@code 503 Service Unavailable}.
+ */
+public final class SnapshotPublisher<T> {
+
+    private static final String GZIP = "gzip";
+
+    private final boolean gzip;
+    private final Set<Serializer> serializers = ConcurrentHashMap.newKeySet();
+    @Nullable
+    private volatile Published published;
+
+    private SnapshotPublisher(Builder<T> builder) {
+        this.gzip = builder.gzip;
+    }
+
+    /** Replaces the value served by the endpoint. */
+    public void publish(T value) {
+        Published next = new Published(Preconditions.checkNotNull(value, "cannot publish null value"));
+        for (Serializer serializer : serializers) {
+            next.encoded(serializer);
+        }
+        published = next;
+    }
+
+    /** The most recently published value, if any. */
+    public Optional<T> current() {
+        Published current = published;
+        return current == null ? Optional.empty() : Optional.of(current.value);
+    }
+
+    /** Writes the serialized current value to the exchange, see {@link SerializerRegistry#serializeSnapshot}. */
+    void write(Serializer serializer, HttpServerExchange exchange) {
+        Published current = published;
+        if (current == null) {
+            throw QosException.unavailable();
+        }
+        serializers.add(serializer);
+        Encoded encoded = current.encoded(serializer);
+        boolean gzipped = encoded.gzipped != null && acceptsGzip(exchange);
+        ETag entityTag = gzipped ? encoded.gzippedTag : encoded.tag;
+        HeaderMap responseHeaders = exchange.getResponseHeaders();
+        responseHeaders.put(Headers.CONTENT_TYPE, serializer.getContentType());
+        responseHeaders.put(Headers.ETAG, entityTag.toString());
+        if (gzip) {
+            responseHeaders.put(Headers.VARY, Headers.ACCEPT_ENCODING_STRING);
+        }
+        if (!ETagUtils.handleIfNoneMatch(exchange, entityTag, true)) {
+            exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+            return;
+        }
+        if (gzipped) {
+            responseHeaders.put(Headers.CONTENT_ENCODING, GZIP);
+        }
+        ByteBuffer body = (gzipped ? encoded.gzipped : encoded.content).duplicate();
+        exchange.setResponseContentLength(body.remaining());
+        exchange.getResponseSender().send(body);
+    }
+
+    private static boolean acceptsGzip(HttpServerExchange exchange) {
+        HeaderValues acceptEncoding = exchange.getRequestHeaders().get(Headers.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String value : acceptEncoding) {
+            for (String coding : value.split(",")) {
+                String[] parameters = coding.split(";");
+                if (parameters[0].trim().equalsIgnoreCase(GZIP) && !isQualityZero(parameters)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Matches q=0, q=0.0, q=0.00 and q=0.000
+    private static boolean isQualityZero(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                return parameter.substring(2).matches("0(\\.0{0,3})?");
+            }
+        }
+        return false;
+    }
+
+    public static <T> SnapshotPublisher<T> create() {
+        return SnapshotPublisher.<T>builder().build();
+    }
+
+    public static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    public static final class Builder<T> {
+
+        private boolean gzip;
+
+        private Builder() {}
+
+        /**
+         * Additionally stores a gzipped copy of each serialized value, served to requests which accept the gzip
+         * content coding when it is smaller than the original. Disabled by default.
+         */
+        @CanIgnoreReturnValue
+        public Builder<T> gzip(boolean value) {
+            this.gzip = value;
+            return this;
+        }
+
+        public SnapshotPublisher<T> build() {
+            return new SnapshotPublisher<>(this);
+        }
+    }
+
+    private final class Published {
+        private final T value;
+        private final Map<Serializer, Encoded> encoded = new ConcurrentHashMap<>();
+
+        Published(T value) {
+            this.value = value;
+        }
+
+        Encoded encoded(Serializer serializer) {
+            return encoded.computeIfAbsent(serializer, this::encode);
+        }
+
+        private Encoded encode(Serializer serializer) {
+            try {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                serializer.serialize(value, content);
+                return new Encoded(content.toByteArray(), gzip);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static final class Encoded {
+        private final ByteBuffer content;
+        private final ETag tag;
+        @Nullable
+        private final ByteBuffer gzipped;
+        @Nullable
+        private final ETag gzippedTag;
+
+        Encoded(byte[] content, boolean gzip) throws IOException {
+            String hash = Hashing.murmur3_128().hashBytes(content).toString();
+            this.content = ByteBuffer.wrap(content).asReadOnlyBuffer();
+            this.tag = new ETag(false, hash);
+            byte[] compressed = gzip ? gzip(content) : null;
+            if (compressed != null && compressed.length < content.length) {
+                this.gzipped = ByteBuffer.wrap(compressed).asReadOnlyBuffer();
+                // Representations with a different content coding require a different strong entity tag
+                this.gzippedTag = new ETag(false, hash + '-' + GZIP);
+            } else {
+                this.gzipped = null;
+                this.gzippedTag = null;
+            }
+        }
+
+        private static byte[] gzip(byte[] content) throws IOException {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream output = new GZIPOutputStream(compressed)) {
+                output.write(content);
+            }
+            return compressed.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.lib;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Endpoint marker for subscription endpoints which stream a sequence of values over a single long-lived response
+ * instead of returning one value. Reference it from a conjure definition as an endpoint marker using an external
+ * import of {@code com.palantir.conjure.java.undertow.lib.Subscription}.
+ *
+ * The generated service method receives an {@link EventSink} of the declared return type in place of a return
+ * value, and may publish to it from any thread after returning. The response is held open without occupying a
+ * worker thread and is framed based on the request {@code Accept} header, see {@link EventStream}. Subscription
+ * endpoints must declare a return type and must not declare a request body.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Subscription {}
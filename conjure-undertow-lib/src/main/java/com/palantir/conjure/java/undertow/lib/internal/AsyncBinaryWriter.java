@@ -0,0 +1,128 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.lib.internal;
+
+import com.palantir.conjure.java.undertow.lib.AsyncBinaryResponseBody;
+import io.undertow.server.HttpServerExchange;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.ChannelListener;
+import org.xnio.IoUtils;
+import org.xnio.channels.StreamSinkChannel;
+
+/**
+ * Writes an {@link AsyncBinaryResponseBody} using non-blocking writes on the exchange IO thread, requesting the
+ * next chunk whenever the previous one has been written and resuming from the channel write listener when the
+ * connection cannot accept more data.
+ */
+final class AsyncBinaryWriter implements ChannelListener<StreamSinkChannel> {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncBinaryWriter.class);
+
+    // Yields the IO thread to other connections after writing this many bytes to a fast client.
+    private static final long MAX_BYTES_PER_WRITE = 1024 * 1024;
+
+    private final HttpServerExchange exchange;
+    private final AsyncBinaryResponseBody body;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    // Only accessed by the IO thread once the writer has started.
+    private StreamSinkChannel channel;
+    private ByteBuffer current;
+
+    private AsyncBinaryWriter(HttpServerExchange exchange, AsyncBinaryResponseBody body) {
+        this.exchange = exchange;
+        this.body = body;
+    }
+
+    /**
+     * Continues the response on the exchange IO thread once the current handler returns, releasing the worker
+     * thread of blocking endpoints. The first chunk is requested on the calling thread so that failures before
+     * the response is committed are reported as a regular error response.
+     */
+    static void start(HttpServerExchange exchange, AsyncBinaryResponseBody body) throws IOException {
+        AsyncBinaryWriter writer = new AsyncBinaryWriter(exchange, body);
+        exchange.addExchangeCompleteListener((completedExchange, nextListener) -> {
+            writer.close();
+            nextListener.proceed();
+        });
+        Optional<ByteBuffer> first = body.nextChunk();
+        if (!first.isPresent()) {
+            exchange.endExchange();
+            return;
+        }
+        writer.current = first.get();
+        if (exchange.isBlocking()) {
+            // Drain the request while on a worker thread, the exchange is later completed by the IO thread.
+            exchange.getInputStream().close();
+        }
+        writer.channel = exchange.getResponseChannel();
+        exchange.dispatch(exchange.getIoThread(), writer::begin);
+    }
+
+    private void begin() {
+        channel.getWriteSetter().set(this);
+        channel.getCloseSetter().set(ignored -> close());
+        handleEvent(channel);
+    }
+
+    @Override
+    public void handleEvent(StreamSinkChannel ignored) {
+        try {
+            long written = 0;
+            while (written < MAX_BYTES_PER_WRITE) {
+                if (current == null || !current.hasRemaining()) {
+                    Optional<ByteBuffer> next = body.nextChunk();
+                    if (!next.isPresent()) {
+                        channel.suspendWrites();
+                        // Flushes and completes the response asynchronously.
+                        exchange.endExchange();
+                        return;
+                    }
+                    current = next.get();
+                }
+                int bytes = channel.write(current);
+                written += bytes;
+                if (current.hasRemaining()) {
+                    // Resumed by the write listener once the socket is writable.
+                    channel.resumeWrites();
+                    return;
+                }
+            }
+            channel.resumeWrites();
+        } catch (IOException | RuntimeException e) {
+            // The response has been committed, closing the connection alerts the client that it is incomplete.
+            log.info("Failed to write binary response, closing the connection", e);
+            channel.suspendWrites();
+            IoUtils.safeClose(exchange.getConnection());
+        }
+    }
+
+    private void close() {
+        if (closed.compareAndSet(false, true)) {
+            try {
+                body.close();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to close binary response body", e);
+            }
+        }
+    }
+}
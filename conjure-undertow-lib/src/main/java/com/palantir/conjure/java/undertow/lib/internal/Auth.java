@@ -29,16 +29,36 @@ import io.undertow.util.Headers;
 public final class Auth {
 
     public static AuthHeader header(HttpServerExchange exchange) {
+        return AuthHeader.valueOf(authorization(exchange));
+    }
+
+    public static BearerToken cookie(HttpServerExchange exchange, String cookieName) {
+        return StringDeserializers.deserializeBearerToken(authCookie(exchange, cookieName));
+    }
+
+    /** Checks that the Authorization header is present without parsing it. */
+    public static void checkHeader(HttpServerExchange exchange) {
+        authorization(exchange);
+    }
+
+    /** Checks that the auth cookie is present without parsing it. */
+    public static void checkCookie(HttpServerExchange exchange, String cookieName) {
+        authCookie(exchange, cookieName);
+    }
+
+    private static String authorization(HttpServerExchange exchange) {
         HeaderValues authorization = exchange.getRequestHeaders().get(Headers.AUTHORIZATION);
         // Do not use Iterables.getOnlyElement because it includes values in the exception message.
         // We do not want credential material logged to disk, even if it's marked unsafe.
         Preconditions.checkArgument(authorization != null && authorization.size() == 1,
                 "One Authorization header value is required");
-        return AuthHeader.valueOf(authorization.get(0));
+        return authorization.get(0);
     }
 
-    public static BearerToken cookie(HttpServerExchange exchange, String cookieName) {
-        return StringDeserializers.deserializeBearerToken(exchange.getRequestCookies().get(cookieName).getValue());
+    private static String authCookie(HttpServerExchange exchange, String cookieName) {
+        String cookie = Parameters.cookie(exchange, cookieName);
+        Preconditions.checkArgument(cookie != null, "Missing auth cookie");
+        return cookie;
     }
 
     private Auth() {}
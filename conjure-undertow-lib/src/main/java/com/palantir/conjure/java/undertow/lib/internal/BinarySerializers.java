@@ -16,21 +16,94 @@
 
 package com.palantir.conjure.java.undertow.lib.internal;
 
+import com.palantir.conjure.java.undertow.lib.AsyncBinaryResponseBody;
 import com.palantir.conjure.java.undertow.lib.BinaryResponseBody;
+import com.palantir.conjure.java.undertow.lib.SeekableBinaryResponseBody;
 import com.palantir.logsafe.SafeArg;
 import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.ByteRange;
+import io.undertow.util.HeaderMap;
 import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import io.undertow.util.StatusCodes;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Optional;
 
 public final class BinarySerializers {
 
     private static final String CONTENT_TYPE = "application/octet-stream";
+    private static final String BYTES = "bytes";
 
     public static void serialize(BinaryResponseBody value, HttpServerExchange exchange) throws IOException {
         exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, CONTENT_TYPE);
-        value.write(exchange.getOutputStream());
+        if (value instanceof SeekableBinaryResponseBody) {
+            serializeSeekable((SeekableBinaryResponseBody) value, exchange);
+        } else if (value instanceof AsyncBinaryResponseBody) {
+            AsyncBinaryResponseBody asyncValue = (AsyncBinaryResponseBody) value;
+            asyncValue.contentLength().ifPresent(exchange::setResponseContentLength);
+            AsyncBinaryWriter.start(exchange, asyncValue);
+        } else {
+            value.write(exchange.getOutputStream());
+        }
+    }
+
+    private static void serializeSeekable(SeekableBinaryResponseBody value, HttpServerExchange exchange)
+            throws IOException {
+        long contentLength = value.contentLength();
+        Optional<String> entityTag = value.entityTag().map(tag -> '"' + tag + '"');
+        HeaderMap responseHeaders = exchange.getResponseHeaders();
+        responseHeaders.put(Headers.ACCEPT_RANGES, BYTES);
+        entityTag.ifPresent(tag -> responseHeaders.put(Headers.ETAG, tag));
+        Optional<ByteRange> requestedRange = requestedRange(exchange, entityTag);
+        if (!requestedRange.isPresent()) {
+            exchange.setResponseContentLength(contentLength);
+            value.write(exchange.getOutputStream(), 0, contentLength);
+            return;
+        }
+        // Undertow's ByteRange#getResponseResult mishandles empty content and zero length suffixes.
+        long start = requestedRange.get().getStart(0);
+        long end = requestedRange.get().getEnd(0);
+        if (start == -1) {
+            // Suffix range of the last 'end' bytes
+            start = Math.max(0, contentLength - end);
+            end = contentLength - 1;
+        } else if (end == -1 || end >= contentLength) {
+            end = contentLength - 1;
+        }
+        if (start > end) {
+            exchange.setStatusCode(StatusCodes.REQUEST_RANGE_NOT_SATISFIABLE);
+            responseHeaders.put(Headers.CONTENT_RANGE, BYTES + " */" + contentLength);
+            exchange.setResponseContentLength(0);
+            return;
+        }
+        long length = end - start + 1;
+        exchange.setStatusCode(StatusCodes.PARTIAL_CONTENT);
+        responseHeaders.put(Headers.CONTENT_RANGE, BYTES + ' ' + start + '-' + end + '/' + contentLength);
+        exchange.setResponseContentLength(length);
+        value.write(exchange.getOutputStream(), start, length);
+    }
+
+    /**
+     * Returns the single byte range requested by a GET request, or empty if the full content should be returned.
+     * Requests for multiple ranges are served in full rather than as multipart/byteranges responses.
+     */
+    private static Optional<ByteRange> requestedRange(HttpServerExchange exchange, Optional<String> entityTag) {
+        if (!Methods.GET.equals(exchange.getRequestMethod())) {
+            return Optional.empty();
+        }
+        HeaderMap requestHeaders = exchange.getRequestHeaders();
+        String rangeHeader = requestHeaders.getFirst(Headers.RANGE);
+        if (rangeHeader == null) {
+            return Optional.empty();
+        }
+        // Only a matching strong entity tag guarantees that the client holds a prefix of the current content.
+        String ifRange = requestHeaders.getFirst(Headers.IF_RANGE);
+        if (ifRange != null && !entityTag.filter(ifRange::equals).isPresent()) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(ByteRange.parse(rangeHeader)).filter(range -> range.getRanges() == 1);
     }
 
     public static InputStream deserializeInputStream(HttpServerExchange exchange) {
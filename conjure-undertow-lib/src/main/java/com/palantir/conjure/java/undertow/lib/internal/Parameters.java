@@ -0,0 +1,153 @@
+/*
+ * (c) Copyright 2018 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.conjure.java.undertow.lib.internal;
+
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+import java.util.Deque;
+import javax.annotation.Nullable;
+
+/**
+ * Reads the values of individual request parameters for generated handlers, without copying them into intermediate
+ * collections or parsing parameters which the endpoint does not declare. Single valued parameters are returned as
+ * strings so that they can be decoded by the {@link StringDeserializers} overload for the parameter type.
+ */
+public final class Parameters {
+
+    private Parameters() {}
+
+    /** Returns the only value of a required query parameter. */
+    public static String query(HttpServerExchange exchange, String name) {
+        return required(single(exchange.getQueryParameters().get(name), name), name);
+    }
+
+    /** Returns the only value of an optional query parameter, or null if it is absent. */
+    @Nullable
+    public static String optionalQuery(HttpServerExchange exchange, String name) {
+        return single(exchange.getQueryParameters().get(name), name);
+    }
+
+    /** Returns the values of a collection query parameter, or null if it is absent. */
+    @Nullable
+    public static Deque<String> queryValues(HttpServerExchange exchange, String name) {
+        return exchange.getQueryParameters().get(name);
+    }
+
+    /** Returns the only value of a required header. */
+    public static String header(HttpServerExchange exchange, String name) {
+        return required(single(exchange.getRequestHeaders().get(name), name), name);
+    }
+
+    /** Returns the only value of an optional header, or null if it is absent. */
+    @Nullable
+    public static String optionalHeader(HttpServerExchange exchange, String name) {
+        return single(exchange.getRequestHeaders().get(name), name);
+    }
+
+    /** Returns the values of a collection header, or null if it is absent. */
+    @Nullable
+    public static HeaderValues headerValues(HttpServerExchange exchange, String name) {
+        return exchange.getRequestHeaders().get(name);
+    }
+
+    /**
+     * Returns the value of the first cookie with the given name, or null if there is none. Only the {@code Cookie}
+     * header is scanned, unlike {@link HttpServerExchange#getRequestCookies()} which parses every cookie into a map.
+     */
+    @Nullable
+    public static String cookie(HttpServerExchange exchange, String name) {
+        HeaderValues headers = exchange.getRequestHeaders().get(Headers.COOKIE);
+        if (headers == null) {
+            return null;
+        }
+        for (int i = 0; i < headers.size(); i++) {
+            String value = cookie(headers.get(i), name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private static String cookie(String header, String name) {
+        int length = header.length();
+        int start = 0;
+        while (start < length) {
+            int end = header.indexOf(';', start);
+            if (end < 0) {
+                end = length;
+            }
+            int nameStart = skipWhitespace(header, start, end);
+            if (header.startsWith(name, nameStart)) {
+                int separator = skipWhitespace(header, nameStart + name.length(), end);
+                if (separator < end && header.charAt(separator) == '=') {
+                    int valueStart = skipWhitespace(header, separator + 1, end);
+                    return unquote(header, valueStart, trimEnd(header, valueStart, end));
+                }
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    private static String unquote(String header, int start, int end) {
+        if (end - start >= 2 && header.charAt(start) == '"' && header.charAt(end - 1) == '"') {
+            return header.substring(start + 1, end - 1);
+        }
+        return header.substring(start, end);
+    }
+
+    private static int skipWhitespace(String value, int start, int end) {
+        int index = start;
+        while (index < end && Character.isWhitespace(value.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    private static int trimEnd(String value, int start, int end) {
+        int index = end;
+        while (index > start && Character.isWhitespace(value.charAt(index - 1))) {
+            index--;
+        }
+        return index;
+    }
+
+    @Nullable
+    private static String single(@Nullable Deque<String> values, String name) {
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        if (values.size() != 1) {
+            // Values are not included, they may contain credentials
+            throw new SafeIllegalArgumentException("Expected a single value",
+                    SafeArg.of("parameter", name), SafeArg.of("count", values.size()));
+        }
+        return values.peekFirst();
+    }
+
+    private static String required(@Nullable String value, String name) {
+        if (value == null) {
+            throw new SafeIllegalArgumentException("Missing required parameter", SafeArg.of("parameter", name));
+        }
+        return value;
+    }
+}
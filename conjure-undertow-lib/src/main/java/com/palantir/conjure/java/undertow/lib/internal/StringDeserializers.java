@@ -31,6 +31,7 @@ import java.util.OptionalDouble;
 import java.util.OptionalInt;
 import java.util.Set;
 import java.util.UUID;
+import javax.annotation.Nullable;
 
 // TODO(nmiyake): figure out exception handling. Currently, throws empty IllegalArgumentException on any failure.
 // Should method signatures be changed to include name of parameter or should exception handling be done in generated
@@ -51,7 +52,10 @@ public final class StringDeserializers {
         return deserializeBearerToken(Iterables.getOnlyElement(in));
     }
 
-    public static Optional<BearerToken> deserializeOptionalBearerToken(String in) {
+    public static Optional<BearerToken> deserializeOptionalBearerToken(@Nullable String in) {
+        if (in == null) {
+            return Optional.empty();
+        }
         return Optional.of(deserializeBearerToken(in));
     }
 
@@ -96,7 +100,10 @@ public final class StringDeserializers {
         return deserializeBoolean(Iterables.getOnlyElement(in));
     }
 
-    public static Optional<Boolean> deserializeOptionalBoolean(String in) {
+    public static Optional<Boolean> deserializeOptionalBoolean(@Nullable String in) {
+        if (in == null) {
+            return Optional.empty();
+        }
         return Optional.of(deserializeBoolean(in));
     }
 
@@ -141,7 +148,10 @@ public final class StringDeserializers {
         return deserializeDateTime(Iterables.getOnlyElement(in));
     }
 
-    public static Optional<OffsetDateTime> deserializeOptionalDateTime(String in) {
+    public static Optional<OffsetDateTime> deserializeOptionalDateTime(@Nullable String in) {
+        if (in == null) {
+            return Optional.empty();
+        }
         return Optional.of(deserializeDateTime(in));
     }
 
@@ -186,7 +196,10 @@ public final class StringDeserializers {
         return deserializeDouble(Iterables.getOnlyElement(in));
     }
 
-    public static OptionalDouble deserializeOptionalDouble(String in) {
+    public static OptionalDouble deserializeOptionalDouble(@Nullable String in) {
+        if (in == null) {
+            return OptionalDouble.empty();
+        }
         return OptionalDouble.of(deserializeDouble(in));
     }
 
@@ -231,7 +244,10 @@ public final class StringDeserializers {
         return deserializeInteger(Iterables.getOnlyElement(in));
     }
 
-    public static OptionalInt deserializeOptionalInteger(String in) {
+    public static OptionalInt deserializeOptionalInteger(@Nullable String in) {
+        if (in == null) {
+            return OptionalInt.empty();
+        }
         return OptionalInt.of(deserializeInteger(in));
     }
 
@@ -276,7 +292,10 @@ public final class StringDeserializers {
         return deserializeRid(Iterables.getOnlyElement(in));
     }
 
-    public static Optional<ResourceIdentifier> deserializeOptionalRid(String in) {
+    public static Optional<ResourceIdentifier> deserializeOptionalRid(@Nullable String in) {
+        if (in == null) {
+            return Optional.empty();
+        }
         return Optional.of(deserializeRid(in));
     }
 
@@ -321,7 +340,10 @@ public final class StringDeserializers {
         return deserializeSafeLong(Iterables.getOnlyElement(in));
     }
 
-    public static Optional<SafeLong> deserializeOptionalSafeLong(String in) {
+    public static Optional<SafeLong> deserializeOptionalSafeLong(@Nullable String in) {
+        if (in == null) {
+            return Optional.empty();
+        }
         return Optional.of(deserializeSafeLong(in));
     }
 
@@ -362,7 +384,10 @@ public final class StringDeserializers {
         return deserializeString(Iterables.getOnlyElement(in));
     }
 
-    public static Optional<String> deserializeOptionalString(String in) {
+    public static Optional<String> deserializeOptionalString(@Nullable String in) {
+        if (in == null) {
+            return Optional.empty();
+        }
         return Optional.of(deserializeString(in));
     }
 
@@ -393,7 +418,10 @@ public final class StringDeserializers {
         return deserializeUuid(Iterables.getOnlyElement(in));
     }
 
-    public static Optional<UUID> deserializeOptionalUuid(String in) {
+    public static Optional<UUID> deserializeOptionalUuid(@Nullable String in) {
+        if (in == null) {
+            return Optional.empty();
+        }
         return Optional.of(deserializeUuid(in));
     }
 